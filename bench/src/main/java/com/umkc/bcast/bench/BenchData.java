@@ -0,0 +1,147 @@
+package com.umkc.bcast.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.umkc.bcast.BroadcastBuilder;
+import com.umkc.bcast.data.DataBlock;
+import com.umkc.bcast.data.mock.MockDataBlockFactory;
+import com.umkc.bcast.util.ClusteredBroadcastBuilder;
+import com.umkc.bcast.util.FlatBroadcastBuilder;
+import com.umkc.bcast.util.SkewedClusteredBroadcastBuilder;
+
+/**
+ * Helper class to set up the same data sets and builders for every benchmark.  Every builder uses an
+ * exponential factor of 2, a bucket size of 10 and a key dictionary.
+ *
+ * <p>Flat bcasts hold all the data in one cluster.  Clustered and skewed bcasts split the data evenly
+ * across four clusters, and the skewed bcast repeats the first cluster once.
+ *
+ * @author ac010168
+ *
+ */
+public class BenchData {
+
+  /** The builder types the benchmarks can be run with */
+  public static final String FLAT      = "FLAT";
+  public static final String CLUSTERED = "CLUSTERED";
+  public static final String SKEWED    = "SKEWED";
+
+  /** The number of clusters the data is split across for clustered bcasts */
+  public static final int CLUSTER_COUNT = 4;
+
+  /** The exponential factor every builder uses */
+  public static final int EXPONENTIAL_FACTOR = 2;
+  /** The bucket size every builder uses */
+  public static final int BUCKET_SIZE        = 10;
+
+  /**
+   * Generate the data blocks for a bcast, one list per cluster.
+   *
+   * @param builderType The builder type the data is for
+   * @param dataSize    The total number of data blocks.  This must split evenly into buckets in every cluster.
+   *
+   * @return The sorted data blocks for each cluster
+   */
+  public static List<List<DataBlock>> generateClusters(String builderType, int dataSize) {
+    List<List<DataBlock>> clusterBlocks = new ArrayList<List<DataBlock>>();
+    if (FLAT.equals(builderType)) {
+      clusterBlocks.add(MockDataBlockFactory.generateSortedBlocks("FLAT", dataSize));
+      return clusterBlocks;
+    }
+
+    for (String clusterGroup : getClusterNames())
+      clusterBlocks.add(MockDataBlockFactory.generateSortedBlocks(clusterGroup, dataSize / CLUSTER_COUNT));
+    return clusterBlocks;
+  }
+
+  /**
+   * @param builderType The builder type
+   *
+   * @return the cluster order for that builder type, or null for a flat bcast
+   */
+  public static List<String> getClusterOrder(String builderType) {
+    if (FLAT.equals(builderType))
+      return null;
+
+    List<String> clusterOrder = new ArrayList<String>(getClusterNames());
+    if (SKEWED.equals(builderType))
+      clusterOrder.add(2, clusterOrder.get(0));
+    return clusterOrder;
+  }
+
+  /**
+   * @param builderType The builder type
+   *
+   * @return a new, empty builder of that type
+   */
+  public static BroadcastBuilder createBuilder(String builderType) {
+    BroadcastBuilder builder;
+    if (FLAT.equals(builderType))
+      builder = new FlatBroadcastBuilder(EXPONENTIAL_FACTOR, BUCKET_SIZE, false);
+    else if (CLUSTERED.equals(builderType))
+      builder = new ClusteredBroadcastBuilder(EXPONENTIAL_FACTOR, BUCKET_SIZE, false);
+    else if (SKEWED.equals(builderType))
+      builder = new SkewedClusteredBroadcastBuilder(EXPONENTIAL_FACTOR, BUCKET_SIZE, false);
+    else throw new RuntimeException("Unknown builder type: " + builderType);
+
+    builder.setUseKeyDictionary(true);
+    return builder;
+  }
+
+  /**
+   * Create a builder with copies of the data assigned, and the cluster order set if there is one.
+   *
+   * @param builderType   The builder type
+   * @param clusterBlocks The data blocks for each cluster.  These are copied, never changed.
+   *
+   * @return The builder, ready for constructGlobalIndices()
+   */
+  public static BroadcastBuilder createAssignedBuilder(String builderType, List<List<DataBlock>> clusterBlocks) {
+    BroadcastBuilder builder = createBuilder(builderType);
+    for (List<DataBlock> dataBlocks : clusterBlocks)
+      builder.assignDataBlocks(cloneBlocks(dataBlocks));
+    List<String> clusterOrder = getClusterOrder(builderType);
+    if (clusterOrder != null)
+      builder.addClusterKeys(clusterOrder);
+    return builder;
+  }
+
+  /**
+   * Create a builder with copies of the data assigned and the global indices constructed.
+   *
+   * @param builderType   The builder type
+   * @param clusterBlocks The data blocks for each cluster.  These are copied, never changed.
+   *
+   * @return The builder, ready for assembleBcast() or assembleBroadcast()
+   */
+  public static BroadcastBuilder createIndexedBuilder(String builderType, List<List<DataBlock>> clusterBlocks) {
+    BroadcastBuilder builder = createAssignedBuilder(builderType, clusterBlocks);
+    builder.constructGlobalIndices();
+    return builder;
+  }
+
+  /**
+   * Copy a list of data blocks, since the builders write block ids and offsets onto the blocks they get.
+   *
+   * @param dataBlocks The data blocks to copy
+   *
+   * @return A new list of copies of the blocks
+   */
+  public static List<DataBlock> cloneBlocks(List<DataBlock> dataBlocks) {
+    List<DataBlock> clonedBlocks = new ArrayList<DataBlock>(dataBlocks.size());
+    for (DataBlock dataBlock : dataBlocks)
+      clonedBlocks.add((DataBlock)dataBlock.clone());
+    return clonedBlocks;
+  }
+
+  /**
+   * Helper method for the names of the clusters used by clustered bcasts.
+   */
+  private static List<String> getClusterNames() {
+    List<String> clusterNames = new ArrayList<String>(CLUSTER_COUNT);
+    for (int clusterPos = 0; clusterPos < CLUSTER_COUNT; clusterPos++)
+      clusterNames.add("CLUSTER" + clusterPos);
+    return clusterNames;
+  }
+}
@@ -0,0 +1,122 @@
+package com.umkc.bcast.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.umkc.bcast.BroadcastBuilder;
+import com.umkc.bcast.data.Block;
+import com.umkc.bcast.data.DataBlock;
+
+/**
+ * Benchmarks for each step of building a bcast, for every builder type across a range of data sizes.
+ *
+ * <p>assignDataBlocks() and constructGlobalIndices() change the builder, so each invocation gets a
+ * fresh builder (and fresh copies of the data) from a per invocation setup, which is not timed.  Both
+ * steps take well over a millisecond at the larger sizes, so the setup doesn't skew the results.
+ * assembleBcast() only reads the builder, so it reuses one builder for the whole trial.
+ *
+ * @author ac010168
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BuilderBenchmark {
+
+  /**
+   * The data set shared by every invocation in a trial.
+   */
+  @State(Scope.Benchmark)
+  public static class DataState {
+    @Param({BenchData.FLAT, BenchData.CLUSTERED, BenchData.SKEWED})
+    public String builderType;
+
+    @Param({"1000", "10000", "100000"})
+    public int dataSize;
+
+    /** The data blocks for each cluster */
+    List<List<DataBlock>> clusterBlocks;
+
+    @Setup(Level.Trial)
+    public void setup() {
+      clusterBlocks = BenchData.generateClusters(builderType, dataSize);
+    }
+  }
+
+  /**
+   * An empty builder, with fresh copies of the data to assign.
+   */
+  @State(Scope.Thread)
+  public static class EmptyBuilderState {
+    BroadcastBuilder builder;
+    List<List<DataBlock>> clusterBlocks;
+
+    @Setup(Level.Invocation)
+    public void setup(DataState dataState) {
+      builder       = BenchData.createBuilder(dataState.builderType);
+      clusterBlocks = new ArrayList<List<DataBlock>>();
+      for (List<DataBlock> dataBlocks : dataState.clusterBlocks)
+        clusterBlocks.add(BenchData.cloneBlocks(dataBlocks));
+    }
+  }
+
+  /**
+   * A builder with the data assigned, ready to have its global indices constructed.
+   */
+  @State(Scope.Thread)
+  public static class AssignedBuilderState {
+    BroadcastBuilder builder;
+
+    @Setup(Level.Invocation)
+    public void setup(DataState dataState) {
+      builder = BenchData.createAssignedBuilder(dataState.builderType, dataState.clusterBlocks);
+    }
+  }
+
+  /**
+   * A builder with its global indices constructed, ready to be assembled.
+   */
+  @State(Scope.Thread)
+  public static class IndexedBuilderState {
+    BroadcastBuilder builder;
+
+    @Setup(Level.Trial)
+    public void setup(DataState dataState) {
+      builder = BenchData.createIndexedBuilder(dataState.builderType, dataState.clusterBlocks);
+    }
+  }
+
+  @Benchmark
+  public BroadcastBuilder assignDataBlocks(EmptyBuilderState state) {
+    for (List<DataBlock> dataBlocks : state.clusterBlocks)
+      state.builder.assignDataBlocks(dataBlocks);
+    return state.builder;
+  }
+
+  @Benchmark
+  public BroadcastBuilder constructGlobalIndices(AssignedBuilderState state) {
+    state.builder.constructGlobalIndices();
+    return state.builder;
+  }
+
+  @Benchmark
+  public List<Block> assembleBcast(IndexedBuilderState state) {
+    return state.builder.assembleBcast();
+  }
+}
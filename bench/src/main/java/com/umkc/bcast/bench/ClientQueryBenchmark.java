@@ -0,0 +1,99 @@
+package com.umkc.bcast.bench;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.umkc.bcast.BroadcastBuilder;
+import com.umkc.bcast.BroadcastClient;
+import com.umkc.bcast.QueryResult;
+import com.umkc.bcast.data.Broadcast;
+import com.umkc.bcast.data.ClusterDictionary;
+import com.umkc.bcast.data.DataBlock;
+import com.umkc.bcast.data.KeyDictionary;
+
+/**
+ * Benchmarks a full client query, from tuning in to reading the data block, for every builder type across
+ * a range of data sizes.  Each invocation uses the next of SAMPLE_COUNT random (tune in position, search
+ * key) pairs, and reuses the same QueryResult, the way the simulators do.
+ *
+ * @author ac010168
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClientQueryBenchmark {
+
+  /**
+   * A packed bcast, a client for it, and the queries to run.
+   */
+  @State(Scope.Thread)
+  public static class QueryState {
+    @Param({BenchData.FLAT, BenchData.CLUSTERED, BenchData.SKEWED})
+    public String builderType;
+
+    @Param({"1000", "10000", "100000"})
+    public int dataSize;
+
+    BroadcastClient client;
+    QueryResult result;
+    boolean clustered;
+
+    int[] startPositions = new int[IndexLookupBenchmark.SAMPLE_COUNT];
+    int[] clusterIds     = new int[IndexLookupBenchmark.SAMPLE_COUNT];
+    int[] searchOrdinals = new int[IndexLookupBenchmark.SAMPLE_COUNT];
+    int samplePos;
+
+    @Setup
+    public void setup() {
+      BroadcastBuilder builder = BenchData.createIndexedBuilder(builderType, BenchData.generateClusters(builderType, dataSize));
+      List<DataBlock> dataBlocks = IndexLookupBenchmark.collectData(builder.assembleBcast());
+      Broadcast broadcast        = builder.assembleBroadcast();
+      client    = new BroadcastClient(broadcast);
+      result    = new QueryResult();
+      clustered = !BenchData.FLAT.equals(builderType);
+
+      KeyDictionary keyDictionary         = broadcast.getKeyDictionary();
+      ClusterDictionary clusterDictionary = broadcast.getClusterDictionary();
+      Random random = new Random(IndexLookupBenchmark.SAMPLE_SEED);
+      for (int sampleCtr = 0; sampleCtr < IndexLookupBenchmark.SAMPLE_COUNT; sampleCtr++) {
+        DataBlock searchBlock       = dataBlocks.get(random.nextInt(dataBlocks.size()));
+        startPositions[sampleCtr]   = random.nextInt(broadcast.getBlockCount());
+        clusterIds[sampleCtr]       = clustered ? clusterDictionary.getClusterId(searchBlock.getClusterGroup()) : -1;
+        searchOrdinals[sampleCtr]   = keyDictionary.getOrdinal(searchBlock.getDataKey());
+        if (!search(sampleCtr))
+          throw new RuntimeException("Benchmark query " + sampleCtr + " for " + searchBlock.getDataKey() + " was not found.");
+      }
+    }
+
+    /**
+     * Helper method to run one of the queries.
+     */
+    boolean search(int samplePos) {
+      if (clustered)
+        return client.search(startPositions[samplePos], clusterIds[samplePos], searchOrdinals[samplePos], result);
+      return client.search(startPositions[samplePos], searchOrdinals[samplePos], result);
+    }
+  }
+
+  @Benchmark
+  public int search(QueryState state) {
+    state.search(state.samplePos++ & (IndexLookupBenchmark.SAMPLE_COUNT - 1));
+    return state.result.getAccessTime();
+  }
+}
@@ -0,0 +1,231 @@
+package com.umkc.bcast.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.umkc.bcast.BroadcastBuilder;
+import com.umkc.bcast.data.Block;
+import com.umkc.bcast.data.ClusterDictionary;
+import com.umkc.bcast.data.DataBlock;
+import com.umkc.bcast.data.IndexBlock;
+import com.umkc.bcast.data.KeyDictionary;
+import com.umkc.bcast.data.impl.GlobalClusterIndexBlock;
+import com.umkc.bcast.data.impl.GlobalFlatIndexBlock;
+import com.umkc.bcast.data.impl.LocalIndexBlock;
+
+/**
+ * Benchmarks for a single getNextReadOffset() call on each kind of index block, by key and by ordinal.
+ *
+ * <p>Each state picks SAMPLE_COUNT random (index block, search key) pairs from a built bcast up front, and
+ * each invocation does the next lookup in the list, so the results cover a mix of blocks and keys rather
+ * than one lucky pair.  Only pairs that the index can answer are kept, so no invocation throws.
+ *
+ * @author ac010168
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IndexLookupBenchmark {
+
+  /** The number of lookups to cycle through.  This must be a power of two. */
+  static final int SAMPLE_COUNT = 1024;
+
+  /** Fixed seed, so every run looks up the same pairs */
+  static final long SAMPLE_SEED = 20161017L;
+
+  /**
+   * Lookups against the global indices of a flat bcast.
+   */
+  @State(Scope.Thread)
+  public static class FlatIndexState {
+    @Param({"1000", "10000", "100000"})
+    public int dataSize;
+
+    IndexBlock[] indexBlocks = new IndexBlock[SAMPLE_COUNT];
+    String[] searchKeys      = new String[SAMPLE_COUNT];
+    int[] searchOrdinals     = new int[SAMPLE_COUNT];
+    int samplePos;
+
+    @Setup
+    public void setup() {
+      BroadcastBuilder builder = BenchData.createIndexedBuilder(BenchData.FLAT, BenchData.generateClusters(BenchData.FLAT, dataSize));
+      List<Block> bcast = builder.assembleBcast();
+      List<IndexBlock> globalIndices = collectIndices(bcast, GlobalFlatIndexBlock.class);
+      List<DataBlock> dataBlocks     = collectData(bcast);
+      KeyDictionary keyDictionary    = builder.getKeyDictionary();
+
+      Random random = new Random(SAMPLE_SEED);
+      int sampleCtr = 0;
+      while (sampleCtr < SAMPLE_COUNT) {
+        IndexBlock indexBlock = globalIndices.get(random.nextInt(globalIndices.size()));
+        String searchKey      = dataBlocks.get(random.nextInt(dataBlocks.size())).getDataKey();
+        try {
+          indexBlock.getNextReadOffset(searchKey);
+        } catch (RuntimeException e) {
+          continue;
+        }
+        indexBlocks[sampleCtr]    = indexBlock;
+        searchKeys[sampleCtr]     = searchKey;
+        searchOrdinals[sampleCtr] = keyDictionary.getOrdinal(searchKey);
+        sampleCtr++;
+      }
+    }
+  }
+
+  /**
+   * Lookups against the global indices of a clustered bcast, by cluster name and key, or by cluster id
+   * and ordinal.
+   */
+  @State(Scope.Thread)
+  public static class ClusterIndexState {
+    @Param({"1000", "10000", "100000"})
+    public int dataSize;
+
+    IndexBlock[] indexBlocks = new IndexBlock[SAMPLE_COUNT];
+    String[] searchClusters  = new String[SAMPLE_COUNT];
+    String[] searchKeys      = new String[SAMPLE_COUNT];
+    int[] searchClusterIds   = new int[SAMPLE_COUNT];
+    int[] searchOrdinals     = new int[SAMPLE_COUNT];
+    int samplePos;
+
+    @Setup
+    public void setup() {
+      BroadcastBuilder builder = BenchData.createIndexedBuilder(BenchData.CLUSTERED, BenchData.generateClusters(BenchData.CLUSTERED, dataSize));
+      List<Block> bcast = builder.assembleBcast();
+      List<IndexBlock> globalIndices      = collectIndices(bcast, GlobalClusterIndexBlock.class);
+      List<DataBlock> dataBlocks          = collectData(bcast);
+      KeyDictionary keyDictionary         = builder.getKeyDictionary();
+      ClusterDictionary clusterDictionary = builder.getClusterDictionary();
+
+      Random random = new Random(SAMPLE_SEED);
+      int sampleCtr = 0;
+      while (sampleCtr < SAMPLE_COUNT) {
+        IndexBlock indexBlock = globalIndices.get(random.nextInt(globalIndices.size()));
+        DataBlock searchBlock = dataBlocks.get(random.nextInt(dataBlocks.size()));
+        int searchClusterId   = clusterDictionary.getClusterId(searchBlock.getClusterGroup());
+        int searchOrdinal     = keyDictionary.getOrdinal(searchBlock.getDataKey());
+        try {
+          indexBlock.getNextReadOffset(searchBlock.getClusterGroup(), searchBlock.getDataKey());
+          indexBlock.getNextReadOffset(searchClusterId, searchOrdinal);
+        } catch (RuntimeException e) {
+          continue;
+        }
+        indexBlocks[sampleCtr]      = indexBlock;
+        searchClusters[sampleCtr]   = searchBlock.getClusterGroup();
+        searchKeys[sampleCtr]       = searchBlock.getDataKey();
+        searchClusterIds[sampleCtr] = searchClusterId;
+        searchOrdinals[sampleCtr]   = searchOrdinal;
+        sampleCtr++;
+      }
+    }
+  }
+
+  /**
+   * Lookups against the local indices of a flat bcast, each for a key in its own bucket.
+   */
+  @State(Scope.Thread)
+  public static class LocalIndexState {
+    @Param({"1000", "10000", "100000"})
+    public int dataSize;
+
+    IndexBlock[] indexBlocks = new IndexBlock[SAMPLE_COUNT];
+    String[] searchKeys      = new String[SAMPLE_COUNT];
+    int[] searchOrdinals     = new int[SAMPLE_COUNT];
+    int samplePos;
+
+    @Setup
+    public void setup() {
+      BroadcastBuilder builder = BenchData.createIndexedBuilder(BenchData.FLAT, BenchData.generateClusters(BenchData.FLAT, dataSize));
+      List<IndexBlock> localIndices = collectIndices(builder.assembleBcast(), LocalIndexBlock.class);
+      KeyDictionary keyDictionary   = builder.getKeyDictionary();
+
+      Random random = new Random(SAMPLE_SEED);
+      for (int sampleCtr = 0; sampleCtr < SAMPLE_COUNT; sampleCtr++) {
+        LocalIndexBlock indexBlock = (LocalIndexBlock)localIndices.get(random.nextInt(localIndices.size()));
+        String searchKey           = indexBlock.getLocalIndex().get(random.nextInt(indexBlock.getLocalIndex().size())).getBlockKeyValue();
+        indexBlocks[sampleCtr]    = indexBlock;
+        searchKeys[sampleCtr]     = searchKey;
+        searchOrdinals[sampleCtr] = keyDictionary.getOrdinal(searchKey);
+      }
+    }
+  }
+
+  @Benchmark
+  public int flatIndexByKey(FlatIndexState state) {
+    int samplePos = state.samplePos++ & (SAMPLE_COUNT - 1);
+    return state.indexBlocks[samplePos].getNextReadOffset(state.searchKeys[samplePos]);
+  }
+
+  @Benchmark
+  public int flatIndexByOrdinal(FlatIndexState state) {
+    int samplePos = state.samplePos++ & (SAMPLE_COUNT - 1);
+    return state.indexBlocks[samplePos].getNextReadOffset(state.searchOrdinals[samplePos]);
+  }
+
+  @Benchmark
+  public int clusterIndexByKey(ClusterIndexState state) {
+    int samplePos = state.samplePos++ & (SAMPLE_COUNT - 1);
+    return state.indexBlocks[samplePos].getNextReadOffset(state.searchClusters[samplePos], state.searchKeys[samplePos]);
+  }
+
+  @Benchmark
+  public int clusterIndexByOrdinal(ClusterIndexState state) {
+    int samplePos = state.samplePos++ & (SAMPLE_COUNT - 1);
+    return state.indexBlocks[samplePos].getNextReadOffset(state.searchClusterIds[samplePos], state.searchOrdinals[samplePos]);
+  }
+
+  @Benchmark
+  public int localIndexByKey(LocalIndexState state) {
+    int samplePos = state.samplePos++ & (SAMPLE_COUNT - 1);
+    return state.indexBlocks[samplePos].getNextReadOffset(state.searchKeys[samplePos]);
+  }
+
+  @Benchmark
+  public int localIndexByOrdinal(LocalIndexState state) {
+    int samplePos = state.samplePos++ & (SAMPLE_COUNT - 1);
+    return state.indexBlocks[samplePos].getNextReadOffset(state.searchOrdinals[samplePos]);
+  }
+
+  /**
+   * Helper method to pull every index block of one type out of an assembled bcast.
+   */
+  static List<IndexBlock> collectIndices(List<Block> bcast, Class<? extends IndexBlock> indexType) {
+    List<IndexBlock> indexBlocks = new ArrayList<IndexBlock>();
+    for (Block block : bcast) {
+      if (indexType.isInstance(block))
+        indexBlocks.add((IndexBlock)block);
+    }
+    if (indexBlocks.isEmpty())
+      throw new RuntimeException("The bcast does not contain any " + indexType.getSimpleName() + " blocks.");
+    return indexBlocks;
+  }
+
+  /**
+   * Helper method to pull every data block out of an assembled bcast.
+   */
+  static List<DataBlock> collectData(List<Block> bcast) {
+    List<DataBlock> dataBlocks = new ArrayList<DataBlock>();
+    for (Block block : bcast) {
+      if (block instanceof DataBlock)
+        dataBlocks.add((DataBlock)block);
+    }
+    return dataBlocks;
+  }
+}
@@ -1,9 +1,16 @@
 package com.umkc.bcast;
 
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 import com.umkc.bcast.data.Block;
+import com.umkc.bcast.data.Broadcast;
+import com.umkc.bcast.data.Bucket;
+import com.umkc.bcast.data.BucketListView;
+import com.umkc.bcast.data.ClusterDictionary;
 import com.umkc.bcast.data.DataBlock;
+import com.umkc.bcast.data.KeyDictionary;
 
 /**
  * @author ac010168
@@ -17,6 +24,21 @@ public abstract class BroadcastBuilder {
   protected int bucketSize;
   /** Flag that indicates whether to use the uniqueIdentifier value or the dataKey value from the underlying data blocks. */
   protected boolean useUniqueIdentifier;
+  /** 
+   * Optional dictionary used to encode search keys as ordinals.  This is null unless it has been
+   * requested using setUseKeyDictionary().
+   */
+  protected KeyDictionary keyDictionary;
+  /** Dictionary of cluster ids for clustered approaches.  This is set up by addClusterKeys(). */
+  protected ClusterDictionary clusterDictionary;
+  
+  /** 
+   * Optional pool used to construct the global indices in parallel.  This is null unless it has been
+   * requested using setIndexPool();  while it is null, the indices are built on the calling thread.
+   */
+  protected ForkJoinPool indexPool;
+  /** The time taken by the last call to constructGlobalIndices(), in nanoseconds */
+  protected long indexBuildNanos;
   
   /** Used to help construct meaningful Data Block identifiers */
   protected int dataBlockIndex;
@@ -41,6 +63,69 @@ public abstract class BroadcastBuilder {
     bucketIndex    = 0;
   }
   
+  /**
+   * Opt in (or out) of encoding the index keys as KeyDictionary ordinals.  When enabled, the keys are
+   * collected as data blocks are assigned, and the dictionary is frozen and every index block is encoded
+   * when the global indices are constructed.  Clients can then translate their search key once using 
+   * getKeyDictionary() and use the ordinal versions of getNextReadOffset().
+   * 
+   * <p>This must be set before any data blocks are assigned.
+   * 
+   * @param useKeyDictionary True to build a key dictionary for this bcast.
+   */
+  public void setUseKeyDictionary(boolean useKeyDictionary) {
+    if (dataBlockIndex > 0)
+      throw new RuntimeException("The key dictionary must be requested before any data blocks are assigned.");
+    keyDictionary = useKeyDictionary ? new KeyDictionary() : null;
+  }
+  
+  /**
+   * @return the keyDictionary, or null if one was not requested
+   */
+  public KeyDictionary getKeyDictionary() {
+    return keyDictionary;
+  }
+  
+  /**
+   * @return true if the uniqueIdentifier of each data block is its search key, or false if the dataKey is
+   */
+  public boolean isUseUniqueIdentifier() {
+    return useUniqueIdentifier;
+  }
+  
+  /**
+   * @return the clusterDictionary, or null if this is not a clustered bcast
+   */
+  public ClusterDictionary getClusterDictionary() {
+    return clusterDictionary;
+  }
+  
+  /**
+   * Opt in (or out) of constructing the global indices in parallel.  Each bucket's global index only
+   * reads the finished bucket list, so disjoint ranges of buckets can be indexed at the same time.  The
+   * bcast produced is identical to the one built sequentially.
+   * 
+   * @param indexPool The pool to construct the global indices on, or null to construct them sequentially.
+   */
+  public void setIndexPool(ForkJoinPool indexPool) {
+    this.indexPool = indexPool;
+  }
+  
+  /**
+   * @return the indexPool, or null if the global indices are constructed sequentially
+   */
+  public ForkJoinPool getIndexPool() {
+    return indexPool;
+  }
+  
+  /**
+   * @return the time taken by the last call to constructGlobalIndices(), in nanoseconds.  Comparing this
+   * with and without an index pool gives the speedup from the parallel build.
+   */
+  public long getIndexBuildNanos() {
+    return indexBuildNanos;
+  }
+  
   /**
    * Helper method to assign a list of data blocks to the broadcast.  This method makes several
    * assumptions, some of which may be untested by implementing classes, but are important for
@@ -91,5 +176,64 @@ public abstract class BroadcastBuilder {
    * @return The completed bcast as a single List.
    */
   public abstract List<Block> assembleBcast();
+  
+  /**
+   * This method does the same job as assembleBcast(), but packs the finalized buckets into the compact,
+   * columnar Broadcast form instead of a List of blocks.  This should be preferred for large bcasts.
+   * 
+   * @return The completed bcast as a single Broadcast.
+   */
+  public abstract Broadcast assembleBroadcast();
+  
+  /**
+   * This method does the same job as assembleBcast(), but hands the blocks back one at a time, in bcast
+   * order, straight from the finalized buckets.  The full bcast list is never built, so transmission can
+   * start as soon as constructGlobalIndices() has finished, and only the one copy of the data is held.
+   * Blocks are renamed as they are handed out, the same way assembleBcast() would rename them.
+   * 
+   * @return An Iterator over the completed bcast.
+   */
+  public abstract Iterator<Block> streamBcast();
+  
+  /**
+   * This method gives random access to the completed bcast without building the full list.  The returned
+   * List is a read only view laid over the finalized buckets, and finds each block by position arithmetic
+   * alone.  Blocks are not renamed, so call assembleBcast() instead if the names need to match.
+   * 
+   * @return A read only List view of the completed bcast.
+   */
+  public List<Block> viewBcast() {
+    return new BucketListView(getBcastBuckets(), bucketSize);
+  }
+  
+  /**
+   * @return All the finalized buckets in the bcast, in the order they should be broadcast.
+   */
+  protected abstract List<Bucket> getBcastBuckets();
+  
+  /**
+   * Helper method to pack the finalized buckets into a Broadcast.  If a key dictionary was not requested
+   * for this bcast, a private one is built here, since the Broadcast stores every key as an ordinal.
+   * 
+   * @param bcastBuckets All the buckets in the bcast, in the order they should be broadcast
+   * 
+   * @return The completed Broadcast
+   */
+  protected Broadcast packBroadcast(List<Bucket> bcastBuckets) {
+    KeyDictionary bcastDictionary = keyDictionary;
+    if (bcastDictionary == null) {
+      bcastDictionary = new KeyDictionary();
+      for (Bucket curBucket : bcastBuckets)
+        curBucket.registerKeys(bcastDictionary);
+      bcastDictionary.freeze();
+    }
+    
+    Broadcast broadcast = new Broadcast(bcastBuckets.size() * (bucketSize + 2), bucketSize, bcastDictionary, clusterDictionary);
+    for (Bucket curBucket : bcastBuckets)
+      broadcast.addBucket(curBucket);
+    broadcast.trimToSize();
+    
+    return broadcast;
+  }
 
 }
@@ -0,0 +1,206 @@
+package com.umkc.bcast;
+
+import com.umkc.bcast.data.BlockType;
+import com.umkc.bcast.data.Broadcast;
+import com.umkc.bcast.data.ClusterDictionary;
+import com.umkc.bcast.data.KeyDictionary;
+
+/**
+ * A client that searches a built bcast the way a receiver would:  tune in at some position, doze until
+ * the next global index, follow the index rows to the local index of the right bucket, and then doze
+ * until the data block itself comes around.
+ *
+ * <p>The searches work directly on the columnar Broadcast form, and take their keys as KeyDictionary
+ * ordinals (and ClusterDictionary ids), so the search itself does not allocate anything or print
+ * anything.  The results are written into a QueryResult supplied by the caller, which can be reused for
+ * every search.  The String versions of the searches are just a convenience;  they translate the key
+ * first, which is where the (small) cost is.
+ *
+ * <p>A search that can't be completed (an unknown key or cluster, or a malformed index) is reported as
+ * not found rather than thrown.  A client holds no state of its own besides the bcast, so it can be
+ * shared between threads as long as each thread uses its own QueryResult.
+ *
+ * @author ac010168
+ *
+ */
+public class BroadcastClient {
+
+  /** The bcast being searched */
+  private final Broadcast broadcast;
+  /** The number of blocks in the bcast */
+  private final int blockCount;
+  /** The most reads a search can take before we decide it is going in circles */
+  private final int maxReads;
+  /** The number of clusters in the bcast, or 0 for flat bcasts */
+  private final int clusterCount;
+
+  /**
+   * Basic Constructor.
+   *
+   * @param broadcast The bcast to be searched
+   */
+  public BroadcastClient(Broadcast broadcast) {
+    if (broadcast.getBlockCount() == 0)
+      throw new RuntimeException("Cannot search an empty bcast.");
+
+    this.broadcast    = broadcast;
+    this.blockCount   = broadcast.getBlockCount();
+    this.maxReads     = (blockCount / (broadcast.getBucketSize() + 2)) + 2;
+    this.clusterCount = (broadcast.getClusterDictionary() == null) ? 0 : broadcast.getClusterDictionary().getClusterCount();
+  }
+
+  /**
+   * Search a flat bcast for a key.
+   *
+   * @param startPos      The position in the bcast where the client tunes in
+   * @param searchOrdinal The KeyDictionary ordinal of the key to search for
+   * @param result        The result to be filled in
+   *
+   * @return true if the key was found
+   */
+  public boolean search(int startPos, int searchOrdinal, QueryResult result) {
+    return executeSearch(startPos, -1, searchOrdinal, result);
+  }
+
+  /**
+   * Search a clustered bcast for a key.
+   *
+   * @param startPos      The position in the bcast where the client tunes in
+   * @param clusterId     The ClusterDictionary id of the cluster the key belongs to
+   * @param searchOrdinal The KeyDictionary ordinal of the key to search for
+   * @param result        The result to be filled in
+   *
+   * @return true if the key was found
+   */
+  public boolean search(int startPos, int clusterId, int searchOrdinal, QueryResult result) {
+    if ((clusterId < 0) || (clusterId >= clusterCount)) {
+      result.reset();
+      return false;
+    }
+    return executeSearch(startPos, clusterId, searchOrdinal, result);
+  }
+
+  /**
+   * Convenience version of search() that translates the key first.
+   *
+   * @param startPos  The position in the bcast where the client tunes in
+   * @param searchKey The key to search for
+   * @param result    The result to be filled in
+   *
+   * @return true if the key was found
+   */
+  public boolean search(int startPos, String searchKey, QueryResult result) {
+    return search(startPos, getKeyDictionary().getOrdinal(searchKey), result);
+  }
+
+  /**
+   * Convenience version of search() that translates the cluster and key first.
+   *
+   * @param startPos     The position in the bcast where the client tunes in
+   * @param clusterGroup The cluster the key belongs to
+   * @param searchKey    The key to search for
+   * @param result       The result to be filled in
+   *
+   * @return true if the key was found
+   */
+  public boolean search(int startPos, String clusterGroup, String searchKey, QueryResult result) {
+    ClusterDictionary clusterDictionary = broadcast.getClusterDictionary();
+    if (clusterDictionary == null)
+      throw new RuntimeException("Cannot run a clustered search against a flat bcast.");
+    return search(startPos, clusterDictionary.getClusterId(clusterGroup), getKeyDictionary().getOrdinal(searchKey), result);
+  }
+
+  /**
+   * @return the most index reads a search can take before it is treated as going in circles
+   */
+  public int getMaxReads() {
+    return maxReads;
+  }
+
+  /**
+   * @return the bcast being searched
+   */
+  public Broadcast getBroadcast() {
+    return broadcast;
+  }
+
+  /**
+   * Read a single index block, the same way a search does, and work out how long to doze afterwards.
+   * This lets a caller that schedules its own reads (such as a simulator running many clients at once)
+   * use the same index logic as search().  A clusterId of -1 means a flat search.
+   *
+   * @param blockPos      The position of the index block being read
+   * @param clusterId     The ClusterDictionary id of the cluster the key belongs to, or -1 for flat searches
+   * @param searchOrdinal The KeyDictionary ordinal of the key to search for
+   *
+   * @return The number of blocks to doze before the next read, or -1 if the search can't go any further.
+   *         Reading a data block always returns -1, so callers should check for data blocks first.
+   */
+  public int readIndex(int blockPos, int clusterId, int searchOrdinal) {
+    BlockType blockType = broadcast.getBlockType(blockPos);
+    if (blockType == BlockType.DATA_BLOCK)
+      return -1;
+    if ((clusterId >= clusterCount) || ((clusterId < 0) && (blockType == BlockType.GLOBAL_CLUSTER_INDEX_BLOCK)))
+      return -1;
+
+    //Malformed lookups are reported as -1, the same as a key that isn't in a local index
+    try {
+      if (blockType == BlockType.GLOBAL_CLUSTER_INDEX_BLOCK)
+        return broadcast.getNextReadOffset(blockPos, clusterId, searchOrdinal);
+      return broadcast.getNextReadOffset(blockPos, searchOrdinal);
+    } catch (RuntimeException e) {
+      return -1;
+    }
+  }
+
+  /**
+   * @param blockPos   The position of the block being read
+   * @param dozeBlocks The number of blocks to doze after reading it
+   *
+   * @return the position of the next block the client will read
+   */
+  public int getNextPos(int blockPos, int dozeBlocks) {
+    return (int)(((long)blockPos + dozeBlocks + 1) % blockCount);
+  }
+
+  /**
+   * Helper method that does the actual search.  A clusterId of -1 means a flat search.
+   */
+  private boolean executeSearch(int startPos, int clusterId, int searchOrdinal, QueryResult result) {
+    if ((startPos < 0) || (startPos >= blockCount))
+      throw new IndexOutOfBoundsException("Start position " + startPos + " is outside the bcast [0 - " + (blockCount - 1) + "]");
+
+    result.reset();
+    int dozeBlocks = broadcast.getNextIndexOffset(startPos);
+    result.tuneIn(dozeBlocks);
+    int searchPos = getNextPos(startPos, dozeBlocks);
+
+    for (int readCtr = 0; readCtr < maxReads; readCtr++) {
+      //If it's a data block at this point, that means we've found what we wanted
+      if (broadcast.getBlockType(searchPos) == BlockType.DATA_BLOCK) {
+        result.readLastBlock();
+        result.foundData(searchPos);
+        return true;
+      }
+
+      dozeBlocks = readIndex(searchPos, clusterId, searchOrdinal);
+      //The key isn't in the local index (or the index is malformed), so the search fails here
+      if (dozeBlocks < 0) {
+        result.readLastBlock();
+        return false;
+      }
+
+      result.readBlock(dozeBlocks);
+      searchPos = getNextPos(searchPos, dozeBlocks);
+    }
+
+    return false;
+  }
+
+  /**
+   * Helper method to get the key dictionary, which every Broadcast must have.
+   */
+  private KeyDictionary getKeyDictionary() {
+    return broadcast.getKeyDictionary();
+  }
+}
@@ -0,0 +1,171 @@
+package com.umkc.bcast;
+
+import java.util.Arrays;
+
+/**
+ * The outcome of a single BroadcastClient search.  A result is meant to be reused across searches, so
+ * that running a query never needs to allocate;  every search resets all of the fields before it starts.
+ *
+ * <p>Times are counted in blocks, the same way the client searches in the tests count them:
+ * <ul><li>accessTime: every block from the one the client tuned in at up to and including the data block,
+ *         including the blocks spent dozing.</li>
+ *     <li>tuningTime: the blocks the client was awake for, which is the block it tuned in at plus every
+ *         block it read.</li>
+ *     <li>blocksRead: the index and data blocks the client read after tuning in.</li></ul>
+ * The length of every doze is kept as well, so the metrics can show how the access time is split up.
+ *
+ * @author ac010168
+ *
+ */
+public class QueryResult {
+
+  /** Flag to indicate whether the data block for the key was found */
+  private boolean found;
+  /** The number of blocks from tuning in until the search finished */
+  private int accessTime;
+  /** The number of blocks the client was awake for */
+  private int tuningTime;
+  /** The number of index and data blocks read after tuning in */
+  private int blocksRead;
+  /** The position of the data block in the bcast, or -1 if it was not found */
+  private int dataPos;
+  /** The length of each doze, in the order they happened.  This is grown as needed and kept across searches. */
+  private int[] dozeLengths;
+  /** The number of dozes in this search */
+  private int dozeCount;
+
+  /**
+   * Basic Constructor.
+   */
+  public QueryResult() {
+    dozeLengths = new int[8];
+    reset();
+  }
+
+  /**
+   * Clear the result before a new search.
+   */
+  void reset() {
+    found      = false;
+    accessTime = 0;
+    tuningTime = 0;
+    blocksRead = 0;
+    dataPos    = -1;
+    dozeCount  = 0;
+  }
+
+  /**
+   * Note the block the client tuned in at, and how long it dozes until its first read.
+   */
+  void tuneIn(int dozeBlocks) {
+    accessTime = 1 + dozeBlocks;
+    tuningTime = 1;
+    addDoze(dozeBlocks);
+  }
+
+  /**
+   * Note an index block read, and how long the client dozes afterwards.
+   */
+  void readBlock(int dozeBlocks) {
+    accessTime += 1 + dozeBlocks;
+    tuningTime++;
+    blocksRead++;
+    addDoze(dozeBlocks);
+  }
+
+  /**
+   * Note the last block read in the search, after which the client doesn't doze again.
+   */
+  void readLastBlock() {
+    accessTime++;
+    tuningTime++;
+    blocksRead++;
+  }
+
+  /**
+   * Note that the search finished at the data block at the given position.
+   */
+  void foundData(int dataPos) {
+    this.found   = true;
+    this.dataPos = dataPos;
+  }
+
+  /**
+   * @return true if the data block for the key was found
+   */
+  public boolean isFound() {
+    return found;
+  }
+
+  /**
+   * @return the accessTime, in blocks
+   */
+  public int getAccessTime() {
+    return accessTime;
+  }
+
+  /**
+   * @return the tuningTime, in blocks
+   */
+  public int getTuningTime() {
+    return tuningTime;
+  }
+
+  /**
+   * @return the number of index and data blocks read after tuning in
+   */
+  public int getBlocksRead() {
+    return blocksRead;
+  }
+
+  /**
+   * @return the number of index blocks read after tuning in, which is every block read except the data block
+   */
+  public int getIndexBlocksRead() {
+    return found ? blocksRead - 1 : blocksRead;
+  }
+
+  /**
+   * @return the position of the data block in the bcast, or -1 if it was not found
+   */
+  public int getDataPos() {
+    return dataPos;
+  }
+
+  /**
+   * @return the number of times the client dozed, including straight after tuning in
+   */
+  public int getDozeCount() {
+    return dozeCount;
+  }
+
+  /**
+   * @param dozePos The position of the doze in the search, starting from 0 for the one after tuning in
+   *
+   * @return The length of that doze, in blocks
+   */
+  public int getDozeLength(int dozePos) {
+    if ((dozePos < 0) || (dozePos >= dozeCount))
+      throw new IndexOutOfBoundsException("Doze " + dozePos + " is outside the search [0 - " + (dozeCount - 1) + "]");
+    return dozeLengths[dozePos];
+  }
+
+  /**
+   * Helper method to note the length of a doze.
+   */
+  private void addDoze(int dozeBlocks) {
+    if (dozeCount == dozeLengths.length)
+      dozeLengths = Arrays.copyOf(dozeLengths, dozeCount * 2);
+    dozeLengths[dozeCount++] = dozeBlocks;
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see java.lang.Object#toString()
+   */
+  @Override
+  public String toString() {
+    return "Found: " + found + "  Access Time: " + accessTime + "  Tuning Time: " + tuningTime +
+        "  Blocks Read: " + blocksRead + "  Data Position: " + dataPos;
+  }
+}
@@ -0,0 +1,474 @@
+package com.umkc.bcast.data;
+
+import java.util.Arrays;
+import java.util.List;
+
+import com.umkc.bcast.data.impl.GlobalClusterIndexBlock;
+import com.umkc.bcast.data.impl.GlobalFlatIndexBlock;
+import com.umkc.bcast.data.impl.LocalIndexBlock;
+
+/**
+ * A compact, columnar version of a completed bcast.  Instead of a List of Block objects, every block
+ * is addressed by its position in the bcast, and its contents are packed into a handful of primitive
+ * arrays:
+ *
+ * <ul><li>blockTypes:       the BlockType ordinal for each block</li>
+ *     <li>nextIndexOffsets: the nextIndexOffset for each block</li>
+ *     <li>rowStarts:        the position of the first index row for each block.  The rows for block i
+ *                           are [rowStarts[i], rowStarts[i + 1]), so data blocks simply have no rows.</li>
+ *     <li>rowWaitBlocks and rowKeys:  the packed index rows themselves.  The waitTimeAsBuckets value of a
+ *         global index row is not stored, since it can always be worked out from waitTimeAsBlocks.</li></ul>
+ *
+ * All keys are stored as KeyDictionary ordinals, and all cluster names as ClusterDictionary ids, so
+ * there are no Strings (or any other objects) held per block.
+ *
+ * <p>The rows for each type of block are laid out as follows:
+ * <ul><li>Global index blocks start with a header row of [cluster row count, first bucket ordinal].
+ *         Flat index blocks have no cluster rows.</li>
+ *     <li>Cluster index blocks then have a second header row of [0, cluster id], followed by one row per
+ *         cluster of [waitTimeAsBlocks, cluster id], sorted by cluster id so they can be binary searched.</li>
+ *     <li>Global index blocks then have their exponential rows of [waitTimeAsBlocks, max key ordinal], in
+ *         the original order.</li>
+ *     <li>Local index blocks have one row per data block of [waitTimeAsBlocks, key ordinal], sorted by
+ *         key ordinal.</li></ul>
+ *
+ * A Broadcast is built by adding the buckets in bcast order with addBucket(), and then calling
+ * trimToSize() once the last bucket has been added.  The lookups give the same answers as the
+ * getNextReadOffset() methods of the original index blocks.
+ *
+ * @author ac010168
+ *
+ */
+public class Broadcast {
+
+  /** Cached copy of the BlockType values, addressed by ordinal */
+  private static final BlockType[] BLOCK_TYPES = BlockType.values();
+
+  /** The number of data blocks in each bucket */
+  private int bucketSize;
+  /** The dictionary used to encode every key in this bcast */
+  private KeyDictionary keyDictionary;
+  /** The dictionary used to encode the cluster names, or null for flat bcasts */
+  private ClusterDictionary clusterDictionary;
+
+  /** The number of blocks added so far */
+  private int blockCount;
+  /** The BlockType ordinal for each block */
+  private byte[] blockTypes;
+  /** The nextIndexOffset for each block */
+  private int[] nextIndexOffsets;
+  /** The first index row for each block, with one extra entry marking the end of the last block */
+  private int[] rowStarts;
+
+  /** The number of index rows added so far */
+  private int rowCount;
+  /** The waitTimeAsBlocks column of the packed index rows */
+  private int[] rowWaitBlocks;
+  /** The key ordinal (or cluster id) column of the packed index rows */
+  private int[] rowKeys;
+
+  /**
+   * Basic Constructor.
+   *
+   * @param expectedBlockCount The number of blocks we expect to add.  This is only used for the initial sizing.
+   * @param bucketSize         The number of data blocks in each bucket
+   * @param keyDictionary      The frozen dictionary used to encode every key in this bcast
+   * @param clusterDictionary  The dictionary used to encode the cluster names, or null for flat bcasts
+   */
+  public Broadcast(int expectedBlockCount, int bucketSize, KeyDictionary keyDictionary, ClusterDictionary clusterDictionary) {
+    if (!keyDictionary.isFrozen())
+      throw new RuntimeException("The key dictionary must be frozen before a Broadcast can be built.");
+
+    this.bucketSize        = bucketSize;
+    this.keyDictionary     = keyDictionary;
+    this.clusterDictionary = clusterDictionary;
+
+    int blockCapacity = Math.max(expectedBlockCount, 1);
+    blockTypes        = new byte[blockCapacity];
+    nextIndexOffsets  = new int[blockCapacity];
+    rowStarts         = new int[blockCapacity + 1];
+
+    //Each data block gets one local index row, and the global index rows are a rounding error on top of that
+    int rowCapacity = Math.max(expectedBlockCount, 16);
+    rowWaitBlocks   = new int[rowCapacity];
+    rowKeys         = new int[rowCapacity];
+  }
+
+  /**
+   * Add all the blocks of a finished bucket to the end of this bcast.
+   *
+   * @param bucket The bucket to be added.  Its global index must already be assigned.
+   */
+  public void addBucket(Bucket bucket) {
+    for (Block curBlock : bucket.flattenBucket())
+      addBlock(curBlock);
+  }
+
+  /**
+   * Pack a single block onto the end of this bcast.
+   *
+   * @param block The block to be added
+   */
+  public void addBlock(Block block) {
+    ensureBlockCapacity(blockCount + 1);
+
+    blockTypes[blockCount]       = (byte)block.getBlockType().ordinal();
+    nextIndexOffsets[blockCount] = block.getNextIndexOffset();
+    rowStarts[blockCount]        = rowCount;
+
+    switch (block.getBlockType()) {
+      case GLOBAL_FLAT_INDEX_BLOCK:
+        GlobalFlatIndexBlock flatBlock = (GlobalFlatIndexBlock)block;
+        addRow(0, keyDictionary.getOrdinal(flatBlock.getFirstBucketValue()));
+        for (GlobalIndexArrayItem indexItem : flatBlock.getExponentialIndex())
+          addRow(indexItem.getWaitTimeAsBlocks(), keyDictionary.getOrdinal(indexItem.getMaxKeyValue()));
+        break;
+      case GLOBAL_CLUSTER_INDEX_BLOCK:
+        addClusterIndexBlock((GlobalClusterIndexBlock)block);
+        break;
+      case LOCAL_INDEX_BLOCK:
+        addLocalIndexBlock((LocalIndexBlock)block);
+        break;
+      default:
+        //Data blocks don't carry any index rows
+        break;
+    }
+
+    blockCount++;
+    rowStarts[blockCount] = rowCount;
+  }
+
+  /**
+   * Helper method to pack a cluster index block.  Only the first row for each cluster is kept, same as
+   * the linear search in the original block would find.
+   *
+   * @param indexBlock The cluster index block to be packed
+   */
+  private void addClusterIndexBlock(GlobalClusterIndexBlock indexBlock) {
+    if (clusterDictionary == null)
+      throw new RuntimeException("A cluster dictionary is required to pack " + indexBlock.getBlockID() + ".");
+
+    //Sort the cluster rows by id, using the row position to break ties so the first row wins
+    List<GlobalIndexArrayItem> clusterIndex = indexBlock.getClusterIndex();
+    long[] sortKeys = new long[clusterIndex.size()];
+    for (int rowPos = 0; rowPos < sortKeys.length; rowPos++) {
+      int rowClusterId = clusterDictionary.getClusterId(clusterIndex.get(rowPos).getMaxKeyValue());
+      if (rowClusterId < 0)
+        throw new RuntimeException("Cluster " + clusterIndex.get(rowPos).getMaxKeyValue() + " could not be found in the cluster dictionary.");
+      sortKeys[rowPos] = ((long)rowClusterId << 32) | rowPos;
+    }
+    Arrays.sort(sortKeys);
+
+    int headerPos = rowCount;
+    addRow(0, keyDictionary.getOrdinal(indexBlock.getFirstBucketValue()));
+    addRow(0, clusterDictionary.getClusterId(indexBlock.getClusterGroup()));
+
+    int clusterRows = 0;
+    int lastCluster = -1;
+    for (long sortKey : sortKeys) {
+      int rowClusterId = (int)(sortKey >>> 32);
+      if (rowClusterId == lastCluster)
+        continue;
+      GlobalIndexArrayItem indexItem = clusterIndex.get((int)sortKey);
+      addRow(indexItem.getWaitTimeAsBlocks(), rowClusterId);
+      lastCluster = rowClusterId;
+      clusterRows++;
+    }
+    rowWaitBlocks[headerPos] = clusterRows;
+
+    for (GlobalIndexArrayItem indexItem : indexBlock.getExponentialIndex())
+      addRow(indexItem.getWaitTimeAsBlocks(), keyDictionary.getOrdinal(indexItem.getMaxKeyValue()));
+  }
+
+  /**
+   * Helper method to pack a local index block, with the rows sorted by key ordinal.  Duplicate keys keep
+   * their original order, so the first row still wins.
+   *
+   * @param indexBlock The local index block to be packed
+   */
+  private void addLocalIndexBlock(LocalIndexBlock indexBlock) {
+    List<LocalIndexArrayItem> localIndex = indexBlock.getLocalIndex();
+    long[] sortKeys = new long[localIndex.size()];
+    for (int rowPos = 0; rowPos < sortKeys.length; rowPos++)
+      sortKeys[rowPos] = ((long)keyDictionary.getOrdinal(localIndex.get(rowPos).getBlockKeyValue()) << 32) | rowPos;
+    Arrays.sort(sortKeys);
+
+    for (long sortKey : sortKeys)
+      addRow(localIndex.get((int)sortKey).getWaitTimeAsBlocks(), (int)(sortKey >>> 32));
+  }
+
+  /**
+   * Helper method to append a single packed index row.
+   */
+  private void addRow(int waitTimeAsBlocks, int rowKey) {
+    if (rowCount == rowKeys.length) {
+      int newCapacity = rowKeys.length + (rowKeys.length >> 1) + 1;
+      rowWaitBlocks   = Arrays.copyOf(rowWaitBlocks, newCapacity);
+      rowKeys         = Arrays.copyOf(rowKeys, newCapacity);
+    }
+    rowWaitBlocks[rowCount] = waitTimeAsBlocks;
+    rowKeys[rowCount]       = rowKey;
+    rowCount++;
+  }
+
+  /**
+   * Helper method to grow the per block arrays when needed.
+   */
+  private void ensureBlockCapacity(int requiredBlocks) {
+    if (requiredBlocks <= blockTypes.length)
+      return;
+    int newCapacity  = Math.max(requiredBlocks, blockTypes.length + (blockTypes.length >> 1));
+    blockTypes       = Arrays.copyOf(blockTypes, newCapacity);
+    nextIndexOffsets = Arrays.copyOf(nextIndexOffsets, newCapacity);
+    rowStarts        = Arrays.copyOf(rowStarts, newCapacity + 1);
+  }
+
+  /**
+   * Helper method to release any spare capacity.  This should be invoked once the last bucket has been added.
+   */
+  public void trimToSize() {
+    blockTypes       = Arrays.copyOf(blockTypes, blockCount);
+    nextIndexOffsets = Arrays.copyOf(nextIndexOffsets, blockCount);
+    rowStarts        = Arrays.copyOf(rowStarts, blockCount + 1);
+    rowWaitBlocks    = Arrays.copyOf(rowWaitBlocks, rowCount);
+    rowKeys          = Arrays.copyOf(rowKeys, rowCount);
+  }
+
+  /**
+   * Same as IndexBlock.getNextReadOffset(int), for the block at the given position.
+   *
+   * <p>This method should be used for non-clustered searches
+   *
+   * @param blockPos      The position of the index block in the bcast
+   * @param searchOrdinal The ordinal for the key we are hoping to find a location for in this index
+   *
+   * @return The number of blocks we can doze through before getting more information about our requested data.
+   */
+  public int getNextReadOffset(int blockPos, int searchOrdinal) {
+    switch (getBlockType(blockPos)) {
+      case GLOBAL_FLAT_INDEX_BLOCK:
+        return getFlatReadOffset(blockPos, searchOrdinal);
+      case LOCAL_INDEX_BLOCK:
+        return getLocalReadOffset(blockPos, searchOrdinal);
+      default:
+        throw new RuntimeException ("This version of getNextReadOffset is not supported for this Block type");
+    }
+  }
+
+  /**
+   * Same as IndexBlock.getNextReadOffset(int, int), for the block at the given position.
+   *
+   * <p>This method should be used for clustered searches
+   *
+   * @param blockPos        The position of the index block in the bcast
+   * @param searchClusterId The ClusterDictionary id for the cluster grouping we are looking to search for our key in.
+   * @param searchOrdinal   The ordinal for the key we are hoping to find a location for in this index
+   *
+   * @return The number of blocks we can doze through before getting more information about our requested data.
+   */
+  public int getNextReadOffset(int blockPos, int searchClusterId, int searchOrdinal) {
+    switch (getBlockType(blockPos)) {
+      case GLOBAL_CLUSTER_INDEX_BLOCK:
+        return getClusterReadOffset(blockPos, searchClusterId, searchOrdinal);
+      case LOCAL_INDEX_BLOCK:
+        return getLocalReadOffset(blockPos, searchOrdinal);
+      default:
+        throw new RuntimeException ("This version of getNextReadOffset is not supported for this Block type");
+    }
+  }
+
+  /**
+   * Helper method to search a flat global index block.  The rules are the same as the linear scan in
+   * GlobalFlatIndexBlock, just using ordinals.
+   */
+  private int getFlatReadOffset(int blockPos, int searchOrdinal) {
+    int headerPos   = rowStarts[blockPos];
+    int endPos      = rowStarts[blockPos + 1];
+    int firstBucket = rowKeys[headerPos];
+
+    if (searchOrdinal < firstBucket) {
+      //The term we want comes 'before' this bucket, so it has to be in a row that has wrapped
+      for (int rowPos = headerPos + 1; rowPos < endPos; rowPos++) {
+        if ((rowKeys[rowPos] < firstBucket) && (searchOrdinal <= rowKeys[rowPos]))
+          return rowWaitBlocks[rowPos];
+      }
+    } else {
+      //Either a row bounds our term, or the term is in the range that wraps
+      for (int rowPos = headerPos + 1; rowPos < endPos; rowPos++) {
+        if ((searchOrdinal <= rowKeys[rowPos]) || (firstBucket > rowKeys[rowPos]))
+          return rowWaitBlocks[rowPos];
+      }
+    }
+
+    //If we somehow didn't find our value, then we've got a big problem, throw an error
+    throw new RuntimeException("Malformed Index Block.  Search Key could not be found correctly");
+  }
+
+  /**
+   * Helper method to search a cluster global index block.  The rules are the same as the lookups in
+   * GlobalClusterIndexBlock, except that the cluster rows are binary searched by cluster id.
+   */
+  private int getClusterReadOffset(int blockPos, int searchClusterId, int searchOrdinal) {
+    int headerPos   = rowStarts[blockPos];
+    int clusterRows = rowWaitBlocks[headerPos];
+
+    if ((searchClusterId == rowKeys[headerPos + 1]) && (searchOrdinal >= rowKeys[headerPos])) {
+      for (int rowPos = headerPos + 2 + clusterRows; rowPos < rowStarts[blockPos + 1]; rowPos++) {
+        if (searchOrdinal <= rowKeys[rowPos])
+          return rowWaitBlocks[rowPos];
+      }
+
+      //If we somehow didn't find our value, then we've got a big problem, throw an error
+      throw new RuntimeException("Malformed Index Block.  Search Key could not be found correctly");
+    }
+
+    int rowPos = Arrays.binarySearch(rowKeys, headerPos + 2, headerPos + 2 + clusterRows, searchClusterId);
+    if (rowPos >= 0)
+      return rowWaitBlocks[rowPos];
+
+    //If we somehow didn't find our cluster, then we've got a big problem, throw an error
+    throw new RuntimeException("Malformed Request.  Desired Cluster could not be found correctly");
+  }
+
+  /**
+   * Helper method to search a local index block.  Same as LocalIndexBlock, this returns -1 if the key
+   * is not found in this bucket.
+   */
+  private int getLocalReadOffset(int blockPos, int searchOrdinal) {
+    int low  = rowStarts[blockPos];
+    int high = rowStarts[blockPos + 1];
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (rowKeys[mid] < searchOrdinal)
+        low = mid + 1;
+      else high = mid;
+    }
+    if ((low < rowStarts[blockPos + 1]) && (rowKeys[low] == searchOrdinal))
+      return rowWaitBlocks[low];
+    return -1;
+  }
+
+  /**
+   * @return the number of blocks in this bcast
+   */
+  public int getBlockCount() {
+    return blockCount;
+  }
+
+  /**
+   * @param blockPos The position of the block in the bcast
+   *
+   * @return the BlockType of the block at that position
+   */
+  public BlockType getBlockType(int blockPos) {
+    checkBlockPos(blockPos);
+    return BLOCK_TYPES[blockTypes[blockPos]];
+  }
+
+  /**
+   * @param blockPos The position of the block in the bcast
+   *
+   * @return the nextIndexOffset of the block at that position
+   */
+  public int getNextIndexOffset(int blockPos) {
+    checkBlockPos(blockPos);
+    return nextIndexOffsets[blockPos];
+  }
+
+  /**
+   * @param blockPos The position of the block in the bcast
+   *
+   * @return the position of the first index row for that block
+   */
+  public int getRowStart(int blockPos) {
+    checkBlockPos(blockPos);
+    return rowStarts[blockPos];
+  }
+
+  /**
+   * @param blockPos The position of the block in the bcast
+   *
+   * @return the position just past the last index row for that block
+   */
+  public int getRowEnd(int blockPos) {
+    checkBlockPos(blockPos);
+    return rowStarts[blockPos + 1];
+  }
+
+  /**
+   * @return the total number of packed index rows
+   */
+  public int getRowCount() {
+    return rowCount;
+  }
+
+  /**
+   * Work out the waitTimeAsBuckets value for a global index row.  This only makes sense for the cluster
+   * and exponential rows of global index blocks, not header rows or local index rows.
+   *
+   * @param rowPos The position of the packed index row
+   *
+   * @return the waitTimeAsBuckets value for that row
+   */
+  public int getRowWaitBuckets(int rowPos) {
+    return (rowWaitBlocks[rowPos] + 1) / (bucketSize + 2);
+  }
+
+  /**
+   * @param rowPos The position of the packed index row
+   *
+   * @return the waitTimeAsBlocks column of that row
+   */
+  public int getRowWaitBlocks(int rowPos) {
+    return rowWaitBlocks[rowPos];
+  }
+
+  /**
+   * @param rowPos The position of the packed index row
+   *
+   * @return the key ordinal (or cluster id) column of that row
+   */
+  public int getRowKey(int rowPos) {
+    return rowKeys[rowPos];
+  }
+
+  /**
+   * @return the bucketSize
+   */
+  public int getBucketSize() {
+    return bucketSize;
+  }
+
+  /**
+   * @return the keyDictionary
+   */
+  public KeyDictionary getKeyDictionary() {
+    return keyDictionary;
+  }
+
+  /**
+   * @return the clusterDictionary, or null for flat bcasts
+   */
+  public ClusterDictionary getClusterDictionary() {
+    return clusterDictionary;
+  }
+
+  /**
+   * Helper method to work out how much memory the packed arrays are using.  This does not include the
+   * dictionaries, which are shared with the builder.
+   *
+   * @return The size of the packed arrays, in bytes
+   */
+  public long getPackedSizeInBytes() {
+    return blockTypes.length + (4L * nextIndexOffsets.length) + (4L * rowStarts.length) +
+        (4L * (rowWaitBlocks.length + rowKeys.length));
+  }
+
+  /**
+   * Helper method to reject block positions outside the bcast.
+   */
+  private void checkBlockPos(int blockPos) {
+    if ((blockPos < 0) || (blockPos >= blockCount))
+      throw new RuntimeException("Block position " + blockPos + " is outside the bcast [0 - " + (blockCount - 1) + "]");
+  }
+}
@@ -1,6 +1,8 @@
 package com.umkc.bcast.data;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 import com.umkc.bcast.data.impl.LocalIndexBlock;
 
@@ -32,6 +34,12 @@ public class Bucket {
   
   private boolean useUniqueIdentifier;
   
+  /** 
+   * Flag that indicates this bucket shares its local index and data blocks with another bucket.  Shared
+   * buckets only own their global index, and leave the shared blocks to the bucket they came from.
+   */
+  private boolean shared;
+  
   /**
    * Basic Constructor.  Used to initialize a Bucket.
    * 
@@ -44,6 +52,16 @@ public class Bucket {
     localIndex.setBlockID("LocalIndex " + bucketLabel);
     
     dataBlocks = new ArrayList<DataBlock>();
+    this.useUniqueIdentifier = useUniqueIdentifier;
+  }
+
+  /**
+   * Constructor used by shareBucket() to create a bucket around existing blocks.
+   */
+  private Bucket(LocalIndexBlock localIndex, ArrayList<DataBlock> dataBlocks, boolean useUniqueIdentifier) {
+    this.localIndex          = localIndex;
+    this.dataBlocks          = dataBlocks;
+    this.useUniqueIdentifier = useUniqueIdentifier;
   }
 
   /**
@@ -52,6 +70,8 @@ public class Bucket {
    * @param dataBlock The dataBlock to be added
    */
   public void addDataBlock(DataBlock dataBlock) {
+    if (shared)
+      throw new RuntimeException("Data blocks cannot be added to a shared bucket.");
     dataBlocks.add(dataBlock);
   }
   
@@ -67,6 +87,94 @@ public class Bucket {
       
       pos++;
     }
+    localIndex.freezeIndex();
+  }
+  
+  /**
+   * Helper method to add all the search keys in this bucket to the bcast's key dictionary.
+   * 
+   * @param keyDictionary The (not yet frozen) key dictionary for this bcast
+   */
+  public void registerKeys(KeyDictionary keyDictionary) {
+    for (DataBlock curBlock : dataBlocks)
+      keyDictionary.addKey(useUniqueIdentifier ? curBlock.getUniqueIdentifier() : curBlock.getDataKey());
+  }
+  
+  /**
+   * Helper method to encode the keys in this bucket's index blocks as ordinals.  This should be invoked
+   * after the global index has been assigned to this bucket.
+   * 
+   * @param keyDictionary The frozen key dictionary for this bcast
+   */
+  public void encodeKeys(KeyDictionary keyDictionary) {
+    if (!shared)
+      localIndex.encodeKeys(keyDictionary);
+    if (globalIndex != null)
+      globalIndex.encodeKeys(keyDictionary);
+  }
+  
+  /**
+   * Helper method to get the search key this bucket indexes a data block by.
+   * 
+   * @param dataBlock The data block, which does not have to be in this bucket
+   * 
+   * @return The uniqueIdentifier or dataKey of the block, depending on how this bucket is indexed
+   */
+  public String getSearchKey(DataBlock dataBlock) {
+    return useUniqueIdentifier ? dataBlock.getUniqueIdentifier() : dataBlock.getDataKey();
+  }
+  
+  /**
+   * Helper method to find the position of a data block within this bucket.
+   * 
+   * @param searchKey The search key of the data block we want
+   * 
+   * @return The position of the data block in this bucket, or -1 if it isn't here
+   */
+  public int findDataBlock(String searchKey) {
+    for (int pos = 0; pos < dataBlocks.size(); pos++) {
+      if (getSearchKey(dataBlocks.get(pos)).equals(searchKey))
+        return pos;
+    }
+    return -1;
+  }
+  
+  /**
+   * Replace a data block with a new version of the same block.  The new block must have the same search key,
+   * so the local and global indices are still correct, and it takes over the old block's place in the bcast.
+   * 
+   * @param pos       The position of the data block in this bucket
+   * @param dataBlock The new version of the data block
+   * 
+   * @return The data block that was replaced
+   */
+  public DataBlock replaceDataBlock(int pos, DataBlock dataBlock) {
+    if (shared)
+      throw new RuntimeException("Data blocks cannot be replaced in a shared bucket.");
+    
+    DataBlock oldBlock = dataBlocks.get(pos);
+    if (!getSearchKey(oldBlock).equals(getSearchKey(dataBlock)))
+      throw new RuntimeException("A replacement data block must have the same key: " + getSearchKey(oldBlock) + 
+          " != " + getSearchKey(dataBlock));
+    
+    dataBlock.setBlockID(oldBlock.getBlockID());
+    dataBlock.setNextIndexOffset(oldBlock.getNextIndexOffset());
+    dataBlocks.set(pos, dataBlock);
+    return oldBlock;
+  }
+  
+  /**
+   * @return a read only view of the data blocks in this bucket
+   */
+  public List<DataBlock> getDataBlocks() {
+    return Collections.unmodifiableList(dataBlocks);
+  }
+  
+  /**
+   * @return the global index assigned to this bucket, or null if one hasn't been assigned yet
+   */
+  public IndexBlock getGlobalIndex() {
+    return globalIndex;
   }
   
   /**
@@ -106,6 +214,12 @@ public class Bucket {
     int offset = dataBlocks.size() + 1;
     globalIndex.setNextIndexOffset(offset);
     offset--;
+    
+    //The offsets below only depend on the position within the bucket, so the bucket we are shared
+    //with has already set them
+    if (shared)
+      return;
+    
     localIndex.setNextIndexOffset(offset);
     offset--;
     for (DataBlock curBlock : dataBlocks) {
@@ -114,6 +228,29 @@ public class Bucket {
     }
   }
   
+  /**
+   * @return the number of blocks this bucket takes up in the bcast, including both index blocks
+   */
+  public int getBlockCount() {
+    return dataBlocks.size() + 2;
+  }
+  
+  /**
+   * Helper method to read a single block of this bucket without flattening it.  The slots are laid out
+   * the same way as flattenBucket():  the global index, then the local index, then the data blocks.
+   * 
+   * @param slot The position of the block within this bucket
+   * 
+   * @return The block at that position
+   */
+  public Block getBlock(int slot) {
+    if (slot == 0)
+      return globalIndex;
+    if (slot == 1)
+      return localIndex;
+    return dataBlocks.get(slot - 2);
+  }
+  
   /**
    * Helper method to flatten out the bucket to be added to a finalized bcast list.
    * 
@@ -145,6 +282,27 @@ public class Bucket {
     return result;
   }
   
+  /**
+   * Helper method to create another appearance of this bucket for a bcast that repeats clusters.  The new
+   * bucket shares this bucket's local index and data blocks, and only needs its own global index.  This
+   * bucket must stay in the bcast as well, since it is responsible for the shared blocks.
+   * 
+   * @return A new bucket sharing this bucket's local index and data blocks
+   */
+  public Bucket shareBucket() {
+    Bucket sharedBucket = new Bucket(localIndex, dataBlocks, useUniqueIdentifier);
+    sharedBucket.shared = true;
+    
+    return sharedBucket;
+  }
+  
+  /**
+   * @return true if this bucket shares its local index and data blocks with another bucket
+   */
+  public boolean isShared() {
+    return shared;
+  }
+  
   public Bucket clone(String bucketLabel) {
     Bucket cloneBucket = new Bucket(bucketLabel, useUniqueIdentifier);
     for (DataBlock curBlock : dataBlocks)
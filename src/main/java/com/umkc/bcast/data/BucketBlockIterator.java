@@ -0,0 +1,87 @@
+package com.umkc.bcast.data;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterator that walks a list of finished buckets and hands back their blocks in bcast order, without
+ * ever building the flattened list.  This lets transmission (or a snapshot write) start as soon as the
+ * global indices have been constructed, with only the one copy of the data in memory.
+ *
+ * <p>Clustered bcasts rename their blocks to match the order they are broadcast in.  If requested,
+ * the iterator does that renaming as each block is handed out, using the same names assembleBcast()
+ * would have used.
+ *
+ * @author ac010168
+ *
+ */
+public class BucketBlockIterator implements Iterator<Block> {
+
+  /** The buckets still to be walked */
+  private Iterator<Bucket> buckets;
+  /** The bucket we are currently handing out blocks from */
+  private Bucket curBucket;
+  /** The next slot to hand out from curBucket */
+  private int slot;
+  /** Flag to indicate whether blocks should be renamed in bcast order */
+  private boolean renameBlocks;
+
+  private int globalIndexCount;
+  private int localIndexCount;
+  private int dataBlockCount;
+
+  /**
+   * Basic Constructor.
+   *
+   * @param bcastBuckets All the buckets in the bcast, in the order they should be broadcast.  These must
+   *                     already have their global indices assigned.
+   * @param renameBlocks True to rename the blocks in bcast order as they are handed out
+   */
+  public BucketBlockIterator(List<Bucket> bcastBuckets, boolean renameBlocks) {
+    this.buckets      = bcastBuckets.iterator();
+    this.renameBlocks = renameBlocks;
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see java.util.Iterator#hasNext()
+   */
+  @Override
+  public boolean hasNext() {
+    while ((curBucket == null) || (slot >= curBucket.getBlockCount())) {
+      if (!buckets.hasNext())
+        return false;
+      curBucket = buckets.next();
+      slot      = 0;
+    }
+    return true;
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see java.util.Iterator#next()
+   */
+  @Override
+  public Block next() {
+    if (!hasNext())
+      throw new NoSuchElementException("There are no more blocks in this bcast.");
+
+    Block curBlock = curBucket.getBlock(slot);
+    if (renameBlocks) {
+      if (slot == 0) {
+        globalIndexCount++;
+        curBlock.setBlockID("GlobalIndex " + globalIndexCount);
+      } else if (slot == 1) {
+        localIndexCount++;
+        curBlock.setBlockID("LocalIndex " + localIndexCount);
+      } else {
+        dataBlockCount++;
+        curBlock.setBlockID("DataBlock" + dataBlockCount);
+      }
+    }
+    slot++;
+
+    return curBlock;
+  }
+}
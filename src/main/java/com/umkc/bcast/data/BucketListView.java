@@ -0,0 +1,68 @@
+package com.umkc.bcast.data;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Read only List view of a bcast, laid over the finished buckets rather than a flattened copy of them.
+ * Since every bucket is exactly bucketSize + 2 blocks long (global index, local index, then the data
+ * blocks), a position in the bcast maps straight to a bucket and a slot within it:
+ * <pre>
+ *   bucket = pos / (bucketSize + 2)
+ *   slot   = pos % (bucketSize + 2)
+ * </pre>
+ * Only the bucket references are held, so the view costs one reference per bucket instead of one per
+ * block.  The same bucket may appear more than once, which is how the skewed builder repeats clusters.
+ *
+ * <p>Unlike assembleBcast(), the view does not rename the blocks to match their bcast positions, since a
+ * repeated data block can sit at more than one position.
+ *
+ * @author ac010168
+ *
+ */
+public class BucketListView extends AbstractList<Block> implements RandomAccess {
+
+  /** The buckets in the bcast, in the order they should be broadcast */
+  private Bucket[] buckets;
+  /** The number of blocks in every bucket */
+  private int blocksPerBucket;
+
+  /**
+   * Basic Constructor.
+   *
+   * @param bcastBuckets All the buckets in the bcast, in the order they should be broadcast.  These must
+   *                     already have their global indices assigned.
+   * @param bucketSize   The number of data blocks in each bucket
+   */
+  public BucketListView(List<Bucket> bcastBuckets, int bucketSize) {
+    this.buckets         = bcastBuckets.toArray(new Bucket[bcastBuckets.size()]);
+    this.blocksPerBucket = bucketSize + 2;
+
+    for (int bucketPos = 0; bucketPos < buckets.length; bucketPos++) {
+      if (buckets[bucketPos].getBlockCount() != blocksPerBucket)
+        throw new RuntimeException("Bucket " + bucketPos + " holds " + buckets[bucketPos].getBlockCount() +
+            " blocks, but every bucket should hold " + blocksPerBucket);
+    }
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see java.util.AbstractList#get(int)
+   */
+  @Override
+  public Block get(int index) {
+    if ((index < 0) || (index >= size()))
+      throw new IndexOutOfBoundsException("Block position " + index + " is outside the bcast [0 - " + (size() - 1) + "]");
+    return buckets[index / blocksPerBucket].getBlock(index % blocksPerBucket);
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see java.util.AbstractCollection#size()
+   */
+  @Override
+  public int size() {
+    return buckets.length * blocksPerBucket;
+  }
+}
@@ -0,0 +1,111 @@
+package com.umkc.bcast.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A simple dictionary that assigns each cluster group in a bcast an integer id, so that cluster
+ * index lookups can be done with a single array read instead of comparing cluster names.
+ *
+ * <p>Cluster names are matched without regard to case, the same way equalsIgnoreCase() would match
+ * them, so 'ALPHA' and 'alpha' will always be given the same id.  Ids are assigned in the order each
+ * cluster first appears in the cluster order, starting at 0.
+ *
+ * <p>Lookups don't allocate.  The ids are kept in a small open addressing table, hashed on the case
+ * folded characters of each name, and a slot is confirmed with equalsIgnoreCase(), so a probe never
+ * needs a normalized copy of the name it is looking for.
+ *
+ * @author ac010168
+ *
+ */
+public class ClusterDictionary {
+
+  /** Marks an empty slot in the id table */
+  private static final int EMPTY_SLOT = -1;
+
+  /** The cluster names, as first provided, indexed by cluster id */
+  private List<String> clusterNames;
+  /** Open addressing table of cluster ids, hashed by case folded name.  The length is a power of 2. */
+  private int[] idSlots;
+
+  /**
+   * Basic Constructor.  Assigns ids to all clusters in the provided cluster order.
+   *
+   * @param clusterOrder The ordering of clusters to be used in this bcast.  Repeated clusters are fine.
+   */
+  public ClusterDictionary(List<String> clusterOrder) {
+    clusterNames = new ArrayList<String>();
+    //Keep the table at most half full, so probe runs stay short
+    idSlots = new int[Math.max(4, Integer.highestOneBit(Math.max(1, clusterOrder.size())) << 2)];
+    Arrays.fill(idSlots, EMPTY_SLOT);
+
+    for (String clusterGroup : clusterOrder) {
+      int slot = findSlot(clusterGroup);
+      if (idSlots[slot] == EMPTY_SLOT) {
+        idSlots[slot] = clusterNames.size();
+        clusterNames.add(clusterGroup);
+      }
+    }
+  }
+
+  /**
+   * Translate a cluster name into its id.  This should be done once at the start of a query.
+   *
+   * @param clusterGroup The cluster name, in any case
+   *
+   * @return The cluster id, or -1 if the cluster is not part of this bcast.
+   */
+  public int getClusterId(String clusterGroup) {
+    if (clusterGroup == null)
+      return -1;
+    return idSlots[findSlot(clusterGroup)];
+  }
+
+  /**
+   * @param clusterId The cluster id to look up
+   *
+   * @return The name of the cluster, as it was first provided
+   */
+  public String getClusterName(int clusterId) {
+    return clusterNames.get(clusterId);
+  }
+
+  /**
+   * @return The number of distinct clusters in this dictionary
+   */
+  public int getClusterCount() {
+    return clusterNames.size();
+  }
+
+  /**
+   * Helper method to find the slot holding a cluster name, or the empty slot where it would go.
+   *
+   * @param clusterGroup The cluster name, in any case
+   *
+   * @return The slot position in idSlots
+   */
+  private int findSlot(String clusterGroup) {
+    int slotMask = idSlots.length - 1;
+    int slot     = foldedHash(clusterGroup) & slotMask;
+    while ((idSlots[slot] != EMPTY_SLOT) && !clusterNames.get(idSlots[slot]).equalsIgnoreCase(clusterGroup))
+      slot = (slot + 1) & slotMask;
+    return slot;
+  }
+
+  /**
+   * Helper method to hash a cluster name after folding the case of each character, which gives the same
+   * hash to any two names that equalsIgnoreCase() would match.
+   *
+   * @param clusterGroup The cluster name to be hashed
+   *
+   * @return The hash of the case folded name
+   */
+  private static int foldedHash(String clusterGroup) {
+    int hash = 0;
+    for (int charPos = 0; charPos < clusterGroup.length(); charPos++)
+      hash = (31 * hash) + Character.toLowerCase(Character.toUpperCase(clusterGroup.charAt(charPos)));
+    //Spread the high bits down, since only the low bits pick the slot
+    return hash ^ (hash >>> 16);
+  }
+}
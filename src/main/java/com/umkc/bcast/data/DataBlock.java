@@ -1,5 +1,7 @@
 package com.umkc.bcast.data;
 
+import java.nio.ByteBuffer;
+
 /**
  * This is the root class for Data Blocks.  There are a few common elements regardless of data types.
  * All the common identification markers for a data element can be contained within this class.  All
@@ -69,6 +71,25 @@ public abstract class DataBlock extends Block {
     this.dataKey = dataKey;
   }
   
+  /**
+   * Implementing classes that carry real data should override this method (along with writePayload())
+   * so that the data can be included when the block is encoded.  By default, there is no payload.
+   * 
+   * @return The number of bytes writePayload() will write
+   */
+  public int getPayloadLength() {
+    return 0;
+  }
+  
+  /**
+   * Write the contents of this data block into the buffer, starting at the current position.  This
+   * must write exactly getPayloadLength() bytes.  By default, there is no payload.
+   * 
+   * @param buffer The buffer to write the payload into
+   */
+  public void writePayload(ByteBuffer buffer) {
+  }
+  
   /**
    * Override of the toString method to assist with troubleshooting/debugging.
    */
@@ -22,6 +22,8 @@ public class GlobalIndexArrayItem {
   private int waitTimeAsBlocks;
   /** The maximum key value stored within this range of buckets */
   private String maxKeyValue;
+  /** The KeyDictionary ordinal for the maxKeyValue, or -1 if the keys have not been encoded */
+  private int maxKeyOrdinal;
 
   /** Simple Constructor.  Will need to have range values computed externally 
    * 
@@ -33,6 +35,7 @@ public class GlobalIndexArrayItem {
     this.waitTimeAsBuckets = waitTimeAsBuckets;
     this.waitTimeAsBlocks  = waitTimeAsBlocks;
     this.maxKeyValue       = maxKeyValue;
+    this.maxKeyOrdinal     = -1;
   }
   
   /**
@@ -49,6 +52,18 @@ public class GlobalIndexArrayItem {
     return false;
   }
 
+  /**
+   * This method returns true if the current searching key ordinal is less than or equal to the 
+   * maxKeyOrdinal for this index range.  This can only be used once the keys have been encoded.
+   * 
+   * @param searchOrdinal The KeyDictionary ordinal of the search key we want to find
+   * 
+   * @return true if the searchKey value is lexically before the end of this index entry, false if not.
+   */
+  public boolean containsKey(int searchOrdinal) {
+    return searchOrdinal <= maxKeyOrdinal;
+  }
+
   /**
    * @return the waitTimeAsBuckets
    */
@@ -90,4 +105,18 @@ public class GlobalIndexArrayItem {
   public void setMaxKeyValue(String maxKeyValue) {
     this.maxKeyValue = maxKeyValue;
   }
+
+  /**
+   * @return the maxKeyOrdinal
+   */
+  public int getMaxKeyOrdinal() {
+    return maxKeyOrdinal;
+  }
+
+  /**
+   * @param maxKeyOrdinal the maxKeyOrdinal to set
+   */
+  public void setMaxKeyOrdinal(int maxKeyOrdinal) {
+    this.maxKeyOrdinal = maxKeyOrdinal;
+  }
 }
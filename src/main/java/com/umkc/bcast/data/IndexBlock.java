@@ -50,4 +50,67 @@ public abstract class IndexBlock extends Block {
    */
   public abstract int getNextReadOffset(String searchCluster, String searchKey);
   
+  /**
+   * Same as getNextReadOffset(String), except that the search key has already been translated into
+   * an ordinal using the KeyDictionary for this bcast.  This method can only be used after the keys for
+   * this index block have been encoded using encodeKeys().
+   * 
+   * <p>This method should be used for non-clustered searches
+   * 
+   * @param searchOrdinal The ordinal for the key we are hoping to find a location for in this index
+   * 
+   * @return The number of blocks we can doze through before getting more information about our requested data.
+   */
+  public abstract int getNextReadOffset(int searchOrdinal);
+  
+  /**
+   * Same as getNextReadOffset(String, String), except that the search key has already been translated into
+   * an ordinal using the KeyDictionary for this bcast.  This method can only be used after the keys for
+   * this index block have been encoded using encodeKeys().
+   * 
+   * <p>This method should be used for clustered searches
+   * 
+   * @param searchCluster The cluster grouping we are looking to search for our key in.
+   * @param searchOrdinal The ordinal for the key we are hoping to find a location for in this index
+   * 
+   * @return The number of blocks we can doze through before getting more information about our requested data.
+   */
+  public abstract int getNextReadOffset(String searchCluster, int searchOrdinal);
+  
+  /**
+   * Same as getNextReadOffset(String, String), except that the search cluster has already been translated
+   * into an id using the ClusterDictionary for this bcast.
+   * 
+   * <p>This method should be used for clustered searches
+   * 
+   * @param searchClusterId The ClusterDictionary id for the cluster grouping we are looking to search for our key in.
+   * @param searchKey The key we are hoping to find a location for in this index
+   * 
+   * @return The number of blocks we can doze through before getting more information about our requested data.
+   */
+  public abstract int getNextReadOffset(int searchClusterId, String searchKey);
+  
+  /**
+   * Same as getNextReadOffset(String, String), except that both the search cluster and the search key have
+   * already been translated into ids and ordinals.  This method can only be used after the keys for this
+   * index block have been encoded using encodeKeys().
+   * 
+   * <p>This method should be used for clustered searches
+   * 
+   * @param searchClusterId The ClusterDictionary id for the cluster grouping we are looking to search for our key in.
+   * @param searchOrdinal The ordinal for the key we are hoping to find a location for in this index
+   * 
+   * @return The number of blocks we can doze through before getting more information about our requested data.
+   */
+  public abstract int getNextReadOffset(int searchClusterId, int searchOrdinal);
+  
+  /**
+   * Implementing versions of this method should translate all the key values stored in this index block
+   * into ordinals using the provided (frozen) dictionary, so that the ordinal versions of getNextReadOffset()
+   * can be used.  This should be invoked once all the index rows have been added.
+   * 
+   * @param keyDictionary The frozen key dictionary for this bcast
+   */
+  public abstract void encodeKeys(KeyDictionary keyDictionary);
+  
 }
@@ -0,0 +1,242 @@
+package com.umkc.bcast.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * An order preserving dictionary that maps the search keys used in a bcast to int ordinals, so that
+ * index lookups can be done with primitive comparisons instead of String comparisons.
+ *
+ * <p>The dictionary is built in two steps.  First, every key is added (duplicates are fine) while the
+ * data blocks are being assigned to buckets.  Then the dictionary is frozen, which sorts the keys and
+ * assigns the ordinals.  No keys can be added after the dictionary has been frozen.
+ *
+ * <p>Ordinals are assigned so that comparisons between ordinals give the same answer as comparisons
+ * between the original keys, even for keys that are not in the dictionary:
+ * <ul><li>Every key in the dictionary has an odd ordinal, and the ordinals go up in key order.  When the
+ *         dictionary is frozen, they are spaced ORDINAL_GAP apart.</li>
+ *     <li>A key that is not found is given the (even) ordinal just below the ordinal of the next key in
+ *         the dictionary, or just above the last ordinal if it is past the end.</li></ul>
+ *
+ * So a client can translate its search key once at the start of a query, and use that ordinal for
+ * every index block it reads, whether or not the key is actually in the bcast.
+ *
+ * <p>The gaps leave room for keys added after the bcast has been built.  addKeys() gives each new key an
+ * odd ordinal in the gap between its neighbours, so the keys already in the dictionary keep their
+ * ordinals, and the index blocks that were encoded with them are still valid.
+ *
+ * @author ac010168
+ *
+ */
+public class KeyDictionary {
+
+  /** The spacing between the ordinals of neighbouring keys when the dictionary is frozen.  This must be even. */
+  public static final int ORDINAL_GAP = 16;
+
+  /** The keys added so far, before the dictionary is frozen. */
+  private ArrayList<String> pendingKeys;
+  /** The sorted, de-duplicated keys.  This is null until the dictionary is frozen. */
+  private String[] sortedKeys;
+  /** The ordinal of each of the sorted keys.  This is null until the dictionary is frozen. */
+  private int[] ordinals;
+
+  /** Simple Constructor */
+  public KeyDictionary() {
+    pendingKeys = new ArrayList<String>();
+    sortedKeys  = null;
+    ordinals    = null;
+  }
+
+  /**
+   * Constructor for a dictionary that is already frozen.
+   *
+   * @param sortedKeys The sorted, de-duplicated keys
+   * @param ordinals   The ordinal of each key
+   */
+  private KeyDictionary(String[] sortedKeys, int[] ordinals) {
+    this.pendingKeys = null;
+    this.sortedKeys  = sortedKeys;
+    this.ordinals    = ordinals;
+  }
+
+  /**
+   * Add a new key to the dictionary.
+   *
+   * @param key The search key to be added
+   */
+  public void addKey(String key) {
+    if (sortedKeys != null)
+      throw new RuntimeException("Keys cannot be added to a dictionary that has already been frozen.");
+    pendingKeys.add(key);
+  }
+
+  /**
+   * Helper method to sort the keys and assign ordinals.  This should be invoked once all keys have
+   * been added.  Invoking it again has no effect.
+   */
+  public void freeze() {
+    if (sortedKeys != null)
+      return;
+
+    String[] keys = pendingKeys.toArray(new String[pendingKeys.size()]);
+    Arrays.sort(keys);
+
+    int uniqueCount = 0;
+    for (int keyPos = 0; keyPos < keys.length; keyPos++) {
+      if ((uniqueCount == 0) || !keys[uniqueCount - 1].equals(keys[keyPos]))
+        keys[uniqueCount++] = keys[keyPos];
+    }
+
+    if (uniqueCount > (Integer.MAX_VALUE / ORDINAL_GAP) - 1)
+      throw new RuntimeException("There are too many keys (" + uniqueCount + ") to give each one an ordinal.");
+
+    ordinals = new int[uniqueCount];
+    for (int keyPos = 0; keyPos < uniqueCount; keyPos++)
+      ordinals[keyPos] = (keyPos * ORDINAL_GAP) + (ORDINAL_GAP / 2) + 1;
+    sortedKeys  = Arrays.copyOf(keys, uniqueCount);
+    pendingKeys = null;
+  }
+
+  /**
+   * Create a copy of this dictionary with some new keys added.  Every key that is already in the
+   * dictionary keeps its ordinal, and the new keys are spread out over the gaps between them.  This
+   * dictionary is left as it was, since bcasts that were built with it may still be in use.
+   *
+   * @param newKeys The keys to be added.  Keys that are already in the dictionary are skipped.
+   *
+   * @return The new dictionary, or null if a gap is too small to fit the new keys that fall in it, in
+   *         which case the ordinals have to be assigned from scratch by a new dictionary.
+   */
+  public KeyDictionary addKeys(Collection<String> newKeys) {
+    if (sortedKeys == null)
+      throw new RuntimeException("Keys can only be added to a dictionary that has been frozen.");
+
+    String[] addedKeys = newKeys.toArray(new String[newKeys.size()]);
+    Arrays.sort(addedKeys);
+    String[] mergedKeys = new String[sortedKeys.length + addedKeys.length];
+    int[] mergedOrdinals = new int[mergedKeys.length];
+    int mergedCount = 0;
+
+    int keyPos   = 0;
+    int addedPos = 0;
+    while (addedPos < addedKeys.length) {
+      //Copy the known keys up to the next new one, then work out how many new keys share its gap
+      int insertPos = Arrays.binarySearch(sortedKeys, addedKeys[addedPos]);
+      if (insertPos >= 0) {
+        addedPos++;
+        continue;
+      }
+      insertPos = -(insertPos + 1);
+      for (; keyPos < insertPos; keyPos++) {
+        mergedKeys[mergedCount]       = sortedKeys[keyPos];
+        mergedOrdinals[mergedCount++] = ordinals[keyPos];
+      }
+
+      int gapStart = mergedCount;
+      for (; (addedPos < addedKeys.length) && ((keyPos == sortedKeys.length) || (addedKeys[addedPos].compareTo(sortedKeys[keyPos]) < 0)); addedPos++) {
+        if ((mergedCount == gapStart) || !addedKeys[addedPos].equals(mergedKeys[mergedCount - 1]))
+          mergedKeys[mergedCount++] = addedKeys[addedPos];
+      }
+
+      //The new ordinals are odd, evenly spaced, and strictly between the ordinals of the neighbours
+      int gapCount    = mergedCount - gapStart;
+      long lowOrdinal = (keyPos == 0) ? -1 : ordinals[keyPos - 1];
+      long step       = (keyPos == sortedKeys.length) ? ORDINAL_GAP : ((ordinals[keyPos] - lowOrdinal) / (gapCount + 1)) & ~1L;
+      if ((step < 2) || (lowOrdinal + (step * gapCount) >= Integer.MAX_VALUE))
+        return null;
+      for (int gapPos = 0; gapPos < gapCount; gapPos++)
+        mergedOrdinals[gapStart + gapPos] = (int)(lowOrdinal + (step * (gapPos + 1)));
+    }
+    for (; keyPos < sortedKeys.length; keyPos++) {
+      mergedKeys[mergedCount]       = sortedKeys[keyPos];
+      mergedOrdinals[mergedCount++] = ordinals[keyPos];
+    }
+
+    return new KeyDictionary(Arrays.copyOf(mergedKeys, mergedCount), Arrays.copyOf(mergedOrdinals, mergedCount));
+  }
+
+  /**
+   * @return true if the dictionary has been frozen and ordinals can be looked up.
+   */
+  public boolean isFrozen() {
+    return sortedKeys != null;
+  }
+
+  /**
+   * Translate a search key into its ordinal.  See the class description for how ordinals are assigned.
+   *
+   * @param key The search key to be translated
+   *
+   * @return The ordinal for the key.  This is an odd number if the key is in the dictionary.
+   */
+  public int getOrdinal(String key) {
+    if (sortedKeys == null)
+      throw new RuntimeException("The key dictionary must be frozen before ordinals can be assigned.");
+
+    int keyPos = Arrays.binarySearch(sortedKeys, key);
+    if (keyPos >= 0)
+      return ordinals[keyPos];
+
+    keyPos = -(keyPos + 1);
+    if (keyPos < ordinals.length)
+      return ordinals[keyPos] - 1;
+    return (keyPos == 0) ? 0 : ordinals[keyPos - 1] + 1;
+  }
+
+  /**
+   * Translate an ordinal back into the original search key.
+   *
+   * @param ordinal The ordinal to be translated
+   *
+   * @return The original search key, or null if the ordinal does not belong to a key in this dictionary.
+   */
+  public String getKey(int ordinal) {
+    if (!isKnownOrdinal(ordinal) || (sortedKeys == null))
+      return null;
+    int keyPos = Arrays.binarySearch(ordinals, ordinal);
+    return (keyPos < 0) ? null : sortedKeys[keyPos];
+  }
+
+  /**
+   * @param keyPos The position of the key in sorted order
+   *
+   * @return The key at that position
+   */
+  public String getKeyAt(int keyPos) {
+    if (sortedKeys == null)
+      throw new RuntimeException("The key dictionary must be frozen before its keys can be listed.");
+    return sortedKeys[keyPos];
+  }
+
+  /**
+   * @param keyPos The position of the key in sorted order
+   *
+   * @return The ordinal of the key at that position
+   */
+  public int getOrdinalAt(int keyPos) {
+    if (sortedKeys == null)
+      throw new RuntimeException("The key dictionary must be frozen before its keys can be listed.");
+    return ordinals[keyPos];
+  }
+
+  /**
+   * @return The number of unique keys in the dictionary.
+   */
+  public int getKeyCount() {
+    if (sortedKeys == null)
+      throw new RuntimeException("The key dictionary must be frozen before it can be counted.");
+    return sortedKeys.length;
+  }
+
+  /**
+   * Helper method to check whether an ordinal belongs to a key that is in the dictionary.
+   *
+   * @param ordinal The ordinal to be checked
+   *
+   * @return true if the ordinal was assigned to a key in the dictionary, false if it was for a missing key.
+   */
+  public static boolean isKnownOrdinal(int ordinal) {
+    return (ordinal & 1) == 1;
+  }
+}
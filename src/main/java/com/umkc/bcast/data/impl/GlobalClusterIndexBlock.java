@@ -1,11 +1,16 @@
 package com.umkc.bcast.data.impl;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
 import com.umkc.bcast.data.Block;
 import com.umkc.bcast.data.BlockType;
+import com.umkc.bcast.data.ClusterDictionary;
 import com.umkc.bcast.data.GlobalIndexArrayItem;
 import com.umkc.bcast.data.IndexBlock;
+import com.umkc.bcast.data.KeyDictionary;
 
 /**
  * This is an implementation of a Global Index block in a Clustered Broadcast Structure.
@@ -106,6 +111,30 @@ public class GlobalClusterIndexBlock extends IndexBlock {
    **/
   private ArrayList<GlobalIndexArrayItem> exponentialIndex;
   
+  /** Read only views of the clusterIndex and exponentialIndex, created the first time they are requested. */
+  private List<GlobalIndexArrayItem> clusterIndexView;
+  private List<GlobalIndexArrayItem> exponentialIndexView;
+  
+  /** The KeyDictionary ordinal for the firstBucketValue, once the keys have been encoded. */
+  private int firstBucketOrdinal;
+  /** Encoded copy of the maxKeyOrdinal column of the exponentialIndex.  This is null until encodeKeys() is called. */
+  private int[] expMaxOrdinals;
+  /** Encoded copy of the waitTimeAsBlocks column of the exponentialIndex. */
+  private int[] expWaitBlocks;
+  
+  /** The ClusterDictionary for this bcast.  This is null until assignClusterIds() is called. */
+  private ClusterDictionary clusterDictionary;
+  /** The ClusterDictionary id for the clusterGroup */
+  private int clusterId;
+  /** 
+   * The waitTimeAsBlocks value from the clusterIndex, addressed by cluster id, so that finding the next
+   * occurrence of a cluster is a single array read.  Clusters without a row are set to NO_CLUSTER_ROW.
+   */
+  private int[] clusterWaitBlocks;
+  
+  /** Marker value in clusterWaitBlocks for clusters that do not have a row in the clusterIndex */
+  private static final int NO_CLUSTER_ROW = -1;
+  
   /** Simple Constructor */
   public GlobalClusterIndexBlock() {
     blockType        = BlockType.GLOBAL_CLUSTER_INDEX_BLOCK;
@@ -144,6 +173,10 @@ public class GlobalClusterIndexBlock extends IndexBlock {
     //DEBUG
     //System.out.println ("Reading " + blockID + ".  Looking for where [" + searchCluster + ", " + searchKey + "] should be found...");
     
+    //If we have cluster ids, translate the cluster once and use the array lookup
+    if (clusterDictionary != null)
+      return getNextReadOffset(clusterDictionary.getClusterId(searchCluster), searchKey);
+    
     //The first thing we need to check is whether or not we're in the right cluster.
     if (searchCluster.equalsIgnoreCase(clusterGroup) && (searchKey.compareTo(firstBucketValue) >= 0)) {
       //This is a little simpler, since we know the desired entry has to be in the exponential range,
@@ -175,12 +208,153 @@ public class GlobalClusterIndexBlock extends IndexBlock {
     }
   }
 
+  /* (non-Javadoc)
+   * @see com.umkc.bcast.data.IndexBlock#getNextReadOffset(int)
+   */
+  @Override
+  public int getNextReadOffset(int searchOrdinal) {
+    throw new RuntimeException ("This version of getNextReadOffset is not supported for this Index type");
+  }
+  
+  /* (non-Javadoc)
+   * @see com.umkc.bcast.data.IndexBlock#getNextReadOffset(String, int)
+   */
+  @Override
+  public int getNextReadOffset(String searchCluster, int searchOrdinal) {
+    if (clusterDictionary != null)
+      return getNextReadOffset(clusterDictionary.getClusterId(searchCluster), searchOrdinal);
+    if (expMaxOrdinals == null)
+      throw new RuntimeException("The keys for " + blockID + " have not been encoded.");
+    
+    //Same rules as the String version, we just get to compare ordinals for the exponential part
+    if (searchCluster.equalsIgnoreCase(clusterGroup) && (searchOrdinal >= firstBucketOrdinal)) {
+      for (int rowPos = 0; rowPos < expMaxOrdinals.length; rowPos++) {
+        if (searchOrdinal <= expMaxOrdinals[rowPos])
+          return expWaitBlocks[rowPos];
+      }
+
+      //If we somehow didn't find our value, then we've got a big problem, throw an error
+      throw new RuntimeException("Malformed Index Block.  Search Key could not be found correctly");
+    } else {
+      for (GlobalIndexArrayItem indexItem : clusterIndex) {
+        if (indexItem.getMaxKeyValue().equalsIgnoreCase(searchCluster))
+          return indexItem.getWaitTimeAsBlocks();
+      }
+      
+      //If we somehow didn't find our cluster, then we've got a big problem, throw an error
+      throw new RuntimeException("Malformed Request.  Desired Cluster could not be found correctly");
+    }
+  }
+  
+  /* (non-Javadoc)
+   * @see com.umkc.bcast.data.IndexBlock#getNextReadOffset(int, String)
+   */
+  @Override
+  public int getNextReadOffset(int searchClusterId, String searchKey) {
+    if (clusterWaitBlocks == null)
+      throw new RuntimeException("Cluster ids have not been assigned for " + blockID + ".");
+    
+    if ((searchClusterId == clusterId) && (searchKey.compareTo(firstBucketValue) >= 0)) {
+      for (GlobalIndexArrayItem indexItem : exponentialIndex) {
+        if (searchKey.compareTo(indexItem.getMaxKeyValue()) <= 0)
+          return indexItem.getWaitTimeAsBlocks();
+      }
+
+      //If we somehow didn't find our value, then we've got a big problem, throw an error
+      throw new RuntimeException("Malformed Index Block.  Search Key could not be found correctly");
+    }
+    return getClusterWaitBlocks(searchClusterId);
+  }
+  
+  /* (non-Javadoc)
+   * @see com.umkc.bcast.data.IndexBlock#getNextReadOffset(int, int)
+   */
+  @Override
+  public int getNextReadOffset(int searchClusterId, int searchOrdinal) {
+    if (clusterWaitBlocks == null)
+      throw new RuntimeException("Cluster ids have not been assigned for " + blockID + ".");
+    if (expMaxOrdinals == null)
+      throw new RuntimeException("The keys for " + blockID + " have not been encoded.");
+    
+    if ((searchClusterId == clusterId) && (searchOrdinal >= firstBucketOrdinal)) {
+      for (int rowPos = 0; rowPos < expMaxOrdinals.length; rowPos++) {
+        if (searchOrdinal <= expMaxOrdinals[rowPos])
+          return expWaitBlocks[rowPos];
+      }
+
+      //If we somehow didn't find our value, then we've got a big problem, throw an error
+      throw new RuntimeException("Malformed Index Block.  Search Key could not be found correctly");
+    }
+    return getClusterWaitBlocks(searchClusterId);
+  }
+  
+  /**
+   * Helper method to read the wait time to the next occurrence of a cluster from the cluster id array.
+   * 
+   * @param searchClusterId The id of the cluster we want to find
+   * 
+   * @return The number of blocks we can doze through until the cluster comes around.
+   */
+  private int getClusterWaitBlocks(int searchClusterId) {
+    if ((searchClusterId >= 0) && (searchClusterId < clusterWaitBlocks.length) && (clusterWaitBlocks[searchClusterId] != NO_CLUSTER_ROW))
+      return clusterWaitBlocks[searchClusterId];
+    
+    //If we somehow didn't find our cluster, then we've got a big problem, throw an error
+    throw new RuntimeException("Malformed Request.  Desired Cluster could not be found correctly");
+  }
+  
+  /**
+   * Helper method to translate the cluster index into an array addressed by cluster id.  This should be
+   * invoked once all the cluster index rows have been added.  Once it has been, the String versions of
+   * getNextReadOffset() also use the cluster ids.
+   * 
+   * @param clusterDictionary The ClusterDictionary for this bcast
+   */
+  public void assignClusterIds(ClusterDictionary clusterDictionary) {
+    int[] waitBlocks = new int[clusterDictionary.getClusterCount()];
+    Arrays.fill(waitBlocks, NO_CLUSTER_ROW);
+    
+    //If a cluster somehow has more than one row, the first one wins, same as the linear search
+    for (int rowPos = clusterIndex.size() - 1; rowPos >= 0; rowPos--) {
+      GlobalIndexArrayItem indexItem = clusterIndex.get(rowPos);
+      int rowClusterId = clusterDictionary.getClusterId(indexItem.getMaxKeyValue());
+      if (rowClusterId < 0)
+        throw new RuntimeException("Cluster " + indexItem.getMaxKeyValue() + " could not be found in the cluster dictionary.");
+      waitBlocks[rowClusterId] = indexItem.getWaitTimeAsBlocks();
+    }
+    
+    clusterId              = clusterDictionary.getClusterId(clusterGroup);
+    clusterWaitBlocks      = waitBlocks;
+    this.clusterDictionary = clusterDictionary;
+  }
+  
+  /* (non-Javadoc)
+   * @see com.umkc.bcast.data.IndexBlock#encodeKeys(com.umkc.bcast.data.KeyDictionary)
+   */
+  @Override
+  public void encodeKeys(KeyDictionary keyDictionary) {
+    int[] maxOrdinals = new int[exponentialIndex.size()];
+    int[] waitBlocks  = new int[exponentialIndex.size()];
+    for (int rowPos = 0; rowPos < maxOrdinals.length; rowPos++) {
+      GlobalIndexArrayItem indexItem = exponentialIndex.get(rowPos);
+      indexItem.setMaxKeyOrdinal(keyDictionary.getOrdinal(indexItem.getMaxKeyValue()));
+      maxOrdinals[rowPos] = indexItem.getMaxKeyOrdinal();
+      waitBlocks[rowPos]  = indexItem.getWaitTimeAsBlocks();
+    }
+    
+    firstBucketOrdinal = keyDictionary.getOrdinal(firstBucketValue);
+    expWaitBlocks      = waitBlocks;
+    expMaxOrdinals     = maxOrdinals;
+  }
+
   /** Helper method to add a new index row to the exponentialIndex. 
    * 
    * @param indexEntry the new index entry for the next occurence of this cluster in the broadcast.
    */
   public void addClusterIndexRow(GlobalIndexArrayItem indexEntry) {
     clusterIndex.add(indexEntry);
+    if (clusterDictionary != null)
+      assignClusterIds(clusterDictionary);
   }
 
   /** Helper method to add a new index row to the exponentialIndex. 
@@ -189,6 +363,25 @@ public class GlobalClusterIndexBlock extends IndexBlock {
    */
   public void addExponentialIndexRow(GlobalIndexArrayItem indexEntry) {
     exponentialIndex.add(indexEntry);
+    expMaxOrdinals = null;
+  }
+
+  /**
+   * @return a read only view of the clusterIndex rows
+   */
+  public List<GlobalIndexArrayItem> getClusterIndex() {
+    if (clusterIndexView == null)
+      clusterIndexView = Collections.unmodifiableList(clusterIndex);
+    return clusterIndexView;
+  }
+
+  /**
+   * @return a read only view of the exponentialIndex rows
+   */
+  public List<GlobalIndexArrayItem> getExponentialIndex() {
+    if (exponentialIndexView == null)
+      exponentialIndexView = Collections.unmodifiableList(exponentialIndex);
+    return exponentialIndexView;
   }
 
   /**
@@ -203,6 +396,8 @@ public class GlobalClusterIndexBlock extends IndexBlock {
    */
   public void setClusterGroup(String clusterGroup) {
     this.clusterGroup = clusterGroup;
+    if (clusterDictionary != null)
+      clusterId = clusterDictionary.getClusterId(clusterGroup);
   }
 
   /**
@@ -217,6 +412,7 @@ public class GlobalClusterIndexBlock extends IndexBlock {
    */
   public void setFirstBucketValue(String firstBucketValue) {
     this.firstBucketValue = firstBucketValue;
+    expMaxOrdinals        = null;
   }
 
   /**
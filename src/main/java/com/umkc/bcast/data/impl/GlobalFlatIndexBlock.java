@@ -1,11 +1,14 @@
 package com.umkc.bcast.data.impl;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 import com.umkc.bcast.data.Block;
 import com.umkc.bcast.data.BlockType;
 import com.umkc.bcast.data.GlobalIndexArrayItem;
 import com.umkc.bcast.data.IndexBlock;
+import com.umkc.bcast.data.KeyDictionary;
 
 /**
  * This is an implementation of a Global Index block in a Flat Broadcast Structure.
@@ -47,6 +50,31 @@ public class GlobalFlatIndexBlock extends IndexBlock {
    * current bucket).
    **/
   private ArrayList<GlobalIndexArrayItem> exponentialIndex;
+  /** Read only view of the exponentialIndex, created the first time it is requested. */
+  private List<GlobalIndexArrayItem> exponentialIndexView;
+  
+  /**
+   * Frozen copy of the maxKeyValue column of the exponentialIndex, used for binary searching.
+   * This is null until freezeIndex() is called, and is reset whenever a new row is added.
+   */
+  private String[] frozenMaxKeys;
+  /** Frozen copy of the waitTimeAsBlocks column of the exponentialIndex. */
+  private int[] frozenWaitBlocks;
+  /**
+   * The position of the first index row whose maxKeyValue is lexically before the firstBucketValue,
+   * meaning the row where our index has wrapped back around to the beginning of the data set.
+   */
+  private int wrapPos;
+  /**
+   * Flag indicating whether both runs of the index (before and after the wrap point) are in sorted
+   * order.  If not, we have to fall back on the linear scan to guarantee the same results.
+   */
+  private boolean sortedRuns;
+  
+  /** The KeyDictionary ordinal for the firstBucketValue, once the keys have been encoded. */
+  private int firstBucketOrdinal;
+  /** Frozen copy of the maxKeyOrdinal column.  This is null until encodeKeys() is called. */
+  private int[] frozenMaxOrdinals;
   
   /** Simple Constructor */
   public GlobalFlatIndexBlock() {
@@ -74,6 +102,197 @@ public class GlobalFlatIndexBlock extends IndexBlock {
     //DEBUG
     //System.out.println ("Reading " + blockID + ".  Looking for where " + searchKey + " should be found...");
     
+    if (frozenMaxKeys == null)
+      throw new RuntimeException("The index for " + blockID + " has not been frozen.");
+    if (!sortedRuns)
+      return scanNextReadOffset(searchKey);
+    
+    if (searchKey.compareTo(firstBucketValue) < 0) {
+      //The term we want comes 'before' this bucket, so it can only be found in the rows after the wrap point.
+      int rowPos = findFirstRowAtLeast(searchKey, wrapPos, frozenMaxKeys.length);
+      if (rowPos < frozenMaxKeys.length)
+        return frozenWaitBlocks[rowPos];
+    } else {
+      //The term is either bounded by one of the rows before the wrap point, or it lies in the range
+      //that wraps, in which case the first row after the wrap point is the one we want.
+      int rowPos = findFirstRowAtLeast(searchKey, 0, wrapPos);
+      if (rowPos < wrapPos)
+        return frozenWaitBlocks[rowPos];
+      if (wrapPos < frozenMaxKeys.length)
+        return frozenWaitBlocks[wrapPos];
+    }
+    
+    //If we somehow didn't find our value, then we've got a big problem, throw an error
+    throw new RuntimeException("Malformed Index Block.  Search Key could not be found correctly");
+  }
+  
+  /* (non-Javadoc)
+   * @see com.umkc.bcast.data.IndexBlock#getNextReadOffset(int)
+   */
+  @Override
+  public int getNextReadOffset(int searchOrdinal) {
+    if (frozenMaxOrdinals == null)
+      throw new RuntimeException("The keys for " + blockID + " have not been encoded.");
+    
+    int rowCount = frozenMaxOrdinals.length;
+    if (!sortedRuns) {
+      //Same as the linear scan, just with ordinals instead of Strings
+      for (int rowPos = 0; rowPos < rowCount; rowPos++) {
+        int maxOrdinal = frozenMaxOrdinals[rowPos];
+        if (searchOrdinal < firstBucketOrdinal) {
+          if ((maxOrdinal < firstBucketOrdinal) && (searchOrdinal <= maxOrdinal))
+            return frozenWaitBlocks[rowPos];
+        } else if ((searchOrdinal <= maxOrdinal) || (maxOrdinal < firstBucketOrdinal)) {
+          return frozenWaitBlocks[rowPos];
+        }
+      }
+    } else if (searchOrdinal < firstBucketOrdinal) {
+      int rowPos = findFirstRowAtLeast(searchOrdinal, wrapPos, rowCount);
+      if (rowPos < rowCount)
+        return frozenWaitBlocks[rowPos];
+    } else {
+      int rowPos = findFirstRowAtLeast(searchOrdinal, 0, wrapPos);
+      if (rowPos < wrapPos)
+        return frozenWaitBlocks[rowPos];
+      if (wrapPos < rowCount)
+        return frozenWaitBlocks[wrapPos];
+    }
+    
+    //If we somehow didn't find our value, then we've got a big problem, throw an error
+    throw new RuntimeException("Malformed Index Block.  Search Key could not be found correctly");
+  }
+  
+  /* (non-Javadoc)
+   * @see com.umkc.bcast.data.IndexBlock#getNextReadOffset(String, int)
+   */
+  @Override
+  public int getNextReadOffset(String searchCluster, int searchOrdinal) {
+    throw new RuntimeException ("This version of getNextReadOffset is not supported for this Index type");
+  }
+  
+  /* (non-Javadoc)
+   * @see com.umkc.bcast.data.IndexBlock#getNextReadOffset(int, String)
+   */
+  @Override
+  public int getNextReadOffset(int searchClusterId, String searchKey) {
+    throw new RuntimeException ("This version of getNextReadOffset is not supported for this Index type");
+  }
+  
+  /* (non-Javadoc)
+   * @see com.umkc.bcast.data.IndexBlock#getNextReadOffset(int, int)
+   */
+  @Override
+  public int getNextReadOffset(int searchClusterId, int searchOrdinal) {
+    throw new RuntimeException ("This version of getNextReadOffset is not supported for this Index type");
+  }
+  
+  /* (non-Javadoc)
+   * @see com.umkc.bcast.data.IndexBlock#encodeKeys(com.umkc.bcast.data.KeyDictionary)
+   */
+  @Override
+  public void encodeKeys(KeyDictionary keyDictionary) {
+    if (frozenMaxKeys == null)
+      throw new RuntimeException("The index for " + blockID + " has not been frozen.");
+    
+    int[] maxOrdinals = new int[frozenMaxKeys.length];
+    for (int rowPos = 0; rowPos < maxOrdinals.length; rowPos++) {
+      maxOrdinals[rowPos] = keyDictionary.getOrdinal(frozenMaxKeys[rowPos]);
+      exponentialIndex.get(rowPos).setMaxKeyOrdinal(maxOrdinals[rowPos]);
+    }
+    
+    firstBucketOrdinal = keyDictionary.getOrdinal(firstBucketValue);
+    frozenMaxOrdinals  = maxOrdinals;
+  }
+  
+  /**
+   * Helper method to locate the wrap point in the exponential index and take a frozen copy of the
+   * index rows so that getNextReadOffset() can binary search them.  This must be invoked once all
+   * the index rows have been added, and before the block is handed to any readers, since lookups on an
+   * unfrozen index will fail rather than freeze it on a reader's thread.
+   */
+  public void freezeIndex() {
+    int rowCount = exponentialIndex.size();
+    String[] maxKeys    = new String[rowCount];
+    int[]    waitBlocks = new int[rowCount];
+    for (int rowPos = 0; rowPos < rowCount; rowPos++) {
+      maxKeys[rowPos]    = exponentialIndex.get(rowPos).getMaxKeyValue();
+      waitBlocks[rowPos] = exponentialIndex.get(rowPos).getWaitTimeAsBlocks();
+    }
+    
+    int wrap = 0;
+    while ((wrap < rowCount) && (maxKeys[wrap].compareTo(firstBucketValue) >= 0))
+      wrap++;
+    
+    //Both runs need to be in order, and everything after the wrap needs to preceed this bucket,
+    //otherwise a binary search would not give us the same answer as the linear scan.
+    boolean sorted = true;
+    for (int rowPos = 1; (rowPos < rowCount) && sorted; rowPos++) {
+      if ((rowPos != wrap) && (maxKeys[rowPos - 1].compareTo(maxKeys[rowPos]) > 0))
+        sorted = false;
+      if ((rowPos > wrap) && (maxKeys[rowPos].compareTo(firstBucketValue) >= 0))
+        sorted = false;
+    }
+    
+    wrapPos          = wrap;
+    sortedRuns       = sorted;
+    frozenWaitBlocks  = waitBlocks;
+    frozenMaxKeys     = maxKeys;
+    frozenMaxOrdinals = null;
+  }
+  
+  /**
+   * Binary search helper to find the first row in the given range whose maxKeyValue is lexically
+   * equal to or after the search key.
+   * 
+   * @param searchKey The key we are hoping to find a location for in this index
+   * @param fromPos   The first row position to search (inclusive)
+   * @param toPos     The last row position to search (exclusive)
+   * 
+   * @return The first matching row position, or toPos if no row in the range matches.
+   */
+  private int findFirstRowAtLeast(String searchKey, int fromPos, int toPos) {
+    int low  = fromPos;
+    int high = toPos;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (frozenMaxKeys[mid].compareTo(searchKey) < 0)
+        low = mid + 1;
+      else high = mid;
+    }
+    return low;
+  }
+  
+  /**
+   * Binary search helper to find the first row in the given range whose maxKeyOrdinal is equal to
+   * or after the search ordinal.
+   * 
+   * @param searchOrdinal The ordinal of the key we are hoping to find a location for in this index
+   * @param fromPos       The first row position to search (inclusive)
+   * @param toPos         The last row position to search (exclusive)
+   * 
+   * @return The first matching row position, or toPos if no row in the range matches.
+   */
+  private int findFirstRowAtLeast(int searchOrdinal, int fromPos, int toPos) {
+    int low  = fromPos;
+    int high = toPos;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (frozenMaxOrdinals[mid] < searchOrdinal)
+        low = mid + 1;
+      else high = mid;
+    }
+    return low;
+  }
+  
+  /**
+   * The original linear scan through the exponential index.  This is only used when the index rows
+   * are not in sorted order, which can happen if the data set was not sorted before building the bcast.
+   * 
+   * @param searchKey The key we are hoping to find a location for in this index
+   * 
+   * @return The number of blocks we can doze through before getting more information about our requested data.
+   */
+  private int scanNextReadOffset(String searchKey) {
     if (searchKey.compareTo(firstBucketValue) < 0) {
       //DEBUG
       //System.out.println ("The Search Key is before values in this index bucket");
@@ -131,6 +350,39 @@ public class GlobalFlatIndexBlock extends IndexBlock {
    */
   public void addIndexRow(GlobalIndexArrayItem indexEntry) {
     exponentialIndex.add(indexEntry);
+    frozenMaxKeys     = null;
+    frozenMaxOrdinals = null;
+  }
+
+  /**
+   * Helper method to change the maxKeyValue of an existing index row, after the bucket it points to has
+   * changed.  The index will need to be frozen (and encoded) again afterwards.  This changes the row in
+   * place, so it should only be used on a block that hasn't been handed out yet, such as a fresh clone().
+   * 
+   * @param rowPos      The position of the index row
+   * @param maxKeyValue The new max key value for the row
+   * 
+   * @return true if the row actually changed
+   */
+  public boolean updateIndexRow(int rowPos, String maxKeyValue) {
+    GlobalIndexArrayItem indexItem = exponentialIndex.get(rowPos);
+    if (indexItem.getMaxKeyValue().equals(maxKeyValue))
+      return false;
+    
+    indexItem.setMaxKeyValue(maxKeyValue);
+    indexItem.setMaxKeyOrdinal(-1);
+    frozenMaxKeys     = null;
+    frozenMaxOrdinals = null;
+    return true;
+  }
+
+  /**
+   * @return a read only view of the exponentialIndex rows
+   */
+  public List<GlobalIndexArrayItem> getExponentialIndex() {
+    if (exponentialIndexView == null)
+      exponentialIndexView = Collections.unmodifiableList(exponentialIndex);
+    return exponentialIndexView;
   }
 
   /**
@@ -145,6 +397,8 @@ public class GlobalFlatIndexBlock extends IndexBlock {
    */
   public void setFirstBucketValue(String firstBucketValue) {
     this.firstBucketValue = firstBucketValue;
+    frozenMaxKeys         = null;
+    frozenMaxOrdinals     = null;
   }
 
   /**
@@ -167,6 +421,25 @@ public class GlobalFlatIndexBlock extends IndexBlock {
    */
   @Override
   public Block clone() {
-    return null;
+    GlobalFlatIndexBlock copyBlock = new GlobalFlatIndexBlock(firstBucketValue);
+    copyBlock.setBlockID(blockID);
+    copyBlock.setNextIndexOffset(nextIndexOffset);
+    
+    //The rows can be changed by updateIndexRow(), so the copy needs its own
+    for (GlobalIndexArrayItem indexItem : exponentialIndex) {
+      GlobalIndexArrayItem copyItem = new GlobalIndexArrayItem(indexItem.getWaitTimeAsBuckets(), 
+          indexItem.getWaitTimeAsBlocks(), indexItem.getMaxKeyValue());
+      copyItem.setMaxKeyOrdinal(indexItem.getMaxKeyOrdinal());
+      copyBlock.exponentialIndex.add(copyItem);
+    }
+    
+    //The frozen arrays are replaced rather than written to, so the copy can share them
+    copyBlock.wrapPos            = wrapPos;
+    copyBlock.sortedRuns         = sortedRuns;
+    copyBlock.firstBucketOrdinal = firstBucketOrdinal;
+    copyBlock.frozenWaitBlocks   = frozenWaitBlocks;
+    copyBlock.frozenMaxKeys      = frozenMaxKeys;
+    copyBlock.frozenMaxOrdinals  = frozenMaxOrdinals;
+    return copyBlock;
   }
 }
@@ -1,13 +1,24 @@
 package com.umkc.bcast.data.impl;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
 
 import com.umkc.bcast.data.Block;
 import com.umkc.bcast.data.BlockType;
 import com.umkc.bcast.data.IndexBlock;
+import com.umkc.bcast.data.KeyDictionary;
 import com.umkc.bcast.data.LocalIndexArrayItem;
 
 /**
+ * This is the local index block that sits at the front of each bucket, right after the global index.
+ * It maps every key in the bucket to the number of blocks to doze before that data block is on air.
+ * 
+ * <p>Once all the rows have been added, the index can be frozen into sorted key and offset arrays,
+ * so that both hits and misses are resolved with a binary search instead of scanning every row.
+ * 
  * @author ac010168
  *
  */
@@ -17,6 +28,18 @@ public class LocalIndexBlock extends IndexBlock {
    * The list of index keys for the local items contained by this block.
    */
   private ArrayList<LocalIndexArrayItem> localIndex;
+  /** Read only view of the localIndex, created the first time it is requested. */
+  private List<LocalIndexArrayItem> localIndexView;
+  
+  /** 
+   * Frozen copy of the block key values, sorted lexically.  This is null until freezeIndex() is called,
+   * and is reset whenever a new row is added.
+   */
+  private String[] sortedKeys;
+  /** The waitTimeAsBlocks values, in the same order as sortedKeys. */
+  private int[] sortedWaitBlocks;
+  /** The KeyDictionary ordinals for sortedKeys.  This is null until encodeKeys() is called. */
+  private int[] sortedOrdinals;
   
   public LocalIndexBlock() {
     blockType  = BlockType.LOCAL_INDEX_BLOCK;
@@ -31,9 +54,22 @@ public class LocalIndexBlock extends IndexBlock {
     //DEBUG
     //System.out.println ("Reading " + blockID + ".  Looking for where " + searchKey + " should be found...");
     
-    for (LocalIndexArrayItem localItem : localIndex) {
-      if (localItem.getBlockKeyValue().compareTo(searchKey) == 0)
-        return localItem.getWaitTimeAsBlocks();
+    if (sortedKeys == null)
+      throw new RuntimeException("The index for " + blockID + " has not been frozen.");
+    
+    //Anything outside the key range of this bucket can be turned away without searching
+    int keyCount = sortedKeys.length;
+    if ((keyCount > 0) && (searchKey.compareTo(sortedKeys[0]) >= 0) && (searchKey.compareTo(sortedKeys[keyCount - 1]) <= 0)) {
+      int low  = 0;
+      int high = keyCount;
+      while (low < high) {
+        int mid = (low + high) >>> 1;
+        if (sortedKeys[mid].compareTo(searchKey) < 0)
+          low = mid + 1;
+        else high = mid;
+      }
+      if (sortedKeys[low].compareTo(searchKey) == 0)
+        return sortedWaitBlocks[low];
     }
     
     //This is a tricky part.  Currently the new default behavior is to return a -1 to indicate that although
@@ -51,6 +87,71 @@ public class LocalIndexBlock extends IndexBlock {
     throw new RuntimeException ("This version of getNextReadOffset is not supported for this Index type");
   }
 
+  /* (non-Javadoc)
+   * @see com.umkc.bcast.data.IndexBlock#getNextReadOffset(int)
+   */
+  @Override
+  public int getNextReadOffset(int searchOrdinal) {
+    if (sortedOrdinals == null)
+      throw new RuntimeException("The keys for " + blockID + " have not been encoded.");
+    
+    //Keys that aren't in the dictionary can't possibly be in this bucket
+    int keyCount = sortedOrdinals.length;
+    if (KeyDictionary.isKnownOrdinal(searchOrdinal) && (keyCount > 0) && 
+        (searchOrdinal >= sortedOrdinals[0]) && (searchOrdinal <= sortedOrdinals[keyCount - 1])) {
+      int low  = 0;
+      int high = keyCount;
+      while (low < high) {
+        int mid = (low + high) >>> 1;
+        if (sortedOrdinals[mid] < searchOrdinal)
+          low = mid + 1;
+        else high = mid;
+      }
+      if (sortedOrdinals[low] == searchOrdinal)
+        return sortedWaitBlocks[low];
+    }
+    
+    return -1;
+  }
+  
+  /* (non-Javadoc)
+   * @see com.umkc.bcast.data.IndexBlock#getNextReadOffset(java.lang.String, int)
+   */
+  @Override
+  public int getNextReadOffset(String searchCluster, int searchOrdinal) {
+    throw new RuntimeException ("This version of getNextReadOffset is not supported for this Index type");
+  }
+  
+  /* (non-Javadoc)
+   * @see com.umkc.bcast.data.IndexBlock#getNextReadOffset(int, java.lang.String)
+   */
+  @Override
+  public int getNextReadOffset(int searchClusterId, String searchKey) {
+    throw new RuntimeException ("This version of getNextReadOffset is not supported for this Index type");
+  }
+  
+  /* (non-Javadoc)
+   * @see com.umkc.bcast.data.IndexBlock#getNextReadOffset(int, int)
+   */
+  @Override
+  public int getNextReadOffset(int searchClusterId, int searchOrdinal) {
+    throw new RuntimeException ("This version of getNextReadOffset is not supported for this Index type");
+  }
+  
+  /* (non-Javadoc)
+   * @see com.umkc.bcast.data.IndexBlock#encodeKeys(com.umkc.bcast.data.KeyDictionary)
+   */
+  @Override
+  public void encodeKeys(KeyDictionary keyDictionary) {
+    if (sortedKeys == null)
+      throw new RuntimeException("The index for " + blockID + " has not been frozen.");
+    
+    int[] ordinals = new int[sortedKeys.length];
+    for (int keyPos = 0; keyPos < ordinals.length; keyPos++)
+      ordinals[keyPos] = keyDictionary.getOrdinal(sortedKeys[keyPos]);
+    sortedOrdinals = ordinals;
+  }
+
   /**
    * Method to add new entries to the to the index.
    * 
@@ -58,6 +159,45 @@ public class LocalIndexBlock extends IndexBlock {
    */
   public void addIndexRow(LocalIndexArrayItem indexEntry) {
     localIndex.add(indexEntry);
+    sortedKeys     = null;
+    sortedOrdinals = null;
+  }
+  
+  /**
+   * Helper method to freeze the local index into sorted arrays so that getNextReadOffset() can
+   * binary search them.  This must be invoked once all the index rows have been added, and before the
+   * block is handed to any readers.
+   * 
+   * <p>If the same key appears more than once, the row that was added first wins, same as a linear scan.
+   */
+  public void freezeIndex() {
+    LocalIndexArrayItem[] rows = localIndex.toArray(new LocalIndexArrayItem[localIndex.size()]);
+    //Arrays.sort is stable, so duplicate keys keep their original order
+    Arrays.sort(rows, new Comparator<LocalIndexArrayItem>() {
+      public int compare(LocalIndexArrayItem item1, LocalIndexArrayItem item2) {
+        return item1.getBlockKeyValue().compareTo(item2.getBlockKeyValue());
+      }
+    });
+    
+    String[] keys       = new String[rows.length];
+    int[]    waitBlocks = new int[rows.length];
+    for (int rowPos = 0; rowPos < rows.length; rowPos++) {
+      keys[rowPos]       = rows[rowPos].getBlockKeyValue();
+      waitBlocks[rowPos] = rows[rowPos].getWaitTimeAsBlocks();
+    }
+    
+    sortedWaitBlocks = waitBlocks;
+    sortedKeys       = keys;
+    sortedOrdinals   = null;
+  }
+  
+  /**
+   * @return a read only view of the localIndex rows, in the order they were added
+   */
+  public List<LocalIndexArrayItem> getLocalIndex() {
+    if (localIndexView == null)
+      localIndexView = Collections.unmodifiableList(localIndex);
+    return localIndexView;
   }
   
   /**
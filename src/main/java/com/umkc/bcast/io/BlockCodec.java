@@ -0,0 +1,531 @@
+package com.umkc.bcast.io;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+import com.umkc.bcast.BroadcastBuilder;
+import com.umkc.bcast.data.Block;
+import com.umkc.bcast.data.BlockType;
+import com.umkc.bcast.data.ClusterDictionary;
+import com.umkc.bcast.data.DataBlock;
+import com.umkc.bcast.data.GlobalIndexArrayItem;
+import com.umkc.bcast.data.KeyDictionary;
+import com.umkc.bcast.data.LocalIndexArrayItem;
+import com.umkc.bcast.data.impl.GlobalClusterIndexBlock;
+import com.umkc.bcast.data.impl.GlobalFlatIndexBlock;
+import com.umkc.bcast.data.impl.LocalIndexBlock;
+
+/**
+ * The binary wire format for bcast blocks.  Every block, regardless of type, is encoded as a fixed
+ * length header, followed by its index rows, followed by its payload:
+ *
+ * <ul><li>Header (HEADER_LENGTH bytes):
+ *     <ol><li>[0]  byte: BlockType ordinal</li>
+ *         <li>[1]  byte: FORMAT_VERSION</li>
+ *         <li>[2]  short: reserved, always 0</li>
+ *         <li>[4]  int: nextIndexOffset</li>
+ *         <li>[8]  int: key ordinal.  The first bucket value for global index blocks, the search key for
+ *                  data blocks, and NO_VALUE for local index blocks.</li>
+ *         <li>[12] int: cluster id.  The cluster of cluster index blocks and clustered data blocks,
+ *                  otherwise NO_VALUE.</li>
+ *         <li>[16] int: number of cluster rows</li>
+ *         <li>[20] int: number of key rows</li>
+ *         <li>[24] int: payload length in bytes</li></ol></li>
+ *     <li>Cluster rows (ROW_LENGTH bytes each):  [waitTimeAsBlocks, cluster id], sorted by cluster id.
+ *         Only cluster index blocks have these.</li>
+ *     <li>Key rows (ROW_LENGTH bytes each):  [waitTimeAsBlocks, key ordinal].  For global index blocks
+ *         these are the exponential rows in their original order.  For local index blocks these are
+ *         sorted by key ordinal.</li>
+ *     <li>Payload:  whatever DataBlock.writePayload() wrote.  Only data blocks have a payload.</li></ul>
+ *
+ * Keys are stored as KeyDictionary ordinals and clusters as ClusterDictionary ids, so a receiver that
+ * has the dictionaries can translate its search once and then read the rows of each block directly from
+ * the buffer.  The waitTimeAsBuckets values are not sent, since they can be worked out from
+ * waitTimeAsBlocks and the bucket size.
+ *
+ * <p>Encoding is done by an instance of this class, which holds the dictionaries for the bcast and
+ * a scratch array it reuses for sorting.  Neither dictionary allocates on a lookup, so the encoder does
+ * not allocate once the scratch array has grown to fit the largest block.  An encoder
+ * should not be shared between threads.  Decoding is done with the static methods, which read at
+ * absolute offsets, never move the buffer position, and never allocate.  Both sides use the byte
+ * order of the buffer they are given.
+ *
+ * @author ac010168
+ *
+ */
+public class BlockCodec {
+
+  /** The version of the format written into every header */
+  public static final byte FORMAT_VERSION = 1;
+  /** The length of the fixed block header, in bytes */
+  public static final int HEADER_LENGTH = 28;
+  /** The length of a single index row, in bytes */
+  public static final int ROW_LENGTH = 8;
+  /** Marker for header values that do not apply to a block */
+  public static final int NO_VALUE = -1;
+
+  private static final int OFFSET_BLOCK_TYPE     = 0;
+  private static final int OFFSET_VERSION        = 1;
+  private static final int OFFSET_NEXT_INDEX     = 4;
+  private static final int OFFSET_KEY            = 8;
+  private static final int OFFSET_CLUSTER_ID     = 12;
+  private static final int OFFSET_CLUSTER_ROWS   = 16;
+  private static final int OFFSET_KEY_ROWS       = 20;
+  private static final int OFFSET_PAYLOAD_LENGTH = 24;
+
+  /** Cached copy of the BlockType values, addressed by ordinal */
+  private static final BlockType[] BLOCK_TYPES = BlockType.values();
+
+  /** The frozen dictionary used to encode every key in this bcast */
+  private KeyDictionary keyDictionary;
+  /** The dictionary used to encode the cluster names, or null for flat bcasts */
+  private ClusterDictionary clusterDictionary;
+  /** Flag that indicates whether to use the uniqueIdentifier value or the dataKey value from data blocks. */
+  private boolean useUniqueIdentifier;
+  /** Scratch space for sorting rows, reused between blocks */
+  private long[] sortScratch;
+
+  /**
+   * Basic Constructor.  Takes the dictionaries and the search key flag from the builder, so the data block
+   * keys are always looked up the same way the buckets registered them.
+   *
+   * @param builder The builder, with the global indices already constructed and a key dictionary
+   */
+  public BlockCodec(BroadcastBuilder builder) {
+    this(builder.getKeyDictionary(), builder.getClusterDictionary(), builder.isUseUniqueIdentifier());
+  }
+
+  /**
+   * Basic Constructor.
+   *
+   * @param keyDictionary       The frozen dictionary used to encode every key in this bcast
+   * @param clusterDictionary   The dictionary used to encode the cluster names, or null for flat bcasts
+   * @param useUniqueIdentifier Flag to indicate whether the uniqueIdentifier or dataKey value of the data
+   * blocks is the search key.  This must match the value used to build the bcast;  prefer the builder
+   * constructor, which can't get it wrong.
+   */
+  public BlockCodec(KeyDictionary keyDictionary, ClusterDictionary clusterDictionary, boolean useUniqueIdentifier) {
+    if (keyDictionary == null)
+      throw new RuntimeException("A key dictionary is required to encode blocks.  Use setUseKeyDictionary() on the builder.");
+    if (!keyDictionary.isFrozen())
+      throw new RuntimeException("The key dictionary must be frozen before blocks can be encoded.");
+
+    this.keyDictionary       = keyDictionary;
+    this.clusterDictionary   = clusterDictionary;
+    this.useUniqueIdentifier = useUniqueIdentifier;
+    sortScratch              = new long[16];
+  }
+
+  /**
+   * Work out how many bytes a block takes once it has been encoded.  This is the true on air size
+   * of the block.
+   *
+   * @param block The block to be measured
+   *
+   * @return The encoded length of the block, in bytes
+   */
+  public int getEncodedLength(Block block) {
+    switch (block.getBlockType()) {
+      case GLOBAL_FLAT_INDEX_BLOCK:
+        return HEADER_LENGTH + (ROW_LENGTH * ((GlobalFlatIndexBlock)block).getExponentialIndex().size());
+      case GLOBAL_CLUSTER_INDEX_BLOCK:
+        GlobalClusterIndexBlock clusterBlock = (GlobalClusterIndexBlock)block;
+        return HEADER_LENGTH + (ROW_LENGTH * (clusterBlock.getClusterIndex().size() + clusterBlock.getExponentialIndex().size()));
+      case LOCAL_INDEX_BLOCK:
+        return HEADER_LENGTH + (ROW_LENGTH * ((LocalIndexBlock)block).getLocalIndex().size());
+      default:
+        return HEADER_LENGTH + ((DataBlock)block).getPayloadLength();
+    }
+  }
+
+  /**
+   * Encode a single block into the buffer, starting at the current position.  The position is moved
+   * to the end of the encoded block.
+   *
+   * @param block  The block to be encoded
+   * @param buffer The buffer to write into.  It must have at least getEncodedLength(block) bytes remaining.
+   */
+  public void encode(Block block, ByteBuffer buffer) {
+    int encodedLength = getEncodedLength(block);
+    if (buffer.remaining() < encodedLength)
+      throw new RuntimeException("Not enough space to encode " + block.getBlockID() + ".  Needed " + encodedLength +
+          " bytes, but only " + buffer.remaining() + " were available.");
+
+    int startPos = buffer.position();
+    switch (block.getBlockType()) {
+      case GLOBAL_FLAT_INDEX_BLOCK:
+        GlobalFlatIndexBlock flatBlock = (GlobalFlatIndexBlock)block;
+        List<GlobalIndexArrayItem> flatRows = flatBlock.getExponentialIndex();
+        putHeader(buffer, block, keyDictionary.getOrdinal(flatBlock.getFirstBucketValue()), NO_VALUE, 0, flatRows.size(), 0);
+        putKeyRows(buffer, flatRows);
+        break;
+      case GLOBAL_CLUSTER_INDEX_BLOCK:
+        encodeClusterIndexBlock((GlobalClusterIndexBlock)block, buffer);
+        break;
+      case LOCAL_INDEX_BLOCK:
+        encodeLocalIndexBlock((LocalIndexBlock)block, buffer);
+        break;
+      default:
+        DataBlock dataBlock = (DataBlock)block;
+        int keyOrdinal = keyDictionary.getOrdinal(useUniqueIdentifier ? dataBlock.getUniqueIdentifier() : dataBlock.getDataKey());
+        int clusterId  = ((clusterDictionary == null) || (dataBlock.getClusterGroup() == null)) ? NO_VALUE :
+          clusterDictionary.getClusterId(dataBlock.getClusterGroup());
+        putHeader(buffer, block, keyOrdinal, clusterId, 0, 0, dataBlock.getPayloadLength());
+        dataBlock.writePayload(buffer);
+        break;
+    }
+
+    if (buffer.position() - startPos != encodedLength)
+      throw new RuntimeException("Encoded length mismatch for " + block.getBlockID() + ".  Expected " + encodedLength +
+          " bytes, but wrote " + (buffer.position() - startPos) + ".");
+  }
+
+  /**
+   * Helper method to encode a cluster index block.  The cluster rows are sorted by cluster id, using the
+   * original row position to break ties, so the decoder can still find the first row for a cluster.
+   */
+  private void encodeClusterIndexBlock(GlobalClusterIndexBlock indexBlock, ByteBuffer buffer) {
+    if (clusterDictionary == null)
+      throw new RuntimeException("A cluster dictionary is required to encode " + indexBlock.getBlockID() + ".");
+
+    List<GlobalIndexArrayItem> clusterRows = indexBlock.getClusterIndex();
+    List<GlobalIndexArrayItem> keyRows     = indexBlock.getExponentialIndex();
+    long[] sortKeys = getSortScratch(clusterRows.size());
+    for (int rowPos = 0; rowPos < clusterRows.size(); rowPos++) {
+      int rowClusterId = clusterDictionary.getClusterId(clusterRows.get(rowPos).getMaxKeyValue());
+      if (rowClusterId < 0)
+        throw new RuntimeException("Cluster " + clusterRows.get(rowPos).getMaxKeyValue() + " could not be found in the cluster dictionary.");
+      sortKeys[rowPos] = ((long)rowClusterId << 32) | rowPos;
+    }
+    Arrays.sort(sortKeys, 0, clusterRows.size());
+
+    putHeader(buffer, indexBlock, keyDictionary.getOrdinal(indexBlock.getFirstBucketValue()),
+        clusterDictionary.getClusterId(indexBlock.getClusterGroup()), clusterRows.size(), keyRows.size(), 0);
+    for (int rowPos = 0; rowPos < clusterRows.size(); rowPos++) {
+      buffer.putInt(clusterRows.get((int)sortKeys[rowPos]).getWaitTimeAsBlocks());
+      buffer.putInt((int)(sortKeys[rowPos] >>> 32));
+    }
+    putKeyRows(buffer, keyRows);
+  }
+
+  /**
+   * Helper method to encode a local index block, with the rows sorted by key ordinal.  Duplicate keys
+   * keep their original order.
+   */
+  private void encodeLocalIndexBlock(LocalIndexBlock indexBlock, ByteBuffer buffer) {
+    List<LocalIndexArrayItem> localRows = indexBlock.getLocalIndex();
+    long[] sortKeys = getSortScratch(localRows.size());
+    for (int rowPos = 0; rowPos < localRows.size(); rowPos++)
+      sortKeys[rowPos] = ((long)keyDictionary.getOrdinal(localRows.get(rowPos).getBlockKeyValue()) << 32) | rowPos;
+    Arrays.sort(sortKeys, 0, localRows.size());
+
+    putHeader(buffer, indexBlock, NO_VALUE, NO_VALUE, 0, localRows.size(), 0);
+    for (int rowPos = 0; rowPos < localRows.size(); rowPos++) {
+      buffer.putInt(localRows.get((int)sortKeys[rowPos]).getWaitTimeAsBlocks());
+      buffer.putInt((int)(sortKeys[rowPos] >>> 32));
+    }
+  }
+
+  /**
+   * Helper method to write the fixed header.
+   */
+  private void putHeader(ByteBuffer buffer, Block block, int keyOrdinal, int clusterId, int clusterRows, int keyRows, int payloadLength) {
+    buffer.put((byte)block.getBlockType().ordinal());
+    buffer.put(FORMAT_VERSION);
+    buffer.putShort((short)0);
+    buffer.putInt(block.getNextIndexOffset());
+    buffer.putInt(keyOrdinal);
+    buffer.putInt(clusterId);
+    buffer.putInt(clusterRows);
+    buffer.putInt(keyRows);
+    buffer.putInt(payloadLength);
+  }
+
+  /**
+   * Helper method to write global index rows, in their original order.
+   */
+  private void putKeyRows(ByteBuffer buffer, List<GlobalIndexArrayItem> keyRows) {
+    for (int rowPos = 0; rowPos < keyRows.size(); rowPos++) {
+      GlobalIndexArrayItem indexItem = keyRows.get(rowPos);
+      buffer.putInt(indexItem.getWaitTimeAsBlocks());
+      buffer.putInt(keyDictionary.getOrdinal(indexItem.getMaxKeyValue()));
+    }
+  }
+
+  /**
+   * Helper method to make sure the sort scratch space is large enough.
+   */
+  private long[] getSortScratch(int rowCount) {
+    if (sortScratch.length < rowCount)
+      sortScratch = new long[Math.max(rowCount, sortScratch.length * 2)];
+    return sortScratch;
+  }
+
+  /**
+   * @return the keyDictionary
+   */
+  public KeyDictionary getKeyDictionary() {
+    return keyDictionary;
+  }
+
+  /**
+   * @return the clusterDictionary, or null for flat bcasts
+   */
+  public ClusterDictionary getClusterDictionary() {
+    return clusterDictionary;
+  }
+
+  /**
+   * @return the useUniqueIdentifier flag
+   */
+  public boolean isUseUniqueIdentifier() {
+    return useUniqueIdentifier;
+  }
+
+  /**
+   * @param buffer      The buffer holding the encoded block
+   * @param blockOffset The offset of the start of the block in the buffer
+   *
+   * @return the BlockType of the encoded block
+   */
+  public static BlockType getBlockType(ByteBuffer buffer, int blockOffset) {
+    if (buffer.get(blockOffset + OFFSET_VERSION) != FORMAT_VERSION)
+      throw new RuntimeException("Unsupported block format version " + buffer.get(blockOffset + OFFSET_VERSION) + " at offset " + blockOffset);
+    return BLOCK_TYPES[buffer.get(blockOffset + OFFSET_BLOCK_TYPE)];
+  }
+
+  /**
+   * @param buffer      The buffer holding the encoded block
+   * @param blockOffset The offset of the start of the block in the buffer
+   *
+   * @return the nextIndexOffset of the encoded block
+   */
+  public static int getNextIndexOffset(ByteBuffer buffer, int blockOffset) {
+    return buffer.getInt(blockOffset + OFFSET_NEXT_INDEX);
+  }
+
+  /**
+   * @param buffer      The buffer holding the encoded block
+   * @param blockOffset The offset of the start of the block in the buffer
+   *
+   * @return the key ordinal from the header of the encoded block, or NO_VALUE
+   */
+  public static int getKeyOrdinal(ByteBuffer buffer, int blockOffset) {
+    return buffer.getInt(blockOffset + OFFSET_KEY);
+  }
+
+  /**
+   * @param buffer      The buffer holding the encoded block
+   * @param blockOffset The offset of the start of the block in the buffer
+   *
+   * @return the cluster id from the header of the encoded block, or NO_VALUE
+   */
+  public static int getClusterId(ByteBuffer buffer, int blockOffset) {
+    return buffer.getInt(blockOffset + OFFSET_CLUSTER_ID);
+  }
+
+  /**
+   * @param buffer      The buffer holding the encoded block
+   * @param blockOffset The offset of the start of the block in the buffer
+   *
+   * @return the number of cluster rows in the encoded block
+   */
+  public static int getClusterRowCount(ByteBuffer buffer, int blockOffset) {
+    return buffer.getInt(blockOffset + OFFSET_CLUSTER_ROWS);
+  }
+
+  /**
+   * @param buffer      The buffer holding the encoded block
+   * @param blockOffset The offset of the start of the block in the buffer
+   *
+   * @return the number of key rows in the encoded block
+   */
+  public static int getKeyRowCount(ByteBuffer buffer, int blockOffset) {
+    return buffer.getInt(blockOffset + OFFSET_KEY_ROWS);
+  }
+
+  /**
+   * @param buffer      The buffer holding the encoded block
+   * @param blockOffset The offset of the start of the block in the buffer
+   *
+   * @return the payload length of the encoded block, in bytes
+   */
+  public static int getPayloadLength(ByteBuffer buffer, int blockOffset) {
+    return buffer.getInt(blockOffset + OFFSET_PAYLOAD_LENGTH);
+  }
+
+  /**
+   * @param buffer      The buffer holding the encoded block
+   * @param blockOffset The offset of the start of the block in the buffer
+   *
+   * @return the offset in the buffer where the payload of the encoded block starts
+   */
+  public static int getPayloadOffset(ByteBuffer buffer, int blockOffset) {
+    return blockOffset + HEADER_LENGTH + (ROW_LENGTH * (getClusterRowCount(buffer, blockOffset) + getKeyRowCount(buffer, blockOffset)));
+  }
+
+  /**
+   * @param buffer      The buffer holding the encoded block
+   * @param blockOffset The offset of the start of the block in the buffer
+   *
+   * @return the total length of the encoded block, in bytes.  The next block starts right after it.
+   */
+  public static int getEncodedLength(ByteBuffer buffer, int blockOffset) {
+    return getPayloadOffset(buffer, blockOffset) - blockOffset + getPayloadLength(buffer, blockOffset);
+  }
+
+  /**
+   * Read the waitTimeAsBlocks value of an index row.  Rows are numbered with the cluster rows first,
+   * followed by the key rows.
+   *
+   * @param buffer      The buffer holding the encoded block
+   * @param blockOffset The offset of the start of the block in the buffer
+   * @param rowPos      The position of the row in the block
+   *
+   * @return the waitTimeAsBlocks value of the row
+   */
+  public static int getRowWaitBlocks(ByteBuffer buffer, int blockOffset, int rowPos) {
+    return buffer.getInt(blockOffset + HEADER_LENGTH + (ROW_LENGTH * rowPos));
+  }
+
+  /**
+   * Read the key ordinal (or cluster id, for cluster rows) of an index row.  Rows are numbered with the
+   * cluster rows first, followed by the key rows.
+   *
+   * @param buffer      The buffer holding the encoded block
+   * @param blockOffset The offset of the start of the block in the buffer
+   * @param rowPos      The position of the row in the block
+   *
+   * @return the key ordinal or cluster id of the row
+   */
+  public static int getRowKey(ByteBuffer buffer, int blockOffset, int rowPos) {
+    return buffer.getInt(blockOffset + HEADER_LENGTH + (ROW_LENGTH * rowPos) + 4);
+  }
+
+  /**
+   * Same as IndexBlock.getNextReadOffset(int), read directly from an encoded block.
+   *
+   * <p>This method should be used for non-clustered searches
+   *
+   * @param buffer        The buffer holding the encoded block
+   * @param blockOffset   The offset of the start of the block in the buffer
+   * @param searchOrdinal The ordinal for the key we are hoping to find a location for in this index
+   *
+   * @return The number of blocks we can doze through before getting more information about our requested data.
+   */
+  public static int getNextReadOffset(ByteBuffer buffer, int blockOffset, int searchOrdinal) {
+    switch (getBlockType(buffer, blockOffset)) {
+      case GLOBAL_FLAT_INDEX_BLOCK:
+        return getFlatReadOffset(buffer, blockOffset, searchOrdinal);
+      case LOCAL_INDEX_BLOCK:
+        return getLocalReadOffset(buffer, blockOffset, searchOrdinal);
+      default:
+        throw new RuntimeException ("This version of getNextReadOffset is not supported for this Block type");
+    }
+  }
+
+  /**
+   * Same as IndexBlock.getNextReadOffset(int, int), read directly from an encoded block.
+   *
+   * <p>This method should be used for clustered searches
+   *
+   * @param buffer          The buffer holding the encoded block
+   * @param blockOffset     The offset of the start of the block in the buffer
+   * @param searchClusterId The ClusterDictionary id for the cluster grouping we are looking to search for our key in.
+   * @param searchOrdinal   The ordinal for the key we are hoping to find a location for in this index
+   *
+   * @return The number of blocks we can doze through before getting more information about our requested data.
+   */
+  public static int getNextReadOffset(ByteBuffer buffer, int blockOffset, int searchClusterId, int searchOrdinal) {
+    switch (getBlockType(buffer, blockOffset)) {
+      case GLOBAL_CLUSTER_INDEX_BLOCK:
+        return getClusterReadOffset(buffer, blockOffset, searchClusterId, searchOrdinal);
+      case LOCAL_INDEX_BLOCK:
+        return getLocalReadOffset(buffer, blockOffset, searchOrdinal);
+      default:
+        throw new RuntimeException ("This version of getNextReadOffset is not supported for this Block type");
+    }
+  }
+
+  /**
+   * Helper method to search an encoded flat global index block.  The rules are the same as the linear
+   * scan in GlobalFlatIndexBlock, just using ordinals.
+   */
+  private static int getFlatReadOffset(ByteBuffer buffer, int blockOffset, int searchOrdinal) {
+    int firstBucket = getKeyOrdinal(buffer, blockOffset);
+    int rowCount    = getKeyRowCount(buffer, blockOffset);
+
+    for (int rowPos = 0; rowPos < rowCount; rowPos++) {
+      int maxKey = getRowKey(buffer, blockOffset, rowPos);
+      if (searchOrdinal < firstBucket) {
+        //The term we want comes 'before' this bucket, so it has to be in a row that has wrapped
+        if ((maxKey < firstBucket) && (searchOrdinal <= maxKey))
+          return getRowWaitBlocks(buffer, blockOffset, rowPos);
+      } else if ((searchOrdinal <= maxKey) || (firstBucket > maxKey)) {
+        //Either this row bounds our term, or the term is in the range that wraps
+        return getRowWaitBlocks(buffer, blockOffset, rowPos);
+      }
+    }
+
+    //If we somehow didn't find our value, then we've got a big problem, throw an error
+    throw new RuntimeException("Malformed Index Block.  Search Key could not be found correctly");
+  }
+
+  /**
+   * Helper method to search an encoded cluster global index block.  The rules are the same as the
+   * lookups in GlobalClusterIndexBlock, except that the cluster rows are binary searched by cluster id.
+   */
+  private static int getClusterReadOffset(ByteBuffer buffer, int blockOffset, int searchClusterId, int searchOrdinal) {
+    int clusterRows = getClusterRowCount(buffer, blockOffset);
+
+    if ((searchClusterId == getClusterId(buffer, blockOffset)) && (searchOrdinal >= getKeyOrdinal(buffer, blockOffset))) {
+      int endRow = clusterRows + getKeyRowCount(buffer, blockOffset);
+      for (int rowPos = clusterRows; rowPos < endRow; rowPos++) {
+        if (searchOrdinal <= getRowKey(buffer, blockOffset, rowPos))
+          return getRowWaitBlocks(buffer, blockOffset, rowPos);
+      }
+
+      //If we somehow didn't find our value, then we've got a big problem, throw an error
+      throw new RuntimeException("Malformed Index Block.  Search Key could not be found correctly");
+    }
+
+    //Find the first row for the cluster, in case a cluster somehow has more than one
+    int rowPos = findFirstRowAtLeast(buffer, blockOffset, 0, clusterRows, searchClusterId);
+    if ((rowPos < clusterRows) && (getRowKey(buffer, blockOffset, rowPos) == searchClusterId))
+      return getRowWaitBlocks(buffer, blockOffset, rowPos);
+
+    //If we somehow didn't find our cluster, then we've got a big problem, throw an error
+    throw new RuntimeException("Malformed Request.  Desired Cluster could not be found correctly");
+  }
+
+  /**
+   * Helper method to search an encoded local index block.  Same as LocalIndexBlock, this returns -1 if
+   * the key is not found in this bucket.
+   */
+  private static int getLocalReadOffset(ByteBuffer buffer, int blockOffset, int searchOrdinal) {
+    int rowCount = getKeyRowCount(buffer, blockOffset);
+    int rowPos   = findFirstRowAtLeast(buffer, blockOffset, 0, rowCount, searchOrdinal);
+    if ((rowPos < rowCount) && (getRowKey(buffer, blockOffset, rowPos) == searchOrdinal))
+      return getRowWaitBlocks(buffer, blockOffset, rowPos);
+    return -1;
+  }
+
+  /**
+   * Helper method to binary search a sorted run of rows for the first row whose key is at least the
+   * search value.
+   *
+   * @return The position of that row, or toPos if there isn't one.
+   */
+  private static int findFirstRowAtLeast(ByteBuffer buffer, int blockOffset, int fromPos, int toPos, int searchValue) {
+    int low  = fromPos;
+    int high = toPos;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (getRowKey(buffer, blockOffset, mid) < searchValue)
+        low = mid + 1;
+      else high = mid;
+    }
+    return low;
+  }
+}
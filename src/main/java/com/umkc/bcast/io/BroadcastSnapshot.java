@@ -0,0 +1,232 @@
+package com.umkc.bcast.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import com.umkc.bcast.data.Block;
+import com.umkc.bcast.data.ClusterDictionary;
+import com.umkc.bcast.data.KeyDictionary;
+
+/**
+ * Helper class to write a fully built bcast to a single snapshot file, and to map it back in.  The
+ * snapshot holds everything a broadcaster needs to start serving straight away:  the encoded blocks
+ * (data, index rows and offsets, in the BlockCodec format), a table of where each block starts, and
+ * both dictionaries so clients can translate their search keys.
+ *
+ * <p>The file is laid out as follows:
+ * <ol><li>Header (HEADER_LENGTH bytes):  [MAGIC, SNAPSHOT_VERSION, BlockCodec.FORMAT_VERSION, bucketSize,
+ *         blockCount, flags, blockTableOffset, keySectionOffset, clusterSectionOffset, fileLength,
+ *         ordinalTableOffset]</li>
+ *     <li>The encoded blocks, back to back, in bcast order</li>
+ *     <li>The block table:  one int file offset per block</li>
+ *     <li>The key section:  the KeyDictionary keys in sorted order</li>
+ *     <li>The ordinal table:  the KeyDictionary ordinal of each key, in the same order</li>
+ *     <li>The cluster section:  the ClusterDictionary names in id order.  Flat bcasts have no cluster
+ *         section, and a clusterSectionOffset of -1.</li></ol>
+ *
+ * Both string sections are laid out as [count, count + 1 int char offsets, chars], with each char
+ * stored as 2 bytes, so that a key can be compared against a search String without decoding it.
+ *
+ * <p>Since the snapshot is read through a single MappedByteBuffer, it is limited to 2GB.
+ *
+ * @author ac010168
+ *
+ */
+public class BroadcastSnapshot {
+
+  /** Marker at the start of every snapshot file ("BCST") */
+  public static final int MAGIC = 0x42435354;
+  /** The version of the snapshot layout */
+  public static final int SNAPSHOT_VERSION = 2;
+  /** The length of the snapshot file header, in bytes */
+  public static final int HEADER_LENGTH = 64;
+
+  /** Flag bit set when the data blocks were keyed by their uniqueIdentifier */
+  static final int FLAG_UNIQUE_IDENTIFIER = 1;
+
+  static final int OFFSET_MAGIC            = 0;
+  static final int OFFSET_VERSION          = 4;
+  static final int OFFSET_FORMAT_VERSION   = 8;
+  static final int OFFSET_BUCKET_SIZE      = 12;
+  static final int OFFSET_BLOCK_COUNT      = 16;
+  static final int OFFSET_FLAGS            = 20;
+  static final int OFFSET_BLOCK_TABLE      = 24;
+  static final int OFFSET_KEY_SECTION      = 32;
+  static final int OFFSET_CLUSTER_SECTION  = 40;
+  static final int OFFSET_FILE_LENGTH      = 48;
+  static final int OFFSET_ORDINAL_TABLE    = 56;
+
+  /** The size of the buffer used to batch up writes */
+  private static final int WRITE_BUFFER_SIZE = 1 << 20;
+
+  /**
+   * Write a completed bcast to a snapshot file.  Any existing file is replaced.
+   *
+   * @param snapshotFile The file to write
+   * @param bcast        The completed bcast, in bcast order.  This can be a List from assembleBcast(), or
+   *                     any other source of the blocks in order.
+   * @param codec        The codec to encode the blocks with.  Its dictionaries are written to the snapshot.
+   * @param bucketSize   The number of data blocks in each bucket
+   *
+   * @throws IOException If the file could not be written
+   */
+  public static void write(File snapshotFile, Iterable<Block> bcast, BlockCodec codec, int bucketSize) throws IOException {
+    FileChannel channel = FileChannel.open(snapshotFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+        StandardOpenOption.TRUNCATE_EXISTING);
+    try {
+      ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+      long filePos = HEADER_LENGTH;
+      channel.position(filePos);
+
+      //Encode all the blocks, remembering where each one starts
+      int[] blockOffsets = new int[1024];
+      int blockCount     = 0;
+      for (Block curBlock : bcast) {
+        int encodedLength = codec.getEncodedLength(curBlock);
+        if (filePos + encodedLength > Integer.MAX_VALUE)
+          throw new RuntimeException("The bcast is too large for a single snapshot file.");
+        if (blockCount == blockOffsets.length)
+          blockOffsets = Arrays.copyOf(blockOffsets, blockCount * 2);
+        blockOffsets[blockCount++] = (int)filePos;
+
+        if (buffer.remaining() < encodedLength) {
+          flush(channel, buffer);
+          if (buffer.capacity() < encodedLength)
+            buffer = ByteBuffer.allocateDirect(encodedLength);
+        }
+        codec.encode(curBlock, buffer);
+        filePos += encodedLength;
+      }
+
+      //Then the block table
+      long blockTableOffset = filePos;
+      for (int blockPos = 0; blockPos < blockCount; blockPos++) {
+        if (buffer.remaining() < 4)
+          flush(channel, buffer);
+        buffer.putInt(blockOffsets[blockPos]);
+      }
+      filePos += 4L * blockCount;
+
+      //And the dictionaries
+      KeyDictionary keyDictionary = codec.getKeyDictionary();
+      String[] keys = new String[keyDictionary.getKeyCount()];
+      for (int keyPos = 0; keyPos < keys.length; keyPos++)
+        keys[keyPos] = keyDictionary.getKeyAt(keyPos);
+      long keySectionOffset = filePos;
+      filePos = writeStrings(channel, buffer, keys, filePos);
+
+      //The ordinals aren't evenly spaced once keys have been added to the dictionary, so they are stored too
+      long ordinalTableOffset = filePos;
+      for (int keyPos = 0; keyPos < keys.length; keyPos++) {
+        if (buffer.remaining() < 4)
+          flush(channel, buffer);
+        buffer.putInt(keyDictionary.getOrdinalAt(keyPos));
+      }
+      filePos += 4L * keys.length;
+
+      long clusterSectionOffset = -1;
+      ClusterDictionary clusterDictionary = codec.getClusterDictionary();
+      if (clusterDictionary != null) {
+        String[] clusterNames = new String[clusterDictionary.getClusterCount()];
+        for (int clusterId = 0; clusterId < clusterNames.length; clusterId++)
+          clusterNames[clusterId] = clusterDictionary.getClusterName(clusterId);
+        clusterSectionOffset = filePos;
+        filePos = writeStrings(channel, buffer, clusterNames, filePos);
+      }
+      flush(channel, buffer);
+
+      if (filePos > Integer.MAX_VALUE)
+        throw new RuntimeException("The bcast is too large for a single snapshot file.");
+
+      //Now that everything is in place, we can fill in the header
+      ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+      header.putInt(OFFSET_MAGIC, MAGIC);
+      header.putInt(OFFSET_VERSION, SNAPSHOT_VERSION);
+      header.putInt(OFFSET_FORMAT_VERSION, BlockCodec.FORMAT_VERSION);
+      header.putInt(OFFSET_BUCKET_SIZE, bucketSize);
+      header.putInt(OFFSET_BLOCK_COUNT, blockCount);
+      header.putInt(OFFSET_FLAGS, codec.isUseUniqueIdentifier() ? FLAG_UNIQUE_IDENTIFIER : 0);
+      header.putLong(OFFSET_BLOCK_TABLE, blockTableOffset);
+      header.putLong(OFFSET_KEY_SECTION, keySectionOffset);
+      header.putLong(OFFSET_CLUSTER_SECTION, clusterSectionOffset);
+      header.putLong(OFFSET_FILE_LENGTH, filePos);
+      header.putLong(OFFSET_ORDINAL_TABLE, ordinalTableOffset);
+      while (header.hasRemaining())
+        channel.write(header, header.position());
+      channel.force(true);
+    } finally {
+      channel.close();
+    }
+  }
+
+  /**
+   * Map a snapshot file back in.  Nothing is decoded up front besides the cluster names, so this is
+   * quick regardless of the size of the bcast.
+   *
+   * @param snapshotFile The snapshot file to open
+   *
+   * @return The mapped bcast, ready to be served
+   *
+   * @throws IOException If the file could not be read
+   */
+  public static MappedBroadcast open(File snapshotFile) throws IOException {
+    FileChannel channel = FileChannel.open(snapshotFile.toPath(), StandardOpenOption.READ);
+    try {
+      if (channel.size() > Integer.MAX_VALUE)
+        throw new RuntimeException("The snapshot file is too large to be mapped.");
+      if (channel.size() < HEADER_LENGTH)
+        throw new RuntimeException("The snapshot file is too short to be a snapshot.");
+
+      //The mapping stays valid after the channel has been closed
+      MappedByteBuffer mappedBuffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      return new MappedBroadcast(mappedBuffer);
+    } finally {
+      channel.close();
+    }
+  }
+
+  /**
+   * Helper method to write a string section.
+   *
+   * @return The file position after the section
+   */
+  private static long writeStrings(FileChannel channel, ByteBuffer buffer, String[] values, long filePos) throws IOException {
+    if (buffer.remaining() < 4)
+      flush(channel, buffer);
+    buffer.putInt(values.length);
+
+    int charOffset = 0;
+    for (int valuePos = 0; valuePos <= values.length; valuePos++) {
+      if (buffer.remaining() < 4)
+        flush(channel, buffer);
+      buffer.putInt(charOffset);
+      if (valuePos < values.length)
+        charOffset += values[valuePos].length();
+    }
+
+    for (String value : values) {
+      for (int charPos = 0; charPos < value.length(); charPos++) {
+        if (buffer.remaining() < 2)
+          flush(channel, buffer);
+        buffer.putChar(value.charAt(charPos));
+      }
+    }
+
+    return filePos + 4 + (4L * (values.length + 1)) + (2L * charOffset);
+  }
+
+  /**
+   * Helper method to write out everything in the buffer, and clear it for reuse.
+   */
+  private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+    buffer.flip();
+    while (buffer.hasRemaining())
+      channel.write(buffer);
+    buffer.clear();
+  }
+}
@@ -0,0 +1,260 @@
+package com.umkc.bcast.io;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.umkc.bcast.data.BlockType;
+import com.umkc.bcast.data.ClusterDictionary;
+
+/**
+ * A bcast that has been mapped in from a snapshot file written by BroadcastSnapshot.  Every lookup
+ * reads directly from the mapped region, so there is no deserialisation step:  the first block can be
+ * served as soon as the file has been mapped.
+ *
+ * <p>The search key translation works the same way.  getOrdinal() binary searches the key section of
+ * the file, comparing the stored chars against the search key, and returns the same ordinal the original
+ * KeyDictionary would have.  Only the cluster names are read up front, since the ClusterDictionary
+ * needs them to match names without regard to case.
+ *
+ * <p>A MappedBroadcast is read only, and can be shared between threads.
+ *
+ * @author ac010168
+ *
+ */
+public class MappedBroadcast {
+
+  /** Read only view of the whole snapshot file */
+  private ByteBuffer buffer;
+  /** The number of data blocks in each bucket */
+  private int bucketSize;
+  /** The number of blocks in the bcast */
+  private int blockCount;
+  /** Flag that indicates whether the data blocks were keyed by their uniqueIdentifier */
+  private boolean useUniqueIdentifier;
+  /** The offset of the block table in the file */
+  private int blockTableOffset;
+  /** The offset of the key section in the file */
+  private int keySectionOffset;
+  /** The number of keys in the key section */
+  private int keyCount;
+  /** The offset of the first key char in the file */
+  private int keyCharsOffset;
+  /** The offset of the key ordinal table in the file */
+  private int ordinalTableOffset;
+  /** The cluster dictionary, or null for flat bcasts */
+  private ClusterDictionary clusterDictionary;
+
+  /**
+   * Basic Constructor.  Use BroadcastSnapshot.open() rather than calling this directly.
+   *
+   * @param mappedBuffer The mapped snapshot file
+   */
+  MappedBroadcast(ByteBuffer mappedBuffer) {
+    buffer = mappedBuffer.asReadOnlyBuffer();
+
+    if (buffer.getInt(BroadcastSnapshot.OFFSET_MAGIC) != BroadcastSnapshot.MAGIC)
+      throw new RuntimeException("This file is not a bcast snapshot.");
+    if (buffer.getInt(BroadcastSnapshot.OFFSET_VERSION) != BroadcastSnapshot.SNAPSHOT_VERSION)
+      throw new RuntimeException("Unsupported snapshot version " + buffer.getInt(BroadcastSnapshot.OFFSET_VERSION));
+    if (buffer.getInt(BroadcastSnapshot.OFFSET_FORMAT_VERSION) != BlockCodec.FORMAT_VERSION)
+      throw new RuntimeException("Unsupported block format version " + buffer.getInt(BroadcastSnapshot.OFFSET_FORMAT_VERSION));
+    if (buffer.getLong(BroadcastSnapshot.OFFSET_FILE_LENGTH) != buffer.capacity())
+      throw new RuntimeException("The snapshot file is incomplete.  Expected " + buffer.getLong(BroadcastSnapshot.OFFSET_FILE_LENGTH) +
+          " bytes, but found " + buffer.capacity());
+
+    bucketSize          = buffer.getInt(BroadcastSnapshot.OFFSET_BUCKET_SIZE);
+    blockCount          = buffer.getInt(BroadcastSnapshot.OFFSET_BLOCK_COUNT);
+    useUniqueIdentifier = (buffer.getInt(BroadcastSnapshot.OFFSET_FLAGS) & BroadcastSnapshot.FLAG_UNIQUE_IDENTIFIER) != 0;
+    blockTableOffset    = (int)buffer.getLong(BroadcastSnapshot.OFFSET_BLOCK_TABLE);
+    keySectionOffset    = (int)buffer.getLong(BroadcastSnapshot.OFFSET_KEY_SECTION);
+    keyCount            = buffer.getInt(keySectionOffset);
+    keyCharsOffset      = keySectionOffset + 4 + (4 * (keyCount + 1));
+    ordinalTableOffset  = (int)buffer.getLong(BroadcastSnapshot.OFFSET_ORDINAL_TABLE);
+
+    int clusterSectionOffset = (int)buffer.getLong(BroadcastSnapshot.OFFSET_CLUSTER_SECTION);
+    if (clusterSectionOffset >= 0) {
+      int clusterCount      = buffer.getInt(clusterSectionOffset);
+      int clusterCharOffset = clusterSectionOffset + 4 + (4 * (clusterCount + 1));
+      List<String> clusterNames = new ArrayList<String>(clusterCount);
+      for (int clusterId = 0; clusterId < clusterCount; clusterId++) {
+        int startChar = buffer.getInt(clusterSectionOffset + 4 + (4 * clusterId));
+        int endChar   = buffer.getInt(clusterSectionOffset + 8 + (4 * clusterId));
+        char[] nameChars = new char[endChar - startChar];
+        for (int charPos = 0; charPos < nameChars.length; charPos++)
+          nameChars[charPos] = buffer.getChar(clusterCharOffset + (2 * (startChar + charPos)));
+        clusterNames.add(new String(nameChars));
+      }
+      clusterDictionary = new ClusterDictionary(clusterNames);
+    }
+  }
+
+  /**
+   * Translate a search key into its ordinal, the same way KeyDictionary.getOrdinal() would.
+   *
+   * @param key The search key to be translated
+   *
+   * @return The ordinal for the key.  This is an odd number if the key is in the bcast.
+   */
+  public int getOrdinal(String key) {
+    int low  = 0;
+    int high = keyCount - 1;
+    while (low <= high) {
+      int mid    = (low + high) >>> 1;
+      int result = compareKey(mid, key);
+      if (result < 0)
+        low = mid + 1;
+      else if (result > 0)
+        high = mid - 1;
+      else return getKeyOrdinal(mid);
+    }
+
+    if (low < keyCount)
+      return getKeyOrdinal(low) - 1;
+    return (low == 0) ? 0 : getKeyOrdinal(low - 1) + 1;
+  }
+
+  /**
+   * Helper method to read the ordinal of a stored key.
+   */
+  private int getKeyOrdinal(int keyPos) {
+    return buffer.getInt(ordinalTableOffset + (4 * keyPos));
+  }
+
+  /**
+   * Helper method to compare a stored key against a search key, with the same rules as String.compareTo().
+   */
+  private int compareKey(int keyPos, String searchKey) {
+    int startChar = buffer.getInt(keySectionOffset + 4 + (4 * keyPos));
+    int keyLength = buffer.getInt(keySectionOffset + 8 + (4 * keyPos)) - startChar;
+    int charBase  = keyCharsOffset + (2 * startChar);
+
+    int compareLength = Math.min(keyLength, searchKey.length());
+    for (int charPos = 0; charPos < compareLength; charPos++) {
+      char keyChar    = buffer.getChar(charBase + (2 * charPos));
+      char searchChar = searchKey.charAt(charPos);
+      if (keyChar != searchChar)
+        return keyChar - searchChar;
+    }
+    return keyLength - searchKey.length();
+  }
+
+  /**
+   * Translate a cluster name into its id.
+   *
+   * @param clusterGroup The cluster name, in any case
+   *
+   * @return The cluster id, or -1 if the cluster is not part of this bcast (or this is a flat bcast).
+   */
+  public int getClusterId(String clusterGroup) {
+    if (clusterDictionary == null)
+      return -1;
+    return clusterDictionary.getClusterId(clusterGroup);
+  }
+
+  /**
+   * Same as IndexBlock.getNextReadOffset(int), for the block at the given position.
+   *
+   * @param blockPos      The position of the index block in the bcast
+   * @param searchOrdinal The ordinal for the key we are hoping to find a location for in this index
+   *
+   * @return The number of blocks we can doze through before getting more information about our requested data.
+   */
+  public int getNextReadOffset(int blockPos, int searchOrdinal) {
+    return BlockCodec.getNextReadOffset(buffer, getBlockOffset(blockPos), searchOrdinal);
+  }
+
+  /**
+   * Same as IndexBlock.getNextReadOffset(int, int), for the block at the given position.
+   *
+   * @param blockPos        The position of the index block in the bcast
+   * @param searchClusterId The cluster id for the cluster grouping we are looking to search for our key in.
+   * @param searchOrdinal   The ordinal for the key we are hoping to find a location for in this index
+   *
+   * @return The number of blocks we can doze through before getting more information about our requested data.
+   */
+  public int getNextReadOffset(int blockPos, int searchClusterId, int searchOrdinal) {
+    return BlockCodec.getNextReadOffset(buffer, getBlockOffset(blockPos), searchClusterId, searchOrdinal);
+  }
+
+  /**
+   * @param blockPos The position of the block in the bcast
+   *
+   * @return the BlockType of the block at that position
+   */
+  public BlockType getBlockType(int blockPos) {
+    return BlockCodec.getBlockType(buffer, getBlockOffset(blockPos));
+  }
+
+  /**
+   * @param blockPos The position of the block in the bcast
+   *
+   * @return the nextIndexOffset of the block at that position
+   */
+  public int getNextIndexOffset(int blockPos) {
+    return BlockCodec.getNextIndexOffset(buffer, getBlockOffset(blockPos));
+  }
+
+  /**
+   * @param blockPos The position of the block in the bcast
+   *
+   * @return the offset in getBuffer() where the encoded block starts
+   */
+  public int getBlockOffset(int blockPos) {
+    if ((blockPos < 0) || (blockPos >= blockCount))
+      throw new RuntimeException("Block position " + blockPos + " is outside the bcast [0 - " + (blockCount - 1) + "]");
+    return buffer.getInt(blockTableOffset + (4 * blockPos));
+  }
+
+  /**
+   * @param blockPos The position of the block in the bcast
+   *
+   * @return the length of the encoded block, in bytes
+   */
+  public int getBlockLength(int blockPos) {
+    return BlockCodec.getEncodedLength(buffer, getBlockOffset(blockPos));
+  }
+
+  /**
+   * @return the read only buffer holding the whole snapshot.  Use the static BlockCodec methods along
+   * with getBlockOffset() to read individual blocks.
+   */
+  public ByteBuffer getBuffer() {
+    return buffer;
+  }
+
+  /**
+   * @return the number of blocks in the bcast
+   */
+  public int getBlockCount() {
+    return blockCount;
+  }
+
+  /**
+   * @return the bucketSize
+   */
+  public int getBucketSize() {
+    return bucketSize;
+  }
+
+  /**
+   * @return the number of keys in the bcast's key dictionary
+   */
+  public int getKeyCount() {
+    return keyCount;
+  }
+
+  /**
+   * @return the useUniqueIdentifier flag the bcast was built with
+   */
+  public boolean isUseUniqueIdentifier() {
+    return useUniqueIdentifier;
+  }
+
+  /**
+   * @return the clusterDictionary, or null for flat bcasts
+   */
+  public ClusterDictionary getClusterDictionary() {
+    return clusterDictionary;
+  }
+}
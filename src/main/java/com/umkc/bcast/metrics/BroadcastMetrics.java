@@ -0,0 +1,255 @@
+package com.umkc.bcast.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The standard view of how a set of bcasts performed:  a MetricSeries of log bucketed histograms for every
+ * builder type and cluster that queries were recorded for, with p50/p99/p99.9 percentiles and CSV and
+ * JSON exports.
+ *
+ * <p>Every part of this can be recorded into by many threads at once without locking;  new series are
+ * added with putIfAbsent(), and the histograms only use atomic counters.  For heavy recording, each
+ * thread should still keep its own BroadcastMetrics and merge() it into a shared one once it is done, the
+ * same way the simulators merge their per task results, so the threads don't share counters at all.
+ *
+ * <p>Flat bcasts have no clusters, so their queries should be recorded under NO_CLUSTER.  The exports add
+ * a row for every builder type with all of its clusters combined, under ALL_CLUSTERS.
+ *
+ * @author ac010168
+ *
+ */
+public class BroadcastMetrics {
+
+  /** The cluster name used for flat bcasts */
+  public static final String NO_CLUSTER   = "";
+  /** The cluster name used in the exports for all of a builder type's clusters combined */
+  public static final String ALL_CLUSTERS = "*";
+
+  /** The percentiles reported in the exports */
+  private static final double[] EXPORT_PERCENTILES = {50, 99, 99.9};
+  /** The column names for the percentiles in the exports */
+  private static final String[] EXPORT_PERCENTILE_NAMES = {"p50", "p99", "p99_9"};
+
+  /** The series for each cluster, by builder type */
+  private final ConcurrentMap<String, ConcurrentMap<String, MetricSeries>> builderSeries;
+
+  /**
+   * Basic Constructor.
+   */
+  public BroadcastMetrics() {
+    builderSeries = new ConcurrentHashMap<String, ConcurrentMap<String, MetricSeries>>();
+  }
+
+  /**
+   * Get the series for a builder type and cluster, adding it if it doesn't exist yet.  Callers that record
+   * a lot should hold on to the series rather than looking it up for every query.
+   *
+   * @param builderType  The builder type that built the bcast
+   * @param clusterGroup The cluster the queried keys belong to, or NO_CLUSTER for flat bcasts
+   *
+   * @return The series for that builder type and cluster
+   */
+  public MetricSeries getSeries(String builderType, String clusterGroup) {
+    if (builderType == null)
+      throw new RuntimeException("Metrics must be recorded against a builder type.");
+    if (clusterGroup == null)
+      clusterGroup = NO_CLUSTER;
+
+    ConcurrentMap<String, MetricSeries> clusterSeries = builderSeries.get(builderType);
+    if (clusterSeries == null) {
+      ConcurrentMap<String, MetricSeries> newClusterSeries = new ConcurrentHashMap<String, MetricSeries>();
+      clusterSeries = builderSeries.putIfAbsent(builderType, newClusterSeries);
+      if (clusterSeries == null)
+        clusterSeries = newClusterSeries;
+    }
+
+    MetricSeries series = clusterSeries.get(clusterGroup);
+    if (series == null) {
+      MetricSeries newSeries = new MetricSeries(builderType, clusterGroup);
+      series = clusterSeries.putIfAbsent(clusterGroup, newSeries);
+      if (series == null)
+        series = newSeries;
+    }
+    return series;
+  }
+
+  /**
+   * Add all of the series from another set of metrics into this one.
+   *
+   * @param other The metrics to be added
+   */
+  public void merge(BroadcastMetrics other) {
+    for (MetricSeries otherSeries : other.getSeriesList())
+      getSeries(otherSeries.getBuilderType(), otherSeries.getClusterGroup()).merge(otherSeries);
+  }
+
+  /**
+   * @return every series, sorted by builder type and then cluster
+   */
+  public List<MetricSeries> getSeriesList() {
+    List<MetricSeries> seriesList = new ArrayList<MetricSeries>();
+    for (ConcurrentMap<String, MetricSeries> clusterSeries : builderSeries.values())
+      seriesList.addAll(clusterSeries.values());
+
+    Collections.sort(seriesList, new Comparator<MetricSeries>() {
+      @Override
+      public int compare(MetricSeries series1, MetricSeries series2) {
+        int builderCompare = series1.getBuilderType().compareTo(series2.getBuilderType());
+        if (builderCompare != 0)
+          return builderCompare;
+        return series1.getClusterGroup().compareTo(series2.getClusterGroup());
+      }
+    });
+    return seriesList;
+  }
+
+  /**
+   * @return the builder types that have been recorded, sorted
+   */
+  public List<String> getBuilderTypes() {
+    List<String> builderTypes = new ArrayList<String>(builderSeries.keySet());
+    Collections.sort(builderTypes);
+    return builderTypes;
+  }
+
+  /**
+   * Combine every cluster recorded for a builder type into a single series.
+   *
+   * @param builderType The builder type
+   *
+   * @return A new series holding all of that builder type's queries, under ALL_CLUSTERS
+   */
+  public MetricSeries getCombinedSeries(String builderType) {
+    MetricSeries combinedSeries = new MetricSeries(builderType, ALL_CLUSTERS);
+    Map<String, MetricSeries> clusterSeries = builderSeries.get(builderType);
+    if (clusterSeries != null) {
+      for (MetricSeries series : clusterSeries.values())
+        combinedSeries.merge(series);
+    }
+    return combinedSeries;
+  }
+
+  /**
+   * Write every series as CSV, one row per series and metric, with the combined rows for each builder
+   * type first.  The columns are:
+   * <pre>
+   *   builder_type,cluster,metric,queries,failed,count,min,mean,p50,p99,p99_9,max
+   * </pre>
+   *
+   * @param writer Where the CSV is written.  This is not closed.
+   *
+   * @throws IOException If the CSV could not be written
+   */
+  public void writeCsv(Writer writer) throws IOException {
+    writer.write("builder_type,cluster,metric,queries,failed,count,min,mean");
+    for (String percentileName : EXPORT_PERCENTILE_NAMES)
+      writer.write("," + percentileName);
+    writer.write(",max\n");
+
+    for (MetricSeries series : getExportList()) {
+      for (QueryMetric metric : QueryMetric.values()) {
+        LogHistogram histogram = series.getHistogram(metric);
+        writer.write(escapeCsv(series.getBuilderType()) + "," + escapeCsv(series.getClusterGroup()) + "," + metric.getExportName() + "," +
+            series.getQueryCount() + "," + series.getFailedCount() + "," + histogram.getTotalCount() + "," +
+            histogram.getMinValue() + "," + histogram.getMean());
+        for (double percentile : EXPORT_PERCENTILES)
+          writer.write("," + histogram.getValueAtPercentile(percentile));
+        writer.write("," + histogram.getMaxValue() + "\n");
+      }
+    }
+    writer.flush();
+  }
+
+  /**
+   * Write every series as a JSON array, one object per series, with the combined series for each builder
+   * type first.  Each object has the builder type, cluster, query and failure counts, and an object for
+   * each metric with its count, min, mean, percentiles and max.
+   *
+   * @param writer Where the JSON is written.  This is not closed.
+   *
+   * @throws IOException If the JSON could not be written
+   */
+  public void writeJson(Writer writer) throws IOException {
+    writer.write("[");
+    boolean firstSeries = true;
+    for (MetricSeries series : getExportList()) {
+      writer.write(firstSeries ? "\n" : ",\n");
+      firstSeries = false;
+      writer.write("  {\"builder_type\": " + quoteJson(series.getBuilderType()) + ", \"cluster\": " + quoteJson(series.getClusterGroup()) +
+          ", \"queries\": " + series.getQueryCount() + ", \"failed\": " + series.getFailedCount());
+      for (QueryMetric metric : QueryMetric.values()) {
+        LogHistogram histogram = series.getHistogram(metric);
+        writer.write(",\n    \"" + metric.getExportName() + "\": {\"count\": " + histogram.getTotalCount() + ", \"min\": " +
+            histogram.getMinValue() + ", \"mean\": " + histogram.getMean());
+        for (int percentilePos = 0; percentilePos < EXPORT_PERCENTILES.length; percentilePos++)
+          writer.write(", \"" + EXPORT_PERCENTILE_NAMES[percentilePos] + "\": " + histogram.getValueAtPercentile(EXPORT_PERCENTILES[percentilePos]));
+        writer.write(", \"max\": " + histogram.getMaxValue() + "}");
+      }
+      writer.write("}");
+    }
+    writer.write("\n]\n");
+    writer.flush();
+  }
+
+  /**
+   * Helper method for the series to export:  for each builder type, the combined series and then each cluster.
+   */
+  private List<MetricSeries> getExportList() {
+    List<MetricSeries> exportList = new ArrayList<MetricSeries>();
+    List<MetricSeries> seriesList = getSeriesList();
+    for (String builderType : getBuilderTypes()) {
+      exportList.add(getCombinedSeries(builderType));
+      for (MetricSeries series : seriesList) {
+        if (series.getBuilderType().equals(builderType))
+          exportList.add(series);
+      }
+    }
+    return exportList;
+  }
+
+  /**
+   * Helper method to quote a CSV field if it needs it.
+   */
+  private static String escapeCsv(String value) {
+    if ((value.indexOf(',') < 0) && (value.indexOf('"') < 0) && (value.indexOf('\n') < 0))
+      return value;
+    return "\"" + value.replace("\"", "\"\"") + "\"";
+  }
+
+  /**
+   * Helper method to quote a JSON string.
+   */
+  private static String quoteJson(String value) {
+    StringBuilder quoted = new StringBuilder(value.length() + 2);
+    quoted.append('"');
+    for (int charPos = 0; charPos < value.length(); charPos++) {
+      char curChar = value.charAt(charPos);
+      if ((curChar == '"') || (curChar == '\\'))
+        quoted.append('\\').append(curChar);
+      else if (curChar < 0x20)
+        quoted.append(String.format("\\u%04x", (int)curChar));
+      else quoted.append(curChar);
+    }
+    return quoted.append('"').toString();
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see java.lang.Object#toString()
+   */
+  @Override
+  public String toString() {
+    String result = "";
+    for (MetricSeries series : getExportList())
+      result += series;
+    return result;
+  }
+}
@@ -0,0 +1,239 @@
+package com.umkc.bcast.metrics;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed size, log bucketed histogram of non-negative int values that any number of threads can record
+ * into at once without locking.
+ *
+ * <p>Values below 16 each get their own bucket, so short tuning times and index read counts are exact.
+ * Above that, each power of two is split into 8 equal buckets, so a bucket is never wider than 1/8th of
+ * the values in it, and every int fits in 232 buckets no matter how long the bcast is.  Percentiles are
+ * reported as the highest value in the bucket they fall in (capped at the largest value recorded), so
+ * they are never below the exact answer and at most 12.5% above it.
+ *
+ * <p>Recording is a handful of atomic increments, which is cheap when uncontended.  Threads that record
+ * a lot should still each have their own histogram and merge() them together afterwards, the same as the
+ * TimeHistogram, rather than fight over the same counters.  Reads taken while other threads are still
+ * recording are not an exact snapshot;  the counts can be a few values behind each other.
+ *
+ * @author ac010168
+ *
+ */
+public class LogHistogram {
+
+  /** The number of buckets each power of two is split into, as a power of two */
+  private static final int SUB_BUCKET_BITS  = 3;
+  /** The number of buckets each power of two is split into */
+  private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+  /** Values below this each get their own bucket */
+  private static final int LINEAR_LIMIT     = SUB_BUCKET_COUNT << 1;
+  /** The number of buckets needed to hold every int */
+  public static final int BUCKET_COUNT      = getBucketIndex(Integer.MAX_VALUE) + 1;
+
+  /** The number of values recorded in each bucket */
+  private final AtomicLongArray counts;
+  /** The number of values recorded */
+  private final AtomicLong totalCount;
+  /** The sum of every value recorded */
+  private final AtomicLong totalValue;
+  /** The smallest value recorded */
+  private final AtomicInteger minValue;
+  /** The largest value recorded */
+  private final AtomicInteger maxValue;
+
+  /**
+   * Basic Constructor.
+   */
+  public LogHistogram() {
+    counts     = new AtomicLongArray(BUCKET_COUNT);
+    totalCount = new AtomicLong();
+    totalValue = new AtomicLong();
+    minValue   = new AtomicInteger(Integer.MAX_VALUE);
+    maxValue   = new AtomicInteger(-1);
+  }
+
+  /**
+   * Record a single value.
+   *
+   * @param value The value to record.  Must not be negative.
+   */
+  public void record(int value) {
+    if (value < 0)
+      throw new RuntimeException("Cannot record a negative value: " + value);
+
+    //The count goes last, so a reader that sees it also sees a min and max that cover the value
+    counts.incrementAndGet(getBucketIndex(value));
+    totalValue.addAndGet(value);
+    updateMin(value);
+    updateMax(value);
+    totalCount.incrementAndGet();
+  }
+
+  /**
+   * Add all of the values from another histogram into this one.  The other histogram can still be
+   * recorded into while this runs, but only the values it had when each bucket was read will be added.
+   *
+   * @param other The histogram to be added
+   */
+  public void merge(LogHistogram other) {
+    long otherCount = other.totalCount.get();
+    if (otherCount == 0)
+      return;
+
+    int otherMax = other.maxValue.get();
+    for (int bucketPos = getBucketIndex(other.minValue.get()); bucketPos <= getBucketIndex(otherMax); bucketPos++) {
+      long bucketCount = other.counts.get(bucketPos);
+      if (bucketCount != 0)
+        counts.addAndGet(bucketPos, bucketCount);
+    }
+    totalValue.addAndGet(other.totalValue.get());
+    updateMin(other.minValue.get());
+    updateMax(otherMax);
+    totalCount.addAndGet(otherCount);
+  }
+
+  /**
+   * Find the smallest value that at least the given percentage of the recorded values are at or below,
+   * to within the width of its bucket.
+   *
+   * @param percentile The percentile wanted, between 0 and 100
+   *
+   * @return The highest value in the bucket holding that percentile, or 0 if nothing has been recorded
+   */
+  public int getValueAtPercentile(double percentile) {
+    long recordedCount = totalCount.get();
+    if (recordedCount == 0)
+      return 0;
+
+    long targetCount  = Math.max(1, (long)Math.ceil((percentile / 100.0) * recordedCount));
+    long runningCount = 0;
+    int minRecorded   = minValue.get();
+    int maxRecorded   = maxValue.get();
+    for (int bucketPos = getBucketIndex(minRecorded); bucketPos <= getBucketIndex(maxRecorded); bucketPos++) {
+      runningCount += counts.get(bucketPos);
+      if (runningCount >= targetCount)
+        return Math.max(minRecorded, Math.min(maxRecorded, getBucketUpperBound(bucketPos)));
+    }
+    return maxRecorded;
+  }
+
+  /**
+   * @param value A value
+   *
+   * @return The number of values recorded in the same bucket as that value
+   */
+  public long getBucketCount(int value) {
+    if (value < 0)
+      return 0;
+    return counts.get(getBucketIndex(value));
+  }
+
+  /**
+   * @return the number of values recorded
+   */
+  public long getTotalCount() {
+    return totalCount.get();
+  }
+
+  /**
+   * @return the sum of every value recorded
+   */
+  public long getTotalValue() {
+    return totalValue.get();
+  }
+
+  /**
+   * @return the mean of the recorded values, or 0 if nothing has been recorded
+   */
+  public double getMean() {
+    long recordedCount = totalCount.get();
+    return (recordedCount == 0) ? 0.0 : (double)totalValue.get() / recordedCount;
+  }
+
+  /**
+   * @return the smallest value recorded, or 0 if nothing has been recorded
+   */
+  public int getMinValue() {
+    return (totalCount.get() == 0) ? 0 : minValue.get();
+  }
+
+  /**
+   * @return the largest value recorded, or 0 if nothing has been recorded
+   */
+  public int getMaxValue() {
+    return (totalCount.get() == 0) ? 0 : maxValue.get();
+  }
+
+  /**
+   * Work out which bucket a value falls in.
+   *
+   * @param value A non-negative value
+   *
+   * @return The index of its bucket
+   */
+  public static int getBucketIndex(int value) {
+    if (value < LINEAR_LIMIT)
+      return value;
+
+    //The top bit picks the power of two, and the next SUB_BUCKET_BITS bits pick the bucket within it
+    int topBit = 31 - Integer.numberOfLeadingZeros(value);
+    int shift  = topBit - SUB_BUCKET_BITS;
+    return LINEAR_LIMIT + ((topBit - SUB_BUCKET_BITS - 1) * SUB_BUCKET_COUNT) + ((value >>> shift) - SUB_BUCKET_COUNT);
+  }
+
+  /**
+   * @param bucketPos The index of a bucket
+   *
+   * @return The smallest value that falls in that bucket
+   */
+  public static int getBucketLowerBound(int bucketPos) {
+    if (bucketPos < LINEAR_LIMIT)
+      return bucketPos;
+
+    int shift = ((bucketPos - LINEAR_LIMIT) / SUB_BUCKET_COUNT) + 1;
+    int subBucket = SUB_BUCKET_COUNT + ((bucketPos - LINEAR_LIMIT) % SUB_BUCKET_COUNT);
+    return subBucket << shift;
+  }
+
+  /**
+   * @param bucketPos The index of a bucket
+   *
+   * @return The largest value that falls in that bucket
+   */
+  public static int getBucketUpperBound(int bucketPos) {
+    if (bucketPos >= BUCKET_COUNT - 1)
+      return Integer.MAX_VALUE;
+    return getBucketLowerBound(bucketPos + 1) - 1;
+  }
+
+  /**
+   * Helper method to lower the smallest value without a lock.
+   */
+  private void updateMin(int value) {
+    int curMin = minValue.get();
+    while ((value < curMin) && !minValue.compareAndSet(curMin, value))
+      curMin = minValue.get();
+  }
+
+  /**
+   * Helper method to raise the largest value without a lock.
+   */
+  private void updateMax(int value) {
+    int curMax = maxValue.get();
+    while ((value > curMax) && !maxValue.compareAndSet(curMax, value))
+      curMax = maxValue.get();
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see java.lang.Object#toString()
+   */
+  @Override
+  public String toString() {
+    return "Count: " + getTotalCount() + "  Mean: " + getMean() + "  Min: " + getMinValue() + "  p50: " + getValueAtPercentile(50) +
+        "  p99: " + getValueAtPercentile(99) + "  p99.9: " + getValueAtPercentile(99.9) + "  Max: " + getMaxValue();
+  }
+}
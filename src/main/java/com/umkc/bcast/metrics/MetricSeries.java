@@ -0,0 +1,153 @@
+package com.umkc.bcast.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.umkc.bcast.QueryResult;
+
+/**
+ * The histograms for one builder type and one cluster:  one LogHistogram for each QueryMetric, plus the
+ * number of queries and how many of them failed.  Like the LogHistogram, a series can be recorded into by
+ * any number of threads at once without locking.
+ *
+ * @author ac010168
+ *
+ */
+public class MetricSeries {
+
+  /** The builder type that built the bcast these queries ran against */
+  private final String builderType;
+  /** The cluster the queried keys belong to */
+  private final String clusterGroup;
+  /** One histogram for each QueryMetric, by ordinal */
+  private final LogHistogram[] histograms;
+  /** The number of queries recorded */
+  private final AtomicLong queryCount;
+  /** The number of queries that did not find their key */
+  private final AtomicLong failedCount;
+
+  /**
+   * Basic Constructor.
+   *
+   * @param builderType  The builder type that built the bcast these queries ran against
+   * @param clusterGroup The cluster the queried keys belong to
+   */
+  public MetricSeries(String builderType, String clusterGroup) {
+    this.builderType  = builderType;
+    this.clusterGroup = clusterGroup;
+    this.histograms   = new LogHistogram[QueryMetric.values().length];
+    for (int metricPos = 0; metricPos < histograms.length; metricPos++)
+      histograms[metricPos] = new LogHistogram();
+    this.queryCount  = new AtomicLong();
+    this.failedCount = new AtomicLong();
+  }
+
+  /**
+   * Record every metric for a finished BroadcastClient search.  The access and tuning times are only
+   * recorded if the key was found;  the index reads and dozes are recorded either way.
+   *
+   * @param result The result of the search
+   */
+  public void recordQuery(QueryResult result) {
+    if (result.isFound())
+      recordFound(result.getAccessTime(), result.getTuningTime());
+    else recordFailed();
+
+    histograms[QueryMetric.INDEX_BLOCKS_READ.ordinal()].record(result.getIndexBlocksRead());
+    LogHistogram dozeLengths = histograms[QueryMetric.DOZE_LENGTH.ordinal()];
+    for (int dozePos = 0; dozePos < result.getDozeCount(); dozePos++)
+      dozeLengths.record(result.getDozeLength(dozePos));
+  }
+
+  /**
+   * Record a query that found its key, for callers that run their own searches.  Index reads and dozes
+   * should be recorded separately with record().
+   *
+   * @param accessTime The access time, in blocks
+   * @param tuningTime The tuning time, in blocks
+   */
+  public void recordFound(int accessTime, int tuningTime) {
+    histograms[QueryMetric.ACCESS_TIME.ordinal()].record(accessTime);
+    histograms[QueryMetric.TUNING_TIME.ordinal()].record(tuningTime);
+    queryCount.incrementAndGet();
+  }
+
+  /**
+   * Record a query that did not find its key.
+   */
+  public void recordFailed() {
+    failedCount.incrementAndGet();
+    queryCount.incrementAndGet();
+  }
+
+  /**
+   * Record a single value for one metric.
+   *
+   * @param metric The metric
+   * @param value  The value to record
+   */
+  public void record(QueryMetric metric, int value) {
+    histograms[metric.ordinal()].record(value);
+  }
+
+  /**
+   * Add all of the values from another series into this one.  The builder type and cluster of the other
+   * series are not checked, so this can also be used to combine clusters.
+   *
+   * @param other The series to be added
+   */
+  public void merge(MetricSeries other) {
+    for (int metricPos = 0; metricPos < histograms.length; metricPos++)
+      histograms[metricPos].merge(other.histograms[metricPos]);
+    failedCount.addAndGet(other.failedCount.get());
+    queryCount.addAndGet(other.queryCount.get());
+  }
+
+  /**
+   * @param metric The metric
+   *
+   * @return the histogram for that metric
+   */
+  public LogHistogram getHistogram(QueryMetric metric) {
+    return histograms[metric.ordinal()];
+  }
+
+  /**
+   * @return the builderType
+   */
+  public String getBuilderType() {
+    return builderType;
+  }
+
+  /**
+   * @return the clusterGroup
+   */
+  public String getClusterGroup() {
+    return clusterGroup;
+  }
+
+  /**
+   * @return the number of queries recorded
+   */
+  public long getQueryCount() {
+    return queryCount.get();
+  }
+
+  /**
+   * @return the number of queries that did not find their key
+   */
+  public long getFailedCount() {
+    return failedCount.get();
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see java.lang.Object#toString()
+   */
+  @Override
+  public String toString() {
+    String result = builderType + " [" + clusterGroup + "]  Queries: " + getQueryCount() + "  Failed: " + getFailedCount() + "\n";
+    for (QueryMetric metric : QueryMetric.values())
+      result += "  " + metric.getExportName() + ": " + getHistogram(metric) + "\n";
+    return result;
+  }
+}
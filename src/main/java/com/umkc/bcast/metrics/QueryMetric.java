@@ -0,0 +1,33 @@
+package com.umkc.bcast.metrics;
+
+/**
+ * The measurements recorded for every query by a MetricSeries.  All of them are counted in blocks, except
+ * for the index reads, which are counted in reads.
+ *
+ * @author ac010168
+ *
+ */
+public enum QueryMetric {
+  /** Every block from tuning in up to and including the data block.  Only recorded for found keys. */
+  ACCESS_TIME("access_time"),
+  /** The blocks the client was awake for.  Only recorded for found keys. */
+  TUNING_TIME("tuning_time"),
+  /** The number of index blocks read, after tuning in and before the data block */
+  INDEX_BLOCKS_READ("index_blocks_read"),
+  /** The length of each doze, so a query records one value for every time it went back to sleep */
+  DOZE_LENGTH("doze_length");
+
+  /** The name used for this metric in the CSV and JSON exports */
+  private final String exportName;
+
+  private QueryMetric(String exportName) {
+    this.exportName = exportName;
+  }
+
+  /**
+   * @return the name used for this metric in the CSV and JSON exports
+   */
+  public String getExportName() {
+    return exportName;
+  }
+}
@@ -0,0 +1,130 @@
+package com.umkc.bcast.server;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.umkc.bcast.data.Block;
+
+/**
+ * Single producer, multi consumer ring buffer that the BroadcastServer publishes each block into.  Like
+ * a real broadcast, the producer never waits for its listeners:  it simply overwrites the oldest slot,
+ * and a listener that falls more than a full ring behind finds its blocks gone and skips ahead.
+ *
+ * <p>The ring is lock free.  Each slot holds the block, its position in the cycle, and the sequence
+ * number it was published with.  The producer invalidates a slot's sequence before overwriting it, and
+ * sets the new sequence once the slot is filled in, so a listener that reads the same sequence before
+ * and after reading a slot knows it got a consistent copy.  Any number of listeners can read the ring,
+ * each through its own RingListener, without ever writing to it.
+ *
+ * @author ac010168
+ *
+ */
+public class BlockRingBuffer {
+
+  /** Marks a slot the producer is in the middle of overwriting */
+  private static final long SLOT_BUSY = -1;
+
+  /** The number of slots, always a power of 2 */
+  private final int capacity;
+  /** Mask to turn a sequence number into a slot */
+  private final int slotMask;
+  /** The block in each slot */
+  private final AtomicReferenceArray<Block> slotBlocks;
+  /** The cycle position of the block in each slot */
+  private final AtomicIntegerArray slotPositions;
+  /** The sequence number of the block in each slot */
+  private final AtomicLongArray slotSequences;
+
+  /** The sequence number of the last block published, or -1 if none have been */
+  private volatile long lastSequence;
+
+  /**
+   * Basic Constructor.
+   *
+   * @param minimumCapacity The smallest number of blocks the ring should hold.  This is rounded up to a power of 2.
+   */
+  public BlockRingBuffer(int minimumCapacity) {
+    if ((minimumCapacity <= 0) || (minimumCapacity > (1 << 30)))
+      throw new RuntimeException("Ring capacity must be between 1 and 2^30: " + minimumCapacity);
+
+    capacity      = (minimumCapacity == 1) ? 1 : Integer.highestOneBit(minimumCapacity - 1) << 1;
+    slotMask      = capacity - 1;
+    slotBlocks    = new AtomicReferenceArray<Block>(capacity);
+    slotPositions = new AtomicIntegerArray(capacity);
+    slotSequences = new AtomicLongArray(capacity);
+    for (int slot = 0; slot < capacity; slot++)
+      slotSequences.set(slot, SLOT_BUSY);
+    lastSequence = -1;
+  }
+
+  /**
+   * Publish the next block.  This must only ever be called from the one producer thread.
+   *
+   * @param block    The block to publish
+   * @param cyclePos The position of the block in its cycle
+   *
+   * @return The sequence number the block was published with
+   */
+  public long publish(Block block, int cyclePos) {
+    long sequence = lastSequence + 1;
+    int slot      = (int)(sequence & slotMask);
+
+    slotSequences.set(slot, SLOT_BUSY);
+    slotBlocks.set(slot, block);
+    slotPositions.set(slot, cyclePos);
+    slotSequences.set(slot, sequence);
+    lastSequence = sequence;
+    return sequence;
+  }
+
+  /**
+   * Create a listener that will read every block published from now on.
+   *
+   * @return A new listener, owned by the calling thread
+   */
+  public RingListener subscribe() {
+    return new RingListener(this, lastSequence + 1);
+  }
+
+  /**
+   * @return the sequence number of the last block published, or -1 if none have been
+   */
+  public long getLastSequence() {
+    return lastSequence;
+  }
+
+  /**
+   * @return the number of blocks the ring holds
+   */
+  public int getCapacity() {
+    return capacity;
+  }
+
+  /**
+   * Helper method for listeners to read a slot.  The slot is read between two reads of its sequence, so
+   * a copy is only handed back if the producer didn't touch the slot in between.
+   *
+   * @param sequence The sequence number wanted
+   * @param listener The listener to hand the block and position to
+   *
+   * @return the sequence actually found in the slot.  This is the sequence wanted if the read succeeded,
+   *         an older sequence (or SLOT_BUSY) if it hasn't been published yet, or a newer one if it has
+   *         already been overwritten.
+   */
+  long read(long sequence, RingListener listener) {
+    int slot          = (int)(sequence & slotMask);
+    long slotSequence = slotSequences.get(slot);
+    if (slotSequence != sequence)
+      return slotSequence;
+
+    Block block  = slotBlocks.get(slot);
+    int cyclePos = slotPositions.get(slot);
+    long checkSequence = slotSequences.get(slot);
+    if (checkSequence != sequence)
+      return (checkSequence == SLOT_BUSY) ? sequence + capacity : checkSequence;
+
+    listener.setCurrent(sequence, block, cyclePos);
+    return sequence;
+  }
+}
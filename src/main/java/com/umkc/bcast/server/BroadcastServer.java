@@ -0,0 +1,343 @@
+package com.umkc.bcast.server;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+import com.umkc.bcast.data.Block;
+import com.umkc.bcast.io.BlockCodec;
+
+/**
+ * Broadcasts an assembled bcast cycle, over and over, by publishing each block into a BlockRingBuffer
+ * that any number of in process listeners can read from.
+ *
+ * <p>The server can be run at a fixed block rate (blocks per second), at a fixed byte rate (bytes per
+ * second, using the encoded length of each block), or unthrottled.  When throttled, every block has a
+ * due time worked out from the start of the run and the number of blocks (or bytes) sent before it,
+ * rather than from when the previous block went out.  So if the server is ever held up, it simply sends
+ * the next few blocks without waiting until it is back on schedule, and timing errors never accumulate.
+ * The furthest behind schedule the server has been is reported, along with how many blocks went out late.
+ *
+ * <p>The server runs on its own thread between start() and stop().
+ *
+ * <p>The cycle on air can be replaced without stopping the server.  The next cycle is built off to the
+ * side (see buildNextCycle() and CycleBuild) while the current one is still going out, and handed over
+ * with setNextCycle().  The server only picks it up when it gets back to the start of the cycle, so the
+ * last block of the old cycle is followed straight away by the first block of the new one:  listeners
+ * never see a gap, a pause, or a mix of old and new blocks within one cycle.  If more than one cycle is
+ * handed over before the boundary, only the latest is broadcast.
+ *
+ * @author ac010168
+ *
+ */
+public class BroadcastServer {
+
+  /** Waits shorter than this are done by yielding rather than parking, since parking is not that precise */
+  private static final long SPIN_NANOS = 50000;
+
+  /** The ring the blocks are published into */
+  private final BlockRingBuffer ringBuffer;
+  /** The next cycle to go on air, waiting for the current one to finish, or null */
+  private final AtomicReference<CycleBuffer> nextCycle;
+
+  /** The cycle being broadcast */
+  private volatile CycleBuffer currentCycle;
+  /** The codec used to work out the encoded length of each block, or null if running at a block rate */
+  private BlockCodec blockCodec;
+  /** The time it takes to send one block (or one byte), or 0 to run unthrottled */
+  private double nanosPerUnit;
+
+  /** The thread running the broadcast */
+  private Thread serverThread;
+  /** Flag to tell the server thread to stop */
+  private volatile boolean running;
+
+  /** The number of full cycles sent */
+  private volatile long cycleCount;
+  /** The number of times a new cycle has been swapped in */
+  private volatile long swapCount;
+  /** The number of blocks sent more than SPIN_NANOS after they were due */
+  private volatile long lateCount;
+  /** The furthest behind schedule a block has been sent, in nanoseconds */
+  private volatile long maxLagNanos;
+
+  /**
+   * Basic Constructor.  The server starts out unthrottled.
+   *
+   * @param cycle        The assembled bcast cycle to broadcast
+   * @param ringCapacity The number of blocks the ring should hold for slow listeners
+   */
+  public BroadcastServer(List<Block> cycle, int ringCapacity) {
+    this.ringBuffer   = new BlockRingBuffer(ringCapacity);
+    this.nextCycle    = new AtomicReference<CycleBuffer>();
+    this.currentCycle = createCycleBuffer(cycle);
+  }
+
+  /**
+   * Run the server at a fixed number of blocks per second.
+   *
+   * @param blocksPerSecond The block rate, or 0 to run unthrottled
+   */
+  public synchronized void setBlockRate(double blocksPerSecond) {
+    checkStopped();
+    if (blocksPerSecond < 0)
+      throw new RuntimeException("The block rate cannot be negative: " + blocksPerSecond);
+    blockCodec   = null;
+    nanosPerUnit = (blocksPerSecond == 0) ? 0 : 1000000000.0 / blocksPerSecond;
+    refreshCycleBuffers();
+  }
+
+  /**
+   * Run the server at a fixed number of bytes per second, with each block taking as long as its encoded
+   * length to send.
+   *
+   * @param bytesPerSecond The byte rate, or 0 to run unthrottled
+   * @param blockCodec     The codec used to work out the encoded length of each block
+   */
+  public synchronized void setByteRate(double bytesPerSecond, BlockCodec blockCodec) {
+    checkStopped();
+    if (bytesPerSecond < 0)
+      throw new RuntimeException("The byte rate cannot be negative: " + bytesPerSecond);
+    this.blockCodec = blockCodec;
+    nanosPerUnit    = (bytesPerSecond == 0) ? 0 : 1000000000.0 / bytesPerSecond;
+    refreshCycleBuffers();
+  }
+
+  /**
+   * Hand over the cycle to broadcast once the current one finishes.  This can be called from any thread
+   * while the server is running;  if the server is stopped, the cycle goes on air at the next start().
+   * When running at a byte rate, the block lengths are worked out here, on the calling thread, so the
+   * swap itself costs the server nothing.
+   *
+   * @param cycle The fully assembled cycle to broadcast next
+   */
+  public synchronized void setNextCycle(List<Block> cycle) {
+    nextCycle.set(createCycleBuffer(cycle));
+  }
+
+  /**
+   * Build the next cycle in the background while the current one is on air, and hand it over with
+   * setNextCycle() once it is done.  If the build fails, the current cycle simply stays on air, and the
+   * failure is reported through the returned Future.
+   *
+   * @param cycleBuild    The task that builds the next cycle, such as a CycleBuild
+   * @param buildExecutor The executor to build on
+   *
+   * @return A Future for the new cycle, which completes once the cycle has been handed over
+   */
+  public Future<List<Block>> buildNextCycle(final Callable<List<Block>> cycleBuild, ExecutorService buildExecutor) {
+    return buildExecutor.submit(new Callable<List<Block>>() {
+      @Override
+      public List<Block> call() throws Exception {
+        List<Block> cycle = cycleBuild.call();
+        setNextCycle(cycle);
+        return cycle;
+      }
+    });
+  }
+
+  /**
+   * Create a listener that will read every block published from now on.
+   *
+   * @return A new listener, owned by the calling thread
+   */
+  public RingListener subscribe() {
+    return ringBuffer.subscribe();
+  }
+
+  /**
+   * Start broadcasting, from the start of the cycle.  The cycle, swap and lag counts start again from 0.
+   */
+  public synchronized void start() {
+    checkStopped();
+    cycleCount   = 0;
+    swapCount    = 0;
+    lateCount    = 0;
+    maxLagNanos  = 0;
+    running      = true;
+    serverThread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        runBroadcast();
+      }
+    }, "BroadcastServer");
+    serverThread.setDaemon(true);
+    serverThread.start();
+  }
+
+  /**
+   * Stop broadcasting, and wait for the server thread to finish.
+   */
+  public synchronized void stop() {
+    running = false;
+    if (serverThread == null)
+      return;
+
+    LockSupport.unpark(serverThread);
+    try {
+      serverThread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    serverThread = null;
+  }
+
+  /**
+   * @return the ring the blocks are published into
+   */
+  public BlockRingBuffer getRingBuffer() {
+    return ringBuffer;
+  }
+
+  /**
+   * @return the number of blocks published so far
+   */
+  public long getPublishedCount() {
+    return ringBuffer.getLastSequence() + 1;
+  }
+
+  /**
+   * @return the cycle currently on air
+   */
+  public List<Block> getCycle() {
+    return currentCycle.blocks;
+  }
+
+  /**
+   * @return true if a new cycle has been handed over, but hasn't gone on air yet
+   */
+  public boolean hasNextCycle() {
+    return nextCycle.get() != null;
+  }
+
+  /**
+   * @return the number of times a new cycle has been swapped in
+   */
+  public long getSwapCount() {
+    return swapCount;
+  }
+
+  /**
+   * @return the number of full cycles sent
+   */
+  public long getCycleCount() {
+    return cycleCount;
+  }
+
+  /**
+   * @return the number of blocks sent noticeably after they were due
+   */
+  public long getLateCount() {
+    return lateCount;
+  }
+
+  /**
+   * @return the furthest behind schedule a block has been sent, in nanoseconds
+   */
+  public long getMaxLagNanos() {
+    return maxLagNanos;
+  }
+
+  /**
+   * Helper method for the server thread, which publishes the cycle until told to stop.  A new cycle is
+   * only ever picked up here, before the first block of a cycle goes out.
+   */
+  private void runBroadcast() {
+    long startNanos = System.nanoTime();
+    long unitsSent  = 0;
+
+    while (running) {
+      CycleBuffer swapCycle = nextCycle.getAndSet(null);
+      if (swapCycle != null) {
+        currentCycle = swapCycle;
+        swapCount++;
+      }
+
+      List<Block> cycle = currentCycle.blocks;
+      int[] blockBytes  = currentCycle.blockBytes;
+      int cycleLength   = cycle.size();
+      for (int cyclePos = 0; (cyclePos < cycleLength) && running; cyclePos++) {
+        if (nanosPerUnit > 0)
+          waitUntil(startNanos + (long)(unitsSent * nanosPerUnit));
+
+        ringBuffer.publish(cycle.get(cyclePos), cyclePos);
+        unitsSent += (blockBytes == null) ? 1 : blockBytes[cyclePos];
+      }
+      if (running)
+        cycleCount++;
+    }
+  }
+
+  /**
+   * Helper method to pair a cycle with the encoded length of each of its blocks, if running at a byte rate.
+   */
+  private CycleBuffer createCycleBuffer(List<Block> cycle) {
+    if (cycle.isEmpty())
+      throw new RuntimeException("Cannot broadcast an empty cycle.");
+
+    int[] blockBytes = null;
+    if (blockCodec != null) {
+      blockBytes = new int[cycle.size()];
+      for (int cyclePos = 0; cyclePos < blockBytes.length; cyclePos++)
+        blockBytes[cyclePos] = blockCodec.getEncodedLength(cycle.get(cyclePos));
+    }
+    return new CycleBuffer(cycle, blockBytes);
+  }
+
+  /**
+   * Helper method to rework the block lengths of the current and next cycles after the rate changes.
+   */
+  private void refreshCycleBuffers() {
+    currentCycle = createCycleBuffer(currentCycle.blocks);
+    CycleBuffer pendingCycle = nextCycle.get();
+    if (pendingCycle != null)
+      nextCycle.compareAndSet(pendingCycle, createCycleBuffer(pendingCycle.blocks));
+  }
+
+  /**
+   * Helper method to wait until a block is due, and note how late it is if we're already behind.
+   */
+  private void waitUntil(long dueNanos) {
+    long waitNanos;
+    while (running && ((waitNanos = dueNanos - System.nanoTime()) > 0)) {
+      if (waitNanos > SPIN_NANOS)
+        LockSupport.parkNanos(this, waitNanos - SPIN_NANOS);
+      else Thread.yield();
+    }
+
+    long lagNanos = System.nanoTime() - dueNanos;
+    if (lagNanos > SPIN_NANOS)
+      lateCount++;
+    if (lagNanos > maxLagNanos)
+      maxLagNanos = lagNanos;
+  }
+
+  /**
+   * Helper method to reject changes while the server is running.
+   */
+  private void checkStopped() {
+    if (serverThread != null)
+      throw new RuntimeException("The server must be stopped first.");
+  }
+
+  /**
+   * A cycle ready to go on air, along with the encoded length of each block if running at a byte rate.
+   */
+  private static class CycleBuffer {
+    /** The blocks in the cycle */
+    private final List<Block> blocks;
+    /** The encoded length of each block, or null if running at a block rate */
+    private final int[] blockBytes;
+
+    /**
+     * Basic Constructor.
+     */
+    private CycleBuffer(List<Block> blocks, int[] blockBytes) {
+      this.blocks     = blocks;
+      this.blockBytes = blockBytes;
+    }
+  }
+}
@@ -0,0 +1,89 @@
+package com.umkc.bcast.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import com.umkc.bcast.BroadcastBuilder;
+import com.umkc.bcast.data.Block;
+import com.umkc.bcast.data.DataBlock;
+
+/**
+ * Builds a complete bcast cycle from scratch with a fresh builder, as a task that can be run in the
+ * background while the previous cycle is still on air (see BroadcastServer.buildNextCycle()).
+ *
+ * <p>The builders stamp block ids and next index offsets onto the data blocks they are given, so a
+ * data block shared with the cycle on air would be changed under the listeners reading it.  To keep
+ * that from happening, the build works on clones of the data blocks, and the blocks passed in are
+ * never touched.  If the builder has an index pool set, the indices are built in parallel on it.
+ *
+ * @author ac010168
+ *
+ */
+public class CycleBuild implements Callable<List<Block>> {
+
+  /** The fresh builder to build the cycle with */
+  private final BroadcastBuilder builder;
+  /** The data blocks for each cluster, in the order they should be assigned */
+  private final List<List<DataBlock>> clusterBlocks;
+  /** The order the clusters go on air in, or null for a flat builder */
+  private final List<String> clusterOrder;
+
+  /**
+   * Constructor for a flat cycle.
+   *
+   * @param builder    The fresh builder to build the cycle with
+   * @param dataBlocks The sorted data blocks for the cycle
+   */
+  public CycleBuild(BroadcastBuilder builder, List<DataBlock> dataBlocks) {
+    this.builder       = builder;
+    this.clusterBlocks = new ArrayList<List<DataBlock>>(1);
+    this.clusterBlocks.add(dataBlocks);
+    this.clusterOrder  = null;
+  }
+
+  /**
+   * Constructor for a clustered cycle.
+   *
+   * @param builder       The fresh builder to build the cycle with
+   * @param clusterBlocks The sorted data blocks for each cluster
+   * @param clusterOrder  The order the clusters should go on air in
+   */
+  public CycleBuild(BroadcastBuilder builder, List<List<DataBlock>> clusterBlocks, List<String> clusterOrder) {
+    if (clusterOrder == null)
+      throw new RuntimeException("A clustered cycle needs a cluster order.");
+    this.builder       = builder;
+    this.clusterBlocks = clusterBlocks;
+    this.clusterOrder  = clusterOrder;
+  }
+
+  /* (non-Javadoc)
+   * @see java.util.concurrent.Callable#call()
+   */
+  @Override
+  public List<Block> call() {
+    for (List<DataBlock> dataBlocks : clusterBlocks)
+      builder.assignDataBlocks(cloneBlocks(dataBlocks));
+    if (clusterOrder != null)
+      builder.addClusterKeys(clusterOrder);
+    builder.constructGlobalIndices();
+    return builder.assembleBcast();
+  }
+
+  /**
+   * @return the builder used to build the cycle
+   */
+  public BroadcastBuilder getBuilder() {
+    return builder;
+  }
+
+  /**
+   * Helper method to clone the data blocks, so the build never changes blocks that may be on air.
+   */
+  private static List<DataBlock> cloneBlocks(List<DataBlock> dataBlocks) {
+    List<DataBlock> clonedBlocks = new ArrayList<DataBlock>(dataBlocks.size());
+    for (DataBlock dataBlock : dataBlocks)
+      clonedBlocks.add((DataBlock)dataBlock.clone());
+    return clonedBlocks;
+  }
+}
@@ -0,0 +1,140 @@
+package com.umkc.bcast.server;
+
+import java.util.concurrent.locks.LockSupport;
+
+import com.umkc.bcast.data.Block;
+
+/**
+ * A single listener's view of a BlockRingBuffer.  The listener keeps track of the next sequence it wants
+ * to read, and poll() moves it along one block at a time.  If the producer has lapped the listener, the
+ * blocks it fell behind on are gone;  the listener skips ahead to the oldest block still in the ring and
+ * counts the ones it missed.
+ *
+ * <p>A listener holds per reader state, so it must only be used by the thread that owns it.  Reading
+ * does not allocate.
+ *
+ * @author ac010168
+ *
+ */
+public class RingListener {
+
+  /** The longest a waiting listener parks for between checks, in nanoseconds */
+  private static final long MAX_PARK_NANOS = 100000;
+
+  /** The ring being read */
+  private final BlockRingBuffer ringBuffer;
+  /** The next sequence to be read */
+  private long nextSequence;
+  /** The number of blocks skipped because the producer overwrote them first */
+  private long missedCount;
+
+  /** The sequence number of the block most recently read, or -1 */
+  private long sequence;
+  /** The block most recently read */
+  private Block block;
+  /** The cycle position of the block most recently read */
+  private int cyclePos;
+
+  /**
+   * Basic Constructor.  Listeners are created with BlockRingBuffer.subscribe().
+   *
+   * @param ringBuffer   The ring to read
+   * @param nextSequence The first sequence to read
+   */
+  RingListener(BlockRingBuffer ringBuffer, long nextSequence) {
+    this.ringBuffer   = ringBuffer;
+    this.nextSequence = nextSequence;
+    this.sequence     = -1;
+    this.cyclePos     = -1;
+  }
+
+  /**
+   * Move on to the next block, if it has been published.
+   *
+   * @return true if a block was read, in which case getBlock() and friends describe it, or false if the
+   *         next block hasn't been published yet
+   */
+  public boolean poll() {
+    while (true) {
+      long foundSequence = ringBuffer.read(nextSequence, this);
+      if (foundSequence == nextSequence) {
+        nextSequence++;
+        return true;
+      }
+
+      long lastSequence = ringBuffer.getLastSequence();
+      if (foundSequence < nextSequence) {
+        //The slot is busy or still holds an older block, so ours hasn't been published yet, or it was
+        //published just after we looked.  It's only gone if the producer could be overwriting it already.
+        if (lastSequence < nextSequence)
+          return false;
+        if (lastSequence - nextSequence < ringBuffer.getCapacity() - 1)
+          continue;
+      }
+
+      //The slot holds a newer block, or is about to, so we've been lapped.  Skip to the oldest block that
+      //isn't about to be overwritten.
+      long oldestSequence = Math.max(nextSequence + 1, lastSequence - ringBuffer.getCapacity() + 2);
+      missedCount += oldestSequence - nextSequence;
+      nextSequence = oldestSequence;
+    }
+  }
+
+  /**
+   * Wait for the next block to be published, and read it.
+   *
+   * @param timeoutNanos The longest to wait, in nanoseconds
+   *
+   * @return true if a block was read, or false if the wait timed out
+   */
+  public boolean await(long timeoutNanos) {
+    long deadline = System.nanoTime() + timeoutNanos;
+    int spinCount = 0;
+    while (!poll()) {
+      long remainingNanos = deadline - System.nanoTime();
+      if (remainingNanos <= 0)
+        return false;
+      if (++spinCount < 100)
+        Thread.yield();
+      else LockSupport.parkNanos(this, Math.min(remainingNanos, MAX_PARK_NANOS));
+    }
+    return true;
+  }
+
+  /**
+   * Helper method for the ring to hand over a block once it has been read consistently.
+   */
+  void setCurrent(long sequence, Block block, int cyclePos) {
+    this.sequence = sequence;
+    this.block    = block;
+    this.cyclePos = cyclePos;
+  }
+
+  /**
+   * @return the block most recently read
+   */
+  public Block getBlock() {
+    return block;
+  }
+
+  /**
+   * @return the position in its cycle of the block most recently read
+   */
+  public int getCyclePos() {
+    return cyclePos;
+  }
+
+  /**
+   * @return the sequence number of the block most recently read, or -1 if none have been
+   */
+  public long getSequence() {
+    return sequence;
+  }
+
+  /**
+   * @return the number of blocks skipped because the producer overwrote them first
+   */
+  public long getMissedCount() {
+    return missedCount;
+  }
+}
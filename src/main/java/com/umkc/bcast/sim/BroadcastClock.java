@@ -0,0 +1,172 @@
+package com.umkc.bcast.sim;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A live bcast clock, which puts a new block on air every tickNanos.  Tick t is due to go on air at
+ * (startNanos + t * tickNanos), and stays on air until tick t + 1 does.
+ *
+ * <p>Clients block in awaitTick() until the tick they want goes on air.  Waiting clients are parked in a
+ * wait list for their tick, and the clock thread unparks the whole list when the tick is published, so
+ * a sleeping client costs nothing until its block comes around.  The current tick is published before
+ * the wait list is drained, and clients check the current tick after joining a wait list, so a client
+ * can never miss its wake up.
+ *
+ * <p>If a client asks for a tick that has already gone by (because it couldn't keep up), awaitTick()
+ * returns false straight away, and the client has missed that block.
+ *
+ * @author ac010168
+ *
+ */
+public class BroadcastClock {
+
+  /** The time between ticks, in nanoseconds */
+  private final long tickNanos;
+  /** The clients waiting for each tick */
+  private final ConcurrentSkipListMap<Long, Queue<Thread>> waitLists;
+
+  /** The time at which tick 0 went on air */
+  private volatile long startNanos;
+  /** The tick currently on air, or -1 if the clock hasn't started */
+  private volatile long currentTick;
+  /** Flag to tell the clock thread to stop */
+  private volatile boolean running;
+  /** The thread advancing the clock */
+  private Thread clockThread;
+
+  /**
+   * Basic Constructor.
+   *
+   * @param tickNanos The time between ticks, in nanoseconds
+   */
+  public BroadcastClock(long tickNanos) {
+    if (tickNanos <= 0)
+      throw new RuntimeException("The tick length must be positive: " + tickNanos);
+    this.tickNanos   = tickNanos;
+    this.waitLists   = new ConcurrentSkipListMap<Long, Queue<Thread>>();
+    this.currentTick = -1;
+  }
+
+  /**
+   * Start the clock.  Tick 0 goes on air straight away.
+   */
+  public synchronized void start() {
+    if (clockThread != null)
+      throw new RuntimeException("The clock has already been started.");
+
+    running     = true;
+    startNanos  = System.nanoTime();
+    currentTick = 0;
+    clockThread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        runClock();
+      }
+    }, "BroadcastClock");
+    clockThread.setDaemon(true);
+    clockThread.start();
+  }
+
+  /**
+   * Stop the clock, and wake up any clients still waiting.  They will see that their tick never came.
+   */
+  public synchronized void stop() {
+    running = false;
+    if (clockThread == null)
+      return;
+
+    LockSupport.unpark(clockThread);
+    try {
+      clockThread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    clockThread = null;
+    wakeWaiters(Long.MAX_VALUE);
+  }
+
+  /**
+   * Block until the given tick goes on air.
+   *
+   * @param tick The tick to wait for
+   *
+   * @return true if the tick is on air, or false if it had already gone by, or the clock was stopped
+   */
+  public boolean awaitTick(long tick) {
+    if (currentTick >= tick)
+      return currentTick == tick;
+
+    Queue<Thread> waitList = waitLists.get(tick);
+    if (waitList == null) {
+      Queue<Thread> newList = new ConcurrentLinkedQueue<Thread>();
+      waitList = waitLists.putIfAbsent(tick, newList);
+      if (waitList == null)
+        waitList = newList;
+    }
+    waitList.add(Thread.currentThread());
+
+    //The clock publishes the tick before draining the list, so we can't sleep through it
+    while ((currentTick < tick) && running)
+      LockSupport.park(this);
+
+    //The clock only moves forward one tick at a time, so a late wake up means we missed it
+    return currentTick == tick;
+  }
+
+  /**
+   * @param tick A tick of the clock
+   *
+   * @return the System.nanoTime() at which that tick was due to go on air
+   */
+  public long getTickNanos(long tick) {
+    return startNanos + (tick * tickNanos);
+  }
+
+  /**
+   * @return the tick currently on air, or -1 if the clock hasn't started
+   */
+  public long getCurrentTick() {
+    return currentTick;
+  }
+
+  /**
+   * @return the time between ticks, in nanoseconds
+   */
+  public long getTickNanos() {
+    return tickNanos;
+  }
+
+  /**
+   * Helper method for the clock thread.  Each tick is published, then the clients waiting for it are
+   * woken, then the thread sleeps until the next tick is due.
+   */
+  private void runClock() {
+    long tick = 0;
+    while (running) {
+      currentTick = tick;
+      wakeWaiters(tick);
+
+      tick++;
+      long waitNanos;
+      while (running && ((waitNanos = getTickNanos(tick) - System.nanoTime()) > 0))
+        LockSupport.parkNanos(this, waitNanos);
+    }
+  }
+
+  /**
+   * Helper method to wake every client waiting for a tick at or before the given tick.
+   */
+  private void wakeWaiters(long tick) {
+    Map.Entry<Long, Queue<Thread>> waitEntry;
+    while (((waitEntry = waitLists.firstEntry()) != null) && (waitEntry.getKey() <= tick)) {
+      waitLists.remove(waitEntry.getKey());
+      Thread waiter;
+      while ((waiter = waitEntry.getValue().poll()) != null)
+        LockSupport.unpark(waiter);
+    }
+  }
+}
@@ -0,0 +1,26 @@
+package com.umkc.bcast.sim;
+
+import com.umkc.bcast.data.Broadcast;
+
+/**
+ * Builds the bcast for one candidate set of parameters, for the ParameterTuner.  This will usually create
+ * a new builder with the given parameters, assign the data, and assemble the Broadcast.
+ *
+ * <p>The tuner builds candidates at the same time on different threads.  The builders write block ids
+ * and offsets onto the data blocks they are given, so each call has to work on its own copies of the
+ * data blocks (see DataBlock.clone()), never on a list shared with other candidates.
+ *
+ * @author ac010168
+ *
+ */
+public interface CandidateBuilder {
+
+  /**
+   * @param exponentialFactor The exponential factor to build with
+   * @param bucketSize        The bucket size to build with
+   *
+   * @return The assembled bcast.  A RuntimeException marks the parameters as unusable for this data set,
+   *         for example a bucket size that doesn't divide the data evenly.
+   */
+  public Broadcast buildCandidate(int exponentialFactor, int bucketSize);
+}
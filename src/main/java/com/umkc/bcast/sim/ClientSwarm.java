@@ -0,0 +1,276 @@
+package com.umkc.bcast.sim;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+
+import com.umkc.bcast.BroadcastClient;
+import com.umkc.bcast.data.BlockType;
+import com.umkc.bcast.data.Broadcast;
+import com.umkc.bcast.metrics.BroadcastMetrics;
+import com.umkc.bcast.metrics.MetricSeries;
+import com.umkc.bcast.metrics.QueryMetric;
+
+/**
+ * Load test harness that runs a swarm of clients, one thread each, against a live BroadcastClock.  Each
+ * client tunes in at a random tick, then blocks on the clock until each block it wants is on air, reads
+ * it using the same index logic as a BroadcastClient search, and dozes again.
+ *
+ * <p>Where the runtime supports them, the clients run on virtual threads, so a swarm of 100k+ clients
+ * only needs a handful of carrier threads.  This project still targets Java 8, so the virtual thread
+ * factory is looked up by reflection (Thread.ofVirtual().factory()), and if it isn't available the
+ * clients fall back to daemon platform threads with a small stack.  Platform threads work the same way,
+ * they just limit how many clients can sensibly be run at once.
+ *
+ * <p>Unlike the DiscreteEventSimulator, the clients here compete for the CPU.  A client that wakes up
+ * after its block has gone by has missed it, and must wait a full cycle for it to come around again;
+ * those misses, and how late each client woke up, are reported along with the search times.  Results
+ * are recorded into a set of striped histograms, so clients rarely contend with each other, and the
+ * stripes are merged once every client has finished.
+ *
+ * <p>If metrics have been set, every client is also recorded into them, split by cluster, with its index
+ * reads and doze lengths as well as its times.  Each stripe keeps its own BroadcastMetrics, and these are
+ * merged into the shared one along with the rest of the stripe.  A missed block is not counted as a doze,
+ * so the dozes are the ones the index asked for, and the misses only show up in the access time.
+ *
+ * @author ac010168
+ *
+ */
+public class ClientSwarm {
+
+  /** The number of histogram stripes the clients record into */
+  private static final int RESULT_STRIPES = 64;
+  /** The stack size of the fallback platform threads */
+  private static final long PLATFORM_STACK_SIZE = 256 * 1024;
+
+  /** The client used to read the index blocks */
+  private final BroadcastClient client;
+  /** The bcast being broadcast */
+  private final Broadcast broadcast;
+  /** The clock the clients wait on */
+  private final BroadcastClock clock;
+  /** The factory used to create the client threads */
+  private final ThreadFactory threadFactory;
+  /** Flag to indicate whether the factory creates virtual threads */
+  private final boolean virtualThreads;
+
+  /** The metrics every client is recorded into, or null to skip them */
+  private BroadcastMetrics metrics;
+  /** The builder type the clients are recorded against */
+  private String builderType;
+
+  /**
+   * Basic Constructor.
+   *
+   * @param broadcast The bcast being broadcast
+   * @param clock     The clock the clients wait on.  This must be started before the swarm is run.
+   */
+  public ClientSwarm(Broadcast broadcast, BroadcastClock clock) {
+    this.client    = new BroadcastClient(broadcast);
+    this.broadcast = broadcast;
+    this.clock     = clock;
+
+    ThreadFactory virtualFactory = createVirtualThreadFactory();
+    this.virtualThreads = (virtualFactory != null);
+    this.threadFactory  = virtualThreads ? virtualFactory : new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable clientTask) {
+        Thread clientThread = new Thread(null, clientTask, "BroadcastClient", PLATFORM_STACK_SIZE);
+        clientThread.setDaemon(true);
+        return clientThread;
+      }
+    };
+  }
+
+  /**
+   * Run a swarm of clients, each searching for a random key, and wait for all of them to finish.  The
+   * clients tune in at random ticks over the next cycle of the bcast.
+   *
+   * @param clientCount The number of clients to run
+   * @param searchKeys  The keys to pick from
+   * @param seed        The seed for the random keys and tune in times
+   *
+   * @return The search times, wake up jitter and throughput of the swarm
+   */
+  public SwarmResult run(int clientCount, final SearchKeys searchKeys, long seed) {
+    if (clock.getCurrentTick() < 0)
+      throw new RuntimeException("The clock must be started before the swarm is run.");
+    if (searchKeys.getKeyCount() == 0)
+      throw new RuntimeException("The swarm needs at least one key to search for.");
+
+    final SwarmStripe[] stripes = new SwarmStripe[RESULT_STRIPES];
+    for (int stripePos = 0; stripePos < RESULT_STRIPES; stripePos++)
+      stripes[stripePos] = new SwarmStripe((metrics == null) ? null : new BroadcastMetrics());
+
+    final CountDownLatch finishedLatch = new CountDownLatch(clientCount);
+    final long baseTick = clock.getCurrentTick() + 1;
+    Random random = new Random(seed);
+
+    long startTime = System.nanoTime();
+    for (int clientId = 0; clientId < clientCount; clientId++) {
+      final int keyPos       = random.nextInt(searchKeys.getKeyCount());
+      final long tuneInTick  = baseTick + random.nextInt(broadcast.getBlockCount());
+      final SwarmStripe stripe = stripes[clientId % RESULT_STRIPES];
+
+      threadFactory.newThread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            runClient(tuneInTick, searchKeys.getClusterId(keyPos), searchKeys.getOrdinal(keyPos), stripe);
+          } finally {
+            finishedLatch.countDown();
+          }
+        }
+      }).start();
+    }
+
+    try {
+      finishedLatch.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted while waiting for the swarm to finish.", e);
+    }
+    long elapsedNanos = System.nanoTime() - startTime;
+
+    SimulationResult searchTimes = new SimulationResult();
+    TimeHistogram wakeJitter     = new TimeHistogram();
+    long missedReads             = 0;
+    for (SwarmStripe stripe : stripes) {
+      synchronized (stripe) {
+        searchTimes.merge(stripe.searchTimes);
+        wakeJitter.merge(stripe.wakeJitter);
+        missedReads += stripe.missedReads;
+        if (stripe.metrics != null)
+          metrics.merge(stripe.metrics);
+      }
+    }
+
+    return new SwarmResult(searchTimes, wakeJitter, missedReads, clientCount, elapsedNanos, virtualThreads);
+  }
+
+  /**
+   * Record every client into a set of metrics as well as the SwarmResult.  This takes effect from the
+   * next run.
+   *
+   * @param metrics     The metrics to record into, or null to stop recording them
+   * @param builderType The builder type that built the bcast, which the clients are recorded against
+   */
+  public void setMetrics(BroadcastMetrics metrics, String builderType) {
+    this.metrics     = metrics;
+    this.builderType = builderType;
+  }
+
+  /**
+   * @return the metrics every client is recorded into, or null if there aren't any
+   */
+  public BroadcastMetrics getMetrics() {
+    return metrics;
+  }
+
+  /**
+   * @return true if the clients run on virtual threads
+   */
+  public boolean isVirtualThreads() {
+    return virtualThreads;
+  }
+
+  /**
+   * Helper method that runs a single client, from tuning in until it finds its data block or fails.
+   */
+  private void runClient(long tuneInTick, int clusterId, int searchOrdinal, SwarmStripe stripe) {
+    int blockCount    = broadcast.getBlockCount();
+    int maxReads      = client.getMaxReads();
+    long missedReads  = 0;
+    long[] wakeMicros = new long[maxReads + 1];
+    int wakeCount     = 0;
+    int[] dozeLengths = (stripe.metrics == null) ? null : new int[maxReads + 1];
+    int dozeCount     = 0;
+
+    //A client reads whatever is on air when it tunes in, even if it was a little late
+    clock.awaitTick(tuneInTick);
+    tuneInTick = Math.max(tuneInTick, clock.getCurrentTick());
+    int firstDoze  = broadcast.getNextIndexOffset((int)(tuneInTick % blockCount));
+    long readTick  = tuneInTick + firstDoze + 1;
+    int tuningTime = 1;
+    if (dozeLengths != null)
+      dozeLengths[dozeCount++] = firstDoze;
+    boolean found  = false;
+
+    while (tuningTime <= maxReads) {
+      if (!clock.awaitTick(readTick)) {
+        if (clock.getCurrentTick() < readTick)
+          break;    //The clock was stopped
+        //We woke up too late, so the block has gone by.  It'll be back next cycle, unless we keep missing it.
+        if (++missedReads > maxReads)
+          break;
+        readTick += blockCount;
+        continue;
+      }
+      if (wakeCount < wakeMicros.length)
+        wakeMicros[wakeCount++] = Math.max(0, System.nanoTime() - clock.getTickNanos(readTick)) / 1000;
+
+      int blockPos = (int)(readTick % blockCount);
+      tuningTime++;
+      if (broadcast.getBlockType(blockPos) == BlockType.DATA_BLOCK) {
+        found = true;
+        break;
+      }
+
+      int dozeBlocks = client.readIndex(blockPos, clusterId, searchOrdinal);
+      if (dozeBlocks < 0)
+        break;
+      if ((dozeLengths != null) && (dozeCount < dozeLengths.length))
+        dozeLengths[dozeCount++] = dozeBlocks;
+      readTick += dozeBlocks + 1;
+    }
+
+    synchronized (stripe) {
+      if (found)
+        stripe.searchTimes.recordFound((int)(readTick - tuneInTick + 1), tuningTime);
+      else stripe.searchTimes.recordFailed();
+      for (int wakePos = 0; wakePos < wakeCount; wakePos++)
+        stripe.wakeJitter.record((int)Math.min(Integer.MAX_VALUE, wakeMicros[wakePos]));
+      stripe.missedReads += missedReads;
+      if (stripe.metrics != null) {
+        MetricSeries series = stripe.metrics.getSeries(builderType, SearchKeys.getClusterGroup(broadcast, clusterId));
+        if (found)
+          series.recordFound((int)(readTick - tuneInTick + 1), tuningTime);
+        else series.recordFailed();
+        //The tune in block and the data block aren't index reads
+        series.record(QueryMetric.INDEX_BLOCKS_READ, Math.max(0, tuningTime - (found ? 2 : 1)));
+        for (int dozePos = 0; dozePos < dozeCount; dozePos++)
+          series.record(QueryMetric.DOZE_LENGTH, dozeLengths[dozePos]);
+      }
+    }
+  }
+
+  /**
+   * Helper method to look up the virtual thread factory by reflection, so this still builds and runs on
+   * runtimes without virtual threads.
+   *
+   * @return The virtual thread factory, or null if virtual threads aren't available
+   */
+  private static ThreadFactory createVirtualThreadFactory() {
+    try {
+      Object threadBuilder = Thread.class.getMethod("ofVirtual").invoke(null);
+      return (ThreadFactory)Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(threadBuilder);
+    } catch (Exception e) {
+      //No virtual threads on this runtime (or they are still a preview feature), so use platform threads
+      return null;
+    }
+  }
+
+  /**
+   * One stripe of results, shared by every client whose id falls in the stripe.
+   */
+  private static class SwarmStripe {
+    private final SimulationResult searchTimes = new SimulationResult();
+    private final TimeHistogram wakeJitter     = new TimeHistogram();
+    private final BroadcastMetrics metrics;
+    private long missedReads;
+
+    private SwarmStripe(BroadcastMetrics metrics) {
+      this.metrics = metrics;
+    }
+  }
+}
@@ -0,0 +1,251 @@
+package com.umkc.bcast.sim;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import com.umkc.bcast.BroadcastClient;
+import com.umkc.bcast.data.BlockType;
+import com.umkc.bcast.data.Broadcast;
+import com.umkc.bcast.metrics.BroadcastMetrics;
+import com.umkc.bcast.metrics.MetricSeries;
+import com.umkc.bcast.metrics.QueryMetric;
+
+/**
+ * Simulates a large number of clients tuning in to the same bcast at different times.  Rather than
+ * stepping every client through every block, each client sleeps in an EventQueue until the block it
+ * wants is on air, so the cost of a run is proportional to the number of reads, not to the number of
+ * clients times the length of the bcast.
+ *
+ * <p>Time is measured in ticks, one block per tick, starting from tick 0 at the start of the bcast, so
+ * the block on air at tick t is the block at position (t mod blockCount).  A client that tunes in at
+ * tick t reads the nextIndexOffset of that block, and is woken again at t + dozeBlocks + 1 to read the
+ * next index, until it reaches its data block.  The index reads are done by a BroadcastClient, so the
+ * times are exactly those a BroadcastClient search from the same start position would give.
+ *
+ * <p>Clients are added with addClient() (or addRandomClients()), and are all run by the next call to
+ * simulate(), which then forgets them so a new set can be added.  The per client state is held in
+ * primitive arrays, so a run does not allocate per client or per read.
+ *
+ * <p>If metrics have been set, every client is also recorded into them, split by cluster, with its index
+ * reads and doze lengths as well as its times, the same way the ExhaustiveSimulator records its searches.
+ * A run records into its own BroadcastMetrics, which is merged into the shared one when the run is done.
+ *
+ * @author ac010168
+ *
+ */
+public class DiscreteEventSimulator {
+
+  /** The client used to read the index blocks */
+  private final BroadcastClient client;
+  /** The bcast being simulated */
+  private final Broadcast broadcast;
+  /** The number of blocks in the bcast */
+  private final int blockCount;
+
+  /** The queue of sleeping clients, ordered by wake up tick */
+  private final EventQueue eventQueue;
+
+  /** The number of clients added since the last run */
+  private int clientCount;
+  /** The tick each client tunes in at */
+  private long[] tuneInTicks;
+  /** The cluster id each client is searching in, or -1 for flat searches */
+  private int[] clusterIds;
+  /** The key ordinal each client is searching for */
+  private int[] searchOrdinals;
+  /** The number of blocks each client has been awake for so far */
+  private int[] tuningTimes;
+
+  /** The tick of the last event processed */
+  private long currentTick;
+  /** The number of block reads (including tune ins) processed by the last run */
+  private long readCount;
+
+  /** The metrics every client is recorded into, or null to skip them */
+  private BroadcastMetrics metrics;
+  /** The builder type the clients are recorded against */
+  private String builderType;
+
+  /**
+   * Basic Constructor.
+   *
+   * @param broadcast       The bcast to be simulated
+   * @param expectedClients The number of clients we expect to add.  This is only used for the initial sizing.
+   */
+  public DiscreteEventSimulator(Broadcast broadcast, int expectedClients) {
+    this.client     = new BroadcastClient(broadcast);
+    this.broadcast  = broadcast;
+    this.blockCount = broadcast.getBlockCount();
+
+    int initialCapacity = Math.max(16, expectedClients);
+    eventQueue     = new EventQueue(initialCapacity);
+    tuneInTicks    = new long[initialCapacity];
+    clusterIds     = new int[initialCapacity];
+    searchOrdinals = new int[initialCapacity];
+    tuningTimes    = new int[initialCapacity];
+  }
+
+  /**
+   * Add a client to the next run.
+   *
+   * @param tuneInTick    The tick at which the client tunes in
+   * @param clusterId     The ClusterDictionary id of the cluster the key belongs to, or -1 for flat searches
+   * @param searchOrdinal The KeyDictionary ordinal of the key to search for
+   */
+  public void addClient(long tuneInTick, int clusterId, int searchOrdinal) {
+    if (tuneInTick < 0)
+      throw new RuntimeException("Clients cannot tune in before the start of the bcast (tick " + tuneInTick + ")");
+
+    if (clientCount == tuneInTicks.length) {
+      int newCapacity = clientCount * 2;
+      tuneInTicks    = Arrays.copyOf(tuneInTicks, newCapacity);
+      clusterIds     = Arrays.copyOf(clusterIds, newCapacity);
+      searchOrdinals = Arrays.copyOf(searchOrdinals, newCapacity);
+      tuningTimes    = Arrays.copyOf(tuningTimes, newCapacity);
+    }
+
+    tuneInTicks[clientCount]    = tuneInTick;
+    clusterIds[clientCount]     = clusterId;
+    searchOrdinals[clientCount] = searchOrdinal;
+    tuningTimes[clientCount]    = 0;
+    clientCount++;
+  }
+
+  /**
+   * Add a batch of clients to the next run, each searching for a random key and tuning in at a random
+   * tick in [0, tuneInSpan).
+   *
+   * @param newClients The number of clients to add
+   * @param tuneInSpan The number of ticks over which the clients tune in
+   * @param searchKeys The keys to pick from
+   * @param random     The source of the random ticks and keys
+   */
+  public void addRandomClients(int newClients, long tuneInSpan, SearchKeys searchKeys, Random random) {
+    if ((tuneInSpan <= 0) || (searchKeys.getKeyCount() == 0))
+      throw new RuntimeException("Random clients need a positive tune in span and at least one key.");
+
+    for (int clientCtr = 0; clientCtr < newClients; clientCtr++) {
+      long tuneInTick = (long)(random.nextDouble() * tuneInSpan);
+      int keyPos      = random.nextInt(searchKeys.getKeyCount());
+      addClient(tuneInTick, searchKeys.getClusterId(keyPos), searchKeys.getOrdinal(keyPos));
+    }
+  }
+
+  /**
+   * Record every client into a set of metrics as well as the SimulationResult.
+   *
+   * @param metrics     The metrics to record into, or null to stop recording them
+   * @param builderType The builder type that built the bcast, which the clients are recorded against
+   */
+  public void setMetrics(BroadcastMetrics metrics, String builderType) {
+    this.metrics     = metrics;
+    this.builderType = builderType;
+  }
+
+  /**
+   * @return the metrics every client is recorded into, or null if there aren't any
+   */
+  public BroadcastMetrics getMetrics() {
+    return metrics;
+  }
+
+  /**
+   * Run every client added since the last run until it either finds its data block or fails.
+   *
+   * @return The distributions of the access and tuning times
+   */
+  public SimulationResult simulate() {
+    SimulationResult result = new SimulationResult();
+    int maxTuningTime       = client.getMaxReads() + 1;
+    BroadcastMetrics runMetrics = (metrics == null) ? null : new BroadcastMetrics();
+    MetricSeries[] clusterSeries = (metrics == null) ? null : new MetricSeries[getClusterCount() + 1];
+    readCount = 0;
+
+    for (int clientId = 0; clientId < clientCount; clientId++)
+      eventQueue.add(tuneInTicks[clientId], clientId);
+
+    while (!eventQueue.isEmpty()) {
+      currentTick  = eventQueue.peekTick();
+      int clientId = eventQueue.poll();
+      int blockPos = (int)(currentTick % blockCount);
+      readCount++;
+
+      int dozeBlocks;
+      if (tuningTimes[clientId] == 0) {
+        //The client has just tuned in, so all it can do is wait for the next global index
+        dozeBlocks = broadcast.getNextIndexOffset(blockPos);
+      } else if (broadcast.getBlockType(blockPos) == BlockType.DATA_BLOCK) {
+        int accessTime = (int)(currentTick - tuneInTicks[clientId] + 1);
+        result.recordFound(accessTime, tuningTimes[clientId] + 1);
+        if (runMetrics != null) {
+          MetricSeries series = getSeries(runMetrics, clusterSeries, clusterIds[clientId]);
+          series.recordFound(accessTime, tuningTimes[clientId] + 1);
+          series.record(QueryMetric.INDEX_BLOCKS_READ, tuningTimes[clientId] - 1);
+        }
+        continue;
+      } else {
+        dozeBlocks = client.readIndex(blockPos, clusterIds[clientId], searchOrdinals[clientId]);
+      }
+
+      tuningTimes[clientId]++;
+      if ((dozeBlocks < 0) || (tuningTimes[clientId] > maxTuningTime)) {
+        result.recordFailed();
+        if (runMetrics != null) {
+          MetricSeries series = getSeries(runMetrics, clusterSeries, clusterIds[clientId]);
+          series.recordFailed();
+          series.record(QueryMetric.INDEX_BLOCKS_READ, tuningTimes[clientId] - 1);
+        }
+        continue;
+      }
+      if (runMetrics != null)
+        getSeries(runMetrics, clusterSeries, clusterIds[clientId]).record(QueryMetric.DOZE_LENGTH, dozeBlocks);
+      eventQueue.add(currentTick + dozeBlocks + 1, clientId);
+    }
+
+    if (runMetrics != null)
+      metrics.merge(runMetrics);
+    clientCount = 0;
+    return result;
+  }
+
+  /**
+   * Helper method to get the number of clusters in the bcast, or 0 for flat bcasts.
+   */
+  private int getClusterCount() {
+    return (broadcast.getClusterDictionary() == null) ? 0 : broadcast.getClusterDictionary().getClusterCount();
+  }
+
+  /**
+   * Helper method to look up the series for a client's cluster, only the first time each cluster is seen
+   * in a run.  Flat clients (cluster id -1) use the first slot.
+   */
+  private MetricSeries getSeries(BroadcastMetrics runMetrics, MetricSeries[] clusterSeries, int clusterId) {
+    MetricSeries series = clusterSeries[clusterId + 1];
+    if (series == null) {
+      series = runMetrics.getSeries(builderType, SearchKeys.getClusterGroup(broadcast, clusterId));
+      clusterSeries[clusterId + 1] = series;
+    }
+    return series;
+  }
+
+  /**
+   * @return the number of clients waiting for the next run
+   */
+  public int getClientCount() {
+    return clientCount;
+  }
+
+  /**
+   * @return the tick of the last event processed, which is when the last client finished
+   */
+  public long getCurrentTick() {
+    return currentTick;
+  }
+
+  /**
+   * @return the number of block reads (including tune ins) processed by the last run
+   */
+  public long getReadCount() {
+    return readCount;
+  }
+}
@@ -0,0 +1,112 @@
+package com.umkc.bcast.sim;
+
+import java.util.Arrays;
+
+/**
+ * A priority queue of wake up events for the DiscreteEventSimulator, ordered by the block number (tick)
+ * at which each client wakes up.  This is a plain binary heap, but the ticks and client ids are kept in
+ * parallel primitive arrays rather than event objects, so queueing an event never allocates once the
+ * heap has grown to fit the clients.
+ *
+ * <p>Clients that wake on the same tick come out in no particular order.
+ *
+ * @author ac010168
+ *
+ */
+class EventQueue {
+
+  /** The wake up tick of each event, in heap order */
+  private long[] wakeTicks;
+  /** The client id of each event, in heap order */
+  private int[] clientIds;
+  /** The number of events in the queue */
+  private int size;
+
+  /**
+   * Basic Constructor.
+   *
+   * @param initialCapacity The number of events we expect to hold at once
+   */
+  EventQueue(int initialCapacity) {
+    wakeTicks = new long[Math.max(16, initialCapacity)];
+    clientIds = new int[wakeTicks.length];
+  }
+
+  /**
+   * Queue an event.
+   *
+   * @param wakeTick The tick at which the client should be woken
+   * @param clientId The client to be woken
+   */
+  void add(long wakeTick, int clientId) {
+    if (size == wakeTicks.length) {
+      wakeTicks = Arrays.copyOf(wakeTicks, size * 2);
+      clientIds = Arrays.copyOf(clientIds, size * 2);
+    }
+
+    //Sift the new event up from the bottom of the heap
+    int pos = size++;
+    while (pos > 0) {
+      int parentPos = (pos - 1) >>> 1;
+      if (wakeTicks[parentPos] <= wakeTick)
+        break;
+      wakeTicks[pos] = wakeTicks[parentPos];
+      clientIds[pos] = clientIds[parentPos];
+      pos = parentPos;
+    }
+    wakeTicks[pos] = wakeTick;
+    clientIds[pos] = clientId;
+  }
+
+  /**
+   * @return the tick of the earliest event.  Only valid if the queue is not empty.
+   */
+  long peekTick() {
+    return wakeTicks[0];
+  }
+
+  /**
+   * Remove the earliest event.
+   *
+   * @return the client id of the earliest event.  Only valid if the queue is not empty.
+   */
+  int poll() {
+    int clientId = clientIds[0];
+    size--;
+    if (size == 0)
+      return clientId;
+
+    //Sift the last event down from the top of the heap
+    long wakeTick = wakeTicks[size];
+    int lastId    = clientIds[size];
+    int pos       = 0;
+    int half      = size >>> 1;
+    while (pos < half) {
+      int childPos = (2 * pos) + 1;
+      if ((childPos + 1 < size) && (wakeTicks[childPos + 1] < wakeTicks[childPos]))
+        childPos++;
+      if (wakeTick <= wakeTicks[childPos])
+        break;
+      wakeTicks[pos] = wakeTicks[childPos];
+      clientIds[pos] = clientIds[childPos];
+      pos = childPos;
+    }
+    wakeTicks[pos] = wakeTick;
+    clientIds[pos] = lastId;
+    return clientId;
+  }
+
+  /**
+   * @return true if there are no events queued
+   */
+  boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   * @return the number of events queued
+   */
+  int size() {
+    return size;
+  }
+}
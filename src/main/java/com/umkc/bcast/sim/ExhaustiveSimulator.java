@@ -0,0 +1,190 @@
+package com.umkc.bcast.sim;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import com.umkc.bcast.BroadcastClient;
+import com.umkc.bcast.QueryResult;
+import com.umkc.bcast.data.Broadcast;
+import com.umkc.bcast.metrics.BroadcastMetrics;
+import com.umkc.bcast.metrics.MetricSeries;
+import com.umkc.bcast.util.IndexRangeTask;
+
+/**
+ * Runs the BroadcastClient search for every (start position, key) pair in a bcast, and collects the full
+ * distributions of the access and tuning times.  Where the ExpectedTimeCalculator only gives the means,
+ * this gives the percentiles as well, at the cost of actually running blocks * keys searches.
+ *
+ * <p>If a simulation pool has been set, the start positions are split across it.  Each piece of the range
+ * records into its own SimulationResult, and the pieces are merged as the tasks are joined, so the
+ * workers never share any state besides the (read only) bcast.  The result is the same no matter how
+ * the range is split up.
+ *
+ * <p>If metrics have been set, every search is also recorded into them, split by cluster, with the index
+ * reads and doze lengths as well as the times.  These are recorded the same way:  each piece of the range
+ * records into its own BroadcastMetrics, which is merged into the shared one when the piece is done.
+ *
+ * @author ac010168
+ *
+ */
+public class ExhaustiveSimulator {
+
+  /** The client used to run the searches.  This holds no per search state, so it is shared by every task. */
+  private final BroadcastClient client;
+  /** The keys to search for from every start position */
+  private final SearchKeys searchKeys;
+  /** The pool to split the start positions across, or null to run on the calling thread */
+  private ForkJoinPool simulationPool;
+  /** The metrics every search is recorded into, or null to skip them */
+  private BroadcastMetrics metrics;
+  /** The builder type the searches are recorded against */
+  private String builderType;
+
+  /**
+   * Basic Constructor.  Searches for every distinct key in the bcast.
+   *
+   * @param broadcast The bcast to be searched
+   */
+  public ExhaustiveSimulator(Broadcast broadcast) {
+    this(broadcast, SearchKeys.fromBroadcast(broadcast));
+  }
+
+  /**
+   * Basic Constructor.
+   *
+   * @param broadcast  The bcast to be searched
+   * @param searchKeys The keys to search for from every start position
+   */
+  public ExhaustiveSimulator(Broadcast broadcast, SearchKeys searchKeys) {
+    this.client     = new BroadcastClient(broadcast);
+    this.searchKeys = searchKeys;
+  }
+
+  /**
+   * @param simulationPool The pool to split the start positions across, or null to run on the calling thread
+   */
+  public void setSimulationPool(ForkJoinPool simulationPool) {
+    this.simulationPool = simulationPool;
+  }
+
+  /**
+   * @return the simulationPool
+   */
+  public ForkJoinPool getSimulationPool() {
+    return simulationPool;
+  }
+
+  /**
+   * Record every search into a set of metrics as well as the SimulationResult.
+   *
+   * @param metrics     The metrics to record into, or null to stop recording them
+   * @param builderType The builder type that built the bcast, which the searches are recorded against
+   */
+  public void setMetrics(BroadcastMetrics metrics, String builderType) {
+    this.metrics     = metrics;
+    this.builderType = builderType;
+  }
+
+  /**
+   * @return the metrics every search is recorded into, or null if there aren't any
+   */
+  public BroadcastMetrics getMetrics() {
+    return metrics;
+  }
+
+  /**
+   * Run every search.
+   *
+   * @return The distributions of the access and tuning times
+   */
+  public SimulationResult simulate() {
+    int blockCount = client.getBroadcast().getBlockCount();
+    if (simulationPool == null)
+      return simulateRange(0, blockCount);
+
+    return simulationPool.invoke(new SimulationTask(0, blockCount, IndexRangeTask.getGrain(simulationPool, blockCount)));
+  }
+
+  /**
+   * Helper method to run every search from a range of start positions.
+   */
+  private SimulationResult simulateRange(int startPos, int endPos) {
+    SimulationResult result  = new SimulationResult();
+    QueryResult queryResult  = new QueryResult();
+    int keyCount             = searchKeys.getKeyCount();
+    BroadcastMetrics rangeMetrics = (metrics == null) ? null : new BroadcastMetrics();
+    MetricSeries[] keySeries      = (metrics == null) ? null : createKeySeries(rangeMetrics);
+
+    for (int searchPos = startPos; searchPos < endPos; searchPos++) {
+      for (int keyPos = 0; keyPos < keyCount; keyPos++) {
+        int clusterId = searchKeys.getClusterId(keyPos);
+        boolean found;
+        if (clusterId < 0)
+          found = client.search(searchPos, searchKeys.getOrdinal(keyPos), queryResult);
+        else found = client.search(searchPos, clusterId, searchKeys.getOrdinal(keyPos), queryResult);
+
+        if (found)
+          result.recordFound(queryResult.getAccessTime(), queryResult.getTuningTime());
+        else result.recordFailed();
+        if (keySeries != null)
+          keySeries[keyPos].recordQuery(queryResult);
+      }
+    }
+
+    if (rangeMetrics != null)
+      metrics.merge(rangeMetrics);
+    return result;
+  }
+
+  /**
+   * Helper method to look up the series for each key's cluster once, rather than for every search.
+   */
+  private MetricSeries[] createKeySeries(BroadcastMetrics rangeMetrics) {
+    MetricSeries[] keySeries = new MetricSeries[searchKeys.getKeyCount()];
+    for (int keyPos = 0; keyPos < keySeries.length; keyPos++) {
+      String clusterGroup = SearchKeys.getClusterGroup(client.getBroadcast(), searchKeys.getClusterId(keyPos));
+      keySeries[keyPos] = rangeMetrics.getSeries(builderType, clusterGroup);
+    }
+    return keySeries;
+  }
+
+  /**
+   * Fork/join task that splits a range of start positions in half until it is no bigger than the grain,
+   * and then merges the results of the two halves.
+   */
+  private class SimulationTask extends RecursiveTask<SimulationResult> {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The first start position in this task's range */
+    private final int startPos;
+    /** The start position just past the end of this task's range */
+    private final int endPos;
+    /** The largest range that will be run without splitting */
+    private final int grain;
+
+    private SimulationTask(int startPos, int endPos, int grain) {
+      this.startPos = startPos;
+      this.endPos   = endPos;
+      this.grain    = grain;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.util.concurrent.RecursiveTask#compute()
+     */
+    @Override
+    protected SimulationResult compute() {
+      if (endPos - startPos <= grain)
+        return simulateRange(startPos, endPos);
+
+      int midPos = (startPos + endPos) >>> 1;
+      SimulationTask lowTask  = new SimulationTask(startPos, midPos, grain);
+      SimulationTask highTask = new SimulationTask(midPos, endPos, grain);
+      highTask.fork();
+      SimulationResult result = lowTask.compute();
+      result.merge(highTask.join());
+      return result;
+    }
+  }
+}
@@ -0,0 +1,366 @@
+package com.umkc.bcast.sim;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import com.umkc.bcast.data.BlockType;
+import com.umkc.bcast.data.Broadcast;
+
+/**
+ * Works out the exact expected access and tuning times of a built bcast, without simulating any
+ * searches.  The result is the same as running the client search from every start position for every
+ * key and averaging the results, but that would cost (blocks * keys) searches.
+ *
+ * <p>The calculation relies on two properties of the bcast layout:
+ * <ul><li>Every start position dozes to a global index block, so the start positions can be grouped by
+ *         the global index they land on.  Each group only needs its size and its total doze time.</li>
+ *     <li>Every key in a bucket takes the same path through the global indices, since the global index
+ *         rows always cover whole buckets (or whole clusters).  So the path only has to be walked once
+ *         per bucket, using the bucket's first key, and only the local index read differs per key.</li></ul>
+ *
+ * The path cost from each global index is remembered for the bucket being walked, so every global index
+ * is read at most once per bucket.  That makes the whole calculation O(buckets * buckets) index lookups,
+ * instead of O(blocks * keys) simulated searches.
+ *
+ * <p>A flat bcast built from sorted data looks the same from every bucket:  every global index has the
+ * same waits, and each row points the same number of buckets ahead.  The path cost then only depends on
+ * how far ahead the target bucket is, so the paths are walked once, to a single bucket, and the total is
+ * shared by every bucket.  That takes O(buckets) index lookups of O(log buckets) rows each.  The layout is
+ * checked row by row when the calculator is built, and any other bcast (including clustered ones, whose
+ * exponential rows stop at the end of each cluster) falls back on walking the paths to every bucket.
+ *
+ * <p>A search from a start position costs:
+ * <pre>
+ *   access = 1 + nextIndexOffset + sum over global reads of (1 + doze) + (1 + local doze) + 1
+ *   tuning = 1 + global reads + 2
+ * </pre>
+ * which is exactly what the client search in TestBroadcastGeneration counts.
+ *
+ * <p>A calculator holds scratch arrays sized to its bcast, so it should not be shared between threads.
+ *
+ * @author ac010168
+ *
+ */
+public class ExpectedTimeCalculator {
+
+  /** The bcast to be measured */
+  private final Broadcast broadcast;
+  /** The number of blocks in the bcast */
+  private final int blockCount;
+  /** The number of blocks in each bucket */
+  private final int blocksPerBucket;
+  /** The number of buckets in the bcast */
+  private final int bucketCount;
+
+  /** The number of start positions that doze to the global index of each bucket */
+  private final int[] startCounts;
+  /** The total of (1 + nextIndexOffset) for the start positions that doze to each bucket */
+  private final long[] startAccessTotals;
+
+  /** Marks which walk the remembered path costs for each bucket belong to */
+  private final int[] pathStamps;
+  /** The remembered access cost from each bucket's global index to the local index, or -1 if the walk failed */
+  private final long[] pathAccess;
+  /** The remembered number of global index reads from each bucket's global index to the local index */
+  private final int[] pathTuning;
+  /** Scratch space for the global index positions on the current path */
+  private final int[] pathPositions;
+  /** Scratch space for the doze times on the current path */
+  private final int[] pathDozes;
+  /** The stamp of the current walk */
+  private int curStamp;
+
+  /** Flag indicating the path costs are the same to every bucket, so the shared totals below can be used */
+  private final boolean shiftInvariant;
+  /** The total of (1 + nextIndexOffset + path access cost) over every start position, for any bucket */
+  private long sharedAccessTotal;
+  /** The total of (3 + global index reads) over every start position, for any bucket */
+  private long sharedTuningTotal;
+
+  /**
+   * Basic Constructor.  This reads every block's nextIndexOffset once, and walks the shared paths if the
+   * bcast looks the same from every bucket, so the calculator can be reused for any number of key
+   * distributions.
+   *
+   * @param broadcast The bcast to be measured
+   */
+  public ExpectedTimeCalculator(Broadcast broadcast) {
+    this.broadcast       = broadcast;
+    this.blockCount      = broadcast.getBlockCount();
+    this.blocksPerBucket = broadcast.getBucketSize() + 2;
+    this.bucketCount     = blockCount / blocksPerBucket;
+
+    if ((blockCount == 0) || (blockCount % blocksPerBucket != 0))
+      throw new RuntimeException("The bcast does not hold a whole number of buckets (" + blockCount + " blocks)");
+
+    startCounts       = new int[bucketCount];
+    startAccessTotals = new long[bucketCount];
+    for (int startPos = 0; startPos < blockCount; startPos++) {
+      int dozeBlocks = broadcast.getNextIndexOffset(startPos);
+      int targetPos  = (int)(((long)startPos + dozeBlocks + 1) % blockCount);
+      if (!isGlobalIndex(targetPos))
+        throw new RuntimeException("Block " + startPos + " does not doze to a global index block (lands on " + targetPos + ")");
+      startCounts[targetPos / blocksPerBucket]++;
+      startAccessTotals[targetPos / blocksPerBucket] += 1 + dozeBlocks;
+    }
+
+    pathStamps    = new int[bucketCount];
+    pathAccess    = new long[bucketCount];
+    pathTuning    = new int[bucketCount];
+    pathPositions = new int[bucketCount + 1];
+    pathDozes     = new int[bucketCount + 1];
+
+    shiftInvariant = isShiftInvariant() && walkSharedPaths();
+  }
+
+  /**
+   * Work out the expected times with every key equally likely to be requested.
+   *
+   * @return The expected access and tuning times
+   */
+  public ExpectedTimes calculate() {
+    return calculate(KeyDistribution.UNIFORM);
+  }
+
+  /**
+   * Work out the expected times with the keys requested according to the given distribution.  Keys
+   * that appear in more than one bucket (repeated clusters in a skewed bcast) are only counted once.
+   *
+   * @param keyDistribution The relative weight of each key
+   *
+   * @return The expected access and tuning times
+   */
+  public ExpectedTimes calculate(KeyDistribution keyDistribution) {
+    double accessTotal   = 0.0;
+    double tuningTotal   = 0.0;
+    double successWeight = 0.0;
+    double failedWeight  = 0.0;
+    int keyCount         = 0;
+
+    //Repeated clusters share their local indices, so a bucket is identified by its cluster and first key
+    Set<Long> seenBuckets = new HashSet<Long>();
+
+    for (int bucketPos = 0; bucketPos < bucketCount; bucketPos++) {
+      int globalPos = bucketPos * blocksPerBucket;
+      int localPos  = globalPos + 1;
+      int clusterId = getClusterId(globalPos);
+      int firstRow  = broadcast.getRowStart(localPos);
+      int endRow    = broadcast.getRowEnd(localPos);
+      if (firstRow == endRow)
+        continue;
+
+      int firstOrdinal = broadcast.getRowKey(firstRow);
+      if (!seenBuckets.add(((long)clusterId << 32) | (firstOrdinal & 0xFFFFFFFFL)))
+        continue;
+
+      //Weigh up the keys in this bucket, and what each costs once the local index has been reached
+      double bucketWeight = 0.0;
+      double localAccess  = 0.0;
+      for (int rowPos = firstRow; rowPos < endRow; rowPos++) {
+        double keyWeight = keyDistribution.getWeight(clusterId, broadcast.getRowKey(rowPos));
+        bucketWeight += keyWeight;
+        localAccess  += keyWeight * (2 + broadcast.getRowWaitBlocks(rowPos));
+      }
+      keyCount += endRow - firstRow;
+      if (bucketWeight == 0.0)
+        continue;
+
+      if (shiftInvariant) {
+        //Every start position is the same distance from this bucket as from the one we walked to
+        accessTotal   += bucketWeight * sharedAccessTotal + localAccess * blockCount;
+        tuningTotal   += bucketWeight * sharedTuningTotal;
+        successWeight += bucketWeight * blockCount;
+        continue;
+      }
+
+      //Then walk the global index path to this bucket from wherever a client could start
+      curStamp++;
+      for (int targetBucket = 0; targetBucket < bucketCount; targetBucket++) {
+        int startCount = startCounts[targetBucket];
+        if (startCount == 0)
+          continue;
+
+        if (!walkPath(targetBucket * blocksPerBucket, clusterId, firstOrdinal)) {
+          failedWeight += bucketWeight * startCount;
+          continue;
+        }
+
+        accessTotal   += bucketWeight * (startAccessTotals[targetBucket] + ((double)startCount * pathAccess[targetBucket])) +
+            localAccess * startCount;
+        tuningTotal   += bucketWeight * startCount * (3 + pathTuning[targetBucket]);
+        successWeight += bucketWeight * startCount;
+      }
+    }
+
+    double totalWeight = successWeight + failedWeight;
+    if (successWeight == 0.0)
+      return new ExpectedTimes(0.0, 0.0, (totalWeight == 0.0) ? 0.0 : 1.0, blockCount, keyCount);
+    return new ExpectedTimes(accessTotal / successWeight, tuningTotal / successWeight, failedWeight / totalWeight,
+        blockCount, keyCount);
+  }
+
+  /**
+   * Helper method to check whether the bcast looks the same from every bucket, meaning it is a flat bcast
+   * whose keys run in order through the whole bcast, every global index is reached by the same number of
+   * start positions, and every global index has the same waits, with each row pointing at the bucket the
+   * same distance ahead as the matching row in the first bucket.
+   *
+   * @return true if the path cost to a bucket only depends on how far ahead of the start it is
+   */
+  private boolean isShiftInvariant() {
+    int rowsPerIndex    = broadcast.getRowEnd(0) - broadcast.getRowStart(0);
+    int[] firstOrdinals = new int[bucketCount];
+    int[] lastOrdinals  = new int[bucketCount];
+    for (int bucketPos = 0; bucketPos < bucketCount; bucketPos++) {
+      int globalPos = bucketPos * blocksPerBucket;
+      int localPos  = globalPos + 1;
+      if ((broadcast.getBlockType(globalPos) != BlockType.GLOBAL_FLAT_INDEX_BLOCK) ||
+          (broadcast.getRowEnd(globalPos) - broadcast.getRowStart(globalPos) != rowsPerIndex) ||
+          (startCounts[bucketPos] != startCounts[0]))
+        return false;
+
+      int firstRow = broadcast.getRowStart(localPos);
+      int endRow   = broadcast.getRowEnd(localPos);
+      if (firstRow == endRow)
+        return false;
+      firstOrdinals[bucketPos] = broadcast.getRowKey(firstRow);
+      lastOrdinals[bucketPos]  = broadcast.getRowKey(endRow - 1);
+      if ((bucketPos > 0) && (firstOrdinals[bucketPos] <= lastOrdinals[bucketPos - 1]))
+        return false;
+    }
+
+    //Work out how far ahead each row of the first global index points, then check every other one matches
+    int firstHeader  = broadcast.getRowStart(0);
+    int[] rowOffsets = new int[rowsPerIndex];
+    for (int rowPos = 1; rowPos < rowsPerIndex; rowPos++) {
+      rowOffsets[rowPos] = Arrays.binarySearch(lastOrdinals, broadcast.getRowKey(firstHeader + rowPos));
+      if (rowOffsets[rowPos] < 0)
+        return false;
+    }
+    for (int bucketPos = 0; bucketPos < bucketCount; bucketPos++) {
+      int headerPos = broadcast.getRowStart(bucketPos * blocksPerBucket);
+      if (broadcast.getRowKey(headerPos) != firstOrdinals[bucketPos])
+        return false;
+      for (int rowPos = 1; rowPos < rowsPerIndex; rowPos++) {
+        if ((broadcast.getRowWaitBlocks(headerPos + rowPos) != broadcast.getRowWaitBlocks(firstHeader + rowPos)) ||
+            (broadcast.getRowKey(headerPos + rowPos) != lastOrdinals[(bucketPos + rowOffsets[rowPos]) % bucketCount]))
+          return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Helper method to walk the paths to the first bucket from every start position, and total them up
+   * into sharedAccessTotal and sharedTuningTotal.
+   *
+   * @return true if every path reached the first bucket's local index
+   */
+  private boolean walkSharedPaths() {
+    int firstOrdinal = broadcast.getRowKey(broadcast.getRowStart(1));
+    curStamp++;
+    sharedAccessTotal = 0;
+    sharedTuningTotal = 0;
+    for (int startBucket = 0; startBucket < bucketCount; startBucket++) {
+      if (!walkPath(startBucket * blocksPerBucket, -1, firstOrdinal))
+        return false;
+      sharedAccessTotal += startAccessTotals[startBucket] + ((long)startCounts[startBucket] * pathAccess[startBucket]);
+      sharedTuningTotal += (long)startCounts[startBucket] * (3 + pathTuning[startBucket]);
+    }
+    return true;
+  }
+
+  /**
+   * Helper method to work out the cost of getting from a global index to the local index holding the
+   * search key.  The results are left in pathAccess and pathTuning for the starting bucket, along with
+   * every other bucket visited along the way.
+   *
+   * @return true if the local index was reached, false if the search failed
+   */
+  private boolean walkPath(int globalPos, int clusterId, int searchOrdinal) {
+    int pathLength = 0;
+    int curPos     = globalPos;
+    long access    = 0;
+    int tuning     = 0;
+
+    while (true) {
+      if (isGlobalIndex(curPos)) {
+        int bucketPos = curPos / blocksPerBucket;
+        if (pathStamps[bucketPos] == curStamp) {
+          //We've walked on from here before, so pick up where that walk finished
+          access = pathAccess[bucketPos];
+          tuning = pathTuning[bucketPos];
+          break;
+        }
+        if (pathLength > bucketCount) {
+          //We've read more global indices than there are buckets, so we must be going in circles
+          access = -1;
+          break;
+        }
+
+        int dozeBlocks = lookup(curPos, clusterId, searchOrdinal);
+        pathPositions[pathLength] = curPos;
+        pathDozes[pathLength]     = dozeBlocks;
+        pathLength++;
+        if (dozeBlocks < 0) {
+          access = -1;
+          break;
+        }
+        curPos = (int)(((long)curPos + dozeBlocks + 1) % blockCount);
+      } else {
+        //We should have landed on the local index for our key;  anything else is a failed search
+        if ((broadcast.getBlockType(curPos) != BlockType.LOCAL_INDEX_BLOCK) ||
+            (broadcast.getNextReadOffset(curPos, searchOrdinal) < 0))
+          access = -1;
+        break;
+      }
+    }
+
+    //Unwind the path, remembering the cost from each global index we read
+    for (int pathPos = pathLength - 1; pathPos >= 0; pathPos--) {
+      if (access >= 0) {
+        access += 1 + pathDozes[pathPos];
+        tuning += 1;
+      }
+      int bucketPos = pathPositions[pathPos] / blocksPerBucket;
+      pathStamps[bucketPos] = curStamp;
+      pathAccess[bucketPos] = access;
+      pathTuning[bucketPos] = tuning;
+    }
+
+    return pathAccess[globalPos / blocksPerBucket] >= 0;
+  }
+
+  /**
+   * Helper method to read a global index block, treating a malformed lookup as a failed search.
+   */
+  private int lookup(int globalPos, int clusterId, int searchOrdinal) {
+    try {
+      if (clusterId < 0)
+        return broadcast.getNextReadOffset(globalPos, searchOrdinal);
+      return broadcast.getNextReadOffset(globalPos, clusterId, searchOrdinal);
+    } catch (RuntimeException e) {
+      return -1;
+    }
+  }
+
+  /**
+   * Helper method to work out the cluster a bucket belongs to from the header rows of its global index.
+   *
+   * @return The cluster id, or -1 for flat bcasts
+   */
+  private int getClusterId(int globalPos) {
+    if (broadcast.getBlockType(globalPos) != BlockType.GLOBAL_CLUSTER_INDEX_BLOCK)
+      return -1;
+    return broadcast.getRowKey(broadcast.getRowStart(globalPos) + 1);
+  }
+
+  /**
+   * Helper method to check whether a position holds a global index block.
+   */
+  private boolean isGlobalIndex(int blockPos) {
+    BlockType blockType = broadcast.getBlockType(blockPos);
+    return (blockType == BlockType.GLOBAL_FLAT_INDEX_BLOCK) || (blockType == BlockType.GLOBAL_CLUSTER_INDEX_BLOCK);
+  }
+}
@@ -0,0 +1,85 @@
+package com.umkc.bcast.sim;
+
+/**
+ * The result of an ExpectedTimeCalculator run.  All times are in blocks, and are averaged over every
+ * start position in the bcast and every key, weighted by the key distribution.  Queries that could not
+ * be completed are left out of the averages and counted in the failure rate instead.
+ *
+ * @author ac010168
+ *
+ */
+public class ExpectedTimes {
+
+  /** The expected number of blocks from tuning in until the data block has been read */
+  private final double expectedAccessTime;
+  /** The expected number of blocks the client has to be awake for */
+  private final double expectedTuningTime;
+  /** The fraction of the (weighted) queries that could not be completed */
+  private final double failureRate;
+  /** The number of blocks in the bcast */
+  private final int blockCount;
+  /** The number of distinct keys the times were averaged over */
+  private final int keyCount;
+
+  /**
+   * Basic Constructor.
+   *
+   * @param expectedAccessTime The expected access time, in blocks
+   * @param expectedTuningTime The expected tuning time, in blocks
+   * @param failureRate        The fraction of the weighted queries that could not be completed
+   * @param blockCount         The number of blocks in the bcast
+   * @param keyCount           The number of distinct keys the times were averaged over
+   */
+  public ExpectedTimes(double expectedAccessTime, double expectedTuningTime, double failureRate, int blockCount, int keyCount) {
+    this.expectedAccessTime = expectedAccessTime;
+    this.expectedTuningTime = expectedTuningTime;
+    this.failureRate        = failureRate;
+    this.blockCount         = blockCount;
+    this.keyCount           = keyCount;
+  }
+
+  /**
+   * @return the expectedAccessTime
+   */
+  public double getExpectedAccessTime() {
+    return expectedAccessTime;
+  }
+
+  /**
+   * @return the expectedTuningTime
+   */
+  public double getExpectedTuningTime() {
+    return expectedTuningTime;
+  }
+
+  /**
+   * @return the failureRate
+   */
+  public double getFailureRate() {
+    return failureRate;
+  }
+
+  /**
+   * @return the blockCount
+   */
+  public int getBlockCount() {
+    return blockCount;
+  }
+
+  /**
+   * @return the keyCount
+   */
+  public int getKeyCount() {
+    return keyCount;
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see java.lang.Object#toString()
+   */
+  @Override
+  public String toString() {
+    return "Blocks: " + blockCount + "  Keys: " + keyCount + "  Expected Access Time: " + expectedAccessTime +
+        "  Expected Tuning Time: " + expectedTuningTime + "  Failure Rate: " + failureRate;
+  }
+}
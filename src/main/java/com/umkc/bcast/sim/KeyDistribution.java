@@ -0,0 +1,28 @@
+package com.umkc.bcast.sim;
+
+/**
+ * The relative popularity of the keys in a bcast, used to weight the queries when working out expected
+ * access and tuning times.  Weights do not need to add up to 1;  they are normalized over every key
+ * in the bcast.
+ *
+ * @author ac010168
+ *
+ */
+public interface KeyDistribution {
+
+  /** Every key in the bcast is equally likely to be requested */
+  public static final KeyDistribution UNIFORM = new KeyDistribution() {
+    @Override
+    public double getWeight(int clusterId, int keyOrdinal) {
+      return 1.0;
+    }
+  };
+
+  /**
+   * @param clusterId  The ClusterDictionary id of the cluster the key belongs to, or -1 for flat bcasts
+   * @param keyOrdinal The KeyDictionary ordinal of the key
+   *
+   * @return The relative weight of requests for that key.  Must not be negative.
+   */
+  public double getWeight(int clusterId, int keyOrdinal);
+}
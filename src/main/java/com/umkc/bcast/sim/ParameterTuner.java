@@ -0,0 +1,153 @@
+package com.umkc.bcast.sim;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import com.umkc.bcast.data.Broadcast;
+
+/**
+ * Sweeps a grid of exponentialFactor and bucketSize values, builds a bcast for each pair, and scores it
+ * with the ExpectedTimeCalculator.  The result is the Pareto front of expected access time against
+ * expected tuning time, so the parameters can be picked automatically for a given tuning time budget
+ * (see TuningResult.chooseCandidate()).
+ *
+ * <p>Small buckets mean short waits for the next index, but a longer bcast overall;  large buckets do the
+ * opposite.  A larger exponential factor means fewer index rows, but longer hops.  Which mix is best
+ * depends on the data and the workload, which is why this is worth searching rather than guessing.
+ *
+ * <p>If a tuning pool has been set, the candidates are built and scored in parallel on it, one candidate
+ * per task.  Each candidate only writes to its own TuningCandidate, so the workers share nothing.
+ *
+ * @author ac010168
+ *
+ */
+public class ParameterTuner {
+
+  /** Builds the bcast for each candidate */
+  private final CandidateBuilder candidateBuilder;
+  /** The exponential factors to try */
+  private final int[] exponentialFactors;
+  /** The bucket sizes to try */
+  private final int[] bucketSizes;
+
+  /** The workload used to score each candidate */
+  private KeyDistribution keyDistribution;
+  /** The pool to build and score the candidates on, or null to run on the calling thread */
+  private ForkJoinPool tuningPool;
+
+  /**
+   * Basic Constructor.  Every combination of the given values is tried, with a uniform workload.
+   *
+   * @param candidateBuilder   Builds the bcast for each candidate
+   * @param exponentialFactors The exponential factors to try
+   * @param bucketSizes        The bucket sizes to try
+   */
+  public ParameterTuner(CandidateBuilder candidateBuilder, int[] exponentialFactors, int[] bucketSizes) {
+    if ((exponentialFactors.length == 0) || (bucketSizes.length == 0))
+      throw new RuntimeException("There must be at least one value to try for each parameter.");
+    this.candidateBuilder   = candidateBuilder;
+    this.exponentialFactors = exponentialFactors.clone();
+    this.bucketSizes        = bucketSizes.clone();
+    this.keyDistribution    = KeyDistribution.UNIFORM;
+  }
+
+  /**
+   * @param keyDistribution The workload used to score each candidate
+   */
+  public void setKeyDistribution(KeyDistribution keyDistribution) {
+    this.keyDistribution = keyDistribution;
+  }
+
+  /**
+   * @param tuningPool The pool to build and score the candidates on, or null to run on the calling thread
+   */
+  public void setTuningPool(ForkJoinPool tuningPool) {
+    this.tuningPool = tuningPool;
+  }
+
+  /**
+   * @return the tuningPool
+   */
+  public ForkJoinPool getTuningPool() {
+    return tuningPool;
+  }
+
+  /**
+   * Build and score every candidate.
+   *
+   * @return Every candidate, and the Pareto front of the usable ones
+   */
+  public TuningResult tune() {
+    List<TuningCandidate> candidates = new ArrayList<TuningCandidate>(exponentialFactors.length * bucketSizes.length);
+    for (int exponentialFactor : exponentialFactors) {
+      for (int bucketSize : bucketSizes)
+        candidates.add(new TuningCandidate(exponentialFactor, bucketSize));
+    }
+
+    if (tuningPool == null) {
+      for (TuningCandidate candidate : candidates)
+        evaluate(candidate);
+    } else {
+      tuningPool.invoke(new TuningTask(candidates, 0, candidates.size()));
+    }
+    return new TuningResult(candidates);
+  }
+
+  /**
+   * Helper method to build and score a single candidate.  Parameters the builder rejects are recorded as
+   * failures rather than stopping the search.
+   */
+  private void evaluate(TuningCandidate candidate) {
+    long startTime = System.nanoTime();
+    try {
+      Broadcast broadcast = candidateBuilder.buildCandidate(candidate.getExponentialFactor(), candidate.getBucketSize());
+      ExpectedTimes expectedTimes = new ExpectedTimeCalculator(broadcast).calculate(keyDistribution);
+      candidate.setResult(expectedTimes, null, System.nanoTime() - startTime);
+    } catch (RuntimeException e) {
+      candidate.setResult(null, e.getMessage(), System.nanoTime() - startTime);
+    }
+  }
+
+  /**
+   * Fork/join task that splits a range of candidates in half until there is only one left, since each
+   * candidate is a full build and score.
+   */
+  private class TuningTask extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Every candidate */
+    private final List<TuningCandidate> candidates;
+    /** The first candidate in this task's range */
+    private final int startPos;
+    /** The candidate just past the end of this task's range */
+    private final int endPos;
+
+    private TuningTask(List<TuningCandidate> candidates, int startPos, int endPos) {
+      this.candidates = candidates;
+      this.startPos   = startPos;
+      this.endPos     = endPos;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.util.concurrent.RecursiveAction#compute()
+     */
+    @Override
+    protected void compute() {
+      if (endPos - startPos <= 1) {
+        if (startPos < endPos)
+          evaluate(candidates.get(startPos));
+        return;
+      }
+
+      int midPos = (startPos + endPos) >>> 1;
+      TuningTask leftTask = new TuningTask(candidates, startPos, midPos);
+      leftTask.fork();
+      new TuningTask(candidates, midPos, endPos).compute();
+      leftTask.join();
+    }
+  }
+}
@@ -0,0 +1,117 @@
+package com.umkc.bcast.sim;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import com.umkc.bcast.data.BlockType;
+import com.umkc.bcast.data.Broadcast;
+import com.umkc.bcast.data.ClusterDictionary;
+import com.umkc.bcast.metrics.BroadcastMetrics;
+
+/**
+ * Every distinct (cluster, key) pair that can be searched for in a bcast, packed as ordinals so the
+ * simulators can hand them to a BroadcastClient without any translation.  The keys are read straight out
+ * of the local indices, in bcast order.  Repeated clusters in a skewed bcast share their local indices,
+ * so their keys are only listed once.
+ *
+ * @author ac010168
+ *
+ */
+public class SearchKeys {
+
+  /** The ClusterDictionary id for each key, or -1 for flat bcasts */
+  private final int[] clusterIds;
+  /** The KeyDictionary ordinal for each key */
+  private final int[] ordinals;
+
+  /**
+   * Basic Constructor.
+   *
+   * @param clusterIds The ClusterDictionary id for each key, or -1 for flat bcasts
+   * @param ordinals   The KeyDictionary ordinal for each key
+   */
+  public SearchKeys(int[] clusterIds, int[] ordinals) {
+    if (clusterIds.length != ordinals.length)
+      throw new RuntimeException("Every key needs a cluster id (" + clusterIds.length + " ids for " + ordinals.length + " keys)");
+    this.clusterIds = clusterIds;
+    this.ordinals   = ordinals;
+  }
+
+  /**
+   * Collect every distinct key in a bcast.
+   *
+   * @param broadcast The bcast to read the keys from
+   *
+   * @return The keys in the bcast
+   */
+  public static SearchKeys fromBroadcast(Broadcast broadcast) {
+    int blocksPerBucket = broadcast.getBucketSize() + 2;
+    int[] clusterIds    = new int[broadcast.getBlockCount()];
+    int[] ordinals      = new int[broadcast.getBlockCount()];
+    int keyCount        = 0;
+
+    Set<Long> seenBuckets = new HashSet<Long>();
+    for (int globalPos = 0; globalPos + 1 < broadcast.getBlockCount(); globalPos += blocksPerBucket) {
+      int localPos = globalPos + 1;
+      int firstRow = broadcast.getRowStart(localPos);
+      int endRow   = broadcast.getRowEnd(localPos);
+      if (firstRow == endRow)
+        continue;
+
+      int clusterId = -1;
+      if (broadcast.getBlockType(globalPos) == BlockType.GLOBAL_CLUSTER_INDEX_BLOCK)
+        clusterId = broadcast.getRowKey(broadcast.getRowStart(globalPos) + 1);
+      if (!seenBuckets.add(((long)clusterId << 32) | (broadcast.getRowKey(firstRow) & 0xFFFFFFFFL)))
+        continue;
+
+      for (int rowPos = firstRow; rowPos < endRow; rowPos++) {
+        clusterIds[keyCount] = clusterId;
+        ordinals[keyCount]   = broadcast.getRowKey(rowPos);
+        keyCount++;
+      }
+    }
+
+    return new SearchKeys(Arrays.copyOf(clusterIds, keyCount), Arrays.copyOf(ordinals, keyCount));
+  }
+
+  /**
+   * @return the number of keys
+   */
+  public int getKeyCount() {
+    return ordinals.length;
+  }
+
+  /**
+   * @param keyPos The position of the key in this set
+   *
+   * @return the ClusterDictionary id of the key, or -1 for flat bcasts
+   */
+  public int getClusterId(int keyPos) {
+    return clusterIds[keyPos];
+  }
+
+  /**
+   * @param keyPos The position of the key in this set
+   *
+   * @return the KeyDictionary ordinal of the key
+   */
+  public int getOrdinal(int keyPos) {
+    return ordinals[keyPos];
+  }
+
+  /**
+   * Name the cluster a key belongs to, the way the simulators record it into a BroadcastMetrics.
+   *
+   * @param broadcast The bcast the key was read from
+   * @param clusterId The ClusterDictionary id of the key, or -1 for flat bcasts
+   *
+   * @return the name of the cluster, or BroadcastMetrics.NO_CLUSTER for flat bcasts
+   */
+  static String getClusterGroup(Broadcast broadcast, int clusterId) {
+    ClusterDictionary clusterDictionary = broadcast.getClusterDictionary();
+    if ((clusterId < 0) || (clusterDictionary == null))
+      return BroadcastMetrics.NO_CLUSTER;
+    return clusterDictionary.getClusterName(clusterId);
+  }
+}
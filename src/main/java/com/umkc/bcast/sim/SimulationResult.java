@@ -0,0 +1,96 @@
+package com.umkc.bcast.sim;
+
+/**
+ * The outcome of an ExhaustiveSimulator run:  the distributions of the access and tuning times of every
+ * search that found its key, and a count of the searches that didn't.
+ *
+ * <p>Like TimeHistogram, a result is not thread safe;  each worker fills in its own, and they are merged
+ * once the workers are done.
+ *
+ * @author ac010168
+ *
+ */
+public class SimulationResult {
+
+  /** The access times of the successful searches */
+  private final TimeHistogram accessTimes;
+  /** The tuning times of the successful searches */
+  private final TimeHistogram tuningTimes;
+  /** The number of searches that did not find their key */
+  private long failedCount;
+
+  /**
+   * Basic Constructor.
+   */
+  public SimulationResult() {
+    accessTimes = new TimeHistogram();
+    tuningTimes = new TimeHistogram();
+  }
+
+  /**
+   * Record a successful search.
+   *
+   * @param accessTime The access time of the search, in blocks
+   * @param tuningTime The tuning time of the search, in blocks
+   */
+  public void recordFound(int accessTime, int tuningTime) {
+    accessTimes.record(accessTime);
+    tuningTimes.record(tuningTime);
+  }
+
+  /**
+   * Record a search that did not find its key.
+   */
+  public void recordFailed() {
+    failedCount++;
+  }
+
+  /**
+   * Add all of the searches from another result into this one.
+   *
+   * @param other The result to be added
+   */
+  public void merge(SimulationResult other) {
+    accessTimes.merge(other.accessTimes);
+    tuningTimes.merge(other.tuningTimes);
+    failedCount += other.failedCount;
+  }
+
+  /**
+   * @return the access times of the successful searches
+   */
+  public TimeHistogram getAccessTimes() {
+    return accessTimes;
+  }
+
+  /**
+   * @return the tuning times of the successful searches
+   */
+  public TimeHistogram getTuningTimes() {
+    return tuningTimes;
+  }
+
+  /**
+   * @return the number of searches that found their key
+   */
+  public long getFoundCount() {
+    return accessTimes.getTotalCount();
+  }
+
+  /**
+   * @return the number of searches that did not find their key
+   */
+  public long getFailedCount() {
+    return failedCount;
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see java.lang.Object#toString()
+   */
+  @Override
+  public String toString() {
+    return "Found: " + getFoundCount() + "  Failed: " + failedCount + "\n  Access Time: " + accessTimes +
+        "\n  Tuning Time: " + tuningTimes;
+  }
+}
@@ -0,0 +1,106 @@
+package com.umkc.bcast.sim;
+
+/**
+ * The outcome of a ClientSwarm run:  the access and tuning times of the clients, how late the clients
+ * woke up for their blocks, and how many blocks they missed because they woke up too late.
+ *
+ * @author ac010168
+ *
+ */
+public class SwarmResult {
+
+  /** The access and tuning times of every client, in blocks */
+  private final SimulationResult searchTimes;
+  /** How long after each block went on air the waiting client actually woke up, in microseconds */
+  private final TimeHistogram wakeJitterMicros;
+  /** The number of blocks clients missed because they woke up after the next block was on air */
+  private final long missedReads;
+  /** The number of clients in the swarm */
+  private final int clientCount;
+  /** The wall clock time from starting the first client until the last one finished */
+  private final long elapsedNanos;
+  /** Flag to indicate whether the clients ran on virtual threads */
+  private final boolean virtualThreads;
+
+  /**
+   * Basic Constructor.
+   *
+   * @param searchTimes      The access and tuning times of every client, in blocks
+   * @param wakeJitterMicros How late each client woke up for its blocks, in microseconds
+   * @param missedReads      The number of blocks missed because a client woke up too late
+   * @param clientCount      The number of clients in the swarm
+   * @param elapsedNanos     The wall clock time the swarm took
+   * @param virtualThreads   True if the clients ran on virtual threads
+   */
+  public SwarmResult(SimulationResult searchTimes, TimeHistogram wakeJitterMicros, long missedReads, int clientCount,
+      long elapsedNanos, boolean virtualThreads) {
+    this.searchTimes      = searchTimes;
+    this.wakeJitterMicros = wakeJitterMicros;
+    this.missedReads      = missedReads;
+    this.clientCount      = clientCount;
+    this.elapsedNanos     = elapsedNanos;
+    this.virtualThreads   = virtualThreads;
+  }
+
+  /**
+   * @return the access and tuning times of every client, in blocks
+   */
+  public SimulationResult getSearchTimes() {
+    return searchTimes;
+  }
+
+  /**
+   * @return how late the clients woke up for their blocks, in microseconds
+   */
+  public TimeHistogram getWakeJitterMicros() {
+    return wakeJitterMicros;
+  }
+
+  /**
+   * @return the number of blocks missed because a client woke up too late
+   */
+  public long getMissedReads() {
+    return missedReads;
+  }
+
+  /**
+   * @return the number of clients in the swarm
+   */
+  public int getClientCount() {
+    return clientCount;
+  }
+
+  /**
+   * @return the wall clock time the swarm took, in nanoseconds
+   */
+  public long getElapsedNanos() {
+    return elapsedNanos;
+  }
+
+  /**
+   * @return the number of searches completed per second of wall clock time
+   */
+  public double getThroughput() {
+    if (elapsedNanos == 0)
+      return 0.0;
+    return (searchTimes.getFoundCount() + searchTimes.getFailedCount()) * 1000000000.0 / elapsedNanos;
+  }
+
+  /**
+   * @return true if the clients ran on virtual threads
+   */
+  public boolean isVirtualThreads() {
+    return virtualThreads;
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see java.lang.Object#toString()
+   */
+  @Override
+  public String toString() {
+    return "Clients: " + clientCount + "  Virtual Threads: " + virtualThreads + "  Elapsed ms: " + (elapsedNanos / 1000000) +
+        "  Searches/sec: " + getThroughput() + "  Missed Reads: " + missedReads + "\n" + searchTimes +
+        "\n  Wake Jitter (us): " + wakeJitterMicros;
+  }
+}
@@ -0,0 +1,153 @@
+package com.umkc.bcast.sim;
+
+import java.util.Arrays;
+
+/**
+ * An exact histogram of times, in blocks.  There is one counter per possible time, grown as larger
+ * times are recorded, so percentiles are exact rather than estimated.  Access times are bounded by a
+ * couple of bcast cycles and tuning times by a handful of reads, so the counters stay small.
+ *
+ * <p>A histogram is not thread safe.  Each worker should record into its own histogram, and the results
+ * should be combined with merge() once the workers are done.
+ *
+ * @author ac010168
+ *
+ */
+public class TimeHistogram {
+
+  /** The number of times recorded at each value */
+  private long[] counts;
+  /** The number of times recorded */
+  private long totalCount;
+  /** The sum of every time recorded */
+  private long totalTime;
+  /** The smallest time recorded */
+  private int minTime;
+  /** The largest time recorded */
+  private int maxTime;
+
+  /**
+   * Basic Constructor.
+   */
+  public TimeHistogram() {
+    counts  = new long[64];
+    minTime = Integer.MAX_VALUE;
+    maxTime = -1;
+  }
+
+  /**
+   * Record a single time.
+   *
+   * @param time The time to record, in blocks.  Must not be negative.
+   */
+  public void record(int time) {
+    if (time < 0)
+      throw new RuntimeException("Cannot record a negative time: " + time);
+    if (time >= counts.length)
+      counts = Arrays.copyOf(counts, Math.max(time + 1, counts.length * 2));
+
+    counts[time]++;
+    totalCount++;
+    totalTime += time;
+    if (time < minTime)
+      minTime = time;
+    if (time > maxTime)
+      maxTime = time;
+  }
+
+  /**
+   * Add all of the times from another histogram into this one.
+   *
+   * @param other The histogram to be added
+   */
+  public void merge(TimeHistogram other) {
+    if (other.totalCount == 0)
+      return;
+    if (other.maxTime >= counts.length)
+      counts = Arrays.copyOf(counts, other.maxTime + 1);
+
+    for (int time = other.minTime; time <= other.maxTime; time++)
+      counts[time] += other.counts[time];
+    totalCount += other.totalCount;
+    totalTime  += other.totalTime;
+    minTime     = Math.min(minTime, other.minTime);
+    maxTime     = Math.max(maxTime, other.maxTime);
+  }
+
+  /**
+   * Find the smallest time that at least the given percentage of the recorded times are at or below.
+   *
+   * @param percentile The percentile wanted, between 0 and 100
+   *
+   * @return The time at that percentile, or 0 if nothing has been recorded
+   */
+  public int getValueAtPercentile(double percentile) {
+    if (totalCount == 0)
+      return 0;
+
+    long targetCount = Math.max(1, (long)Math.ceil((percentile / 100.0) * totalCount));
+    long runningCount = 0;
+    for (int time = minTime; time <= maxTime; time++) {
+      runningCount += counts[time];
+      if (runningCount >= targetCount)
+        return time;
+    }
+    return maxTime;
+  }
+
+  /**
+   * @param time A time, in blocks
+   *
+   * @return The number of times recorded at exactly that value
+   */
+  public long getCount(int time) {
+    if ((time < 0) || (time >= counts.length))
+      return 0;
+    return counts[time];
+  }
+
+  /**
+   * @return the number of times recorded
+   */
+  public long getTotalCount() {
+    return totalCount;
+  }
+
+  /**
+   * @return the sum of every time recorded
+   */
+  public long getTotalTime() {
+    return totalTime;
+  }
+
+  /**
+   * @return the mean of the recorded times, or 0 if nothing has been recorded
+   */
+  public double getMean() {
+    return (totalCount == 0) ? 0.0 : (double)totalTime / totalCount;
+  }
+
+  /**
+   * @return the smallest time recorded, or 0 if nothing has been recorded
+   */
+  public int getMinTime() {
+    return (totalCount == 0) ? 0 : minTime;
+  }
+
+  /**
+   * @return the largest time recorded, or 0 if nothing has been recorded
+   */
+  public int getMaxTime() {
+    return (totalCount == 0) ? 0 : maxTime;
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see java.lang.Object#toString()
+   */
+  @Override
+  public String toString() {
+    return "Count: " + totalCount + "  Mean: " + getMean() + "  Min: " + getMinTime() + "  p50: " + getValueAtPercentile(50) +
+        "  p90: " + getValueAtPercentile(90) + "  p99: " + getValueAtPercentile(99) + "  Max: " + getMaxTime();
+  }
+}
@@ -0,0 +1,111 @@
+package com.umkc.bcast.sim;
+
+/**
+ * One point in the ParameterTuner's search space, with the expected times of the bcast built from it,
+ * or the reason it couldn't be built.
+ *
+ * @author ac010168
+ *
+ */
+public class TuningCandidate {
+
+  /** The exponential factor the bcast was built with */
+  private final int exponentialFactor;
+  /** The bucket size the bcast was built with */
+  private final int bucketSize;
+  /** The expected times for the bcast, or null if it couldn't be built */
+  private ExpectedTimes expectedTimes;
+  /** The reason the bcast couldn't be built, or null */
+  private String failureMessage;
+  /** The time taken to build and score the bcast, in nanoseconds */
+  private long evaluationNanos;
+
+  /**
+   * Basic Constructor.
+   *
+   * @param exponentialFactor The exponential factor to build with
+   * @param bucketSize        The bucket size to build with
+   */
+  public TuningCandidate(int exponentialFactor, int bucketSize) {
+    this.exponentialFactor = exponentialFactor;
+    this.bucketSize        = bucketSize;
+  }
+
+  /**
+   * Helper method for the tuner to record the result of building and scoring this candidate.
+   */
+  void setResult(ExpectedTimes expectedTimes, String failureMessage, long evaluationNanos) {
+    this.expectedTimes   = expectedTimes;
+    this.failureMessage  = failureMessage;
+    this.evaluationNanos = evaluationNanos;
+  }
+
+  /**
+   * @return true if the bcast was built, and every query in it can be completed
+   */
+  public boolean isUsable() {
+    return (expectedTimes != null) && (expectedTimes.getFailureRate() == 0);
+  }
+
+  /**
+   * @param other Another candidate
+   *
+   * @return true if this candidate is at least as good as the other on both access and tuning time, and
+   *         better on at least one
+   */
+  public boolean dominates(TuningCandidate other) {
+    double access      = expectedTimes.getExpectedAccessTime();
+    double tuning      = expectedTimes.getExpectedTuningTime();
+    double otherAccess = other.expectedTimes.getExpectedAccessTime();
+    double otherTuning = other.expectedTimes.getExpectedTuningTime();
+    return (access <= otherAccess) && (tuning <= otherTuning) && ((access < otherAccess) || (tuning < otherTuning));
+  }
+
+  /**
+   * @return the exponentialFactor
+   */
+  public int getExponentialFactor() {
+    return exponentialFactor;
+  }
+
+  /**
+   * @return the bucketSize
+   */
+  public int getBucketSize() {
+    return bucketSize;
+  }
+
+  /**
+   * @return the expected times for the bcast, or null if it couldn't be built
+   */
+  public ExpectedTimes getExpectedTimes() {
+    return expectedTimes;
+  }
+
+  /**
+   * @return the reason the bcast couldn't be built, or null
+   */
+  public String getFailureMessage() {
+    return failureMessage;
+  }
+
+  /**
+   * @return the time taken to build and score the bcast, in nanoseconds
+   */
+  public long getEvaluationNanos() {
+    return evaluationNanos;
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see java.lang.Object#toString()
+   */
+  @Override
+  public String toString() {
+    String result = "Exponential Factor: " + exponentialFactor + "  Bucket Size: " + bucketSize;
+    if (expectedTimes == null)
+      return result + "  Failed: " + failureMessage;
+    return result + "  Access: " + expectedTimes.getExpectedAccessTime() + "  Tuning: " + expectedTimes.getExpectedTuningTime() +
+        "  Failure Rate: " + expectedTimes.getFailureRate();
+  }
+}
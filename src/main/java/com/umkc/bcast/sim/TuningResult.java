@@ -0,0 +1,104 @@
+package com.umkc.bcast.sim;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * The result of a ParameterTuner run:  every candidate that was tried, and the Pareto front of access
+ * time against tuning time.  A candidate is on the front if it is usable, and no other usable candidate
+ * is at least as good on both times and better on one.  The front is sorted from the lowest access time
+ * (and highest tuning time) to the lowest tuning time.
+ *
+ * @author ac010168
+ *
+ */
+public class TuningResult {
+
+  /** Every candidate tried, in search order */
+  private final List<TuningCandidate> candidates;
+  /** The Pareto front, sorted by access time */
+  private final List<TuningCandidate> paretoFront;
+
+  /**
+   * Basic Constructor.  Works out the Pareto front of the candidates.
+   *
+   * @param candidates Every candidate tried, after they have all been scored
+   */
+  public TuningResult(List<TuningCandidate> candidates) {
+    this.candidates = Collections.unmodifiableList(new ArrayList<TuningCandidate>(candidates));
+
+    //Sort by access time, then tuning time, so a candidate can only be dominated by one before it.  Candidates
+    //with exactly the same times (different parameters can give the same bcast shape) all stay on the front.
+    List<TuningCandidate> usable = new ArrayList<TuningCandidate>();
+    for (TuningCandidate candidate : candidates) {
+      if (candidate.isUsable())
+        usable.add(candidate);
+    }
+    Collections.sort(usable, new Comparator<TuningCandidate>() {
+      @Override
+      public int compare(TuningCandidate candidate1, TuningCandidate candidate2) {
+        int accessCompare = Double.compare(candidate1.getExpectedTimes().getExpectedAccessTime(), candidate2.getExpectedTimes().getExpectedAccessTime());
+        if (accessCompare != 0)
+          return accessCompare;
+        return Double.compare(candidate1.getExpectedTimes().getExpectedTuningTime(), candidate2.getExpectedTimes().getExpectedTuningTime());
+      }
+    });
+
+    List<TuningCandidate> front = new ArrayList<TuningCandidate>();
+    for (TuningCandidate candidate : usable) {
+      if (front.isEmpty())
+        front.add(candidate);
+      else {
+        ExpectedTimes lastTimes = front.get(front.size() - 1).getExpectedTimes();
+        ExpectedTimes curTimes  = candidate.getExpectedTimes();
+        if ((curTimes.getExpectedTuningTime() < lastTimes.getExpectedTuningTime()) || 
+            ((curTimes.getExpectedTuningTime() == lastTimes.getExpectedTuningTime()) && (curTimes.getExpectedAccessTime() == lastTimes.getExpectedAccessTime())))
+          front.add(candidate);
+      }
+    }
+    this.paretoFront = Collections.unmodifiableList(front);
+  }
+
+  /**
+   * Pick the candidate with the lowest access time whose tuning time is within a budget.
+   *
+   * @param maxTuningTime The most blocks a client can afford to be awake for
+   *
+   * @return The best candidate on the front within the budget, or null if there isn't one
+   */
+  public TuningCandidate chooseCandidate(double maxTuningTime) {
+    for (TuningCandidate candidate : paretoFront) {
+      if (candidate.getExpectedTimes().getExpectedTuningTime() <= maxTuningTime)
+        return candidate;
+    }
+    return null;
+  }
+
+  /**
+   * @return every candidate tried, in search order
+   */
+  public List<TuningCandidate> getCandidates() {
+    return candidates;
+  }
+
+  /**
+   * @return the Pareto front, sorted from the lowest access time to the lowest tuning time
+   */
+  public List<TuningCandidate> getParetoFront() {
+    return paretoFront;
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see java.lang.Object#toString()
+   */
+  @Override
+  public String toString() {
+    String result = "Candidates: " + candidates.size() + "  Pareto Front: " + paretoFront.size() + "\n";
+    for (TuningCandidate candidate : paretoFront)
+      result += "  " + candidate + "\n";
+    return result;
+  }
+}
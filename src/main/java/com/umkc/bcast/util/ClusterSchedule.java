@@ -0,0 +1,185 @@
+package com.umkc.bcast.util;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.umkc.bcast.data.GlobalIndexArrayItem;
+import com.umkc.bcast.data.impl.GlobalClusterIndexBlock;
+
+/**
+ * Helper class used by the clustered builders to work out the cluster index rows for any bucket
+ * directly from its position in the bcast.  The schedule notes where each entry in the cluster order
+ * starts, so the offset from a bucket to the next appearance of a cluster is simply:
+ * <pre>
+ *   offset = (clusterStart - linearBucketPos) mod cycleLength,  with 0 mapped to cycleLength
+ * </pre>
+ * This replaces shifting a shared list of offsets after every bucket, which cost O(clusters) per
+ * bucket on top of building the rows, and forced the buckets to be indexed in order.
+ *
+ * <p>A cluster may appear in the order more than once.  In that case only the nearest appearance is
+ * given a row, which matches how clients use the cluster index.
+ *
+ * <p>Once constructed, a schedule is read only and can be shared between threads.
+ *
+ * @author ac010168
+ *
+ */
+class ClusterSchedule {
+
+  /** The cluster names, in bcast order */
+  private final String[] clusterNames;
+  /** The position in the bcast where each entry in the cluster order starts */
+  private final int[] clusterStarts;
+  /** An id for each entry in the cluster order.  Repeated clusters share the same id. */
+  private final int[] nameIds;
+  /** The number of distinct cluster names */
+  private final int nameCount;
+  /** For each distinct cluster name, the positions in the cluster order where it appears.  Null if there are no repeats. */
+  private final int[][] nameOccurrences;
+  /** The number of buckets in one full cycle of the bcast */
+  private final int cycleLength;
+
+  /**
+   * Basic Constructor.
+   *
+   * @param clusterOrder The order in which the clusters appear in the bcast.  Repeats are fine.
+   * @param clusterSizes The number of buckets in each entry of the cluster order
+   */
+  ClusterSchedule(List<String> clusterOrder, int[] clusterSizes) {
+    clusterNames  = clusterOrder.toArray(new String[clusterOrder.size()]);
+    clusterStarts = new int[clusterNames.length];
+    nameIds       = new int[clusterNames.length];
+
+    Map<String, Integer> nameIdMap = new HashMap<String, Integer>();
+    int offsetBase = 0;
+    for (int clusterPos = 0; clusterPos < clusterNames.length; clusterPos++) {
+      if (clusterSizes[clusterPos] <= 0)
+        throw new RuntimeException("Cluster " + clusterNames[clusterPos] + " does not contain any buckets.");
+      clusterStarts[clusterPos] = offsetBase;
+      offsetBase += clusterSizes[clusterPos];
+
+      Integer nameId = nameIdMap.get(clusterNames[clusterPos]);
+      if (nameId == null) {
+        nameId = nameIdMap.size();
+        nameIdMap.put(clusterNames[clusterPos], nameId);
+      }
+      nameIds[clusterPos] = nameId;
+    }
+
+    nameCount   = nameIdMap.size();
+    cycleLength = offsetBase;
+    
+    if (nameCount < clusterNames.length) {
+      int[] occurrenceCounts = new int[nameCount];
+      for (int clusterPos = 0; clusterPos < clusterNames.length; clusterPos++)
+        occurrenceCounts[nameIds[clusterPos]]++;
+      nameOccurrences = new int[nameCount][];
+      for (int nameId = 0; nameId < nameCount; nameId++)
+        nameOccurrences[nameId] = new int[occurrenceCounts[nameId]];
+      Arrays.fill(occurrenceCounts, 0);
+      for (int clusterPos = 0; clusterPos < clusterNames.length; clusterPos++)
+        nameOccurrences[nameIds[clusterPos]][occurrenceCounts[nameIds[clusterPos]]++] = clusterPos;
+    } else nameOccurrences = null;
+  }
+
+  /**
+   * @return the number of buckets in one full cycle of the bcast
+   */
+  int getCycleLength() {
+    return cycleLength;
+  }
+
+  /**
+   * @param clusterPos The position in the cluster order
+   *
+   * @return the position in the bcast of the first bucket of that cluster
+   */
+  int getClusterStart(int clusterPos) {
+    return clusterStarts[clusterPos];
+  }
+
+  /**
+   * Find the entry in the cluster order that a bucket belongs to.
+   *
+   * @param linearBucketPos The position of the bucket in the bcast
+   *
+   * @return The position of the bucket's cluster in the cluster order
+   */
+  int getClusterPos(int linearBucketPos) {
+    int clusterPos = Arrays.binarySearch(clusterStarts, linearBucketPos);
+    if (clusterPos < 0)
+      clusterPos = -clusterPos - 2;
+    return clusterPos;
+  }
+
+  /**
+   * Work out how many buckets a bucket must wait for the start of the next appearance of a cluster.
+   * A bucket never waits for 0 buckets;  if the bucket is the start of the cluster, it waits for the
+   * whole cycle until the cluster comes around again.
+   *
+   * @param clusterPos      The position in the cluster order of the cluster being waited for
+   * @param linearBucketPos The position of the waiting bucket in the bcast
+   *
+   * @return The number of buckets until the cluster starts
+   */
+  int getClusterOffset(int clusterPos, int linearBucketPos) {
+    int clusterOffset = (clusterStarts[clusterPos] - linearBucketPos) % cycleLength;
+    if (clusterOffset <= 0)
+      clusterOffset += cycleLength;
+    return clusterOffset;
+  }
+
+  /**
+   * Add the cluster index rows for a bucket.  The rows are added nearest cluster first, starting with
+   * the entry after the bucket's own cluster and looping back around to it.  A row is skipped when it
+   * would wait a full cycle, or when a nearer appearance of the same cluster already has a row.
+   *
+   * @param indexBlock      The global index block for the bucket
+   * @param clusterPos      The position of the bucket's cluster in the cluster order
+   * @param linearBucketPos The position of the bucket in the bcast
+   * @param bucketSize      The number of data blocks in each bucket
+   */
+  void addClusterRows(GlobalClusterIndexBlock indexBlock, int clusterPos, int linearBucketPos, int bucketSize) {
+    if (nameOccurrences == null) {
+      //Every cluster appears once, so every entry gets a row
+      for (int eachClusterPos = 0; eachClusterPos < clusterNames.length; eachClusterPos++) {
+        int nextClusterPos = (eachClusterPos + clusterPos + 1) % clusterNames.length;
+        addClusterRow(indexBlock, nextClusterPos, linearBucketPos, bucketSize);
+      }
+      return;
+    }
+    
+    //Otherwise, find the next appearance of each distinct cluster after this one, looping back around
+    //to this same entry if need be.  Sorting those by their distance from this entry gives the same row
+    //order as walking the whole cluster order, but only costs O(distinct clusters * log) per bucket.
+    long[] nextAppearances = new long[nameCount];
+    for (int nameId = 0; nameId < nameCount; nameId++) {
+      int[] occurrences  = nameOccurrences[nameId];
+      int occurrencePos  = Arrays.binarySearch(occurrences, clusterPos + 1);
+      if (occurrencePos < 0)
+        occurrencePos = -occurrencePos - 1;
+      int nextClusterPos = (occurrencePos < occurrences.length) ? occurrences[occurrencePos] : occurrences[0];
+      int distance       = (nextClusterPos - clusterPos - 1 + clusterNames.length) % clusterNames.length;
+      nextAppearances[nameId] = ((long)distance << 32) | nextClusterPos;
+    }
+    Arrays.sort(nextAppearances);
+    
+    for (long nextAppearance : nextAppearances)
+      addClusterRow(indexBlock, (int)nextAppearance, linearBucketPos, bucketSize);
+  }
+  
+  /**
+   * Helper method to add a single cluster index row, unless it would wait a full cycle.
+   */
+  private void addClusterRow(GlobalClusterIndexBlock indexBlock, int nextClusterPos, int linearBucketPos, int bucketSize) {
+    int clusterOffset = getClusterOffset(nextClusterPos, linearBucketPos);
+    if (clusterOffset == cycleLength)
+      return;
+    
+    GlobalIndexArrayItem indexItem = new GlobalIndexArrayItem(clusterOffset, (clusterOffset * (bucketSize + 2)) - 1,
+        clusterNames[nextClusterPos]);
+    indexBlock.addClusterIndexRow(indexItem);
+  }
+}
@@ -0,0 +1,346 @@
+package com.umkc.bcast.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Works out a skewed cluster order from how often each cluster is accessed, so callers don't have to
+ * hand craft the repeated clusterOrder list for the SkewedClusteredBroadcastBuilder.
+ *
+ * <p>If cluster i takes up l(i) buckets, is accessed with probability p(i), and appears f(i) times,
+ * evenly spread through a cycle of T = sum(f(j) * l(j)) buckets, then a client waits on average about
+ * T / (2 * f(i)) buckets for the next appearance of its cluster.  The expected wait over all clients is
+ * <pre>
+ *   W = sum(p(i) * T / (2 * f(i)))
+ * </pre>
+ * which is smallest when f(i) is proportional to sqrt(p(i) / l(i)):  the square root rule.  Popular
+ * clusters are repeated more, but large clusters are repeated less, since every repeat makes the cycle
+ * longer for everyone else.
+ *
+ * <p>The repeat counts have to be whole numbers between 1 and maxRepeats, so the optimizer tries the
+ * square root ratios rounded at every scale up to maxRepeats, keeps the best, then nudges individual
+ * counts up or down for as long as that helps.  The appearances are spread out by giving the k-th
+ * appearance of cluster i the ideal position (k + 0.5) / f(i) in the cycle, and sorting by it.  Rounding
+ * can leave two appearances of a cluster next to each other (including across the end of the cycle), so
+ * any such pair is then split up by swapping with the nearest appearance that fits.  Each candidate set
+ * of counts is scored with getExpectedWait() on the order it actually spreads into, and counts that can't
+ * be kept apart (a cluster with more than half of the appearances) are never chosen.
+ *
+ * <p>Per key access probabilities can be used by adding each key's probability to its cluster.
+ *
+ * @author ac010168
+ *
+ */
+public class ClusterSkewOptimizer {
+
+  /** The most times any one cluster may appear in the cycle */
+  private final int maxRepeats;
+  /** The number of buckets in each cluster, in the order the clusters were added */
+  private final Map<String, Integer> clusterSizes;
+  /** The (unnormalized) access probability of each cluster */
+  private final Map<String, Double> clusterWeights;
+
+  /** The repeat count chosen for each cluster by the last call to optimize() */
+  private int[] repeatCounts;
+
+  /**
+   * Basic Constructor.
+   *
+   * @param maxRepeats The most times any one cluster may appear in the cycle
+   */
+  public ClusterSkewOptimizer(int maxRepeats) {
+    if (maxRepeats < 1)
+      throw new RuntimeException("Each cluster has to appear at least once: " + maxRepeats);
+    this.maxRepeats     = maxRepeats;
+    this.clusterSizes   = new LinkedHashMap<String, Integer>();
+    this.clusterWeights = new LinkedHashMap<String, Double>();
+  }
+
+  /**
+   * Add a cluster to be scheduled.
+   *
+   * @param clusterGroup The cluster name
+   * @param bucketCount  The number of buckets in the cluster
+   */
+  public void addCluster(String clusterGroup, int bucketCount) {
+    if (bucketCount <= 0)
+      throw new RuntimeException("Cluster " + clusterGroup + " does not contain any buckets.");
+    if (clusterSizes.put(clusterGroup, bucketCount) != null)
+      throw new RuntimeException("Cluster " + clusterGroup + " has already been added.");
+    clusterWeights.put(clusterGroup, 0.0);
+  }
+
+  /**
+   * Add to the access probability of a cluster.  This can be called once per cluster, or once for every
+   * key in the cluster.  The weights don't need to add up to 1.
+   *
+   * @param clusterGroup The cluster name
+   * @param weight       The access probability to add
+   */
+  public void addAccessWeight(String clusterGroup, double weight) {
+    Double curWeight = clusterWeights.get(clusterGroup);
+    if (curWeight == null)
+      throw new RuntimeException("Cluster " + clusterGroup + " has not been added.");
+    if (weight < 0)
+      throw new RuntimeException("Access weights cannot be negative: " + weight);
+    clusterWeights.put(clusterGroup, curWeight + weight);
+  }
+
+  /**
+   * Work out the repeat counts and the cluster order.
+   *
+   * @return The cluster order, ready to be passed to SkewedClusteredBroadcastBuilder.addClusterKeys()
+   */
+  public List<String> optimize() {
+    int clusterCount = clusterSizes.size();
+    if (clusterCount == 0)
+      throw new RuntimeException("There are no clusters to schedule.");
+
+    int[] sizes         = new int[clusterCount];
+    double[] weights    = new double[clusterCount];
+    double[] sqrtRatios = new double[clusterCount];
+    double totalWeight  = 0;
+    double maxRatio     = 0;
+    int clusterPos      = 0;
+    for (Map.Entry<String, Integer> sizeEntry : clusterSizes.entrySet()) {
+      sizes[clusterPos]      = sizeEntry.getValue();
+      weights[clusterPos]    = clusterWeights.get(sizeEntry.getKey());
+      sqrtRatios[clusterPos] = Math.sqrt(weights[clusterPos] / sizes[clusterPos]);
+      totalWeight += weights[clusterPos];
+      maxRatio     = Math.max(maxRatio, sqrtRatios[clusterPos]);
+      clusterPos++;
+    }
+    if (totalWeight <= 0)
+      throw new RuntimeException("At least one cluster needs a positive access weight.");
+
+    //Try the rounded square root ratios at every scale, with the most popular cluster repeated 1..maxRepeats times.
+    //The first scale repeats nothing, which can always be spread, so there is always a best.
+    int[] bestCounts = null;
+    double bestWait  = Double.MAX_VALUE;
+    int[] counts     = new int[clusterCount];
+    for (int scale = 1; scale <= maxRepeats; scale++) {
+      for (clusterPos = 0; clusterPos < clusterCount; clusterPos++)
+        counts[clusterPos] = (int)Math.max(1, Math.min(maxRepeats, Math.round(scale * sqrtRatios[clusterPos] / maxRatio)));
+      double wait = getSpreadWait(counts);
+      if ((bestCounts == null) || (wait < bestWait)) {
+        bestWait   = wait;
+        bestCounts = counts.clone();
+      }
+    }
+
+    //Rounding can leave a little on the table, so nudge single counts while that helps
+    boolean improved = true;
+    while (improved) {
+      improved = false;
+      for (clusterPos = 0; clusterPos < clusterCount; clusterPos++) {
+        for (int step = -1; step <= 1; step += 2) {
+          int newCount = bestCounts[clusterPos] + step;
+          if ((newCount < 1) || (newCount > maxRepeats))
+            continue;
+          bestCounts[clusterPos] = newCount;
+          double wait = getSpreadWait(bestCounts);
+          if (wait < bestWait - 1e-12) {
+            bestWait = wait;
+            improved = true;
+          } else bestCounts[clusterPos] -= step;
+        }
+      }
+    }
+
+    repeatCounts = bestCounts;
+    return spreadRepeats(repeatCounts);
+  }
+
+  /**
+   * @return the number of times each cluster appears in the order from the last call to optimize()
+   */
+  public Map<String, Integer> getRepeatCounts() {
+    if (repeatCounts == null)
+      throw new RuntimeException("The cluster order has not been optimized yet.");
+
+    Map<String, Integer> counts = new LinkedHashMap<String, Integer>();
+    int clusterPos = 0;
+    for (String clusterGroup : clusterSizes.keySet())
+      counts.put(clusterGroup, repeatCounts[clusterPos++]);
+    return counts;
+  }
+
+  /**
+   * Work out the average wait, in buckets, for a client to reach the start of its cluster with the given
+   * cluster order, using the actual gaps between appearances rather than assuming they are even.  This
+   * can be used to compare the optimized order against any other order for the same clusters.
+   *
+   * @param clusterOrder A cluster order using only clusters added to this optimizer
+   *
+   * @return The expected wait in buckets, weighted by the access probabilities
+   */
+  public double getExpectedWait(List<String> clusterOrder) {
+    int cycleLength = 0;
+    for (String clusterGroup : clusterOrder)
+      cycleLength += getClusterSize(clusterGroup);
+
+    double totalWeight = 0;
+    for (double weight : clusterWeights.values())
+      totalWeight += weight;
+
+    //For a client tuning in at a random bucket, the wait across a gap of g buckets averages g / 2,
+    //and the chance of landing in that gap is g / cycleLength
+    double expectedWait = 0;
+    for (String clusterGroup : clusterSizes.keySet()) {
+      int firstStart = -1;
+      int lastStart  = -1;
+      int startPos   = 0;
+      double gapSquares = 0;
+      for (String orderGroup : clusterOrder) {
+        if (orderGroup.equals(clusterGroup)) {
+          if (lastStart >= 0)
+            gapSquares += (double)(startPos - lastStart) * (startPos - lastStart);
+          else firstStart = startPos;
+          lastStart = startPos;
+        }
+        startPos += getClusterSize(orderGroup);
+      }
+      if (firstStart < 0)
+        throw new RuntimeException("Cluster " + clusterGroup + " does not appear in the cluster order.");
+
+      int wrapGap = (firstStart + cycleLength) - lastStart;
+      gapSquares += (double)wrapGap * wrapGap;
+      expectedWait += (clusterWeights.get(clusterGroup) / totalWeight) * gapSquares / (2.0 * cycleLength);
+    }
+    return expectedWait;
+  }
+
+  /**
+   * Helper method for the expected wait of the order a set of repeat counts would be spread into.
+   *
+   * @return The expected wait in buckets, or Double.MAX_VALUE if the repeats can't be kept apart
+   */
+  private double getSpreadWait(int[] counts) {
+    List<String> clusterOrder = spreadRepeats(counts);
+    if (clusterOrder == null)
+      return Double.MAX_VALUE;
+    return getExpectedWait(clusterOrder);
+  }
+
+  /**
+   * Helper method to spread each cluster's appearances evenly through the cycle.  Ties go to the cluster
+   * with fewer appearances, then to the order the clusters were added.  No cluster is left next to
+   * itself, counting the wrap from the end of the cycle back to the start.
+   *
+   * @param counts The number of appearances for each cluster
+   *
+   * @return The cluster order, or null if some cluster's appearances can't be kept apart
+   */
+  private List<String> spreadRepeats(final int[] counts) {
+    final List<String> clusterNames = new ArrayList<String>(clusterSizes.keySet());
+    List<int[]> appearances = new ArrayList<int[]>();
+    for (int clusterPos = 0; clusterPos < clusterNames.size(); clusterPos++) {
+      for (int repeat = 0; repeat < counts[clusterPos]; repeat++)
+        appearances.add(new int[] {clusterPos, repeat});
+    }
+    
+    //A cluster with more than half the appearances is bound to meet itself somewhere in the cycle
+    for (int count : counts) {
+      if ((count > 1) && (2 * count > appearances.size()))
+        return null;
+    }
+
+    Collections.sort(appearances, new Comparator<int[]>() {
+      @Override
+      public int compare(int[] appearance1, int[] appearance2) {
+        //Compare (repeat + 0.5) / count without rounding errors
+        long position1 = ((2L * appearance1[1]) + 1) * counts[appearance2[0]];
+        long position2 = ((2L * appearance2[1]) + 1) * counts[appearance1[0]];
+        if (position1 != position2)
+          return (position1 < position2) ? -1 : 1;
+        if (counts[appearance1[0]] != counts[appearance2[0]])
+          return (counts[appearance1[0]] < counts[appearance2[0]]) ? -1 : 1;
+        return appearance1[0] - appearance2[0];
+      }
+    });
+
+    int[] orderPositions = new int[appearances.size()];
+    for (int orderPos = 0; orderPos < orderPositions.length; orderPos++)
+      orderPositions[orderPos] = appearances.get(orderPos)[0];
+    if (!separateRepeats(orderPositions))
+      return null;
+
+    List<String> clusterOrder = new ArrayList<String>(orderPositions.length);
+    for (int orderPos : orderPositions)
+      clusterOrder.add(clusterNames.get(orderPos));
+    return clusterOrder;
+  }
+
+  /**
+   * Helper method to split up any neighbouring appearances of the same cluster.  The second of each pair
+   * is swapped with the nearest appearance that doesn't leave either of them next to its own cluster, so
+   * every swap removes a pair without making a new one.
+   *
+   * @param orderPositions The cluster position of each appearance, in cycle order.  This is changed in place.
+   *
+   * @return true if every pair was split up
+   */
+  private static boolean separateRepeats(int[] orderPositions) {
+    int length = orderPositions.length;
+    if (length < 2)
+      return true;
+
+    for (int orderPos = 0; orderPos < length; orderPos++) {
+      int nextPos = (orderPos + 1) % length;
+      if (orderPositions[orderPos] != orderPositions[nextPos])
+        continue;
+
+      boolean swapped = false;
+      for (int distance = 1; (distance < length) && !swapped; distance++) {
+        swapped = trySwap(orderPositions, nextPos, (nextPos + distance) % length) ||
+            trySwap(orderPositions, nextPos, (nextPos + length - distance) % length);
+      }
+      if (!swapped)
+        return false;
+    }
+    return true;
+  }
+
+  /**
+   * Helper method to swap two appearances, but only if neither ends up next to its own cluster.
+   *
+   * @return true if the appearances were swapped
+   */
+  private static boolean trySwap(int[] orderPositions, int swapPos1, int swapPos2) {
+    if (orderPositions[swapPos1] == orderPositions[swapPos2])
+      return false;
+
+    int swapCluster = orderPositions[swapPos1];
+    orderPositions[swapPos1] = orderPositions[swapPos2];
+    orderPositions[swapPos2] = swapCluster;
+    if (hasSameNeighbour(orderPositions, swapPos1) || hasSameNeighbour(orderPositions, swapPos2)) {
+      orderPositions[swapPos2] = orderPositions[swapPos1];
+      orderPositions[swapPos1] = swapCluster;
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Helper method to check whether the appearance at a position is next to another appearance of the same cluster.
+   */
+  private static boolean hasSameNeighbour(int[] orderPositions, int orderPos) {
+    int length = orderPositions.length;
+    return (orderPositions[orderPos] == orderPositions[(orderPos + 1) % length]) ||
+        (orderPositions[orderPos] == orderPositions[(orderPos + length - 1) % length]);
+  }
+
+  /**
+   * Helper method to look up the size of a cluster that has been added.
+   */
+  private int getClusterSize(String clusterGroup) {
+    Integer bucketCount = clusterSizes.get(clusterGroup);
+    if (bucketCount == null)
+      throw new RuntimeException("Cluster " + clusterGroup + " has not been added.");
+    return bucketCount;
+  }
+}
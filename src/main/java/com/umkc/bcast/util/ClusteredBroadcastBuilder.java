@@ -2,14 +2,18 @@ package com.umkc.bcast.util;
 
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.function.IntConsumer;
 
 import com.umkc.bcast.BroadcastBuilder;
 import com.umkc.bcast.data.Block;
+import com.umkc.bcast.data.Broadcast;
 import com.umkc.bcast.data.BlockType;
 import com.umkc.bcast.data.Bucket;
+import com.umkc.bcast.data.BucketBlockIterator;
+import com.umkc.bcast.data.ClusterDictionary;
 import com.umkc.bcast.data.DataBlock;
 import com.umkc.bcast.data.GlobalIndexArrayItem;
 import com.umkc.bcast.data.impl.GlobalClusterIndexBlock;
@@ -81,7 +85,7 @@ public class ClusteredBroadcastBuilder extends BroadcastBuilder {
     List<Bucket> curCluster = null;
     curCluster = clusters.get(clusterGroup);
     if (curCluster == null)
-      curCluster = new LinkedList<Bucket>();
+      curCluster = new ArrayList<Bucket>();
     
     //Begin breaking the data set down into buckets
     Bucket curBucket = null;
@@ -106,6 +110,8 @@ public class ClusteredBroadcastBuilder extends BroadcastBuilder {
         //DEBUG
         //System.out.println ("Finalizing Bucket " + bucketIndex + "...");
         curBucket.constructLocalIndex();
+        if (keyDictionary != null)
+          curBucket.registerKeys(keyDictionary);
         curCluster.add(curBucket);
       }
     }
@@ -137,6 +143,8 @@ public class ClusteredBroadcastBuilder extends BroadcastBuilder {
     if (clusterOrder.size() != clusters.keySet().size())
       throw new RuntimeException("The number of clusters in the order does not match the number found in the existing data set.");
     
+    clusterDictionary = new ClusterDictionary(clusterOrder);
+    
     //DEBUG
     //System.out.println ("Total Bucket Count: " + totalBucketCount);
     //System.out.println ("BucketIndex Count:  " + bucketIndex);
@@ -147,7 +155,12 @@ public class ClusteredBroadcastBuilder extends BroadcastBuilder {
    */
   @Override
   public void constructGlobalIndices() {
-    int linearBucketCount = 0;
+    long startTime = System.nanoTime();
+    
+    //All the keys are in by now, so the dictionary can assign its ordinals
+    if (keyDictionary != null)
+      keyDictionary.freeze();
+    
     //This is a fair amount of work, so here's the high level of what needs to be done
     //1)  For each cluster, in order of clusterOrder
     //2)    Calculate the offsets to the next clusters, including to loop back around to this same
@@ -157,133 +170,130 @@ public class ClusteredBroadcastBuilder extends BroadcastBuilder {
     //4.1)  Bypass the last entry if waitTimeInBuckets = bucketIndex (shortcut to cheat if we are in the
     //        first bucket of the cluster)
     
-    List<Integer> clusterOffsets = new ArrayList<Integer>(clusterOrder.size());
-    
-    //We are building a baseline offset between clusters, which we will adjust as we move through the buckets
-    clusterOffsets.add(bucketIndex);
-    int offsetBase = 0;
-    for (int i = 1; i < clusterOrder.size(); i++) {
-      offsetBase += clusters.get(clusterOrder.get(i - 1)).size();
-      clusterOffsets.add(offsetBase);
+    //Rather than shifting a shared set of offsets bucket by bucket, the schedule notes where each cluster
+    //starts in the bcast.  Each bucket can then work out its own cluster offsets from its position, which
+    //lets the buckets be indexed in any order.
+    final Bucket[][] clusterBuckets = new Bucket[clusterOrder.size()][];
+    int[] clusterSizes = new int[clusterOrder.size()];
+    for (int clusterPos = 0; clusterPos < clusterOrder.size(); clusterPos++) {
+      List<Bucket> bucketList = clusters.get(clusterOrder.get(clusterPos));
+      clusterBuckets[clusterPos] = bucketList.toArray(new Bucket[bucketList.size()]);
+      clusterSizes[clusterPos]   = bucketList.size();
     }
+    final ClusterSchedule schedule = new ClusterSchedule(clusterOrder, clusterSizes);
     
     //DEBUG
     //System.out.println ("Setting initial cluster offsets:");
     //for (int i = 0; i < clusterOrder.size(); i++) {
     //  System.out.println ("  clusterGroup: " + clusterOrder.get(i) + ":  [buckets: " + 
-    //      clusters.get(clusterOrder.get(i)).size() + " | initialOffset: " + clusterOffsets.get(i) + "]");
+    //      clusters.get(clusterOrder.get(i)).size() + " | initialOffset: " + schedule.getClusterStart(i) + "]");
     //}
     
-    //For all clusters
-    for (int clusterPos = 0; clusterPos < clusterOrder.size(); clusterPos++) {
+    IndexRangeTask.runAll(indexPool, schedule.getCycleLength(), new IntConsumer() {
+      @Override
+      public void accept(int linearBucketPos) {
+        int clusterPos = schedule.getClusterPos(linearBucketPos);
+        constructGlobalIndex(clusterPos, linearBucketPos - schedule.getClusterStart(clusterPos), clusterBuckets[clusterPos], schedule);
+      }
+    });
+    
+    indexBuildNanos = System.nanoTime() - startTime;
+  }
+  
+  /**
+   * Helper method to construct the global index for a single bucket.  This only writes to that bucket,
+   * so it is safe to run for different buckets at the same time.
+   * 
+   * @param clusterPos    The position of the bucket's cluster in clusterOrder
+   * @param bucketPos     The position of the bucket within its cluster
+   * @param bucketList    All the buckets in the bucket's cluster
+   * @param schedule      The schedule of where each cluster starts in the bcast
+   */
+  private void constructGlobalIndex(int clusterPos, int bucketPos, Bucket[] bucketList, ClusterSchedule schedule) {
+    //DEBUG
+    //System.out.println (" > Building Index for Bucket " + (bucketPos + 1));
+    Bucket curBucket    = bucketList[bucketPos];
+    int linearBucketPos = schedule.getClusterStart(clusterPos) + bucketPos;
+    
+    //Create the Index Block
+    GlobalClusterIndexBlock indexBlock = new GlobalClusterIndexBlock(clusterOrder.get(clusterPos), curBucket.getFirstBucketKey());
+    indexBlock.setBlockID("GlobalIndex " + (linearBucketPos + 1));
+    
+    //DEBUG
+    //System.out.println ("   > Cluster Index Block");
+    //Build the cluster level global index block
+    schedule.addClusterRows(indexBlock, clusterPos, linearBucketPos, bucketSize);
+    
+    //Build the exponential index, but only to the end of the bucket
+    //We will need to be more explicit in handling the first few rows, since those are handled
+    //differently and outside any loop structure.
+    int bucketsRemaining = bucketList.length - (bucketPos + 1);
+    ArrayList<Integer> expBuckets = new ArrayList<Integer>();
+    expBuckets.add(0);
+    if (bucketsRemaining >= 1)
+      expBuckets.add(1);
+    if (bucketsRemaining >= 2) {
+      int expBucket = 2;
+      int expOffset = exponentialFactor;
+      while (expBucket <= bucketsRemaining) {
+        expBuckets.add(expBucket);
+        expBucket += expOffset;
+        expOffset *= exponentialFactor;
+      }
+    }
+    
+    /* DEBUG ---------------------------------------
+    System.out.println("Printing Index Buckets");
+    System.out.println ("Range: [0 - 0]");
+    System.out.println ("Range: [1 - 1]");
+    
+    for (int i = 3; i < expBuckets.size(); i++) {
+      System.out.println ("Range: [" + expBuckets.get(i - 1) + " - " + (expBuckets.get(i) - 1) + "]");
+    }
+    System.out.println ("Range: [" + expBuckets.get(expBuckets.size() - 1) + " - " + bucketsRemaining + "]");
+    
+    System.out.println ("True Ranges");
+    for (int values : expBuckets) {
+      System.out.println ("Value: " + values);
+    }
+    //END DEBUG ---------------------------------------- */
+    
+    GlobalIndexArrayItem indexItem0 = new GlobalIndexArrayItem(0, 0, curBucket.getLastBucketKey());
+    indexBlock.addExponentialIndexRow(indexItem0);
+    
+    int endBucketPos = bucketPos + 1;
+    if (expBuckets.size() >= 2) {
+      GlobalIndexArrayItem indexItem1 = new GlobalIndexArrayItem(1, bucketSize + 1, bucketList[bucketPos + 1].getLastBucketKey());
+      indexBlock.addExponentialIndexRow(indexItem1);
+    }
+    
+    //All the middle buckets we can handle the same way.
+    for (int i = 3; i < expBuckets.size(); i++) {
       //DEBUG
-      //System.out.println ("Processing Cluster " + clusterOrder.get(clusterPos));
-      
-      //Get the list of all buckets under this cluster
-      int bucketPos = 0;
-      for (Bucket curBucket : clusters.get(clusterOrder.get(clusterPos))) {
-        //DEBUG
-        //System.out.println (" > Building Index for Bucket " + (bucketPos + 1));
-        
-        //Create the Index Block
-        linearBucketCount++;
-        GlobalClusterIndexBlock indexBlock = new GlobalClusterIndexBlock(clusterOrder.get(clusterPos), curBucket.getFirstBucketKey());
-        indexBlock.setBlockID("GlobalIndex " + linearBucketCount);
-        
-        //DEBUG
-        //System.out.println ("   > Cluster Index Block");
-        //Build the cluster level global index block
-        for (int eachClusterPos = 0; eachClusterPos < clusterOrder.size(); eachClusterPos++) {
-          int nextClusterPos = (eachClusterPos + clusterPos + 1) % clusterOrder.size();
-          if (clusterOffsets.get(nextClusterPos) != bucketIndex) {
-            //System.out.println ("     + [ " + clusterOrder.get(nextClusterPos) + " | " + clusterOffsets.get(nextClusterPos) + " ]");
-            GlobalIndexArrayItem indexItem = new GlobalIndexArrayItem(clusterOffsets.get(nextClusterPos), (clusterOffsets.get(nextClusterPos) * (bucketSize + 2)) - 1, 
-                clusterOrder.get(nextClusterPos));
-            indexBlock.addClusterIndexRow(indexItem);
-          }
-        }
-        
-        //Build the exponential index, but only to the end of the bucket
-        //We will need to be more explicit in handling the first few rows, since those are handled
-        //differently and outside any loop structure.
-        int bucketsRemaining = clusters.get(clusterOrder.get(clusterPos)).size() - (bucketPos + 1);
-        ArrayList<Integer> expBuckets = new ArrayList<Integer>();
-        expBuckets.add(0);
-        if (bucketsRemaining >= 1)
-          expBuckets.add(1);
-        if (bucketsRemaining >= 2) {
-          int expBucket = 2;
-          int expOffset = exponentialFactor;
-          while (expBucket <= bucketsRemaining) {
-            expBuckets.add(expBucket);
-            expBucket += expOffset;
-            expOffset *= exponentialFactor;
-          }
-        }
-        
-        /* DEBUG ---------------------------------------
-        System.out.println("Printing Index Buckets");
-        System.out.println ("Range: [0 - 0]");
-        System.out.println ("Range: [1 - 1]");
-        
-        for (int i = 3; i < expBuckets.size(); i++) {
-          System.out.println ("Range: [" + expBuckets.get(i - 1) + " - " + (expBuckets.get(i) - 1) + "]");
-        }
-        System.out.println ("Range: [" + expBuckets.get(expBuckets.size() - 1) + " - " + bucketsRemaining + "]");
-        
-        System.out.println ("True Ranges");
-        for (int values : expBuckets) {
-          System.out.println ("Value: " + values);
-        }
-        //END DEBUG ---------------------------------------- */
-        
-        GlobalIndexArrayItem indexItem0 = new GlobalIndexArrayItem(0, 0, curBucket.getLastBucketKey());
-        indexBlock.addExponentialIndexRow(indexItem0);
-        
-        List<Bucket> bucketList = clusters.get(clusterOrder.get(clusterPos));
-        
-        int endBucketPos = bucketPos + 1;
-        if (expBuckets.size() >= 2) {
-          GlobalIndexArrayItem indexItem1 = new GlobalIndexArrayItem(1, bucketSize + 1, bucketList.get(bucketPos + 1).getLastBucketKey());
-          indexBlock.addExponentialIndexRow(indexItem1);
-        }
-        
-        //All the middle buckets we can handle the same way.
-        for (int i = 3; i < expBuckets.size(); i++) {
-          //DEBUG
-          //System.out.println ("Range: [" + expBuckets.get(i - 1) + " - " + (expBuckets.get(i) - 1) + "]");
-          endBucketPos = bucketPos + expBuckets.get(i) - 1;
-          GlobalIndexArrayItem indexItem = new GlobalIndexArrayItem(expBuckets.get(i - 1), (expBuckets.get(i - 1) * (bucketSize + 2)) - 1, 
-              bucketList.get(endBucketPos).getLastBucketKey());
-          indexBlock.addExponentialIndexRow(indexItem);
-        }
-        
-        //Now we need to handle the last block manually
-        if (expBuckets.size() >= 3) {
-          endBucketPos = bucketList.size() - 1;
-          GlobalIndexArrayItem indexItemEnd = new GlobalIndexArrayItem(expBuckets.get(expBuckets.size() - 1), 
-              (expBuckets.get(expBuckets.size() - 1) * (bucketSize + 2)) - 1, 
-              bucketList.get(endBucketPos).getLastBucketKey());
-          indexBlock.addExponentialIndexRow(indexItemEnd);
-        }
-        
-        //We now need to decrement our index offsets
-        for (int offsetPos = 0; offsetPos < clusterOffsets.size(); offsetPos++) {
-          if (clusterOffsets.get(offsetPos) == 1)
-            clusterOffsets.set(offsetPos, bucketIndex);
-          else clusterOffsets.set(offsetPos, clusterOffsets.get(offsetPos) - 1);
-        }
-        
-        curBucket.assignGlobalIndex(indexBlock);
-        curBucket.updateNextIndexOffsets();
-        
-        //DEBUG
-        //System.out.println (curBucket.toString());
-        
-        bucketPos++;
-      }//end for buckets in this cluster
-    }//end for all clusters
+      //System.out.println ("Range: [" + expBuckets.get(i - 1) + " - " + (expBuckets.get(i) - 1) + "]");
+      endBucketPos = bucketPos + expBuckets.get(i) - 1;
+      GlobalIndexArrayItem indexItem = new GlobalIndexArrayItem(expBuckets.get(i - 1), (expBuckets.get(i - 1) * (bucketSize + 2)) - 1, 
+          bucketList[endBucketPos].getLastBucketKey());
+      indexBlock.addExponentialIndexRow(indexItem);
+    }
     
+    //Now we need to handle the last block manually
+    if (expBuckets.size() >= 3) {
+      endBucketPos = bucketList.length - 1;
+      GlobalIndexArrayItem indexItemEnd = new GlobalIndexArrayItem(expBuckets.get(expBuckets.size() - 1), 
+          (expBuckets.get(expBuckets.size() - 1) * (bucketSize + 2)) - 1, 
+          bucketList[endBucketPos].getLastBucketKey());
+      indexBlock.addExponentialIndexRow(indexItemEnd);
+    }
+    
+    indexBlock.assignClusterIds(clusterDictionary);
+    curBucket.assignGlobalIndex(indexBlock);
+    curBucket.updateNextIndexOffsets();
+    if (keyDictionary != null)
+      curBucket.encodeKeys(keyDictionary);
+    
+    //DEBUG
+    //System.out.println (curBucket.toString());
   }
 
   /* (non-Javadoc)
@@ -336,4 +346,34 @@ public class ClusteredBroadcastBuilder extends BroadcastBuilder {
     return bcast;
   }
 
+  /* (non-Javadoc)
+   * @see com.umkc.bcast.BroadcastBuilder#assembleBroadcast()
+   */
+  @Override
+  public Broadcast assembleBroadcast() {
+    return packBroadcast(getBcastBuckets());
+  }
+  
+  /*
+   * (non-Javadoc)
+   * @see com.umkc.bcast.BroadcastBuilder#streamBcast()
+   */
+  @Override
+  public Iterator<Block> streamBcast() {
+    return new BucketBlockIterator(getBcastBuckets(), true);
+  }
+  
+  /*
+   * (non-Javadoc)
+   * @see com.umkc.bcast.BroadcastBuilder#getBcastBuckets()
+   */
+  @Override
+  protected List<Bucket> getBcastBuckets() {
+    List<Bucket> bcastBuckets = new ArrayList<Bucket>(bucketIndex);
+    for (String cluster : clusterOrder)
+      bcastBuckets.addAll(clusters.get(cluster));
+    
+    return bcastBuckets;
+  }
+
 }
@@ -1,13 +1,23 @@
 package com.umkc.bcast.util;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
+import java.util.function.IntConsumer;
 
 import com.umkc.bcast.BroadcastBuilder;
 import com.umkc.bcast.data.Block;
+import com.umkc.bcast.data.Broadcast;
 import com.umkc.bcast.data.Bucket;
+import com.umkc.bcast.data.BucketBlockIterator;
 import com.umkc.bcast.data.DataBlock;
 import com.umkc.bcast.data.GlobalIndexArrayItem;
+import com.umkc.bcast.data.KeyDictionary;
 import com.umkc.bcast.data.impl.GlobalFlatIndexBlock;
 
 /**
@@ -17,6 +27,28 @@ import com.umkc.bcast.data.impl.GlobalFlatIndexBlock;
  * <p>This class needs to know the exponent factor and bucket size to generate the correct
  * bcast.
  * 
+ * <p>Once the global indices have been constructed, the data set can be changed without starting over.
+ * updateDataBlock() swaps in a new version of a data block with the same key, which touches nothing but
+ * that block.  updateDataBlocks() inserts and deletes blocks, and only re-splits the run of buckets whose
+ * contents actually move:  each bucket in the run borrows blocks from (or hands them on to) the next one,
+ * and the run ends at the first old bucket boundary where the changes before it add up to a whole number
+ * of buckets.  Since every bucket holds exactly bucketSize blocks in key order, the buckets between an
+ * insert and the delete that balances it all really do change, so this is the fewest buckets that can be
+ * re-split.  Every other global index only has the rows patched whose max key actually changed.  New keys
+ * are fitted into the gaps between the ordinals of the key dictionary (see KeyDictionary.addKeys()), so
+ * the buckets that weren't re-split keep their encodings.  Incremental updates assume the data was
+ * assigned in sorted order.
+ * 
+ * <p>There are two cases where the update falls back to rebuilding every global index (the local indices
+ * of untouched buckets are still kept):  when the bucket count crosses into a different set of exponential
+ * ranges, which changes the wait times and the number of rows in every global index, and when so many new
+ * keys land in one gap of the key dictionary that the ordinals have to be reassigned from scratch.
+ * 
+ * <p>The blocks of untouched buckets are shared between the bcast before and after an update.  Global
+ * indices are never patched in place (a changed one is swapped for a patched copy), and the local indices
+ * are only re-encoded when the ordinals are reassigned, so a bcast assembled before an update can only be
+ * reused after it if it didn't fall back to a full rebuild.
+ * 
  * @author ac010168
  *
  */
@@ -24,6 +56,13 @@ public class FlatBroadcastBuilder extends BroadcastBuilder {
   
   private ArrayList<Bucket> buckets;
   
+  /** The bucket offsets where each exponential index range starts, or null until the global indices are constructed */
+  private List<Integer> exponentialBuckets;
+  /** The number of buckets re-split by the last call to updateDataBlocks() */
+  private int rebuiltBucketCount;
+  /** The number of global indices rebuilt or patched by the last call to updateDataBlocks() */
+  private int reindexedBucketCount;
+  
   /**
    * The basic constructor.  Instantiators need to to specify our two creation variables, exponentialFactor
    * and bucketSize.
@@ -82,6 +121,8 @@ public class FlatBroadcastBuilder extends BroadcastBuilder {
         //DEBUG
         //System.out.println ("Finalizing Bucket " + bucketIndex + "...");
         curBucket.constructLocalIndex();
+        if (keyDictionary != null)
+          curBucket.registerKeys(keyDictionary);
         buckets.add(curBucket);
       }
     }
@@ -106,17 +147,13 @@ public class FlatBroadcastBuilder extends BroadcastBuilder {
    */
   @Override
   public void constructGlobalIndices() {
-    ArrayList<Integer> expBuckets = new ArrayList<Integer>();
-    expBuckets.add(0);
-    expBuckets.add(1);
-
-    int expBucket = 2;
-    int expOffset = exponentialFactor;
-    while (expBucket < buckets.size()) {
-      expBuckets.add(expBucket);
-      expBucket += expOffset;
-      expOffset *= exponentialFactor;
-    }
+    long startTime = System.nanoTime();
+    
+    //All the keys are in by now, so the dictionary can assign its ordinals
+    if (keyDictionary != null)
+      keyDictionary.freeze();
+    
+    List<Integer> expBuckets = computeExponentialBuckets(buckets.size());
     
     /*DEBUG ---------------------------------------
     System.out.println("Printing Index Buckets");
@@ -134,45 +171,389 @@ public class FlatBroadcastBuilder extends BroadcastBuilder {
     }
     //END DEBUG ---------------------------------------- */
     
-    for (int bucketPos = 0; bucketPos < buckets.size(); bucketPos++) {
-      //DEBUG
-      //System.out.println ("Tackling Bucket " + (bucketPos + 1) + "...");
-      Bucket curBucket = buckets.get(bucketPos);
-      
-      GlobalFlatIndexBlock indexBlock = new GlobalFlatIndexBlock(curBucket.getFirstBucketKey());
-      indexBlock.setBlockID("GlobalIndex " + (bucketPos + 1));
-      
-      //The first two blocks are a little special.  We'll hardcode these first two entries
-      GlobalIndexArrayItem indexItem0 = new GlobalIndexArrayItem(0, 0, curBucket.getLastBucketKey());
-      indexBlock.addIndexRow(indexItem0);
-      
-      int endBucketPos = (bucketPos + 1) % buckets.size();
-      GlobalIndexArrayItem indexItem1 = new GlobalIndexArrayItem(1, bucketSize + 1, buckets.get(endBucketPos).getLastBucketKey());
-      indexBlock.addIndexRow(indexItem1);
-      
-      //All the middle buckets we can handle the same way.
-      for (int i = 3; i < expBuckets.size(); i++) {
-        //DEBUG
-        //System.out.println ("Range: [" + expBuckets.get(i - 1) + " - " + (expBuckets.get(i) - 1) + "]");
-        endBucketPos = (bucketPos + expBuckets.get(i) - 1) % buckets.size();
-        GlobalIndexArrayItem indexItem = new GlobalIndexArrayItem(expBuckets.get(i - 1), (expBuckets.get(i - 1) * (bucketSize + 2)) - 1, 
-            buckets.get(endBucketPos).getLastBucketKey());
-        indexBlock.addIndexRow(indexItem);
+    exponentialBuckets = expBuckets;
+    constructAllGlobalIndices();
+    
+    indexBuildNanos = System.nanoTime() - startTime;
+  }
+  
+  /**
+   * Replace a data block with a new version that has the same search key, once the global indices have
+   * been constructed.  Since the key is unchanged, none of the indices need to change either.
+   * 
+   * @param dataBlock The new version of the data block
+   */
+  public void updateDataBlock(DataBlock dataBlock) {
+    checkIndexed();
+    Bucket firstBucket = buckets.get(0);
+    String searchKey   = firstBucket.getSearchKey(dataBlock);
+    Bucket curBucket   = buckets.get(findBucket(searchKey));
+    
+    int blockPos = curBucket.findDataBlock(searchKey);
+    if (blockPos < 0)
+      throw new RuntimeException("There is no data block to update for key " + searchKey);
+    curBucket.replaceDataBlock(blockPos, dataBlock);
+  }
+  
+  /**
+   * Insert and delete data blocks, once the global indices have been constructed.  As with assignDataBlocks(),
+   * the resulting data set has to fit evenly into buckets.  Only the buckets whose contents change are
+   * rebuilt, and only the global index rows whose max key changed are recomputed, apart from the full
+   * rebuilds described in the class notes.  Call assembleBcast() or assembleBroadcast() again afterwards
+   * to pick up the changes.
+   * 
+   * @param insertBlocks The new data blocks, whose keys must not already be in the bcast
+   * @param deleteKeys   The search keys of the data blocks to remove
+   */
+  public void updateDataBlocks(List<DataBlock> insertBlocks, List<String> deleteKeys) {
+    checkIndexed();
+    long startTime = System.nanoTime();
+    
+    int newBlockCount = (buckets.size() * bucketSize) + insertBlocks.size() - deleteKeys.size();
+    if ((newBlockCount <= 0) || ((newBlockCount % bucketSize) != 0))
+      throw new RuntimeException("WARNING!  The updated data set of " + newBlockCount + " blocks does not evenly fit our bucket size!");
+    
+    //Sort the changes, and work out which bucket each one lands in, so they can be merged in one pass
+    final Bucket firstBucket = buckets.get(0);
+    List<DataBlock> inserts  = new ArrayList<DataBlock>(insertBlocks);
+    Collections.sort(inserts, new Comparator<DataBlock>() {
+      @Override
+      public int compare(DataBlock block1, DataBlock block2) {
+        return firstBucket.getSearchKey(block1).compareTo(firstBucket.getSearchKey(block2));
       }
+    });
+    List<String> deletes = new ArrayList<String>(deleteKeys);
+    Collections.sort(deletes);
+    
+    String[] insertKeys  = new String[inserts.size()];
+    int[] insertBuckets  = new int[inserts.size()];
+    for (int insertPos = 0; insertPos < insertKeys.length; insertPos++) {
+      insertKeys[insertPos]    = firstBucket.getSearchKey(inserts.get(insertPos));
+      insertBuckets[insertPos] = findBucket(insertKeys[insertPos]);
+      if ((insertPos > 0) && insertKeys[insertPos].equals(insertKeys[insertPos - 1]))
+        throw new RuntimeException("The same key is being inserted twice: " + insertKeys[insertPos]);
       
-      //Now we need to handle the last block manually
-      endBucketPos = (bucketPos + buckets.size() - 1) % buckets.size();
-      GlobalIndexArrayItem indexItemEnd = new GlobalIndexArrayItem(expBuckets.get(expBuckets.size() - 1), 
-          (expBuckets.get(expBuckets.size() - 1) * (bucketSize + 2)) - 1, 
-          buckets.get(endBucketPos).getLastBucketKey());
-      indexBlock.addIndexRow(indexItemEnd);
+      dataBlockIndex++;
+      inserts.get(insertPos).setBlockID("Data Block " + dataBlockIndex);
+    }
+    int[] deleteBuckets = new int[deletes.size()];
+    for (int deletePos = 0; deletePos < deleteBuckets.length; deletePos++)
+      deleteBuckets[deletePos] = findBucket(deletes.get(deletePos));
+    
+    //Walk the buckets, leaving them alone until we hit a change, then re-split until we line up with
+    //the old bucket boundaries again
+    ArrayList<Bucket> newBuckets   = new ArrayList<Bucket>(newBlockCount / bucketSize);
+    Set<Integer> rebuiltPositions  = new HashSet<Integer>();
+    List<DataBlock> pendingBlocks  = new ArrayList<DataBlock>(bucketSize * 2);
+    boolean bucketsMoved = false;
+    int insertPos = 0;
+    int deletePos = 0;
+    for (int oldPos = 0; oldPos < buckets.size(); oldPos++) {
+      Bucket oldBucket = buckets.get(oldPos);
+      boolean touched  = !pendingBlocks.isEmpty() || 
+          ((insertPos < insertKeys.length) && (insertBuckets[insertPos] == oldPos)) || 
+          ((deletePos < deleteBuckets.length) && (deleteBuckets[deletePos] == oldPos));
+      if (!touched) {
+        bucketsMoved |= (newBuckets.size() != oldPos);
+        newBuckets.add(oldBucket);
+        continue;
+      }
       
-      curBucket.assignGlobalIndex(indexBlock);
-      curBucket.updateNextIndexOffsets();
+      for (DataBlock curBlock : oldBucket.getDataBlocks()) {
+        String blockKey = oldBucket.getSearchKey(curBlock);
+        while ((insertPos < insertKeys.length) && (insertBuckets[insertPos] == oldPos) && (insertKeys[insertPos].compareTo(blockKey) <= 0)) {
+          if (insertKeys[insertPos].equals(blockKey))
+            throw new RuntimeException("The inserted key is already in the bcast: " + blockKey);
+          pendingBlocks.add(inserts.get(insertPos++));
+        }
+        if ((deletePos < deleteBuckets.length) && (deleteBuckets[deletePos] == oldPos) && deletes.get(deletePos).equals(blockKey))
+          deletePos++;
+        else pendingBlocks.add(curBlock);
+      }
+      //Keys past the end of the last bucket still belong to it
+      while ((insertPos < insertKeys.length) && (insertBuckets[insertPos] == oldPos))
+        pendingBlocks.add(inserts.get(insertPos++));
+      if ((deletePos < deleteBuckets.length) && (deleteBuckets[deletePos] == oldPos))
+        throw new RuntimeException("There is no data block to delete for key " + deletes.get(deletePos));
       
+      while (pendingBlocks.size() >= bucketSize) {
+        List<DataBlock> bucketBlocks = pendingBlocks.subList(0, bucketSize);
+        rebuiltPositions.add(newBuckets.size());
+        newBuckets.add(createBucket(bucketBlocks));
+        bucketBlocks.clear();
+      }
+    }
+    
+    List<Bucket> oldBuckets = buckets;
+    buckets              = newBuckets;
+    rebuiltBucketCount   = rebuiltPositions.size();
+    
+    //New keys get ordinals in the gaps between the old ones, so the old ordinals stay valid.  Deleted keys
+    //can stay in the dictionary, since the ordinals of the remaining keys still sort the same way.
+    boolean renumbered = false;
+    if ((keyDictionary != null) && (insertKeys.length > 0)) {
+      KeyDictionary newDictionary = keyDictionary.addKeys(Arrays.asList(insertKeys));
+      if (newDictionary == null) {
+        //A gap is full, so every ordinal has to be reassigned
+        newDictionary = new KeyDictionary();
+        for (Bucket curBucket : buckets)
+          curBucket.registerKeys(newDictionary);
+        newDictionary.freeze();
+        renumbered = true;
+      }
+      keyDictionary = newDictionary;
+    }
+    
+    List<Integer> expBuckets = computeExponentialBuckets(buckets.size());
+    if (renumbered || !expBuckets.equals(exponentialBuckets)) {
+      exponentialBuckets = expBuckets;
+      constructAllGlobalIndices();
+      reindexedBucketCount = buckets.size();
+    } else {
+      reindexedBucketCount = updateGlobalIndices(oldBuckets, rebuiltPositions, bucketsMoved || (buckets.size() != oldBuckets.size()));
+    }
+    
+    indexBuildNanos = System.nanoTime() - startTime;
+  }
+  
+  /**
+   * @return the number of buckets re-split by the last call to updateDataBlocks()
+   */
+  public int getRebuiltBucketCount() {
+    return rebuiltBucketCount;
+  }
+  
+  /**
+   * @return the number of global indices rebuilt or patched by the last call to updateDataBlocks()
+   */
+  public int getReindexedBucketCount() {
+    return reindexedBucketCount;
+  }
+  
+  /**
+   * Helper method to work out the bucket offsets where each exponential index range starts.
+   * 
+   * @param bucketCount The number of buckets in the bcast
+   * 
+   * @return The starting offset of each exponential range
+   */
+  private List<Integer> computeExponentialBuckets(int bucketCount) {
+    ArrayList<Integer> expBuckets = new ArrayList<Integer>();
+    expBuckets.add(0);
+    expBuckets.add(1);
+
+    int expBucket = 2;
+    int expOffset = exponentialFactor;
+    while (expBucket < bucketCount) {
+      expBuckets.add(expBucket);
+      expBucket += expOffset;
+      expOffset *= exponentialFactor;
+    }
+    return expBuckets;
+  }
+  
+  /**
+   * Helper method to construct the global index for every bucket.
+   */
+  private void constructAllGlobalIndices() {
+    //Each bucket's global index only reads the finished bucket list, so the buckets can be indexed in any order
+    final List<Integer> expBuckets = exponentialBuckets;
+    IndexRangeTask.runAll(indexPool, buckets.size(), new IntConsumer() {
+      @Override
+      public void accept(int bucketPos) {
+        constructGlobalIndex(bucketPos, expBuckets);
+      }
+    });
+  }
+  
+  /**
+   * Helper method to bring the global indices up to date after some buckets were re-split, when the
+   * exponential ranges haven't changed.  The re-split buckets get new global indices.  Every other bucket
+   * only has the rows recomputed whose max key changed.  The wait times only depend on the exponential
+   * ranges, so they never change here.
+   * 
+   * <p>If every untouched bucket kept its position, a row can only change if it points at a re-split bucket
+   * whose last key changed, so only the buckets with a row pointing at one of those are checked.  If some
+   * buckets moved (or the number of buckets changed), a row that spans the move (or wraps around the end
+   * of the bcast) may now point at a different bucket, so every bucket is checked.  Checking a row is just
+   * a comparison with the last key of the bucket it points at, so only the changed rows cost any more
+   * than that.
+   * 
+   * @param oldBuckets       The buckets before the update
+   * @param rebuiltPositions The positions of the re-split buckets
+   * @param bucketsMoved     Flag to indicate whether any untouched bucket is at a different position, or
+   *                         the number of buckets changed
+   * 
+   * @return The number of global indices rebuilt or patched
+   */
+  private int updateGlobalIndices(List<Bucket> oldBuckets, Set<Integer> rebuiltPositions, boolean bucketsMoved) {
+    int bucketCount = buckets.size();
+    for (int bucketPos : rebuiltPositions)
+      constructGlobalIndex(bucketPos, exponentialBuckets);
+    
+    //Row r of bucket b holds the last key of bucket (b + rowOffsets[r]), so work backwards from each changed bucket
+    int[] rowOffsets = getRowOffsets(exponentialBuckets, bucketCount);
+    Set<Integer> checkPositions = new HashSet<Integer>();
+    if (!bucketsMoved) {
+      for (int changedPos : rebuiltPositions) {
+        if (buckets.get(changedPos).getLastBucketKey().equals(oldBuckets.get(changedPos).getLastBucketKey()))
+          continue;
+        for (int rowOffset : rowOffsets)
+          checkPositions.add((changedPos - (rowOffset % bucketCount) + bucketCount) % bucketCount);
+      }
+    } else {
+      for (int bucketPos = 0; bucketPos < bucketCount; bucketPos++)
+        checkPositions.add(bucketPos);
+    }
+    
+    int patchedCount = 0;
+    for (int bucketPos : checkPositions) {
+      if (!rebuiltPositions.contains(bucketPos) && patchGlobalIndex(bucketPos, rowOffsets))
+        patchedCount++;
+    }
+    
+    //DEBUG
+    //System.out.println ("Rebuilt " + rebuiltPositions.size() + " global indices, patched " + patchedCount);
+    return rebuiltPositions.size() + patchedCount;
+  }
+  
+  /**
+   * Helper method to recompute the rows of a bucket's global index whose max key is no longer the last key
+   * of the bucket they point at.  A patched index is a copy of the old one, since the old one may still be
+   * part of an assembled bcast.
+   * 
+   * @param bucketPos  The position of the bucket to be checked
+   * @param rowOffsets For each row, the offset from the indexed bucket to the bucket the row points at
+   * 
+   * @return true if any rows were patched
+   */
+  private boolean patchGlobalIndex(int bucketPos, int[] rowOffsets) {
+    Bucket curBucket = buckets.get(bucketPos);
+    GlobalFlatIndexBlock oldIndex   = (GlobalFlatIndexBlock)curBucket.getGlobalIndex();
+    List<GlobalIndexArrayItem> rows = oldIndex.getExponentialIndex();
+    GlobalFlatIndexBlock indexBlock = null;
+    for (int rowPos = 0; rowPos < rowOffsets.length; rowPos++) {
+      String lastKey = buckets.get((bucketPos + rowOffsets[rowPos]) % buckets.size()).getLastBucketKey();
+      if (lastKey.equals(rows.get(rowPos).getMaxKeyValue()))
+        continue;
+      if (indexBlock == null)
+        indexBlock = (GlobalFlatIndexBlock)oldIndex.clone();
+      indexBlock.updateIndexRow(rowPos, lastKey);
+    }
+    if (indexBlock == null)
+      return false;
+    
+    indexBlock.freezeIndex();
+    if (keyDictionary != null)
+      indexBlock.encodeKeys(keyDictionary);
+    curBucket.assignGlobalIndex(indexBlock);
+    return true;
+  }
+  
+  /**
+   * Helper method to work out which bucket each global index row points at, matching the rows built by
+   * constructGlobalIndex().
+   * 
+   * @param expBuckets  The bucket offsets where each exponential index range starts
+   * @param bucketCount The number of buckets in the bcast
+   * 
+   * @return For each row, the offset from the indexed bucket to the bucket whose last key the row holds
+   */
+  private static int[] getRowOffsets(List<Integer> expBuckets, int bucketCount) {
+    int[] rowOffsets = new int[2 + Math.max(0, expBuckets.size() - 3) + 1];
+    rowOffsets[0] = 0;
+    rowOffsets[1] = 1;
+    int rowPos = 2;
+    for (int i = 3; i < expBuckets.size(); i++)
+      rowOffsets[rowPos++] = expBuckets.get(i) - 1;
+    rowOffsets[rowPos] = bucketCount - 1;
+    return rowOffsets;
+  }
+  
+  /**
+   * Helper method to find the bucket a search key belongs in:  the first bucket whose last key is at or
+   * after the search key, or the last bucket if the key is past the end.
+   */
+  private int findBucket(String searchKey) {
+    int low  = 0;
+    int high = buckets.size() - 1;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (buckets.get(mid).getLastBucketKey().compareTo(searchKey) < 0)
+        low = mid + 1;
+      else high = mid;
+    }
+    return low;
+  }
+  
+  /**
+   * Helper method to build a new bucket, with its local index, around a run of data blocks.
+   */
+  private Bucket createBucket(List<DataBlock> bucketBlocks) {
+    bucketIndex++;
+    Bucket curBucket = new Bucket("" + bucketIndex, useUniqueIdentifier);
+    for (DataBlock curBlock : bucketBlocks)
+      curBucket.addDataBlock(curBlock);
+    curBucket.constructLocalIndex();
+    return curBucket;
+  }
+  
+  /**
+   * Helper method to reject incremental updates before the global indices have been constructed.
+   */
+  private void checkIndexed() {
+    if (exponentialBuckets == null)
+      throw new RuntimeException("The global indices must be constructed before the data can be updated.");
+  }
+  
+  /**
+   * Helper method to construct the global index for a single bucket.  This only writes to the bucket at
+   * bucketPos, so it is safe to run for different buckets at the same time.
+   * 
+   * @param bucketPos  The position of the bucket to be indexed
+   * @param expBuckets The bucket offsets where each exponential index range starts
+   */
+  private void constructGlobalIndex(int bucketPos, List<Integer> expBuckets) {
+    //DEBUG
+    //System.out.println ("Tackling Bucket " + (bucketPos + 1) + "...");
+    Bucket curBucket = buckets.get(bucketPos);
+    
+    GlobalFlatIndexBlock indexBlock = new GlobalFlatIndexBlock(curBucket.getFirstBucketKey());
+    indexBlock.setBlockID("GlobalIndex " + (bucketPos + 1));
+    
+    //The first two blocks are a little special.  We'll hardcode these first two entries
+    GlobalIndexArrayItem indexItem0 = new GlobalIndexArrayItem(0, 0, curBucket.getLastBucketKey());
+    indexBlock.addIndexRow(indexItem0);
+    
+    int endBucketPos = (bucketPos + 1) % buckets.size();
+    GlobalIndexArrayItem indexItem1 = new GlobalIndexArrayItem(1, bucketSize + 1, buckets.get(endBucketPos).getLastBucketKey());
+    indexBlock.addIndexRow(indexItem1);
+    
+    //All the middle buckets we can handle the same way.
+    for (int i = 3; i < expBuckets.size(); i++) {
       //DEBUG
-      //System.out.println (curBucket.toString());
+      //System.out.println ("Range: [" + expBuckets.get(i - 1) + " - " + (expBuckets.get(i) - 1) + "]");
+      endBucketPos = (bucketPos + expBuckets.get(i) - 1) % buckets.size();
+      GlobalIndexArrayItem indexItem = new GlobalIndexArrayItem(expBuckets.get(i - 1), (expBuckets.get(i - 1) * (bucketSize + 2)) - 1, 
+          buckets.get(endBucketPos).getLastBucketKey());
+      indexBlock.addIndexRow(indexItem);
     }
+    
+    //Now we need to handle the last block manually
+    endBucketPos = (bucketPos + buckets.size() - 1) % buckets.size();
+    GlobalIndexArrayItem indexItemEnd = new GlobalIndexArrayItem(expBuckets.get(expBuckets.size() - 1), 
+        (expBuckets.get(expBuckets.size() - 1) * (bucketSize + 2)) - 1, 
+        buckets.get(endBucketPos).getLastBucketKey());
+    indexBlock.addIndexRow(indexItemEnd);
+    indexBlock.freezeIndex();
+    
+    curBucket.assignGlobalIndex(indexBlock);
+    curBucket.updateNextIndexOffsets();
+    if (keyDictionary != null)
+      curBucket.encodeKeys(keyDictionary);
+    
+    //DEBUG
+    //System.out.println (curBucket.toString());
   }
   
   /*
@@ -195,4 +576,31 @@ public class FlatBroadcastBuilder extends BroadcastBuilder {
     
     return bcast;
   }
+  
+  /*
+   * (non-Javadoc)
+   * @see com.umkc.bcast.BroadcastBuilder#assembleBroadcast()
+   */
+  @Override
+  public Broadcast assembleBroadcast() {
+    return packBroadcast(getBcastBuckets());
+  }
+  
+  /*
+   * (non-Javadoc)
+   * @see com.umkc.bcast.BroadcastBuilder#streamBcast()
+   */
+  @Override
+  public Iterator<Block> streamBcast() {
+    return new BucketBlockIterator(getBcastBuckets(), false);
+  }
+  
+  /*
+   * (non-Javadoc)
+   * @see com.umkc.bcast.BroadcastBuilder#getBcastBuckets()
+   */
+  @Override
+  protected List<Bucket> getBcastBuckets() {
+    return buckets;
+  }
 }
@@ -0,0 +1,99 @@
+package com.umkc.bcast.util;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+
+/**
+ * Fork/join task used by the builders to run an index construction step over a range of positions
+ * (buckets or clusters) in parallel.  The range is split in half until it is no bigger than the grain
+ * size, and each piece runs the step for its positions in order.
+ *
+ * <p>The step must only write to state owned by the position it is given, so that the result is the
+ * same no matter how the range is split up.
+ *
+ * <p>Other range tasks (such as the ExhaustiveSimulator's, which merges a result from each piece) should
+ * split their ranges using getGrain(), so every parallel step is cut up the same way.
+ *
+ * @author ac010168
+ *
+ */
+public class IndexRangeTask extends RecursiveAction {
+
+  private static final long serialVersionUID = 1L;
+
+  /** The smallest number of positions worth handing to a separate task */
+  private static final int MINIMUM_GRAIN = 16;
+
+  /** The step to be run for each position */
+  private final IntConsumer indexStep;
+  /** The first position in this task's range */
+  private final int startPos;
+  /** The position just past the end of this task's range */
+  private final int endPos;
+  /** The largest range that will be run without splitting */
+  private final int grain;
+
+  /**
+   * Basic Constructor.
+   *
+   * @param indexStep The step to be run for each position
+   * @param startPos  The first position in the range
+   * @param endPos    The position just past the end of the range
+   * @param grain     The largest range that will be run without splitting
+   */
+  private IndexRangeTask(IntConsumer indexStep, int startPos, int endPos, int grain) {
+    this.indexStep = indexStep;
+    this.startPos  = startPos;
+    this.endPos    = endPos;
+    this.grain     = grain;
+  }
+
+  /**
+   * Run the step for every position in [0, positionCount), spread across the pool.  This returns once
+   * every position has been processed.  If the pool is null, the positions are simply run in order on
+   * the calling thread.
+   *
+   * @param indexPool     The pool to run the step on, or null to run it sequentially
+   * @param positionCount The number of positions to process
+   * @param indexStep     The step to be run for each position
+   */
+  static void runAll(ForkJoinPool indexPool, int positionCount, IntConsumer indexStep) {
+    if ((indexPool == null) || (positionCount <= MINIMUM_GRAIN)) {
+      for (int position = 0; position < positionCount; position++)
+        indexStep.accept(position);
+      return;
+    }
+
+    indexPool.invoke(new IndexRangeTask(indexStep, 0, positionCount, getGrain(indexPool, positionCount)));
+  }
+
+  /**
+   * Work out the largest piece of a range that should be run without splitting it any further.
+   *
+   * @param pool          The pool the range will be split across
+   * @param positionCount The number of positions in the whole range
+   *
+   * @return The grain size, which is never less than MINIMUM_GRAIN
+   */
+  public static int getGrain(ForkJoinPool pool, int positionCount) {
+    //Aim for a few pieces per worker so that uneven pieces can be balanced by stealing
+    return Math.max(MINIMUM_GRAIN, positionCount / (pool.getParallelism() * 8));
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see java.util.concurrent.RecursiveAction#compute()
+   */
+  @Override
+  protected void compute() {
+    if (endPos - startPos <= grain) {
+      for (int position = startPos; position < endPos; position++)
+        indexStep.accept(position);
+      return;
+    }
+
+    int midPos = (startPos + endPos) >>> 1;
+    invokeAll(new IndexRangeTask(indexStep, startPos, midPos, grain), new IndexRangeTask(indexStep, midPos, endPos, grain));
+  }
+}
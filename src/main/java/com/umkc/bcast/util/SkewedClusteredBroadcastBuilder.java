@@ -2,14 +2,19 @@ package com.umkc.bcast.util;
 
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeSet;
+import java.util.function.IntConsumer;
 
 import com.umkc.bcast.BroadcastBuilder;
 import com.umkc.bcast.data.Block;
+import com.umkc.bcast.data.Broadcast;
 import com.umkc.bcast.data.BlockType;
 import com.umkc.bcast.data.Bucket;
+import com.umkc.bcast.data.BucketBlockIterator;
+import com.umkc.bcast.data.ClusterDictionary;
 import com.umkc.bcast.data.DataBlock;
 import com.umkc.bcast.data.GlobalIndexArrayItem;
 import com.umkc.bcast.data.impl.GlobalClusterIndexBlock;
@@ -21,8 +26,8 @@ import com.umkc.bcast.data.impl.GlobalClusterIndexBlock;
  * <p>This class will generate a skewed clustered bcast, using the provided
  * exponent factor for the index and the bucket size.
  * 
- * <p>To do this, we will need to do more with cloning buckets repeated in the bcast
- * in order to prevent object sharing from ruining our index.
+ * <p>To do this, buckets repeated in the bcast share their local index and data blocks,
+ * but each appearance gets its own global index, so that object sharing doesn't ruin our index.
  * 
  * Personal Notes:
  * While the clustered index portion of things will need to change wildly, the exponential part
@@ -90,7 +95,7 @@ public class SkewedClusteredBroadcastBuilder extends BroadcastBuilder {
     List<Bucket> curCluster = null;
     curCluster = clusters.get(clusterGroup);
     if (curCluster == null)
-      curCluster = new LinkedList<Bucket>();
+      curCluster = new ArrayList<Bucket>();
     
     //Begin breaking the data set down into buckets
     Bucket curBucket = null;
@@ -115,6 +120,8 @@ public class SkewedClusteredBroadcastBuilder extends BroadcastBuilder {
         //DEBUG
         //System.out.println ("Finalizing Bucket " + bucketIndex + "...");
         curBucket.constructLocalIndex();
+        if (keyDictionary != null)
+          curBucket.registerKeys(keyDictionary);
         curCluster.add(curBucket);
       }
     }
@@ -140,47 +147,72 @@ public class SkewedClusteredBroadcastBuilder extends BroadcastBuilder {
         throw new RuntimeException("One of the clusters in the cluster order could not be found in the existing data set.");
     }
     
+    clusterDictionary = new ClusterDictionary(clusterOrder);
+    
     //DEBUG
     //System.out.println ("Total Bucket Count: " + totalBucketCount);
     //System.out.println ("BucketIndex Count:  " + bucketIndex);
   }
 
+  /**
+   * Work out a skewed cluster order from how often each cluster is accessed, using a ClusterSkewOptimizer,
+   * and use it as the cluster order for this bcast.  This should be invoked in place of addClusterKeys(),
+   * once all the data blocks have been assigned.
+   * 
+   * @param accessWeights The access probability of each cluster.  Clusters left out are still broadcast,
+   *                      but only once per cycle.
+   * @param maxRepeats    The most times any one cluster may appear in the cycle
+   * 
+   * @return The cluster order that was chosen
+   */
+  public List<String> optimizeClusterOrder(Map<String, Double> accessWeights, int maxRepeats) {
+    ClusterSkewOptimizer optimizer = new ClusterSkewOptimizer(maxRepeats);
+    for (String clusterGroup : new TreeSet<String>(clusters.keySet()))
+      optimizer.addCluster(clusterGroup, clusters.get(clusterGroup).size());
+    for (Map.Entry<String, Double> weightEntry : accessWeights.entrySet())
+      optimizer.addAccessWeight(weightEntry.getKey(), weightEntry.getValue());
+    
+    List<String> optimizedOrder = optimizer.optimize();
+    addClusterKeys(optimizedOrder);
+    return optimizedOrder;
+  }
+
   /* (non-Javadoc)
    * @see com.umkc.bcast.BroadcastBuilder#constructGlobalIndices()
    */
   @Override
   public void constructGlobalIndices() {
-    //Before this method begins, we need to actually clone out the duplicate clusters
-    //And construct a truly flat version of our clusters.  I need to investigate whether there's value in
-    //generating the local and exponential portions of the index, then cloning, or whether I need
-    //to clone, then generate entirely.
+    long startTime = System.nanoTime();
+    
+    //All the keys are in by now, so the dictionary can assign its ordinals
+    if (keyDictionary != null)
+      keyDictionary.freeze();
+    
+    //Before this method begins, we need to actually lay out the duplicate clusters
+    //And construct a truly flat version of our clusters.  The local index and data blocks of a bucket are
+    //the same wherever it appears, so only the global index needs to be generated for each appearance.
     
     //The trick we're going to use here is as follows:
     //1) For each item in the broadcast, we're going to check if it has duplicates.
     // 1.1) If it does, we're going to create copies of that list with 'altered' names
     //      i.e. "Alpha" becomes "Alpha1", "Alpha2", ...
-    //      We then clone the Buckets, add them to our new alternate Cluster
+    //      We then share the Buckets, add them to our new alternate Cluster
     //2) Then we can fall back on the creation process as last time, except the check for the next
     //   occurrence of a cluster needs to take into account the new naming alternative.
     
     newClusterOrder                 = new ArrayList<String>(clusterOrder.size());
     Map<String, Integer> dupOffsets = new HashMap<String, Integer>();
     Map<String, String> dupKeyMap   = new HashMap<String, String>();
-    Map<String, Boolean> uniqueMap  = new HashMap<String, Boolean>();
+    
+    //Count how often each cluster appears up front.  The cluster dictionary already matches names
+    //without regard to case, so we can count by cluster id.
+    int[] countsInOrder = new int[clusterDictionary.getClusterCount()];
+    for (String curCluster : clusterOrder)
+      countsInOrder[clusterDictionary.getClusterId(curCluster)]++;
     
     for (int clusterPos = 0; clusterPos < clusterOrder.size(); clusterPos++) {
-      //Create a mapping of unique cluster names in our skewed bcast
-      if (uniqueMap.get(clusterOrder.get(clusterPos)) == null) {
-        uniqueMap.put(clusterOrder.get(clusterPos), new Boolean(false));
-      }
-      
       //look to see if this cluster has duplicates.
-      int countInOrder = 0;
-      for (String subOrder : clusterOrder) {
-        if (subOrder.equalsIgnoreCase(clusterOrder.get(clusterPos)))
-          countInOrder++;
-        if (countInOrder >= 2) break;
-      }
+      int countInOrder = countsInOrder[clusterDictionary.getClusterId(clusterOrder.get(clusterPos))];
       
       if (countInOrder > 1) {
         Integer curOffsetVal = dupOffsets.get(clusterOrder.get(clusterPos));
@@ -194,17 +226,21 @@ public class SkewedClusteredBroadcastBuilder extends BroadcastBuilder {
         dupKeyMap.put(newClusterName, clusterOrder.get(clusterPos));
         dupOffsets.put(clusterOrder.get(clusterPos), curOffsetVal);
         
-        //Now that we've created our new entry, clone that crap
+        //Now that we've created our new entry, the first appearance can simply use the original buckets.
+        //Later appearances share the original local indices and data blocks, so that memory grows with the
+        //number of distinct buckets rather than how often they are broadcast.  Only the global index is
+        //different for each appearance.
         List<Bucket> originalBuckets = clusters.get(clusterOrder.get(clusterPos));
-        List<Bucket> clonedBuckets   = new ArrayList<Bucket>(originalBuckets.size());
-        
-        for (int bucketPos = 0; bucketPos < originalBuckets.size(); bucketPos++) {
-          Bucket curBucket = originalBuckets.get(bucketPos);
-          bucketIndex++;
-          Bucket cloneBucket = curBucket.clone("" + bucketIndex);
-          clonedBuckets.add(cloneBucket);
+        if (curOffsetVal == 1) {
+          clusters.put(newClusterName, originalBuckets);
+        } else {
+          List<Bucket> sharedBuckets = new ArrayList<Bucket>(originalBuckets.size());
+          for (Bucket curBucket : originalBuckets) {
+            bucketIndex++;
+            sharedBuckets.add(curBucket.shareBucket());
+          }
+          clusters.put(newClusterName, sharedBuckets);
         }
-        clusters.put(newClusterName, clonedBuckets);
         
       } else {
         newClusterOrder.add(clusterOrder.get(clusterPos));
@@ -219,164 +255,141 @@ public class SkewedClusteredBroadcastBuilder extends BroadcastBuilder {
     // System.out.println (clusterOrder.get(clusterPos) + " --> " + newClusterOrder.get(clusterPos));
     //}
     
-    int linearBucketCount = 0;
     //This is a fair amount of work, so here's the high level of what needs to be done
     //1)  For each cluster, in order of clusterOrder
     //2)    Calculate the offsets to the next clusters, including to loop back around to this same
     //        cluster again.
     //3)  For each bucket contained in the cluster
     //4)    Construct the cluster index, looping through all positions start with current clusterOrder index
-    //4.1)  Bypass the last entry if waitTimeInBuckets = bucketIndex (shortcut to cheat if we are in the
+    //4.1)  Bypass the last entry if waitTimeInBuckets = the bcast length (shortcut to cheat if we are in the
     //        first bucket of the cluster)
     
-    List<Integer> clusterOffsets = new ArrayList<Integer>(clusterOrder.size());
-    
-    //We are building a baseline offset between clusters, which we will adjust as we move through the buckets
-    clusterOffsets.add(bucketIndex);
-    int offsetBase = 0;
-    for (int i = 1; i < clusterOrder.size(); i++) {
-      offsetBase += clusters.get(clusterOrder.get(i - 1)).size();
-      clusterOffsets.add(offsetBase);
+    //The schedule notes where each cluster starts in the bcast, so each bucket can work out its own
+    //cluster offsets from its position.
+    final Bucket[][] clusterBuckets = new Bucket[newClusterOrder.size()][];
+    int[] clusterSizes = new int[newClusterOrder.size()];
+    for (int clusterPos = 0; clusterPos < newClusterOrder.size(); clusterPos++) {
+      List<Bucket> bucketList = clusters.get(newClusterOrder.get(clusterPos));
+      clusterBuckets[clusterPos] = bucketList.toArray(new Bucket[bucketList.size()]);
+      clusterSizes[clusterPos]   = bucketList.size();
     }
+    final ClusterSchedule schedule = new ClusterSchedule(clusterOrder, clusterSizes);
     
     //DEBUG
     //System.out.println ("Setting initial cluster offsets:");
     //for (int i = 0; i < clusterOrder.size(); i++) {
     //  System.out.println ("  clusterGroup: " + clusterOrder.get(i) + ":  [buckets: " + 
-    //      clusters.get(clusterOrder.get(i)).size() + " | initialOffset: " + clusterOffsets.get(i) + "]");
+    //      clusters.get(clusterOrder.get(i)).size() + " | initialOffset: " + schedule.getClusterStart(i) + "]");
     //}
     
-    //For all clusters
-    for (int clusterPos = 0; clusterPos < clusterOrder.size(); clusterPos++) {
-      
+    IndexRangeTask.runAll(indexPool, schedule.getCycleLength(), new IntConsumer() {
+      @Override
+      public void accept(int linearBucketPos) {
+        int clusterPos = schedule.getClusterPos(linearBucketPos);
+        constructGlobalIndex(clusterPos, linearBucketPos - schedule.getClusterStart(clusterPos), clusterBuckets[clusterPos], schedule);
+      }
+    });
+    
+    indexBuildNanos = System.nanoTime() - startTime;
+  }
+  
+  /**
+   * Helper method to construct the global index for a single bucket.  This only writes to that bucket,
+   * so it is safe to run for different buckets at the same time.
+   * 
+   * @param clusterPos    The position of the bucket's cluster in clusterOrder
+   * @param bucketPos     The position of the bucket within its cluster
+   * @param bucketList    All the buckets in the bucket's cluster, as they will be broadcast
+   * @param schedule      The schedule of where each cluster starts in the bcast
+   */
+  private void constructGlobalIndex(int clusterPos, int bucketPos, Bucket[] bucketList, ClusterSchedule schedule) {
+    //DEBUG
+    //System.out.println (" > Building Index for Bucket " + (bucketPos + 1));
+    Bucket curBucket    = bucketList[bucketPos];
+    int linearBucketPos = schedule.getClusterStart(clusterPos) + bucketPos;
+    
+    //Create the Index Block
+    GlobalClusterIndexBlock indexBlock = new GlobalClusterIndexBlock(clusterOrder.get(clusterPos), curBucket.getFirstBucketKey());
+    indexBlock.setBlockID("GlobalIndex " + (linearBucketPos + 1));
+    
+    //DEBUG
+    //System.out.println ("   > Cluster Index Block");
+    //Build the cluster level global index block
+    
+    //Note: In this case, we need to not include some rows that are the later entries of the same
+    //clusters.  The schedule takes care of that for us.
+    schedule.addClusterRows(indexBlock, clusterPos, linearBucketPos, bucketSize);
+    
+    //Build the exponential index, but only to the end of the bucket
+    //We will need to be more explicit in handling the first few rows, since those are handled
+    //differently and outside any loop structure.
+    int bucketsRemaining = bucketList.length - (bucketPos + 1);
+    ArrayList<Integer> expBuckets = new ArrayList<Integer>();
+    expBuckets.add(0);
+    if (bucketsRemaining >= 1)
+      expBuckets.add(1);
+    if (bucketsRemaining >= 2) {
+      int expBucket = 2;
+      int expOffset = exponentialFactor;
+      while (expBucket <= bucketsRemaining) {
+        expBuckets.add(expBucket);
+        expBucket += expOffset;
+        expOffset *= exponentialFactor;
+      }
+    }
+    
+    /* DEBUG ---------------------------------------
+    System.out.println("Printing Index Buckets");
+    System.out.println ("Range: [0 - 0]");
+    System.out.println ("Range: [1 - 1]");
+    
+    for (int i = 3; i < expBuckets.size(); i++) {
+      System.out.println ("Range: [" + expBuckets.get(i - 1) + " - " + (expBuckets.get(i) - 1) + "]");
+    }
+    System.out.println ("Range: [" + expBuckets.get(expBuckets.size() - 1) + " - " + bucketsRemaining + "]");
+    
+    System.out.println ("True Ranges");
+    for (int values : expBuckets) {
+      System.out.println ("Value: " + values);
+    }
+    //END DEBUG ---------------------------------------- */
+    
+    GlobalIndexArrayItem indexItem0 = new GlobalIndexArrayItem(0, 0, curBucket.getLastBucketKey());
+    indexBlock.addExponentialIndexRow(indexItem0);
+    
+    int endBucketPos = bucketPos + 1;
+    if (expBuckets.size() >= 2) {
+      GlobalIndexArrayItem indexItem1 = new GlobalIndexArrayItem(1, bucketSize + 1, bucketList[bucketPos + 1].getLastBucketKey());
+      indexBlock.addExponentialIndexRow(indexItem1);
+    }
+    
+    //All the middle buckets we can handle the same way.
+    for (int i = 3; i < expBuckets.size(); i++) {
       //DEBUG
-      System.out.println ("Processing Cluster " + newClusterOrder.get(clusterPos) + " [" + clusterOrder.get(clusterPos) + "]");
-      
-      //Get the list of all buckets under this cluster
-      int bucketPos = 0;
-      for (Bucket curBucket : clusters.get(newClusterOrder.get(clusterPos))) {
-        //DEBUG
-        //System.out.println (" > Building Index for Bucket " + (bucketPos + 1));
-        
-        //Create the Index Block
-        linearBucketCount++;
-        GlobalClusterIndexBlock indexBlock = new GlobalClusterIndexBlock(clusterOrder.get(clusterPos), curBucket.getFirstBucketKey());
-        indexBlock.setBlockID("GlobalIndex " + linearBucketCount);
-        
-        //DEBUG
-        //System.out.println ("   > Cluster Index Block");
-        //Build the cluster level global index block
-        
-        //Note: In this case, we need to not include some rows that are the later entries of the same
-        //clusters
-        //To do this, we're going to start by initializing a found list
-        for (String key : uniqueMap.keySet())
-          uniqueMap.put(key, new Boolean(false));
-        
-        for (int eachClusterPos = 0; eachClusterPos < clusterOrder.size(); eachClusterPos++) {
-          int nextClusterPos = (eachClusterPos + clusterPos + 1) % clusterOrder.size();
-          if (clusterOffsets.get(nextClusterPos) != bucketIndex) {
-            //DEBUG
-            //System.out.println ("     + [ " + clusterOrder.get(nextClusterPos) + " - " + newClusterOrder.get(nextClusterPos) + 
-            //    " | " + clusterOffsets.get(nextClusterPos) + " ]");
-            
-            if (uniqueMap.get(clusterOrder.get(nextClusterPos)) == false) {
-              //DEBUG
-              //System.out.println ("      We are adding this index entry!");
-              
-              uniqueMap.put(clusterOrder.get(nextClusterPos), new Boolean(true));
-              
-              GlobalIndexArrayItem indexItem = new GlobalIndexArrayItem(clusterOffsets.get(nextClusterPos), (clusterOffsets.get(nextClusterPos) * (bucketSize + 2)) - 1, 
-                  clusterOrder.get(nextClusterPos));
-              indexBlock.addClusterIndexRow(indexItem);
-            } else {
-              //DEBUG
-              //System.out.println ("      We are skipping this index entry!");
-            }
-          }
-        }
-        
-        //Build the exponential index, but only to the end of the bucket
-        //We will need to be more explicit in handling the first few rows, since those are handled
-        //differently and outside any loop structure.
-        int bucketsRemaining = clusters.get(clusterOrder.get(clusterPos)).size() - (bucketPos + 1);
-        ArrayList<Integer> expBuckets = new ArrayList<Integer>();
-        expBuckets.add(0);
-        if (bucketsRemaining >= 1)
-          expBuckets.add(1);
-        if (bucketsRemaining >= 2) {
-          int expBucket = 2;
-          int expOffset = exponentialFactor;
-          while (expBucket <= bucketsRemaining) {
-            expBuckets.add(expBucket);
-            expBucket += expOffset;
-            expOffset *= exponentialFactor;
-          }
-        }
-        
-        /* DEBUG ---------------------------------------
-        System.out.println("Printing Index Buckets");
-        System.out.println ("Range: [0 - 0]");
-        System.out.println ("Range: [1 - 1]");
-        
-        for (int i = 3; i < expBuckets.size(); i++) {
-          System.out.println ("Range: [" + expBuckets.get(i - 1) + " - " + (expBuckets.get(i) - 1) + "]");
-        }
-        System.out.println ("Range: [" + expBuckets.get(expBuckets.size() - 1) + " - " + bucketsRemaining + "]");
-        
-        System.out.println ("True Ranges");
-        for (int values : expBuckets) {
-          System.out.println ("Value: " + values);
-        }
-        //END DEBUG ---------------------------------------- */
-        
-        GlobalIndexArrayItem indexItem0 = new GlobalIndexArrayItem(0, 0, curBucket.getLastBucketKey());
-        indexBlock.addExponentialIndexRow(indexItem0);
-        
-        List<Bucket> bucketList = clusters.get(clusterOrder.get(clusterPos));
-        
-        int endBucketPos = bucketPos + 1;
-        if (expBuckets.size() >= 2) {
-          GlobalIndexArrayItem indexItem1 = new GlobalIndexArrayItem(1, bucketSize + 1, bucketList.get(bucketPos + 1).getLastBucketKey());
-          indexBlock.addExponentialIndexRow(indexItem1);
-        }
-        
-        //All the middle buckets we can handle the same way.
-        for (int i = 3; i < expBuckets.size(); i++) {
-          //DEBUG
-          //System.out.println ("Range: [" + expBuckets.get(i - 1) + " - " + (expBuckets.get(i) - 1) + "]");
-          endBucketPos = bucketPos + expBuckets.get(i) - 1;
-          GlobalIndexArrayItem indexItem = new GlobalIndexArrayItem(expBuckets.get(i - 1), (expBuckets.get(i - 1) * (bucketSize + 2)) - 1, 
-              bucketList.get(endBucketPos).getLastBucketKey());
-          indexBlock.addExponentialIndexRow(indexItem);
-        }
-        
-        //Now we need to handle the last block manually
-        if (expBuckets.size() >= 3) {
-          endBucketPos = bucketList.size() - 1;
-          GlobalIndexArrayItem indexItemEnd = new GlobalIndexArrayItem(expBuckets.get(expBuckets.size() - 1), 
-              (expBuckets.get(expBuckets.size() - 1) * (bucketSize + 2)) - 1, 
-              bucketList.get(endBucketPos).getLastBucketKey());
-          indexBlock.addExponentialIndexRow(indexItemEnd);
-        }
-        
-        //We now need to decrement our index offsets
-        for (int offsetPos = 0; offsetPos < clusterOffsets.size(); offsetPos++) {
-          if (clusterOffsets.get(offsetPos) == 1)
-            clusterOffsets.set(offsetPos, bucketIndex);
-          else clusterOffsets.set(offsetPos, clusterOffsets.get(offsetPos) - 1);
-        }
-        
-        curBucket.assignGlobalIndex(indexBlock);
-        curBucket.updateNextIndexOffsets();
-        
-        //DEBUG
-        //System.out.println (curBucket.toString());
-        
-        bucketPos++;
-      }//end for buckets in this cluster
-    }//end for all clusters
+      //System.out.println ("Range: [" + expBuckets.get(i - 1) + " - " + (expBuckets.get(i) - 1) + "]");
+      endBucketPos = bucketPos + expBuckets.get(i) - 1;
+      GlobalIndexArrayItem indexItem = new GlobalIndexArrayItem(expBuckets.get(i - 1), (expBuckets.get(i - 1) * (bucketSize + 2)) - 1, 
+          bucketList[endBucketPos].getLastBucketKey());
+      indexBlock.addExponentialIndexRow(indexItem);
+    }
     
+    //Now we need to handle the last block manually
+    if (expBuckets.size() >= 3) {
+      endBucketPos = bucketList.length - 1;
+      GlobalIndexArrayItem indexItemEnd = new GlobalIndexArrayItem(expBuckets.get(expBuckets.size() - 1), 
+          (expBuckets.get(expBuckets.size() - 1) * (bucketSize + 2)) - 1, 
+          bucketList[endBucketPos].getLastBucketKey());
+      indexBlock.addExponentialIndexRow(indexItemEnd);
+    }
+    
+    indexBlock.assignClusterIds(clusterDictionary);
+    curBucket.assignGlobalIndex(indexBlock);
+    curBucket.updateNextIndexOffsets();
+    if (keyDictionary != null)
+      curBucket.encodeKeys(keyDictionary);
+    
+    //DEBUG
+    //System.out.println (curBucket.toString());
   }
 
   /* (non-Javadoc)
@@ -429,4 +442,34 @@ public class SkewedClusteredBroadcastBuilder extends BroadcastBuilder {
     return bcast;
   }
 
+  /* (non-Javadoc)
+   * @see com.umkc.bcast.BroadcastBuilder#assembleBroadcast()
+   */
+  @Override
+  public Broadcast assembleBroadcast() {
+    return packBroadcast(getBcastBuckets());
+  }
+  
+  /*
+   * (non-Javadoc)
+   * @see com.umkc.bcast.BroadcastBuilder#streamBcast()
+   */
+  @Override
+  public Iterator<Block> streamBcast() {
+    return new BucketBlockIterator(getBcastBuckets(), true);
+  }
+  
+  /*
+   * (non-Javadoc)
+   * @see com.umkc.bcast.BroadcastBuilder#getBcastBuckets()
+   */
+  @Override
+  protected List<Bucket> getBcastBuckets() {
+    List<Bucket> bcastBuckets = new ArrayList<Bucket>(bucketIndex);
+    for (String cluster : newClusterOrder)
+      bcastBuckets.addAll(clusters.get(cluster));
+    
+    return bcastBuckets;
+  }
+
 }
@@ -0,0 +1,89 @@
+package com.umkc.bcast.data.mock;
+
+import com.umkc.bcast.data.BlockType;
+import com.umkc.bcast.data.IndexBlock;
+
+/**
+ * Helper class for tests that compare lookups against two versions of the same index.  Each method runs
+ * a getNextReadOffset() call and turns any error (a malformed index, or a lookup the block doesn't
+ * support) into Integer.MIN_VALUE, so a lookup that fails can be compared just like one that succeeds.
+ *
+ * <p>Local index blocks don't have clustered versions of getNextReadOffset(), so the cluster is ignored
+ * for them, the same as a client search would.
+ *
+ * @author ac010168
+ */
+public class IndexLookupHelper {
+
+  /** The value returned in place of a lookup that failed */
+  public static final int LOOKUP_ERROR = Integer.MIN_VALUE;
+
+  /**
+   * Run a flat lookup by key.
+   *
+   * @param indexBlock The block to search
+   * @param searchKey  The key to search for
+   *
+   * @return The offset returned by the block, or LOOKUP_ERROR
+   */
+  public static int lookupOrError(IndexBlock indexBlock, String searchKey) {
+    return lookupOrError(indexBlock, (String)null, searchKey);
+  }
+
+  /**
+   * Run either a flat or clustered lookup by key.
+   *
+   * @param indexBlock   The block to search
+   * @param clusterGroup The cluster to search in, or null for a flat lookup
+   * @param searchKey    The key to search for
+   *
+   * @return The offset returned by the block, or LOOKUP_ERROR
+   */
+  public static int lookupOrError(IndexBlock indexBlock, String clusterGroup, String searchKey) {
+    try {
+      if ((clusterGroup == null) || (indexBlock.getBlockType() == BlockType.LOCAL_INDEX_BLOCK))
+        return indexBlock.getNextReadOffset(searchKey);
+      return indexBlock.getNextReadOffset(clusterGroup, searchKey);
+    } catch (RuntimeException e) {
+      return LOOKUP_ERROR;
+    }
+  }
+
+  /**
+   * Run either a flat or clustered lookup by key ordinal.
+   *
+   * @param indexBlock    The block to search
+   * @param clusterGroup  The cluster to search in, or null for a flat lookup
+   * @param searchOrdinal The ordinal of the key to search for
+   *
+   * @return The offset returned by the block, or LOOKUP_ERROR
+   */
+  public static int lookupOrError(IndexBlock indexBlock, String clusterGroup, int searchOrdinal) {
+    try {
+      if ((clusterGroup == null) || (indexBlock.getBlockType() == BlockType.LOCAL_INDEX_BLOCK))
+        return indexBlock.getNextReadOffset(searchOrdinal);
+      return indexBlock.getNextReadOffset(clusterGroup, searchOrdinal);
+    } catch (RuntimeException e) {
+      return LOOKUP_ERROR;
+    }
+  }
+
+  /**
+   * Run a clustered lookup by cluster id and key.
+   *
+   * @param indexBlock The block to search
+   * @param clusterId  The ClusterDictionary id of the cluster to search in
+   * @param searchKey  The key to search for
+   *
+   * @return The offset returned by the block, or LOOKUP_ERROR
+   */
+  public static int lookupOrError(IndexBlock indexBlock, int clusterId, String searchKey) {
+    try {
+      if (indexBlock.getBlockType() == BlockType.LOCAL_INDEX_BLOCK)
+        return indexBlock.getNextReadOffset(searchKey);
+      return indexBlock.getNextReadOffset(clusterId, searchKey);
+    } catch (RuntimeException e) {
+      return LOOKUP_ERROR;
+    }
+  }
+}
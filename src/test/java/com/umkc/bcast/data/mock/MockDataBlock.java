@@ -1,5 +1,7 @@
 package com.umkc.bcast.data.mock;
 
+import java.nio.ByteBuffer;
+
 import com.umkc.bcast.data.Block;
 import com.umkc.bcast.data.BlockType;
 import com.umkc.bcast.data.DataBlock;
@@ -66,6 +68,24 @@ public class MockDataBlock extends DataBlock {
     this.mockDataValue = mockDataValue;
   }
   
+  /*
+   * (non-Javadoc)
+   * @see com.umkc.bcast.data.DataBlock#getPayloadLength()
+   */
+  @Override
+  public int getPayloadLength() {
+    return 4;
+  }
+  
+  /*
+   * (non-Javadoc)
+   * @see com.umkc.bcast.data.DataBlock#writePayload(java.nio.ByteBuffer)
+   */
+  @Override
+  public void writePayload(ByteBuffer buffer) {
+    buffer.putInt(mockDataValue);
+  }
+  
   /*
    * (non-Javadoc)
    * @see com.umkc.bcast.data.Block#clone()
@@ -0,0 +1,44 @@
+package com.umkc.bcast.data.mock;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.umkc.bcast.data.DataBlock;
+
+/**
+ * Helper class to generate larger, sorted sets of MockDataBlocks for tests that need more data
+ * than the hand written dictionary sets provide.
+ * 
+ * @author ac010168
+ */
+public class MockDataBlockFactory {
+
+  /**
+   * Generate a list of data blocks for a single cluster, with dataKey values in sorted order.
+   * 
+   * @param clusterGroup The cluster the data blocks belong to
+   * @param blockCount   The number of data blocks to create
+   * 
+   * @return The list of sorted data blocks
+   */
+  public static List<DataBlock> generateSortedBlocks(String clusterGroup, int blockCount) {
+    List<DataBlock> dataBlocks = new ArrayList<DataBlock>(blockCount);
+    for (int blockPos = 0; blockPos < blockCount; blockPos++) {
+      String dataKey = generateKey(blockPos);
+      dataBlocks.add(new MockDataBlock(dataKey, blockPos, clusterGroup + ":" + dataKey, clusterGroup, dataKey));
+    }
+    return dataBlocks;
+  }
+  
+  /**
+   * Generate the dataKey used for the given position by generateSortedBlocks().  Keys are zero padded
+   * so that lexical order matches numeric order.
+   * 
+   * @param blockPos The position of the data block
+   * 
+   * @return The dataKey for that position
+   */
+  public static String generateKey(int blockPos) {
+    return String.format("k%09d", blockPos);
+  }
+}
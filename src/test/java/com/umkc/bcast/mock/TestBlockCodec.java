@@ -0,0 +1,376 @@
+package com.umkc.bcast.mock;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.umkc.bcast.BroadcastBuilder;
+import com.umkc.bcast.data.Block;
+import com.umkc.bcast.data.BlockType;
+import com.umkc.bcast.data.DataBlock;
+import com.umkc.bcast.data.IndexBlock;
+import com.umkc.bcast.data.KeyDictionary;
+import com.umkc.bcast.data.mock.IndexLookupHelper;
+import com.umkc.bcast.data.mock.MockDataBlock;
+import com.umkc.bcast.data.mock.MockDataBlockFactory;
+import com.umkc.bcast.io.BlockCodec;
+import com.umkc.bcast.io.BroadcastSnapshot;
+import com.umkc.bcast.io.MappedBroadcast;
+import com.umkc.bcast.util.ClusteredBroadcastBuilder;
+import com.umkc.bcast.util.FlatBroadcastBuilder;
+import com.umkc.bcast.util.SkewedClusteredBroadcastBuilder;
+
+/**
+ * This test class encodes complete bcasts with the BlockCodec, and verifies that everything read back
+ * from the buffer (or from a mapped snapshot file) matches the original blocks.
+ *
+ * @author ac010168
+ *
+ */
+public class TestBlockCodec {
+
+  /** Scratch space for the snapshot files */
+  @Rule
+  public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  /**
+   * Encode and decode a flat bcast.
+   */
+  @Test
+  public void testFlatBcastRoundTrip() {
+    System.out.println ("**********  testFlatBcastRoundTrip()  **********");
+
+    BroadcastBuilder builder = new FlatBroadcastBuilder(2, 10, false);
+    builder.setUseKeyDictionary(true);
+    builder.assignDataBlocks(MockDataBlockFactory.generateSortedBlocks("FLAT", 1000));
+    builder.constructGlobalIndices();
+
+    checkRoundTrip(builder, null);
+  }
+
+  /**
+   * Encode and decode a clustered bcast.
+   */
+  @Test
+  public void testClusteredBcastRoundTrip() {
+    System.out.println ("**********  testClusteredBcastRoundTrip()  **********");
+
+    BroadcastBuilder builder = new ClusteredBroadcastBuilder(3, 5, false);
+    builder.setUseKeyDictionary(true);
+    List<String> clusterOrder = new ArrayList<String>();
+    clusterOrder.add("ALPHA");
+    clusterOrder.add("BETA");
+    clusterOrder.add("GAMMA");
+    for (String clusterGroup : clusterOrder)
+      builder.assignDataBlocks(MockDataBlockFactory.generateSortedBlocks(clusterGroup, 300));
+    builder.addClusterKeys(clusterOrder);
+    builder.constructGlobalIndices();
+
+    checkRoundTrip(builder, clusterOrder);
+  }
+
+  /**
+   * Encode and decode a skewed clustered bcast.
+   */
+  @Test
+  public void testSkewedBcastRoundTrip() {
+    System.out.println ("**********  testSkewedBcastRoundTrip()  **********");
+
+    BroadcastBuilder builder = new SkewedClusteredBroadcastBuilder(2, 10, false);
+    builder.setUseKeyDictionary(true);
+    builder.assignDataBlocks(MockDataBlockFactory.generateSortedBlocks("ALPHA", 200));
+    builder.assignDataBlocks(MockDataBlockFactory.generateSortedBlocks("BETA", 300));
+    builder.assignDataBlocks(MockDataBlockFactory.generateSortedBlocks("GAMMA", 100));
+    List<String> clusterOrder = new ArrayList<String>();
+    clusterOrder.add("ALPHA");
+    clusterOrder.add("BETA");
+    clusterOrder.add("ALPHA");
+    clusterOrder.add("GAMMA");
+    builder.addClusterKeys(clusterOrder);
+    builder.constructGlobalIndices();
+
+    checkRoundTrip(builder, clusterOrder);
+  }
+
+  /**
+   * Write a clustered bcast to a snapshot file, map it back in, and compare every block and key
+   * translation against the originals.
+   */
+  @Test
+  public void testSnapshotRoundTrip() throws IOException {
+    System.out.println ("**********  testSnapshotRoundTrip()  **********");
+
+    BroadcastBuilder builder = new ClusteredBroadcastBuilder(2, 10, false);
+    builder.setUseKeyDictionary(true);
+    List<String> clusterOrder = new ArrayList<String>();
+    clusterOrder.add("ALPHA");
+    clusterOrder.add("BETA");
+    clusterOrder.add("GAMMA");
+    for (String clusterGroup : clusterOrder)
+      builder.assignDataBlocks(MockDataBlockFactory.generateSortedBlocks(clusterGroup, 400));
+    builder.addClusterKeys(clusterOrder);
+    builder.constructGlobalIndices();
+    List<Block> bcast = builder.assembleBcast();
+
+    KeyDictionary keyDictionary = builder.getKeyDictionary();
+    File snapshotFile = tempFolder.newFile("clustered.bcast");
+    BroadcastSnapshot.write(snapshotFile, bcast, new BlockCodec(builder), 10);
+    MappedBroadcast mapped = BroadcastSnapshot.open(snapshotFile);
+
+    assertEquals("Block counts should match", bcast.size(), mapped.getBlockCount());
+    assertEquals("Bucket sizes should match", 10, mapped.getBucketSize());
+    assertEquals("Key counts should match", keyDictionary.getKeyCount(), mapped.getKeyCount());
+
+    List<String> searchKeys = new ArrayList<String>();
+    for (int keyPos = 0; keyPos <= 410; keyPos += 3)
+      searchKeys.add(MockDataBlockFactory.generateKey(keyPos));
+    searchKeys.add("");
+    searchKeys.add("a");
+    searchKeys.add("k");
+    searchKeys.add("k0000000005");
+    searchKeys.add("z");
+    for (String searchKey : searchKeys)
+      assertEquals("Ordinal for '" + searchKey + "' should match", keyDictionary.getOrdinal(searchKey), mapped.getOrdinal(searchKey));
+    assertEquals("Cluster ids should ignore case", builder.getClusterDictionary().getClusterId("BETA"), mapped.getClusterId("beta"));
+
+    for (int blockPos = 0; blockPos < bcast.size(); blockPos++) {
+      Block curBlock = bcast.get(blockPos);
+      assertEquals("Block type at " + blockPos + " should match", curBlock.getBlockType(), mapped.getBlockType(blockPos));
+      assertEquals("Next index offset at " + blockPos + " should match", curBlock.getNextIndexOffset(), mapped.getNextIndexOffset(blockPos));
+      if (curBlock.getBlockType() == BlockType.DATA_BLOCK) {
+        ByteBuffer buffer = mapped.getBuffer();
+        assertEquals("Payload at " + blockPos + " should match", ((MockDataBlock)curBlock).getMockDataValue(),
+            buffer.getInt(BlockCodec.getPayloadOffset(buffer, mapped.getBlockOffset(blockPos))));
+        continue;
+      }
+
+      IndexBlock indexBlock = (IndexBlock)curBlock;
+      for (String searchKey : searchKeys) {
+        for (String clusterGroup : clusterOrder) {
+          String searchCluster = (curBlock.getBlockType() == BlockType.LOCAL_INDEX_BLOCK) ? null : clusterGroup;
+          int expected = IndexLookupHelper.lookupOrError(indexBlock, searchCluster, searchKey);
+          int actual   = Integer.MIN_VALUE;
+          try {
+            actual = mapped.getNextReadOffset(blockPos, mapped.getClusterId(clusterGroup), mapped.getOrdinal(searchKey));
+          } catch (RuntimeException e) {
+            //Expected to fail in the same cases as the original block
+          }
+          assertEquals("Lookup for [" + clusterGroup + ", " + searchKey + "] at " + blockPos + " should match", expected, actual);
+        }
+      }
+    }
+  }
+
+  /**
+   * Build a flat bcast keyed by uniqueIdentifier, write it to a snapshot, and make sure every data block
+   * header holds the (known) ordinal of its uniqueIdentifier, and every key can be found through the
+   * mapped local indices.
+   */
+  @Test
+  public void testUniqueIdentifierRoundTrip() throws IOException {
+    System.out.println ("**********  testUniqueIdentifierRoundTrip()  **********");
+
+    BroadcastBuilder builder = new FlatBroadcastBuilder(2, 10, true);
+    builder.setUseKeyDictionary(true);
+    builder.assignDataBlocks(MockDataBlockFactory.generateSortedBlocks("FLAT", 300));
+    builder.constructGlobalIndices();
+    List<Block> bcast = builder.assembleBcast();
+
+    BlockCodec codec = new BlockCodec(builder);
+    assertTrue("The codec should take the flag from the builder", codec.isUseUniqueIdentifier());
+    File snapshotFile = tempFolder.newFile("unique.bcast");
+    BroadcastSnapshot.write(snapshotFile, bcast, codec, 10);
+    MappedBroadcast mapped = BroadcastSnapshot.open(snapshotFile);
+    assertTrue("The snapshot should keep the flag", mapped.isUseUniqueIdentifier());
+
+    KeyDictionary keyDictionary = builder.getKeyDictionary();
+    ByteBuffer buffer = mapped.getBuffer();
+    int dataBlockCount = 0;
+    for (int blockPos = 0; blockPos < bcast.size(); blockPos++) {
+      Block curBlock = bcast.get(blockPos);
+      if (curBlock.getBlockType() != BlockType.DATA_BLOCK)
+        continue;
+      dataBlockCount++;
+
+      String uniqueIdentifier = ((DataBlock)curBlock).getUniqueIdentifier();
+      int keyOrdinal = BlockCodec.getKeyOrdinal(buffer, mapped.getBlockOffset(blockPos));
+      assertTrue("Data block " + uniqueIdentifier + " should have a known ordinal", KeyDictionary.isKnownOrdinal(keyOrdinal));
+      assertEquals("Data block ordinal should be its uniqueIdentifier", uniqueIdentifier, keyDictionary.getKey(keyOrdinal));
+      assertEquals("The mapped dictionary should agree", keyOrdinal, mapped.getOrdinal(uniqueIdentifier));
+
+      //The local index that covers this block is the one at the start of its bucket
+      int localPos = blockPos;
+      while (mapped.getBlockType(localPos) != BlockType.LOCAL_INDEX_BLOCK)
+        localPos--;
+      int waitBlocks = mapped.getNextReadOffset(localPos, keyOrdinal);
+      assertEquals("The local index should lead to " + uniqueIdentifier, blockPos, localPos + waitBlocks + 1);
+    }
+    assertEquals("Every data block should be checked", 300, dataBlockCount);
+  }
+
+  /**
+   * Encode a clustered bcast twice into the same buffer, and make sure the second pass doesn't allocate,
+   * cluster lookups included.
+   */
+  @Test
+  public void testEncodeDoesNotAllocate() {
+    System.out.println ("**********  testEncodeDoesNotAllocate()  **********");
+
+    BroadcastBuilder builder = new ClusteredBroadcastBuilder(2, 10, false);
+    builder.setUseKeyDictionary(true);
+    List<String> clusterOrder = new ArrayList<String>();
+    for (int clusterPos = 0; clusterPos < 8; clusterPos++) {
+      clusterOrder.add("Cluster-" + clusterPos);
+      builder.assignDataBlocks(MockDataBlockFactory.generateSortedBlocks("Cluster-" + clusterPos, 200));
+    }
+    builder.addClusterKeys(clusterOrder);
+    builder.constructGlobalIndices();
+    List<Block> bcast = builder.assembleBcast();
+
+    BlockCodec codec = new BlockCodec(builder);
+    int totalLength  = 0;
+    for (Block curBlock : bcast)
+      totalLength += codec.getEncodedLength(curBlock);
+    ByteBuffer buffer = ByteBuffer.allocate(totalLength);
+    for (Block curBlock : bcast)
+      codec.encode(curBlock, buffer);
+
+    ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+    if (!(threadBean instanceof com.sun.management.ThreadMXBean))
+      return;
+    com.sun.management.ThreadMXBean allocationBean = (com.sun.management.ThreadMXBean)threadBean;
+    buffer.clear();
+    long beforeBytes = allocationBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    for (int blockPos = 0; blockPos < bcast.size(); blockPos++)
+      codec.encode(bcast.get(blockPos), buffer);
+    long allocatedBytes = allocationBean.getThreadAllocatedBytes(Thread.currentThread().getId()) - beforeBytes;
+    System.out.println ("Blocks: " + bcast.size() + "  Bytes allocated re-encoding: " + allocatedBytes);
+    assertTrue("Encoding should not allocate once warmed up: " + allocatedBytes, allocatedBytes < 1024);
+  }
+
+  /**
+   * Compare the time to rebuild a larger flat bcast against the time to map in its snapshot.
+   */
+  @Test
+  public void testSnapshotStartupTiming() throws IOException {
+    System.out.println ("**********  testSnapshotStartupTiming()  **********");
+    int dataBlockCount = 200000;
+
+    long startTime = System.nanoTime();
+    BroadcastBuilder builder = new FlatBroadcastBuilder(2, 10, false);
+    builder.setUseKeyDictionary(true);
+    builder.assignDataBlocks(MockDataBlockFactory.generateSortedBlocks("FLAT", dataBlockCount));
+    builder.constructGlobalIndices();
+    List<Block> bcast = builder.assembleBcast();
+    long buildTime = System.nanoTime() - startTime;
+
+    File snapshotFile = tempFolder.newFile("flat.bcast");
+    startTime = System.nanoTime();
+    BroadcastSnapshot.write(snapshotFile, bcast, new BlockCodec(builder), 10);
+    long writeTime = System.nanoTime() - startTime;
+
+    startTime = System.nanoTime();
+    MappedBroadcast mapped = BroadcastSnapshot.open(snapshotFile);
+    int searchOrdinal = mapped.getOrdinal(MockDataBlockFactory.generateKey(dataBlockCount / 2));
+    int firstOffset   = mapped.getNextReadOffset(0, searchOrdinal);
+    long openTime = System.nanoTime() - startTime;
+
+    assertEquals("The first lookup should match the original block", ((IndexBlock)bcast.get(0)).getNextReadOffset(
+        MockDataBlockFactory.generateKey(dataBlockCount / 2)), firstOffset);
+    System.out.println ("Blocks: " + bcast.size() + "  File bytes: " + snapshotFile.length() + "  Build ms: " + (buildTime / 1000000) + 
+        "  Write ms: " + (writeTime / 1000000) + "  Open + first lookup ms: " + (openTime / 1000000.0));
+  }
+
+  /**
+   * Helper method to encode the whole bcast into a single buffer, then walk the buffer block by block
+   * and compare against the original blocks.
+   *
+   * @param builder      The builder, with the global indices already constructed
+   * @param clusterOrder The clusters to search, or null for flat bcasts
+   */
+  private void checkRoundTrip(BroadcastBuilder builder, List<String> clusterOrder) {
+    List<Block> bcast = builder.assembleBcast();
+    KeyDictionary keyDictionary = builder.getKeyDictionary();
+    BlockCodec codec = new BlockCodec(builder);
+
+    int totalLength = 0;
+    for (Block curBlock : bcast)
+      totalLength += codec.getEncodedLength(curBlock);
+    ByteBuffer buffer = ByteBuffer.allocate(totalLength);
+    for (Block curBlock : bcast)
+      codec.encode(curBlock, buffer);
+    assertEquals("The buffer should be exactly filled", totalLength, buffer.position());
+
+    List<String> searchKeys = new ArrayList<String>();
+    for (int keyPos = 0; keyPos <= 1000; keyPos += 7)
+      searchKeys.add(MockDataBlockFactory.generateKey(keyPos));
+    searchKeys.add("a");
+    searchKeys.add("z");
+
+    long[] typeBytes  = new long[BlockType.values().length];
+    int[]  typeCounts = new int[BlockType.values().length];
+    int blockOffset = 0;
+    for (Block curBlock : bcast) {
+      int encodedLength = BlockCodec.getEncodedLength(buffer, blockOffset);
+      assertEquals("Encoded length of " + curBlock.getBlockID() + " should match", codec.getEncodedLength(curBlock), encodedLength);
+      assertEquals("Block type of " + curBlock.getBlockID() + " should match", curBlock.getBlockType(), BlockCodec.getBlockType(buffer, blockOffset));
+      assertEquals("Next index offset of " + curBlock.getBlockID() + " should match", curBlock.getNextIndexOffset(),
+          BlockCodec.getNextIndexOffset(buffer, blockOffset));
+      typeBytes[curBlock.getBlockType().ordinal()] += encodedLength;
+      typeCounts[curBlock.getBlockType().ordinal()]++;
+
+      if (curBlock.getBlockType() == BlockType.DATA_BLOCK) {
+        MockDataBlock dataBlock = (MockDataBlock)curBlock;
+        assertEquals("Key ordinal of " + curBlock.getBlockID() + " should match", keyDictionary.getOrdinal(dataBlock.getDataKey()),
+            BlockCodec.getKeyOrdinal(buffer, blockOffset));
+        assertEquals("Payload of " + curBlock.getBlockID() + " should match", dataBlock.getMockDataValue(),
+            buffer.getInt(BlockCodec.getPayloadOffset(buffer, blockOffset)));
+      } else {
+        IndexBlock indexBlock = (IndexBlock)curBlock;
+        for (String searchKey : searchKeys) {
+          int searchOrdinal = keyDictionary.getOrdinal(searchKey);
+          if ((clusterOrder == null) || (curBlock.getBlockType() == BlockType.LOCAL_INDEX_BLOCK)) {
+            assertEquals("Lookup for '" + searchKey + "' in " + curBlock.getBlockID() + " should match",
+                IndexLookupHelper.lookupOrError(indexBlock, null, searchKey), lookupOrError(buffer, blockOffset, -1, searchOrdinal));
+          } else {
+            for (String clusterGroup : clusterOrder) {
+              assertEquals("Lookup for [" + clusterGroup + ", " + searchKey + "] in " + curBlock.getBlockID() + " should match",
+                  IndexLookupHelper.lookupOrError(indexBlock, clusterGroup, searchKey),
+                  lookupOrError(buffer, blockOffset, builder.getClusterDictionary().getClusterId(clusterGroup), searchOrdinal));
+            }
+          }
+        }
+      }
+      blockOffset += encodedLength;
+    }
+
+    System.out.println ("Encoded " + bcast.size() + " blocks in " + totalLength + " bytes");
+    for (BlockType blockType : BlockType.values()) {
+      if (typeCounts[blockType.ordinal()] > 0)
+        System.out.println ("  " + blockType + ": " + (typeBytes[blockType.ordinal()] / typeCounts[blockType.ordinal()]) + " bytes/block");
+    }
+  }
+
+  /**
+   * Wrapper to run a lookup against an encoded block, turning errors into a comparable value.
+   */
+  private int lookupOrError(ByteBuffer buffer, int blockOffset, int clusterId, int searchOrdinal) {
+    try {
+      if (clusterId < 0)
+        return BlockCodec.getNextReadOffset(buffer, blockOffset, searchOrdinal);
+      return BlockCodec.getNextReadOffset(buffer, blockOffset, clusterId, searchOrdinal);
+    } catch (RuntimeException e) {
+      return Integer.MIN_VALUE;
+    }
+  }
+}
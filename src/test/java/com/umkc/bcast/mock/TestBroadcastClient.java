@@ -0,0 +1,194 @@
+package com.umkc.bcast.mock;
+
+import static org.junit.Assert.*;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.umkc.bcast.BroadcastBuilder;
+import com.umkc.bcast.BroadcastClient;
+import com.umkc.bcast.QueryResult;
+import com.umkc.bcast.data.Broadcast;
+import com.umkc.bcast.data.mock.MockDataBlockFactory;
+import com.umkc.bcast.sim.ExpectedTimeCalculator;
+import com.umkc.bcast.sim.ExpectedTimes;
+import com.umkc.bcast.util.ClusteredBroadcastBuilder;
+import com.umkc.bcast.util.FlatBroadcastBuilder;
+
+/**
+ * This test class runs the BroadcastClient from every start position for every key, and checks that
+ * the average times match the ExpectedTimeCalculator.  It also checks that missing keys are reported
+ * as not found, and that the search does not allocate.
+ *
+ * @author ac010168
+ *
+ */
+public class TestBroadcastClient {
+
+  /**
+   * Search a flat bcast for every key from every start position.
+   */
+  @Test
+  public void testFlatClientMatchesExpectedTimes() {
+    System.out.println ("**********  testFlatClientMatchesExpectedTimes()  **********");
+    Broadcast broadcast = buildFlat(1000);
+    BroadcastClient client = new BroadcastClient(broadcast);
+    QueryResult result = new QueryResult();
+
+    long accessTotal = 0;
+    long tuningTotal = 0;
+    long searches    = 0;
+    for (int keyPos = 0; keyPos < 1000; keyPos++) {
+      String searchKey = MockDataBlockFactory.generateKey(keyPos);
+      for (int startPos = 0; startPos < broadcast.getBlockCount(); startPos++) {
+        assertTrue("Key '" + searchKey + "' should be found from " + startPos, client.search(startPos, searchKey, result));
+        assertEquals("Tuning time should be one more than the blocks read", result.getBlocksRead() + 1, result.getTuningTime());
+        accessTotal += result.getAccessTime();
+        tuningTotal += result.getTuningTime();
+        searches++;
+      }
+    }
+
+    ExpectedTimes expectedTimes = new ExpectedTimeCalculator(broadcast).calculate();
+    assertEquals("Average access time should match", expectedTimes.getExpectedAccessTime(), (double)accessTotal / searches, 1e-9);
+    assertEquals("Average tuning time should match", expectedTimes.getExpectedTuningTime(), (double)tuningTotal / searches, 1e-9);
+  }
+
+  /**
+   * Search a clustered bcast for every key in every cluster from every start position.
+   */
+  @Test
+  public void testClusteredClientMatchesExpectedTimes() {
+    System.out.println ("**********  testClusteredClientMatchesExpectedTimes()  **********");
+    int[] clusterSizes = {300, 120, 40, 200};
+
+    BroadcastBuilder builder = new ClusteredBroadcastBuilder(2, 10, false);
+    builder.setUseKeyDictionary(true);
+    List<String> clusterOrder = new ArrayList<String>();
+    for (int clusterPos = 0; clusterPos < clusterSizes.length; clusterPos++) {
+      clusterOrder.add("CLUSTER" + clusterPos);
+      builder.assignDataBlocks(MockDataBlockFactory.generateSortedBlocks("CLUSTER" + clusterPos, clusterSizes[clusterPos]));
+    }
+    builder.addClusterKeys(clusterOrder);
+    builder.constructGlobalIndices();
+    Broadcast broadcast = builder.assembleBroadcast();
+    BroadcastClient client = new BroadcastClient(broadcast);
+    QueryResult result = new QueryResult();
+
+    long accessTotal = 0;
+    long tuningTotal = 0;
+    long searches    = 0;
+    for (int clusterPos = 0; clusterPos < clusterSizes.length; clusterPos++) {
+      for (int keyPos = 0; keyPos < clusterSizes[clusterPos]; keyPos++) {
+        String searchKey = MockDataBlockFactory.generateKey(keyPos);
+        for (int startPos = 0; startPos < broadcast.getBlockCount(); startPos++) {
+          assertTrue("Key '" + searchKey + "' should be found from " + startPos,
+              client.search(startPos, "cluster" + clusterPos, searchKey, result));
+          accessTotal += result.getAccessTime();
+          tuningTotal += result.getTuningTime();
+          searches++;
+        }
+      }
+    }
+
+    ExpectedTimes expectedTimes = new ExpectedTimeCalculator(broadcast).calculate();
+    assertEquals("Average access time should match", expectedTimes.getExpectedAccessTime(), (double)accessTotal / searches, 1e-9);
+    assertEquals("Average tuning time should match", expectedTimes.getExpectedTuningTime(), (double)tuningTotal / searches, 1e-9);
+
+    //Keys and clusters that aren't in the bcast should simply not be found
+    assertFalse("Unknown cluster should not be found", client.search(0, "OMEGA", MockDataBlockFactory.generateKey(1), result));
+    assertFalse("Result should be cleared", result.isFound());
+    assertFalse("Key outside the cluster should not be found",
+        client.search(0, "CLUSTER2", MockDataBlockFactory.generateKey(250), result));
+    assertEquals("Missing data should have no position", -1, result.getDataPos());
+  }
+
+  /**
+   * Make sure missing keys aren't found in a flat bcast, and that a found key lands on a data block.
+   */
+  @Test
+  public void testFlatClientMissingKeys() {
+    System.out.println ("**********  testFlatClientMissingKeys()  **********");
+    Broadcast broadcast = buildFlat(200);
+    BroadcastClient client = new BroadcastClient(broadcast);
+    QueryResult result = new QueryResult();
+
+    for (int startPos = 0; startPos < broadcast.getBlockCount(); startPos++) {
+      assertFalse("Key after the last key should not be found", client.search(startPos, "~~~~", result));
+      assertFalse("Key before the first key should not be found", client.search(startPos, "", result));
+      assertTrue("Known key should be found", client.search(startPos, MockDataBlockFactory.generateKey(77), result));
+      assertEquals("Found key should be in a data block", "DATA_BLOCK", broadcast.getBlockType(result.getDataPos()).name());
+    }
+  }
+
+  /**
+   * Run a large number of searches and make sure they do not allocate.  The throughput is printed for
+   * reference.
+   */
+  @Test
+  public void testClientSearchDoesNotAllocate() {
+    System.out.println ("**********  testClientSearchDoesNotAllocate()  **********");
+    Broadcast broadcast = buildFlat(20000);
+    BroadcastClient client = new BroadcastClient(broadcast);
+    QueryResult result = new QueryResult();
+
+    int[] searchOrdinals = new int[1024];
+    for (int keyPos = 0; keyPos < searchOrdinals.length; keyPos++)
+      searchOrdinals[keyPos] = broadcast.getKeyDictionary().getOrdinal(MockDataBlockFactory.generateKey((keyPos * 19) % 20000));
+
+    int searches = 2000000;
+    long accessTotal = runSearches(client, searchOrdinals, result, searches);
+
+    ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+    long beforeBytes = allocatedBytes(threadBean);
+    long startTime   = System.nanoTime();
+    accessTotal     += runSearches(client, searchOrdinals, result, searches);
+    long searchTime  = System.nanoTime() - startTime;
+    long afterBytes  = allocatedBytes(threadBean);
+
+    System.out.println ("Searches: " + searches + "  ns/search: " + (searchTime / searches) + "  Checksum: " + accessTotal);
+    if ((beforeBytes >= 0) && (afterBytes >= 0)) {
+      System.out.println ("Bytes allocated: " + (afterBytes - beforeBytes));
+      assertTrue("Searches should not allocate: " + (afterBytes - beforeBytes), (afterBytes - beforeBytes) < 1024);
+    }
+  }
+
+  /**
+   * Helper method to run a batch of flat searches, spreading the start positions over the bcast.
+   */
+  private long runSearches(BroadcastClient client, int[] searchOrdinals, QueryResult result, int searches) {
+    int blockCount   = client.getBroadcast().getBlockCount();
+    long accessTotal = 0;
+    for (int searchCtr = 0; searchCtr < searches; searchCtr++) {
+      client.search((int)(((long)searchCtr * 7919) % blockCount), searchOrdinals[searchCtr & 1023], result);
+      accessTotal += result.getAccessTime();
+    }
+    return accessTotal;
+  }
+
+  /**
+   * Helper method to read the bytes allocated by this thread, if the JVM supports it.
+   *
+   * @return The bytes allocated so far, or -1 if not supported
+   */
+  private long allocatedBytes(ThreadMXBean threadBean) {
+    if (threadBean instanceof com.sun.management.ThreadMXBean)
+      return ((com.sun.management.ThreadMXBean)threadBean).getThreadAllocatedBytes(Thread.currentThread().getId());
+    return -1;
+  }
+
+  /**
+   * Helper method to build a flat bcast.
+   */
+  private Broadcast buildFlat(int dataBlockCount) {
+    BroadcastBuilder builder = new FlatBroadcastBuilder(2, 10, false);
+    builder.setUseKeyDictionary(true);
+    builder.assignDataBlocks(MockDataBlockFactory.generateSortedBlocks("FLAT", dataBlockCount));
+    builder.constructGlobalIndices();
+    return builder.assembleBroadcast();
+  }
+}
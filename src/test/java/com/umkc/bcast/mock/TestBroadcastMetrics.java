@@ -0,0 +1,217 @@
+package com.umkc.bcast.mock;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+import com.umkc.bcast.BroadcastBuilder;
+import com.umkc.bcast.data.Broadcast;
+import com.umkc.bcast.data.mock.MockDataBlockFactory;
+import com.umkc.bcast.metrics.BroadcastMetrics;
+import com.umkc.bcast.metrics.LogHistogram;
+import com.umkc.bcast.metrics.MetricSeries;
+import com.umkc.bcast.metrics.QueryMetric;
+import com.umkc.bcast.sim.ExhaustiveSimulator;
+import com.umkc.bcast.sim.SimulationResult;
+import com.umkc.bcast.sim.TimeHistogram;
+import com.umkc.bcast.util.ClusteredBroadcastBuilder;
+import com.umkc.bcast.util.FlatBroadcastBuilder;
+
+/**
+ * This test class checks the log bucketed histograms against exact counts, recorded from several threads
+ * at once, and checks that the metrics recorded by the exhaustive simulator agree with its exact results
+ * and come out in both export formats.
+ *
+ * @author ac010168
+ *
+ */
+public class TestBroadcastMetrics {
+
+  /**
+   * Record the same values into a shared histogram from several threads, and into one histogram per
+   * thread that are merged afterwards, and compare both to the exact percentiles.
+   */
+  @Test
+  public void testLogHistogram() throws InterruptedException {
+    System.out.println ("**********  testLogHistogram()  **********");
+
+    //Every bucket should start where the last one ended
+    for (int bucketPos = 0; bucketPos < LogHistogram.BUCKET_COUNT - 1; bucketPos++) {
+      assertEquals("Buckets should be contiguous", LogHistogram.getBucketUpperBound(bucketPos) + 1, LogHistogram.getBucketLowerBound(bucketPos + 1));
+      assertEquals("Lower bound should map back", bucketPos, LogHistogram.getBucketIndex(LogHistogram.getBucketLowerBound(bucketPos)));
+      assertEquals("Upper bound should map back", bucketPos, LogHistogram.getBucketIndex(LogHistogram.getBucketUpperBound(bucketPos)));
+    }
+    assertEquals("Every int should fit", LogHistogram.BUCKET_COUNT - 1, LogHistogram.getBucketIndex(Integer.MAX_VALUE));
+
+    final int threadCount     = 4;
+    final int valuesPerThread = 50000;
+    final LogHistogram sharedHistogram = new LogHistogram();
+    final LogHistogram[] threadHistograms = new LogHistogram[threadCount];
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int threadPos = 0; threadPos < threadCount; threadPos++) {
+      final int firstValue = threadPos * valuesPerThread;
+      final LogHistogram threadHistogram = new LogHistogram();
+      threadHistograms[threadPos] = threadHistogram;
+      threads.add(new Thread(new Runnable() {
+        @Override
+        public void run() {
+          for (int value = firstValue; value < firstValue + valuesPerThread; value++) {
+            sharedHistogram.record(value);
+            threadHistogram.record(value);
+          }
+        }
+      }));
+    }
+    for (Thread thread : threads)
+      thread.start();
+    for (Thread thread : threads)
+      thread.join();
+
+    LogHistogram mergedHistogram = new LogHistogram();
+    for (LogHistogram threadHistogram : threadHistograms)
+      mergedHistogram.merge(threadHistogram);
+
+    int totalValues = threadCount * valuesPerThread;
+    System.out.println ("Shared: " + sharedHistogram);
+    System.out.println ("Merged: " + mergedHistogram);
+    for (LogHistogram histogram : new LogHistogram[] {sharedHistogram, mergedHistogram}) {
+      assertEquals("Every value should be counted", totalValues, histogram.getTotalCount());
+      assertEquals("Totals should be exact", (long)totalValues * (totalValues - 1) / 2, histogram.getTotalValue());
+      assertEquals("Min should be exact", 0, histogram.getMinValue());
+      assertEquals("Max should be exact", totalValues - 1, histogram.getMaxValue());
+      for (double percentile : new double[] {1, 50, 90, 99, 99.9, 100}) {
+        int exactValue = (int)Math.ceil(percentile / 100.0 * totalValues) - 1;
+        int value      = histogram.getValueAtPercentile(percentile);
+        assertTrue("p" + percentile + " should not be below " + exactValue + ": " + value, value >= exactValue);
+        assertTrue("p" + percentile + " should be within 12.5% of " + exactValue + ": " + value, value <= exactValue * 1.125 + 1);
+      }
+    }
+    for (int bucketPos = 0; bucketPos < LogHistogram.BUCKET_COUNT; bucketPos++) {
+      int lowerBound = LogHistogram.getBucketLowerBound(bucketPos);
+      assertEquals("Shared and merged should match", sharedHistogram.getBucketCount(lowerBound), mergedHistogram.getBucketCount(lowerBound));
+    }
+
+    //Small values each have their own bucket, so they are exact
+    LogHistogram smallHistogram = new LogHistogram();
+    for (int value : new int[] {1, 2, 2, 3, 3, 3, 7, 15})
+      smallHistogram.record(value);
+    assertEquals("Small values should be exact", 3, smallHistogram.getValueAtPercentile(50));
+    assertEquals("Small values should be exact", 7, smallHistogram.getValueAtPercentile(87.5));
+    assertEquals("Small values should be exact", 15, smallHistogram.getValueAtPercentile(99.9));
+  }
+
+  /**
+   * Record an exhaustive simulation of a flat and a clustered bcast into one set of metrics, and check
+   * them against the exact simulation results and the exports.
+   */
+  @Test
+  public void testSimulationMetrics() throws IOException {
+    System.out.println ("**********  testSimulationMetrics()  **********");
+
+    BroadcastBuilder flatBuilder = new FlatBroadcastBuilder(2, 10, false);
+    flatBuilder.setUseKeyDictionary(true);
+    flatBuilder.assignDataBlocks(MockDataBlockFactory.generateSortedBlocks("FLAT", 1000));
+    flatBuilder.constructGlobalIndices();
+
+    BroadcastBuilder clusteredBuilder = new ClusteredBroadcastBuilder(2, 10, false);
+    clusteredBuilder.setUseKeyDictionary(true);
+    List<String> clusterOrder = new ArrayList<String>();
+    int[] clusterSizes = {400, 100, 300};
+    for (int clusterPos = 0; clusterPos < clusterSizes.length; clusterPos++) {
+      clusterOrder.add("CLUSTER" + clusterPos);
+      clusteredBuilder.assignDataBlocks(MockDataBlockFactory.generateSortedBlocks("CLUSTER" + clusterPos, clusterSizes[clusterPos]));
+    }
+    clusteredBuilder.addClusterKeys(clusterOrder);
+    clusteredBuilder.constructGlobalIndices();
+
+    BroadcastMetrics metrics    = new BroadcastMetrics();
+    ForkJoinPool simulationPool = new ForkJoinPool(Math.max(2, Runtime.getRuntime().availableProcessors()));
+    SimulationResult flatResult;
+    SimulationResult clusteredResult;
+    try {
+      flatResult      = simulate(flatBuilder.assembleBroadcast(), "FLAT", metrics, simulationPool);
+      clusteredResult = simulate(clusteredBuilder.assembleBroadcast(), "CLUSTERED", metrics, simulationPool);
+    } finally {
+      simulationPool.shutdown();
+    }
+    System.out.println (metrics);
+
+    assertEquals("Both builder types should be recorded", 2, metrics.getBuilderTypes().size());
+    assertEquals("Flat bcasts should have a single series", BroadcastMetrics.NO_CLUSTER, metrics.getSeriesList().get(3).getClusterGroup());
+    for (int clusterPos = 0; clusterPos < clusterSizes.length; clusterPos++) {
+      MetricSeries series = metrics.getSeries("CLUSTERED", "CLUSTER" + clusterPos);
+      assertEquals("Each cluster should be split out", clusterSizes[clusterPos] * (long)clusteredBuilder.assembleBroadcast().getBlockCount(),
+          series.getHistogram(QueryMetric.ACCESS_TIME).getTotalCount());
+    }
+    compareSeries(flatResult, metrics.getCombinedSeries("FLAT"));
+    compareSeries(clusteredResult, metrics.getCombinedSeries("CLUSTERED"));
+
+    StringWriter csvWriter = new StringWriter();
+    metrics.writeCsv(csvWriter);
+    String[] csvLines = csvWriter.toString().split("\n");
+    assertEquals("One header row, then a row per metric for 2 combined and 4 cluster series",
+        1 + (6 * QueryMetric.values().length), csvLines.length);
+    assertTrue("Header should name the percentiles", csvLines[0].contains(",p50,p99,p99_9,"));
+    assertTrue("Combined rows should come first", csvLines[1].startsWith("CLUSTERED,*,access_time,"));
+
+    StringWriter jsonWriter = new StringWriter();
+    metrics.writeJson(jsonWriter);
+    String json = jsonWriter.toString();
+    assertTrue("JSON should be an array", json.startsWith("[") && json.trim().endsWith("]"));
+    assertTrue("JSON should hold the flat series", json.contains("{\"builder_type\": \"FLAT\", \"cluster\": \"\""));
+    assertTrue("JSON should hold every metric", json.contains("\"doze_length\": {\"count\": "));
+    assertEquals("JSON should have one object per series", 6, json.split("\"builder_type\"").length - 1);
+  }
+
+  /**
+   * Helper method to run an exhaustive simulation with metrics.
+   */
+  private SimulationResult simulate(Broadcast broadcast, String builderType, BroadcastMetrics metrics, ForkJoinPool simulationPool) {
+    ExhaustiveSimulator simulator = new ExhaustiveSimulator(broadcast);
+    simulator.setSimulationPool(simulationPool);
+    simulator.setMetrics(metrics, builderType);
+    return simulator.simulate();
+  }
+
+  /**
+   * Helper method to check a combined series against the exact simulation results.
+   */
+  private void compareSeries(SimulationResult expected, MetricSeries series) {
+    assertEquals("Every search should be recorded", expected.getFoundCount() + expected.getFailedCount(), series.getQueryCount());
+    assertEquals("Failures should match", expected.getFailedCount(), series.getFailedCount());
+    compareHistogram(expected.getAccessTimes(), series.getHistogram(QueryMetric.ACCESS_TIME));
+    compareHistogram(expected.getTuningTimes(), series.getHistogram(QueryMetric.TUNING_TIME));
+
+    //Every search reads index blocks until the data block, and dozes after tuning in and after each index read
+    LogHistogram indexReads = series.getHistogram(QueryMetric.INDEX_BLOCKS_READ);
+    assertEquals("Index reads should be recorded once per search", series.getQueryCount(), indexReads.getTotalCount());
+    assertEquals("Tuning time is the tune in block, the index reads and the data block",
+        expected.getTuningTimes().getTotalTime(), indexReads.getTotalValue() + (2 * series.getQueryCount()));
+    LogHistogram dozeLengths = series.getHistogram(QueryMetric.DOZE_LENGTH);
+    assertEquals("There should be a doze after tuning in and after each index read",
+        indexReads.getTotalValue() + series.getQueryCount(), dozeLengths.getTotalCount());
+    assertEquals("Access time is the tuning time plus the dozes",
+        expected.getAccessTimes().getTotalTime(), expected.getTuningTimes().getTotalTime() + dozeLengths.getTotalValue());
+  }
+
+  /**
+   * Helper method to check a log histogram against the exact histogram of the same values.
+   */
+  private void compareHistogram(TimeHistogram expected, LogHistogram actual) {
+    assertEquals("Counts should match", expected.getTotalCount(), actual.getTotalCount());
+    assertEquals("Totals should match", expected.getTotalTime(), actual.getTotalValue());
+    assertEquals("Max should match", expected.getMaxTime(), actual.getMaxValue());
+    for (double percentile : new double[] {50, 99, 99.9}) {
+      int exactValue = expected.getValueAtPercentile(percentile);
+      int value      = actual.getValueAtPercentile(percentile);
+      assertEquals("p" + percentile + " should share a bucket with the exact value",
+          LogHistogram.getBucketIndex(exactValue), LogHistogram.getBucketIndex(value));
+    }
+  }
+}
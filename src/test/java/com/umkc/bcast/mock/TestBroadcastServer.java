@@ -0,0 +1,280 @@
+package com.umkc.bcast.mock;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import com.umkc.bcast.BroadcastBuilder;
+import com.umkc.bcast.data.Block;
+import com.umkc.bcast.data.DataBlock;
+import com.umkc.bcast.data.mock.MockDataBlockFactory;
+import com.umkc.bcast.io.BlockCodec;
+import com.umkc.bcast.server.BlockRingBuffer;
+import com.umkc.bcast.server.BroadcastServer;
+import com.umkc.bcast.server.CycleBuild;
+import com.umkc.bcast.server.RingListener;
+import com.umkc.bcast.util.FlatBroadcastBuilder;
+
+/**
+ * This test class checks the ring buffer on its own, then runs the broadcast server with several
+ * listeners and checks that every block they read is the right block for its place in the cycle, and
+ * that the throttled server never runs ahead of its configured rate.  It also swaps in a cycle built in
+ * the background, and makes sure the swap lands cleanly on the cycle boundary.
+ *
+ * @author ac010168
+ *
+ */
+public class TestBroadcastServer {
+
+  /**
+   * Publish into a small ring, and make sure a listener reads in order until it is lapped, then skips
+   * ahead and counts the blocks it missed.
+   */
+  @Test
+  public void testRingBufferOrderAndOverrun() {
+    System.out.println ("**********  testRingBufferOrderAndOverrun()  **********");
+    List<Block> cycle = buildCycle(40);
+    BlockRingBuffer ringBuffer = new BlockRingBuffer(6);
+    assertEquals("Capacity should round up to a power of 2", 8, ringBuffer.getCapacity());
+
+    RingListener listener = ringBuffer.subscribe();
+    assertFalse("Nothing has been published yet", listener.poll());
+
+    for (int cyclePos = 0; cyclePos < 5; cyclePos++)
+      ringBuffer.publish(cycle.get(cyclePos), cyclePos);
+    for (int cyclePos = 0; cyclePos < 5; cyclePos++) {
+      assertTrue("Block " + cyclePos + " should be readable", listener.poll());
+      assertEquals("Blocks should come out in order", cyclePos, listener.getSequence());
+      assertSame("Block should match the cycle", cycle.get(cyclePos), listener.getBlock());
+    }
+    assertFalse("Listener has caught up", listener.poll());
+
+    //Lap the listener
+    for (int cyclePos = 5; cyclePos < 25; cyclePos++)
+      ringBuffer.publish(cycle.get(cyclePos), cyclePos);
+    assertTrue("Listener should skip ahead", listener.poll());
+    long firstSequence = listener.getSequence();
+    assertTrue("Listener should land inside the ring", firstSequence > 24 - ringBuffer.getCapacity());
+    assertEquals("Skipped blocks should be counted", firstSequence - 5, listener.getMissedCount());
+    while (listener.poll())
+      assertEquals("Cycle position should follow the sequence", listener.getSequence(), listener.getCyclePos());
+    assertEquals("Listener should finish at the last block", 24, listener.getSequence());
+  }
+
+  /**
+   * Race a listener against the producer at the head of a ring far too big to lap, and make sure a slot
+   * caught mid publish is read again rather than counted as missed.
+   */
+  @Test
+  public void testListenerAtHeadIsNeverLapped() throws InterruptedException {
+    System.out.println ("**********  testListenerAtHeadIsNeverLapped()  **********");
+    final List<Block> cycle = buildCycle(40);
+    final int publishCount  = 200000;
+    for (int runCtr = 0; runCtr < 20; runCtr++) {
+      final BlockRingBuffer ringBuffer = new BlockRingBuffer(publishCount * 2);
+      RingListener listener = ringBuffer.subscribe();
+      Thread producer = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          for (int sequence = 0; sequence < publishCount; sequence++)
+            ringBuffer.publish(cycle.get(sequence % cycle.size()), sequence % cycle.size());
+        }
+      });
+      producer.start();
+
+      long expectedSequence = 0;
+      while (expectedSequence < publishCount) {
+        if (!listener.poll())
+          continue;
+        assertEquals("No blocks should be skipped", expectedSequence, listener.getSequence());
+        assertSame("Block should match the cycle", cycle.get((int)(expectedSequence % cycle.size())), listener.getBlock());
+        expectedSequence++;
+      }
+      producer.join();
+      assertEquals("A listener that can't be lapped should never miss a block", 0, listener.getMissedCount());
+    }
+  }
+
+  /**
+   * Run the server unthrottled with several listener threads, and check everything they read.
+   */
+  @Test
+  public void testUnthrottledListenersReadConsistentBlocks() throws InterruptedException {
+    System.out.println ("**********  testUnthrottledListenersReadConsistentBlocks()  **********");
+    final List<Block> cycle = buildCycle(500);
+    BroadcastServer server  = new BroadcastServer(cycle, 1024);
+
+    int listenerCount = 3;
+    final RingListener[] listeners = new RingListener[listenerCount];
+    final long[] readCounts        = new long[listenerCount];
+    final String[] errors          = new String[listenerCount];
+    Thread[] listenerThreads       = new Thread[listenerCount];
+    for (int listenerPos = 0; listenerPos < listenerCount; listenerPos++) {
+      listeners[listenerPos] = server.subscribe();
+      final int myPos = listenerPos;
+      listenerThreads[listenerPos] = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          RingListener listener = listeners[myPos];
+          long lastSequence     = -1;
+          while (readCounts[myPos] < 20000) {
+            if (!listener.await(1000000000L)) {
+              errors[myPos] = "Timed out waiting for a block";
+              return;
+            }
+            if (listener.getSequence() <= lastSequence) {
+              errors[myPos] = "Sequence went backwards at " + listener.getSequence();
+              return;
+            }
+            if ((listener.getSequence() % cycle.size() != listener.getCyclePos()) ||
+                (listener.getBlock() != cycle.get(listener.getCyclePos()))) {
+              errors[myPos] = "Inconsistent block at sequence " + listener.getSequence();
+              return;
+            }
+            lastSequence = listener.getSequence();
+            readCounts[myPos]++;
+          }
+        }
+      });
+    }
+
+    for (Thread listenerThread : listenerThreads)
+      listenerThread.start();
+    server.start();
+    for (Thread listenerThread : listenerThreads)
+      listenerThread.join(30000);
+    server.stop();
+
+    System.out.println ("Published: " + server.getPublishedCount() + "  Cycles: " + server.getCycleCount());
+    for (int listenerPos = 0; listenerPos < listenerCount; listenerPos++) {
+      System.out.println ("Listener " + listenerPos + "  Read: " + readCounts[listenerPos] + "  Missed: " + listeners[listenerPos].getMissedCount());
+      assertNull(errors[listenerPos], errors[listenerPos]);
+      assertEquals("Listener should have read every block it wanted", 20000, readCounts[listenerPos]);
+    }
+  }
+
+  /**
+   * Run the server at fixed block and byte rates, and make sure it keeps to them.
+   */
+  @Test
+  public void testThrottledServerKeepsRate() throws InterruptedException {
+    System.out.println ("**********  testThrottledServerKeepsRate()  **********");
+    BroadcastBuilder builder = new FlatBroadcastBuilder(2, 10, false);
+    builder.setUseKeyDictionary(true);
+    builder.assignDataBlocks(MockDataBlockFactory.generateSortedBlocks("FLAT", 200));
+    builder.constructGlobalIndices();
+    List<Block> cycle = builder.assembleBcast();
+
+    double blockRate = 20000;
+    BroadcastServer server = new BroadcastServer(cycle, 256);
+    server.setBlockRate(blockRate);
+    long startTime = System.nanoTime();
+    server.start();
+    Thread.sleep(300);
+    server.stop();
+    double elapsedSeconds = (System.nanoTime() - startTime) / 1000000000.0;
+
+    System.out.println ("Block rate: published " + server.getPublishedCount() + " in " + elapsedSeconds + "s  Late: " +
+        server.getLateCount() + "  Max lag us: " + (server.getMaxLagNanos() / 1000));
+    assertTrue("Server should never run ahead of its rate", server.getPublishedCount() <= (blockRate * elapsedSeconds) + 1);
+    assertTrue("Server should roughly keep up with its rate", server.getPublishedCount() >= (blockRate * elapsedSeconds) / 2);
+
+    BlockCodec blockCodec = new BlockCodec(builder);
+    long cycleBytes = 0;
+    for (Block block : cycle)
+      cycleBytes += blockCodec.getEncodedLength(block);
+    double byteRate = cycleBytes * 20.0;
+
+    server.setByteRate(byteRate, blockCodec);
+    startTime = System.nanoTime();
+    server.start();
+    Thread.sleep(300);
+    server.stop();
+    elapsedSeconds = (System.nanoTime() - startTime) / 1000000000.0;
+
+    System.out.println ("Byte rate: sent " + server.getCycleCount() + " full cycles in " + elapsedSeconds + "s at 20 cycles/s");
+    assertTrue("Server should never run ahead of its rate", server.getCycleCount() <= (20.0 * elapsedSeconds) + 1);
+    assertTrue("Server should roughly keep up with its rate", server.getCycleCount() >= 2);
+  }
+
+  /**
+   * Build a new cycle in the background while the server is on air, and make sure the listener sees the
+   * old cycle right up to its last block, then the new cycle from its first, with nothing skipped.
+   */
+  @Test
+  public void testNextCycleSwapsAtBoundary() throws Exception {
+    System.out.println ("**********  testNextCycleSwapsAtBoundary()  **********");
+    List<Block> oldCycle = buildCycle(100);
+    final BroadcastServer server = new BroadcastServer(oldCycle, 4096);
+    server.setBlockRate(20000);
+
+    final int readCount           = 20000;
+    final Block[] readBlocks      = new Block[readCount];
+    final int[] readPositions     = new int[readCount];
+    final long[] readSequences    = new long[readCount];
+    final RingListener listener   = server.subscribe();
+    Thread listenerThread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        for (int readPos = 0; readPos < readCount; readPos++) {
+          if (!listener.await(1000000000L))
+            return;
+          readBlocks[readPos]    = listener.getBlock();
+          readPositions[readPos] = listener.getCyclePos();
+          readSequences[readPos] = listener.getSequence();
+        }
+      }
+    });
+    listenerThread.start();
+    server.start();
+    Thread.sleep(100);
+
+    //The new data has different keys, so every block in the new cycle is different
+    List<DataBlock> newData = MockDataBlockFactory.generateSortedBlocks("NEWFLAT", 150);
+    int firstOffset         = newData.get(0).getNextIndexOffset();
+    ExecutorService buildExecutor = Executors.newSingleThreadExecutor();
+    Future<List<Block>> buildFuture = server.buildNextCycle(new CycleBuild(new FlatBroadcastBuilder(2, 10, false), newData), buildExecutor);
+    List<Block> newCycle = buildFuture.get();
+    buildExecutor.shutdown();
+
+    listenerThread.join(30000);
+    server.stop();
+    assertEquals("The data passed in should be left alone", firstOffset, newData.get(0).getNextIndexOffset());
+    assertNotSame("The build should work on copies of the data", newData.get(0), newCycle.get(2));
+    assertEquals("The new cycle should have gone on air once", 1, server.getSwapCount());
+    assertSame("The new cycle should be on air", newCycle, server.getCycle());
+    assertEquals("The listener should not have missed anything", 0, listener.getMissedCount());
+
+    int swapPos = -1;
+    List<Block> expectedCycle = oldCycle;
+    for (int readPos = 0; readPos < readCount; readPos++) {
+      assertNotNull("Listener timed out at " + readPos, readBlocks[readPos]);
+      assertEquals("Sequence should have no gaps", readSequences[0] + readPos, readSequences[readPos]);
+      if ((expectedCycle == oldCycle) && (readPos > 0) && (readBlocks[readPos] == newCycle.get(0))) {
+        assertEquals("Old cycle should finish before the swap", oldCycle.size() - 1, readPositions[readPos - 1]);
+        swapPos       = readPos;
+        expectedCycle = newCycle;
+      }
+      if (readPos > 0)
+        assertEquals("Cycle position should follow on", (readPositions[readPos - 1] + 1) % (readPos == swapPos ? oldCycle.size() : expectedCycle.size()), readPositions[readPos]);
+      assertSame("Block should belong to the cycle on air", expectedCycle.get(readPositions[readPos]), readBlocks[readPos]);
+    }
+    System.out.println ("Swapped from " + oldCycle.size() + " to " + newCycle.size() + " blocks at read " + swapPos);
+    assertTrue("Listener should have seen the swap", swapPos > 0);
+  }
+
+  /**
+   * Helper method to build a simple flat cycle.
+   */
+  private List<Block> buildCycle(int dataBlockCount) {
+    BroadcastBuilder builder = new FlatBroadcastBuilder(2, 10, false);
+    builder.assignDataBlocks(MockDataBlockFactory.generateSortedBlocks("FLAT", dataBlockCount));
+    builder.constructGlobalIndices();
+    return builder.assembleBcast();
+  }
+}
@@ -0,0 +1,140 @@
+package com.umkc.bcast.mock;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.umkc.bcast.BroadcastBuilder;
+import com.umkc.bcast.data.DataBlock;
+import com.umkc.bcast.data.mock.MockDataBlockFactory;
+import com.umkc.bcast.util.ClusteredBroadcastBuilder;
+import com.umkc.bcast.util.SkewedClusteredBroadcastBuilder;
+
+/**
+ * This test class builds clustered bcasts of doubling sizes, and checks that the build time per bucket
+ * stays roughly flat, rather than growing with the size of the bcast.
+ *
+ * <p>The default sizes keep the test quick.  To run the full scale, pass the limits in as system
+ * properties, along with enough heap for the data blocks:
+ * <pre>
+ *   mvn test -Dtest=TestBuildScaling -Dbcast.scaling.maxBlocks=10000000 -Dbcast.scaling.maxClusters=10000 -DargLine=-Xmx16g
+ * </pre>
+ *
+ * @author ac010168
+ *
+ */
+public class TestBuildScaling {
+
+  /** The number of doubling steps in each run */
+  private static final int SCALING_STEPS = 4;
+  /** The largest allowed growth in per bucket build time from the smallest to the largest step */
+  private static final double MAXIMUM_GROWTH = 4.0;
+
+  /**
+   * Grow the number of data blocks while keeping the number of clusters fixed.  A few large clusters
+   * is the worst case for per cluster costs.
+   */
+  @Test
+  public void testDataBlockScaling() {
+    System.out.println ("**********  testDataBlockScaling()  **********");
+    int maxBlocks    = Integer.getInteger("bcast.scaling.maxBlocks", 800000);
+    int clusterCount = 10;
+
+    //Warm up once, so the smallest step isn't penalised for being first
+    buildClustered(clusterCount, (maxBlocks >> SCALING_STEPS) / clusterCount);
+
+    double[] nanosPerBucket = new double[SCALING_STEPS];
+    for (int step = 0; step < SCALING_STEPS; step++) {
+      int blockCount = maxBlocks >> (SCALING_STEPS - 1 - step);
+      nanosPerBucket[step] = buildClustered(clusterCount, blockCount / clusterCount);
+      System.out.println ("Data Blocks: " + blockCount + "  Clusters: " + clusterCount +
+          "  ns/bucket: " + String.format("%.0f", nanosPerBucket[step]));
+    }
+
+    checkGrowth(nanosPerBucket);
+  }
+
+  /**
+   * Grow the number of entries in a skewed cluster order.  Every cluster is repeated, which exercises
+   * the duplicate handling as well as the cluster index.
+   */
+  @Test
+  public void testClusterOrderScaling() {
+    System.out.println ("**********  testClusterOrderScaling()  **********");
+    int maxClusters   = Integer.getInteger("bcast.scaling.maxClusters", 10000);
+    int distinctCount = 100;
+
+    buildSkewed(distinctCount, maxClusters >> SCALING_STEPS);
+
+    double[] nanosPerBucket = new double[SCALING_STEPS];
+    for (int step = 0; step < SCALING_STEPS; step++) {
+      int orderLength = maxClusters >> (SCALING_STEPS - 1 - step);
+      nanosPerBucket[step] = buildSkewed(distinctCount, orderLength);
+      System.out.println ("Cluster Order: " + orderLength + "  Distinct Clusters: " + distinctCount +
+          "  ns/bucket: " + String.format("%.0f", nanosPerBucket[step]));
+    }
+
+    checkGrowth(nanosPerBucket);
+  }
+
+  /**
+   * Helper method to build a clustered bcast and time it.
+   *
+   * @return The build time per bucket, in nanoseconds
+   */
+  private double buildClustered(int clusterCount, int blocksPerCluster) {
+    List<String> clusterOrder = new ArrayList<String>();
+    List<List<DataBlock>> clusterBlocks = new ArrayList<List<DataBlock>>();
+    for (int clusterPos = 0; clusterPos < clusterCount; clusterPos++) {
+      clusterOrder.add("CLUSTER" + clusterPos);
+      clusterBlocks.add(MockDataBlockFactory.generateSortedBlocks("CLUSTER" + clusterPos, blocksPerCluster));
+    }
+    System.gc();
+
+    long startTime = System.nanoTime();
+    BroadcastBuilder builder = new ClusteredBroadcastBuilder(2, 10, false);
+    for (List<DataBlock> dataBlocks : clusterBlocks)
+      builder.assignDataBlocks(dataBlocks);
+    builder.addClusterKeys(clusterOrder);
+    builder.constructGlobalIndices();
+    long buildNanos = System.nanoTime() - startTime;
+
+    return (double)buildNanos / builder.viewBcast().size() * (10 + 2);
+  }
+
+  /**
+   * Helper method to build a skewed bcast, where every cluster is a single bucket that is repeated
+   * throughout the order, and time it.
+   *
+   * @return The build time per bucket, in nanoseconds
+   */
+  private double buildSkewed(int distinctCount, int orderLength) {
+    List<String> clusterOrder = new ArrayList<String>(orderLength);
+    for (int clusterPos = 0; clusterPos < orderLength; clusterPos++)
+      clusterOrder.add("CLUSTER" + (clusterPos % distinctCount));
+    System.gc();
+
+    long startTime = System.nanoTime();
+    BroadcastBuilder builder = new SkewedClusteredBroadcastBuilder(2, 10, false);
+    for (int clusterPos = 0; clusterPos < distinctCount; clusterPos++)
+      builder.assignDataBlocks(MockDataBlockFactory.generateSortedBlocks("CLUSTER" + clusterPos, 10));
+    builder.addClusterKeys(clusterOrder);
+    builder.constructGlobalIndices();
+    long buildNanos = System.nanoTime() - startTime;
+
+    return (double)buildNanos / orderLength;
+  }
+
+  /**
+   * Helper method to check that the per bucket build time has not grown too much.
+   */
+  private void checkGrowth(double[] nanosPerBucket) {
+    double growth = nanosPerBucket[nanosPerBucket.length - 1] / nanosPerBucket[0];
+    System.out.println ("Growth in ns/bucket over " + (1 << (nanosPerBucket.length - 1)) + "x the size: " + String.format("%.2f", growth) + "x");
+    assertTrue("The build time per bucket should stay roughly flat, but grew " + String.format("%.2f", growth) + "x",
+        growth < MAXIMUM_GROWTH);
+  }
+}
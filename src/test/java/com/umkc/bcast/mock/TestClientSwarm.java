@@ -0,0 +1,99 @@
+package com.umkc.bcast.mock;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import com.umkc.bcast.BroadcastBuilder;
+import com.umkc.bcast.data.Broadcast;
+import com.umkc.bcast.data.mock.MockDataBlockFactory;
+import com.umkc.bcast.metrics.BroadcastMetrics;
+import com.umkc.bcast.metrics.LogHistogram;
+import com.umkc.bcast.metrics.MetricSeries;
+import com.umkc.bcast.metrics.QueryMetric;
+import com.umkc.bcast.sim.BroadcastClock;
+import com.umkc.bcast.sim.ClientSwarm;
+import com.umkc.bcast.sim.SearchKeys;
+import com.umkc.bcast.sim.SwarmResult;
+import com.umkc.bcast.util.FlatBroadcastBuilder;
+
+/**
+ * This test class runs a swarm of clients against a live clock and checks that every client finishes.
+ * Virtual threads are used when the runtime has them, and the swarm is much larger in that case.  The
+ * throughput, jitter and percentiles are printed for reference, since they depend on the machine.
+ *
+ * @author ac010168
+ *
+ */
+public class TestClientSwarm {
+
+  /**
+   * Run a swarm against a small flat bcast.
+   */
+  @Test
+  public void testSwarmFinds() {
+    System.out.println ("**********  testSwarmFinds()  **********");
+
+    BroadcastBuilder builder = new FlatBroadcastBuilder(2, 10, false);
+    builder.setUseKeyDictionary(true);
+    builder.assignDataBlocks(MockDataBlockFactory.generateSortedBlocks("FLAT", 200));
+    builder.constructGlobalIndices();
+    Broadcast broadcast = builder.assembleBroadcast();
+
+    BroadcastClock clock = new BroadcastClock(100000);
+    clock.start();
+    try {
+      ClientSwarm swarm = new ClientSwarm(broadcast, clock);
+      int clientCount   = swarm.isVirtualThreads() ? 100000 : 2000;
+      BroadcastMetrics metrics = new BroadcastMetrics();
+      swarm.setMetrics(metrics, "FLAT");
+      SwarmResult result = swarm.run(clientCount, SearchKeys.fromBroadcast(broadcast), 7741);
+      System.out.println (result);
+
+      assertEquals("Every client should find its key", clientCount, result.getSearchTimes().getFoundCount());
+      assertEquals("Every client should finish", 0, result.getSearchTimes().getFailedCount());
+      assertTrue("A search reads at least a global index, a local index and a data block",
+          result.getSearchTimes().getTuningTimes().getMinTime() >= 4);
+      assertTrue("Clients should have woken up for their blocks", result.getWakeJitterMicros().getTotalCount() > 0);
+
+      //The metrics should agree with the search times, and account for every block each client was awake for
+      MetricSeries series = metrics.getSeries("FLAT", BroadcastMetrics.NO_CLUSTER);
+      assertEquals("Every client should be recorded", clientCount, series.getQueryCount());
+      assertEquals("Access times should match", result.getSearchTimes().getAccessTimes().getTotalTime(),
+          series.getHistogram(QueryMetric.ACCESS_TIME).getTotalValue());
+      LogHistogram indexReads = series.getHistogram(QueryMetric.INDEX_BLOCKS_READ);
+      assertEquals("Tuning time is the tune in block, the index reads and the data block",
+          result.getSearchTimes().getTuningTimes().getTotalTime(), indexReads.getTotalValue() + (2L * clientCount));
+      assertEquals("There should be a doze after tuning in and after each index read",
+          indexReads.getTotalValue() + clientCount, series.getHistogram(QueryMetric.DOZE_LENGTH).getTotalCount());
+    } finally {
+      clock.stop();
+    }
+  }
+
+  /**
+   * A client waiting on a stopped clock should give up rather than hang.
+   */
+  @Test
+  public void testStoppedClockReleasesWaiters() throws InterruptedException {
+    System.out.println ("**********  testStoppedClockReleasesWaiters()  **********");
+    final BroadcastClock clock = new BroadcastClock(1000000000L);
+    clock.start();
+
+    final boolean[] reached = new boolean[] { true };
+    Thread waiter = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        reached[0] = clock.awaitTick(1000);
+      }
+    });
+    waiter.start();
+    Thread.sleep(50);
+    clock.stop();
+    waiter.join(5000);
+
+    assertFalse("The waiter should have been released", waiter.isAlive());
+    assertFalse("The tick should never have arrived", reached[0]);
+    assertFalse("A tick that has gone by should be missed", clock.awaitTick(-5));
+  }
+}
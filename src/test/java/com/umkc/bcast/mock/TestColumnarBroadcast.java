@@ -0,0 +1,294 @@
+package com.umkc.bcast.mock;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.umkc.bcast.BroadcastBuilder;
+import com.umkc.bcast.data.Block;
+import com.umkc.bcast.data.BlockType;
+import com.umkc.bcast.data.Broadcast;
+import com.umkc.bcast.data.IndexBlock;
+import com.umkc.bcast.data.mock.IndexLookupHelper;
+import com.umkc.bcast.data.mock.MockDataBlockFactory;
+import com.umkc.bcast.util.ClusteredBroadcastBuilder;
+import com.umkc.bcast.util.FlatBroadcastBuilder;
+import com.umkc.bcast.util.SkewedClusteredBroadcastBuilder;
+
+/**
+ * This test class verifies that the columnar Broadcast emitted by each of the builders matches the
+ * List of blocks from assembleBcast(), block for block, and shows how much smaller it is.  It also checks
+ * that the streamed form and the List view hand back the same blocks as the List.
+ *
+ * @author ac010168
+ *
+ */
+public class TestColumnarBroadcast {
+
+  /**
+   * Compare the Broadcast and List forms of a flat bcast.
+   */
+  @Test
+  public void testFlatBroadcastMatchesList() {
+    System.out.println ("**********  testFlatBroadcastMatchesList()  **********");
+
+    BroadcastBuilder builder = new FlatBroadcastBuilder(2, 10, false);
+    builder.assignDataBlocks(MockDataBlockFactory.generateSortedBlocks("FLAT", 1000));
+    builder.constructGlobalIndices();
+
+    compareBroadcasts(builder.assembleBcast(), builder.assembleBroadcast(), null);
+  }
+
+  /**
+   * Compare the Broadcast and List forms of a clustered bcast.
+   */
+  @Test
+  public void testClusteredBroadcastMatchesList() {
+    System.out.println ("**********  testClusteredBroadcastMatchesList()  **********");
+
+    BroadcastBuilder builder = new ClusteredBroadcastBuilder(2, 10, false);
+    builder.setUseKeyDictionary(true);
+    List<String> clusterOrder = new ArrayList<String>();
+    clusterOrder.add("ALPHA");
+    clusterOrder.add("BETA");
+    clusterOrder.add("GAMMA");
+    for (String clusterGroup : clusterOrder)
+      builder.assignDataBlocks(MockDataBlockFactory.generateSortedBlocks(clusterGroup, 300));
+    builder.addClusterKeys(clusterOrder);
+    builder.constructGlobalIndices();
+
+    compareBroadcasts(builder.assembleBcast(), builder.assembleBroadcast(), clusterOrder);
+  }
+
+  /**
+   * Compare the Broadcast and List forms of a skewed clustered bcast.
+   */
+  @Test
+  public void testSkewedBroadcastMatchesList() {
+    System.out.println ("**********  testSkewedBroadcastMatchesList()  **********");
+
+    BroadcastBuilder builder = new SkewedClusteredBroadcastBuilder(2, 10, false);
+    builder.assignDataBlocks(MockDataBlockFactory.generateSortedBlocks("ALPHA", 200));
+    builder.assignDataBlocks(MockDataBlockFactory.generateSortedBlocks("BETA", 300));
+    builder.assignDataBlocks(MockDataBlockFactory.generateSortedBlocks("GAMMA", 100));
+    List<String> clusterOrder = new ArrayList<String>();
+    clusterOrder.add("ALPHA");
+    clusterOrder.add("BETA");
+    clusterOrder.add("ALPHA");
+    clusterOrder.add("GAMMA");
+    builder.addClusterKeys(clusterOrder);
+    builder.constructGlobalIndices();
+
+    compareBroadcasts(builder.assembleBcast(), builder.assembleBroadcast(), clusterOrder);
+  }
+
+  /**
+   * Make sure the streamed form and the List view of each builder hand back the same blocks, in the
+   * same order, as the List form.
+   */
+  @Test
+  public void testStreamedAndViewedBcastMatchList() {
+    System.out.println ("**********  testStreamedAndViewedBcastMatchList()  **********");
+
+    BroadcastBuilder flatBuilder = new FlatBroadcastBuilder(2, 10, false);
+    flatBuilder.assignDataBlocks(MockDataBlockFactory.generateSortedBlocks("FLAT", 1000));
+    flatBuilder.constructGlobalIndices();
+    compareStreamed(flatBuilder);
+
+    List<String> clusterOrder = new ArrayList<String>();
+    clusterOrder.add("ALPHA");
+    clusterOrder.add("BETA");
+    clusterOrder.add("GAMMA");
+    BroadcastBuilder clusteredBuilder = new ClusteredBroadcastBuilder(2, 10, false);
+    for (String clusterGroup : clusterOrder)
+      clusteredBuilder.assignDataBlocks(MockDataBlockFactory.generateSortedBlocks(clusterGroup, 300));
+    clusteredBuilder.addClusterKeys(clusterOrder);
+    clusteredBuilder.constructGlobalIndices();
+    compareStreamed(clusteredBuilder);
+
+    BroadcastBuilder skewedBuilder = new SkewedClusteredBroadcastBuilder(2, 10, false);
+    skewedBuilder.assignDataBlocks(MockDataBlockFactory.generateSortedBlocks("ALPHA", 200));
+    skewedBuilder.assignDataBlocks(MockDataBlockFactory.generateSortedBlocks("BETA", 300));
+    skewedBuilder.assignDataBlocks(MockDataBlockFactory.generateSortedBlocks("GAMMA", 100));
+    clusterOrder.add(2, "ALPHA");
+    skewedBuilder.addClusterKeys(clusterOrder);
+    skewedBuilder.constructGlobalIndices();
+    compareStreamed(skewedBuilder);
+  }
+
+  /**
+   * Repeat a hot cluster throughout a skewed bcast, and make sure every appearance shares the same local
+   * index and data blocks, while still having its own global index.
+   */
+  @Test
+  public void testSkewedAppearancesShareBuckets() {
+    System.out.println ("**********  testSkewedAppearancesShareBuckets()  **********");
+    int hotBlockCount = 50000;
+    int appearances   = 8;
+
+    long startingHeap = usedHeap();
+    BroadcastBuilder builder = new SkewedClusteredBroadcastBuilder(2, 10, false);
+    builder.assignDataBlocks(MockDataBlockFactory.generateSortedBlocks("HOT", hotBlockCount));
+    builder.assignDataBlocks(MockDataBlockFactory.generateSortedBlocks("COLD", 100));
+    List<String> clusterOrder = new ArrayList<String>();
+    for (int appearance = 0; appearance < appearances; appearance++)
+      clusterOrder.add("HOT");
+    clusterOrder.add("COLD");
+    builder.addClusterKeys(clusterOrder);
+    builder.constructGlobalIndices();
+    List<Block> bcast = builder.viewBcast();
+    long bcastBytes = usedHeap() - startingHeap;
+
+    int hotLength = (hotBlockCount / 10) * 12;
+    for (int blockPos = 0; blockPos < hotLength; blockPos++) {
+      for (int appearance = 1; appearance < appearances; appearance++) {
+        Block firstBlock = bcast.get(blockPos);
+        Block curBlock   = bcast.get((appearance * hotLength) + blockPos);
+        if (firstBlock.getBlockType() == BlockType.GLOBAL_CLUSTER_INDEX_BLOCK)
+          assertNotSame("Each appearance should have its own global index at " + blockPos, firstBlock, curBlock);
+        else assertSame("Each appearance should share the block at " + blockPos, firstBlock, curBlock);
+      }
+    }
+
+    //The shared local indices should work from every appearance
+    String searchKey = MockDataBlockFactory.generateKey(12345);
+    int localPos = (1234 * 12) + 1;
+    int firstOffset = ((IndexBlock)bcast.get(localPos)).getNextReadOffset(searchKey);
+    assertTrue("The local index should find the key", firstOffset >= 0);
+    for (int appearance = 1; appearance < appearances; appearance++)
+      assertEquals("The local index should find the key in appearance " + appearance, firstOffset,
+          ((IndexBlock)bcast.get((appearance * hotLength) + localPos)).getNextReadOffset(searchKey));
+
+    System.out.println ("Blocks: " + bcast.size() + "  Distinct Data Blocks: " + (hotBlockCount + 100) +
+        "  Heap bytes/block: " + (bcastBytes / bcast.size()));
+  }
+
+  /**
+   * Build a larger flat bcast and compare the memory used by the two forms.
+   */
+  @Test
+  public void testBroadcastMemoryFootprint() {
+    System.out.println ("**********  testBroadcastMemoryFootprint()  **********");
+    int dataBlockCount = 500000;
+
+    long startingHeap = usedHeap();
+    BroadcastBuilder builder = new FlatBroadcastBuilder(2, 10, false);
+    builder.assignDataBlocks(MockDataBlockFactory.generateSortedBlocks("FLAT", dataBlockCount));
+    builder.constructGlobalIndices();
+    List<Block> bcast = builder.assembleBcast();
+    long listBytes = usedHeap() - startingHeap;
+
+    Broadcast broadcast = builder.assembleBroadcast();
+    assertEquals("Both forms should have the same number of blocks", bcast.size(), broadcast.getBlockCount());
+
+    long packedBytes = broadcast.getPackedSizeInBytes();
+    System.out.println ("Blocks: " + bcast.size() + "  List bytes/block: " + (listBytes / bcast.size()) +
+        "  Broadcast bytes/block: " + (packedBytes / bcast.size()));
+
+    //Every data block costs one local index row, plus the type, offset and row start for each block
+    assertTrue("The Broadcast should use less than 32 bytes per block", (packedBytes / bcast.size()) < 32);
+  }
+
+  /**
+   * Helper method to compare every block in the two forms, including the lookups for a spread of keys.
+   *
+   * @param bcast        The List form of the bcast
+   * @param broadcast    The Broadcast form of the same bcast
+   * @param clusterOrder The clusters to search, or null for flat bcasts
+   */
+  private void compareBroadcasts(List<Block> bcast, Broadcast broadcast, List<String> clusterOrder) {
+    assertEquals("Both forms should have the same number of blocks", bcast.size(), broadcast.getBlockCount());
+
+    List<String> searchKeys = new ArrayList<String>();
+    for (int keyPos = 0; keyPos <= 1000; keyPos += 7)
+      searchKeys.add(MockDataBlockFactory.generateKey(keyPos));
+    searchKeys.add("a");
+    searchKeys.add("z");
+
+    for (int blockPos = 0; blockPos < bcast.size(); blockPos++) {
+      Block curBlock = bcast.get(blockPos);
+      assertEquals("Block type at " + blockPos + " should match", curBlock.getBlockType(), broadcast.getBlockType(blockPos));
+      assertEquals("Next index offset at " + blockPos + " should match", curBlock.getNextIndexOffset(), broadcast.getNextIndexOffset(blockPos));
+      if (curBlock.getBlockType() == BlockType.DATA_BLOCK)
+        continue;
+
+      IndexBlock indexBlock = (IndexBlock)curBlock;
+      for (String searchKey : searchKeys) {
+        int searchOrdinal = broadcast.getKeyDictionary().getOrdinal(searchKey);
+        if (clusterOrder == null) {
+          assertEquals("Lookup for '" + searchKey + "' at " + blockPos + " should match",
+              IndexLookupHelper.lookupOrError(indexBlock, null, searchKey), lookupOrError(broadcast, blockPos, -1, searchOrdinal));
+        } else {
+          for (String clusterGroup : clusterOrder) {
+            int clusterId = broadcast.getClusterDictionary().getClusterId(clusterGroup);
+            assertEquals("Lookup for [" + clusterGroup + ", " + searchKey + "] at " + blockPos + " should match",
+                IndexLookupHelper.lookupOrError(indexBlock, clusterGroup, searchKey), lookupOrError(broadcast, blockPos, clusterId, searchOrdinal));
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Helper method to compare the streamed form and the List view of a bcast against the List form.
+   *
+   * @param builder The builder, with its global indices already constructed
+   */
+  private void compareStreamed(BroadcastBuilder builder) {
+    List<Block> bcast = builder.assembleBcast();
+    List<String> blockIDs = new ArrayList<String>(bcast.size());
+    for (Block curBlock : bcast)
+      blockIDs.add(curBlock.getBlockID());
+
+    int blockPos = 0;
+    Iterator<Block> streamedBcast = builder.streamBcast();
+    while (streamedBcast.hasNext()) {
+      assertTrue("The streamed bcast should not be longer than the List", blockPos < bcast.size());
+      assertSame("Block at " + blockPos + " should match", bcast.get(blockPos), streamedBcast.next());
+      blockPos++;
+    }
+    assertEquals("Both forms should have the same number of blocks", bcast.size(), blockPos);
+
+    List<Block> bcastView = builder.viewBcast();
+    assertEquals("The view should have the same number of blocks", bcast.size(), bcastView.size());
+    for (blockPos = 0; blockPos < bcast.size(); blockPos++)
+      assertSame("Viewed block at " + blockPos + " should match", bcast.get(blockPos), bcastView.get(blockPos));
+    try {
+      bcastView.set(0, bcast.get(0));
+      fail("The view should be read only");
+    } catch (UnsupportedOperationException e) {
+      //Expected
+    }
+
+    //Streaming renames the blocks again, so the names should have come out the same
+    for (blockPos = 0; blockPos < bcast.size(); blockPos++)
+      assertEquals("Block name at " + blockPos + " should match", blockIDs.get(blockPos), bcast.get(blockPos).getBlockID());
+  }
+
+  /**
+   * Wrapper to run a lookup against a Broadcast, turning errors into a comparable value.
+   */
+  private int lookupOrError(Broadcast broadcast, int blockPos, int clusterId, int searchOrdinal) {
+    try {
+      if (clusterId < 0)
+        return broadcast.getNextReadOffset(blockPos, searchOrdinal);
+      return broadcast.getNextReadOffset(blockPos, clusterId, searchOrdinal);
+    } catch (RuntimeException e) {
+      return Integer.MIN_VALUE;
+    }
+  }
+
+  /**
+   * Helper method to get a rough idea of the heap in use.
+   */
+  private long usedHeap() {
+    Runtime runtime = Runtime.getRuntime();
+    for (int gcCtr = 0; gcCtr < 3; gcCtr++)
+      System.gc();
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+}
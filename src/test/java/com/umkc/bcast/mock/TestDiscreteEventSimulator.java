@@ -0,0 +1,132 @@
+package com.umkc.bcast.mock;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.umkc.bcast.BroadcastBuilder;
+import com.umkc.bcast.BroadcastClient;
+import com.umkc.bcast.QueryResult;
+import com.umkc.bcast.data.Broadcast;
+import com.umkc.bcast.data.mock.MockDataBlockFactory;
+import com.umkc.bcast.metrics.BroadcastMetrics;
+import com.umkc.bcast.metrics.LogHistogram;
+import com.umkc.bcast.metrics.MetricSeries;
+import com.umkc.bcast.metrics.QueryMetric;
+import com.umkc.bcast.sim.DiscreteEventSimulator;
+import com.umkc.bcast.sim.SearchKeys;
+import com.umkc.bcast.sim.SimulationResult;
+import com.umkc.bcast.util.ClusteredBroadcastBuilder;
+import com.umkc.bcast.util.FlatBroadcastBuilder;
+
+/**
+ * This test class checks that the discrete event simulator gives every client exactly the same times
+ * as a BroadcastClient search from the same start position, and prints how long a run of a million
+ * clients takes.
+ *
+ * @author ac010168
+ *
+ */
+public class TestDiscreteEventSimulator {
+
+  /**
+   * Run a crowd of clients against a clustered bcast, and compare them with individual searches.
+   */
+  @Test
+  public void testEventsMatchClientSearches() {
+    System.out.println ("**********  testEventsMatchClientSearches()  **********");
+
+    BroadcastBuilder builder = new ClusteredBroadcastBuilder(2, 10, false);
+    builder.setUseKeyDictionary(true);
+    List<String> clusterOrder = new ArrayList<String>();
+    int[] clusterSizes = {300, 120, 40, 200};
+    for (int clusterPos = 0; clusterPos < clusterSizes.length; clusterPos++) {
+      clusterOrder.add("CLUSTER" + clusterPos);
+      builder.assignDataBlocks(MockDataBlockFactory.generateSortedBlocks("CLUSTER" + clusterPos, clusterSizes[clusterPos]));
+    }
+    builder.addClusterKeys(clusterOrder);
+    builder.constructGlobalIndices();
+    Broadcast broadcast = builder.assembleBroadcast();
+
+    SearchKeys searchKeys = SearchKeys.fromBroadcast(broadcast);
+    DiscreteEventSimulator simulator = new DiscreteEventSimulator(broadcast, 1000);
+    BroadcastClient client = new BroadcastClient(broadcast);
+    QueryResult queryResult = new QueryResult();
+    SimulationResult expectedResult = new SimulationResult();
+    MetricSeries expectedSeries     = new MetricSeries("CLUSTERED", BroadcastMetrics.ALL_CLUSTERS);
+    BroadcastMetrics metrics        = new BroadcastMetrics();
+    simulator.setMetrics(metrics, "CLUSTERED");
+
+    //Clients tune in at every tick over three cycles, each wanting a different key, plus one missing key
+    Random random = new Random(9931);
+    long tickCount = 3L * broadcast.getBlockCount();
+    for (long tuneInTick = 0; tuneInTick < tickCount; tuneInTick++) {
+      int keyPos = random.nextInt(searchKeys.getKeyCount());
+      simulator.addClient(tuneInTick, searchKeys.getClusterId(keyPos), searchKeys.getOrdinal(keyPos));
+      client.search((int)(tuneInTick % broadcast.getBlockCount()), searchKeys.getClusterId(keyPos), searchKeys.getOrdinal(keyPos), queryResult);
+      expectedResult.recordFound(queryResult.getAccessTime(), queryResult.getTuningTime());
+      expectedSeries.recordQuery(queryResult);
+    }
+    simulator.addClient(5, 0, broadcast.getKeyDictionary().getOrdinal("~~~~"));
+    client.search(5, 0, broadcast.getKeyDictionary().getOrdinal("~~~~"), queryResult);
+    expectedSeries.recordQuery(queryResult);
+
+    SimulationResult result = simulator.simulate();
+    System.out.println (result);
+
+    assertEquals("Only the missing key should fail", 1, result.getFailedCount());
+    assertEquals("Every other client should finish", tickCount, result.getFoundCount());
+    assertEquals("Access times should match", expectedResult.getAccessTimes().getTotalTime(), result.getAccessTimes().getTotalTime());
+    assertEquals("Tuning times should match", expectedResult.getTuningTimes().getTotalTime(), result.getTuningTimes().getTotalTime());
+    for (int time = 0; time <= expectedResult.getAccessTimes().getMaxTime(); time++)
+      assertEquals("Access count at " + time + " should match", expectedResult.getAccessTimes().getCount(time), result.getAccessTimes().getCount(time));
+    assertEquals("Clients should be cleared after a run", 0, simulator.getClientCount());
+
+    //The metrics should hold exactly what the same searches record, split by cluster
+    MetricSeries series = metrics.getCombinedSeries("CLUSTERED");
+    assertEquals("Every client should be recorded", tickCount + 1, series.getQueryCount());
+    assertEquals("Only the missing key should fail", 1, series.getFailedCount());
+    assertEquals("Each cluster should be split out", clusterSizes.length, metrics.getSeriesList().size());
+    for (QueryMetric metric : QueryMetric.values()) {
+      LogHistogram expectedHistogram = expectedSeries.getHistogram(metric);
+      LogHistogram histogram         = series.getHistogram(metric);
+      assertEquals(metric + " counts should match", expectedHistogram.getTotalCount(), histogram.getTotalCount());
+      assertEquals(metric + " totals should match", expectedHistogram.getTotalValue(), histogram.getTotalValue());
+      assertEquals(metric + " max should match", expectedHistogram.getMaxValue(), histogram.getMaxValue());
+    }
+  }
+
+  /**
+   * Run a million clients over a few cycles of a flat bcast.  The timing is only printed, since it is
+   * machine dependent, but every read should be accounted for.
+   */
+  @Test
+  public void testMillionClientTiming() {
+    System.out.println ("**********  testMillionClientTiming()  **********");
+
+    BroadcastBuilder builder = new FlatBroadcastBuilder(2, 10, false);
+    builder.setUseKeyDictionary(true);
+    builder.assignDataBlocks(MockDataBlockFactory.generateSortedBlocks("FLAT", 20000));
+    builder.constructGlobalIndices();
+    Broadcast broadcast = builder.assembleBroadcast();
+
+    int clientCount = 1000000;
+    DiscreteEventSimulator simulator = new DiscreteEventSimulator(broadcast, clientCount);
+    simulator.addRandomClients(clientCount, 3L * broadcast.getBlockCount(), SearchKeys.fromBroadcast(broadcast), new Random(4417));
+
+    long startTime = System.nanoTime();
+    SimulationResult result = simulator.simulate();
+    long simTime = System.nanoTime() - startTime;
+
+    System.out.println (result);
+    System.out.println ("Clients: " + clientCount + "  Reads: " + simulator.getReadCount() + "  Last Tick: " + simulator.getCurrentTick() +
+        "  ms: " + (simTime / 1000000) + "  ns/read: " + (simTime / simulator.getReadCount()));
+
+    assertEquals("Every client should finish", clientCount, result.getFoundCount());
+    assertEquals("Every read should be counted as tuning time", simulator.getReadCount(), result.getTuningTimes().getTotalTime());
+  }
+}
@@ -0,0 +1,141 @@
+package com.umkc.bcast.mock;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+import com.umkc.bcast.BroadcastBuilder;
+import com.umkc.bcast.data.Broadcast;
+import com.umkc.bcast.data.mock.MockDataBlockFactory;
+import com.umkc.bcast.sim.ExhaustiveSimulator;
+import com.umkc.bcast.sim.ExpectedTimeCalculator;
+import com.umkc.bcast.sim.ExpectedTimes;
+import com.umkc.bcast.sim.SimulationResult;
+import com.umkc.bcast.sim.TimeHistogram;
+import com.umkc.bcast.util.ClusteredBroadcastBuilder;
+import com.umkc.bcast.util.FlatBroadcastBuilder;
+import com.umkc.bcast.util.SkewedClusteredBroadcastBuilder;
+
+/**
+ * This test class runs the exhaustive simulator over each type of bcast, with and without a pool, and
+ * checks that both runs give the same distributions, and that their means match the
+ * ExpectedTimeCalculator.  The distributions are printed for reference.
+ *
+ * @author ac010168
+ *
+ */
+public class TestExhaustiveSimulator {
+
+  /**
+   * Simulate a flat bcast.
+   */
+  @Test
+  public void testFlatExhaustiveSimulation() {
+    System.out.println ("**********  testFlatExhaustiveSimulation()  **********");
+
+    BroadcastBuilder builder = new FlatBroadcastBuilder(2, 10, false);
+    builder.setUseKeyDictionary(true);
+    builder.assignDataBlocks(MockDataBlockFactory.generateSortedBlocks("FLAT", 3000));
+    builder.constructGlobalIndices();
+
+    compareSimulations(builder.assembleBroadcast(), 3000);
+  }
+
+  /**
+   * Simulate a clustered bcast.
+   */
+  @Test
+  public void testClusteredExhaustiveSimulation() {
+    System.out.println ("**********  testClusteredExhaustiveSimulation()  **********");
+
+    BroadcastBuilder builder = new ClusteredBroadcastBuilder(2, 10, false);
+    builder.setUseKeyDictionary(true);
+    List<String> clusterOrder = new ArrayList<String>();
+    int[] clusterSizes = {900, 400, 100, 600};
+    for (int clusterPos = 0; clusterPos < clusterSizes.length; clusterPos++) {
+      clusterOrder.add("CLUSTER" + clusterPos);
+      builder.assignDataBlocks(MockDataBlockFactory.generateSortedBlocks("CLUSTER" + clusterPos, clusterSizes[clusterPos]));
+    }
+    builder.addClusterKeys(clusterOrder);
+    builder.constructGlobalIndices();
+
+    compareSimulations(builder.assembleBroadcast(), 2000);
+  }
+
+  /**
+   * Simulate a skewed bcast.
+   */
+  @Test
+  public void testSkewedExhaustiveSimulation() {
+    System.out.println ("**********  testSkewedExhaustiveSimulation()  **********");
+
+    BroadcastBuilder builder = new SkewedClusteredBroadcastBuilder(2, 10, false);
+    builder.assignDataBlocks(MockDataBlockFactory.generateSortedBlocks("ALPHA", 600));
+    builder.assignDataBlocks(MockDataBlockFactory.generateSortedBlocks("BETA", 900));
+    builder.assignDataBlocks(MockDataBlockFactory.generateSortedBlocks("GAMMA", 300));
+    List<String> clusterOrder = new ArrayList<String>();
+    clusterOrder.add("ALPHA");
+    clusterOrder.add("BETA");
+    clusterOrder.add("ALPHA");
+    clusterOrder.add("GAMMA");
+    builder.addClusterKeys(clusterOrder);
+    builder.constructGlobalIndices();
+
+    compareSimulations(builder.assembleBroadcast(), 1800);
+  }
+
+  /**
+   * Helper method to run the simulation with and without a pool, and compare the results.
+   *
+   * @param broadcast The bcast to be simulated
+   * @param keyCount  The number of distinct (cluster, key) pairs in the bcast
+   */
+  private void compareSimulations(Broadcast broadcast, int keyCount) {
+    ExhaustiveSimulator simulator = new ExhaustiveSimulator(broadcast);
+    long startTime = System.nanoTime();
+    SimulationResult sequentialResult = simulator.simulate();
+    long sequentialTime = System.nanoTime() - startTime;
+
+    ForkJoinPool simulationPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+    SimulationResult parallelResult;
+    long parallelTime;
+    try {
+      simulator.setSimulationPool(simulationPool);
+      startTime      = System.nanoTime();
+      parallelResult = simulator.simulate();
+      parallelTime   = System.nanoTime() - startTime;
+    } finally {
+      simulationPool.shutdown();
+    }
+
+    System.out.println (parallelResult);
+    System.out.println ("Sequential ms: " + (sequentialTime / 1000000) + "  Parallel ms: " + (parallelTime / 1000000) +
+        "  Searches: " + (parallelResult.getFoundCount() + parallelResult.getFailedCount()));
+
+    assertEquals("Every search should complete", 0, parallelResult.getFailedCount());
+    assertEquals("Every (start, key) pair should be searched",
+        (long)broadcast.getBlockCount() * keyCount, parallelResult.getFoundCount());
+    compareHistograms(sequentialResult.getAccessTimes(), parallelResult.getAccessTimes());
+    compareHistograms(sequentialResult.getTuningTimes(), parallelResult.getTuningTimes());
+
+    ExpectedTimes expectedTimes = new ExpectedTimeCalculator(broadcast).calculate();
+    assertEquals("Mean access time should match", expectedTimes.getExpectedAccessTime(), parallelResult.getAccessTimes().getMean(), 1e-9);
+    assertEquals("Mean tuning time should match", expectedTimes.getExpectedTuningTime(), parallelResult.getTuningTimes().getMean(), 1e-9);
+  }
+
+  /**
+   * Helper method to check that two histograms hold exactly the same counts.
+   */
+  private void compareHistograms(TimeHistogram expected, TimeHistogram actual) {
+    assertEquals("Counts should match", expected.getTotalCount(), actual.getTotalCount());
+    assertEquals("Totals should match", expected.getTotalTime(), actual.getTotalTime());
+    assertEquals("Max should match", expected.getMaxTime(), actual.getMaxTime());
+    for (int time = 0; time <= expected.getMaxTime(); time++)
+      assertEquals("Count at " + time + " should match", expected.getCount(time), actual.getCount(time));
+    assertTrue("Percentiles should be ordered", actual.getValueAtPercentile(50) <= actual.getValueAtPercentile(99));
+  }
+}
@@ -0,0 +1,234 @@
+package com.umkc.bcast.mock;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.umkc.bcast.BroadcastBuilder;
+import com.umkc.bcast.data.Block;
+import com.umkc.bcast.data.BlockType;
+import com.umkc.bcast.data.Broadcast;
+import com.umkc.bcast.data.ClusterDictionary;
+import com.umkc.bcast.data.DataBlock;
+import com.umkc.bcast.data.IndexBlock;
+import com.umkc.bcast.data.KeyDictionary;
+import com.umkc.bcast.data.mock.MockDataBlockFactory;
+import com.umkc.bcast.sim.ExpectedTimeCalculator;
+import com.umkc.bcast.sim.ExpectedTimes;
+import com.umkc.bcast.sim.KeyDistribution;
+import com.umkc.bcast.util.ClusteredBroadcastBuilder;
+import com.umkc.bcast.util.FlatBroadcastBuilder;
+import com.umkc.bcast.util.SkewedClusteredBroadcastBuilder;
+
+/**
+ * This test class verifies that the analytical expected times match an exhaustive run of the client
+ * search from every start position for every key, for each type of bcast.  The time taken by the
+ * calculator on a larger bcast is printed for reference.
+ *
+ * @author ac010168
+ *
+ */
+public class TestExpectedTimes {
+
+  /** A skewed distribution, so that the weighting actually matters */
+  private static final KeyDistribution SKEWED_KEYS = new KeyDistribution() {
+    @Override
+    public double getWeight(int clusterId, int keyOrdinal) {
+      return 1 + ((keyOrdinal + clusterId + 1) % 7);
+    }
+  };
+
+  /**
+   * Compare the calculator against the exhaustive search on flat bcasts of a few shapes.
+   */
+  @Test
+  public void testFlatExpectedTimesMatchExhaustive() {
+    System.out.println ("**********  testFlatExpectedTimesMatchExhaustive()  **********");
+    int[][] shapes = { {2, 10, 400}, {3, 5, 330}, {2, 2, 64}, {4, 8, 1000} };
+
+    for (int[] shape : shapes) {
+      BroadcastBuilder builder = new FlatBroadcastBuilder(shape[0], shape[1], false);
+      builder.setUseKeyDictionary(true);
+      builder.assignDataBlocks(MockDataBlockFactory.generateSortedBlocks("FLAT", shape[2]));
+      builder.constructGlobalIndices();
+
+      compareExhaustive(builder.assembleBcast(), builder.assembleBroadcast());
+    }
+  }
+
+  /**
+   * Compare the calculator against the exhaustive search on a clustered bcast.
+   */
+  @Test
+  public void testClusteredExpectedTimesMatchExhaustive() {
+    System.out.println ("**********  testClusteredExpectedTimesMatchExhaustive()  **********");
+
+    BroadcastBuilder builder = new ClusteredBroadcastBuilder(2, 10, false);
+    builder.setUseKeyDictionary(true);
+    List<String> clusterOrder = new ArrayList<String>();
+    int[] clusterSizes = {300, 120, 40, 200};
+    for (int clusterPos = 0; clusterPos < clusterSizes.length; clusterPos++) {
+      String clusterGroup = "CLUSTER" + clusterPos;
+      clusterOrder.add(clusterGroup);
+      builder.assignDataBlocks(MockDataBlockFactory.generateSortedBlocks(clusterGroup, clusterSizes[clusterPos]));
+    }
+    builder.addClusterKeys(clusterOrder);
+    builder.constructGlobalIndices();
+
+    compareExhaustive(builder.assembleBcast(), builder.assembleBroadcast());
+  }
+
+  /**
+   * Compare the calculator against the exhaustive search on a skewed bcast, where the repeated cluster
+   * should only be counted once.
+   */
+  @Test
+  public void testSkewedExpectedTimesMatchExhaustive() {
+    System.out.println ("**********  testSkewedExpectedTimesMatchExhaustive()  **********");
+
+    BroadcastBuilder builder = new SkewedClusteredBroadcastBuilder(2, 10, false);
+    builder.assignDataBlocks(MockDataBlockFactory.generateSortedBlocks("ALPHA", 200));
+    builder.assignDataBlocks(MockDataBlockFactory.generateSortedBlocks("BETA", 300));
+    builder.assignDataBlocks(MockDataBlockFactory.generateSortedBlocks("GAMMA", 100));
+    List<String> clusterOrder = new ArrayList<String>();
+    clusterOrder.add("ALPHA");
+    clusterOrder.add("BETA");
+    clusterOrder.add("ALPHA");
+    clusterOrder.add("GAMMA");
+    builder.addClusterKeys(clusterOrder);
+    builder.constructGlobalIndices();
+
+    ExpectedTimes expectedTimes = compareExhaustive(builder.assembleBcast(), builder.assembleBroadcast());
+    assertEquals("Each key should only be counted once", 600, expectedTimes.getKeyCount());
+  }
+
+  /**
+   * Simple timing harness for the calculator on a larger bcast.  This doesn't assert anything about the
+   * timing, since it is machine dependent.
+   */
+  @Test
+  public void testExpectedTimesTiming() {
+    System.out.println ("**********  testExpectedTimesTiming()  **********");
+
+    BroadcastBuilder builder = new FlatBroadcastBuilder(2, 10, false);
+    builder.setUseKeyDictionary(true);
+    builder.assignDataBlocks(MockDataBlockFactory.generateSortedBlocks("FLAT", 160000));
+    builder.constructGlobalIndices();
+    Broadcast broadcast = builder.assembleBroadcast();
+
+    long startTime = System.nanoTime();
+    ExpectedTimes expectedTimes = new ExpectedTimeCalculator(broadcast).calculate();
+    long calcTime = System.nanoTime() - startTime;
+
+    System.out.println (expectedTimes);
+    System.out.println ("Calculated in " + (calcTime / 1000000) + " ms, covering " +
+        ((long)expectedTimes.getBlockCount() * expectedTimes.getKeyCount()) + " searches");
+    assertEquals("Every search should complete", 0.0, expectedTimes.getFailureRate(), 0.0);
+  }
+
+  /**
+   * Helper method to check both the uniform and the skewed distributions against the exhaustive search.
+   *
+   * @return The uniform expected times
+   */
+  private ExpectedTimes compareExhaustive(List<Block> bcast, Broadcast broadcast) {
+    ExpectedTimeCalculator calculator = new ExpectedTimeCalculator(broadcast);
+
+    ExpectedTimes uniformTimes = calculator.calculate();
+    double[] uniformExhaustive = exhaustiveTimes(bcast, broadcast, KeyDistribution.UNIFORM);
+    System.out.println (uniformTimes);
+    assertEquals("Access time should match", uniformExhaustive[0], uniformTimes.getExpectedAccessTime(), 1e-9);
+    assertEquals("Tuning time should match", uniformExhaustive[1], uniformTimes.getExpectedTuningTime(), 1e-9);
+    assertEquals("Every search should complete", 0.0, uniformTimes.getFailureRate(), 0.0);
+
+    ExpectedTimes skewedTimes = calculator.calculate(SKEWED_KEYS);
+    double[] skewedExhaustive = exhaustiveTimes(bcast, broadcast, SKEWED_KEYS);
+    assertEquals("Weighted access time should match", skewedExhaustive[0], skewedTimes.getExpectedAccessTime(), 1e-9);
+    assertEquals("Weighted tuning time should match", skewedExhaustive[1], skewedTimes.getExpectedTuningTime(), 1e-9);
+
+    return uniformTimes;
+  }
+
+  /**
+   * Helper method to run the client search from every start position for every distinct key, and average
+   * the access and tuning times using the given distribution.
+   *
+   * @return {access time, tuning time}
+   */
+  private double[] exhaustiveTimes(List<Block> bcast, Broadcast broadcast, KeyDistribution keyDistribution) {
+    KeyDictionary keyDictionary         = broadcast.getKeyDictionary();
+    ClusterDictionary clusterDictionary = broadcast.getClusterDictionary();
+
+    //Every distinct key, along with its cluster
+    Map<String, DataBlock> searchBlocks = new LinkedHashMap<String, DataBlock>();
+    for (Block curBlock : bcast) {
+      if (curBlock.getBlockType() == BlockType.DATA_BLOCK) {
+        DataBlock dataBlock = (DataBlock)curBlock;
+        String clusterGroup = (clusterDictionary == null) ? "" : dataBlock.getClusterGroup().toUpperCase();
+        searchBlocks.put(clusterGroup + "|" + dataBlock.getDataKey(), dataBlock);
+      }
+    }
+
+    double accessTotal = 0.0;
+    double tuningTotal = 0.0;
+    double totalWeight = 0.0;
+    for (DataBlock searchBlock : searchBlocks.values()) {
+      String clusterGroup = (clusterDictionary == null) ? null : searchBlock.getClusterGroup();
+      int clusterId  = (clusterDictionary == null) ? -1 : clusterDictionary.getClusterId(clusterGroup);
+      double keyWeight = keyDistribution.getWeight(clusterId, keyDictionary.getOrdinal(searchBlock.getDataKey()));
+
+      for (int startPos = 0; startPos < bcast.size(); startPos++) {
+        int[] times = executeSearch(bcast, startPos, clusterGroup, searchBlock.getDataKey());
+        assertNotNull("Search for " + searchBlock.getDataKey() + " from " + startPos + " should complete", times);
+        accessTotal += keyWeight * times[0];
+        tuningTotal += keyWeight * times[1];
+        totalWeight += keyWeight;
+      }
+    }
+
+    return new double[] { accessTotal / totalWeight, tuningTotal / totalWeight };
+  }
+
+  /**
+   * Helper method to run the same search as TestBroadcastGeneration from a fixed start position, without
+   * any of the output.
+   *
+   * @return {access time, tuning time}, or null if the search failed
+   */
+  private int[] executeSearch(List<Block> bcast, int startPos, String clusterGroup, String searchKey) {
+    int searchPos  = startPos;
+    int accessTime = 1;
+    int tuningTime = 1;
+
+    int dozeBlocks = bcast.get(searchPos).getNextIndexOffset();
+    searchPos = (searchPos + dozeBlocks + 1) % bcast.size();
+    accessTime += dozeBlocks;
+
+    for (int readCtr = 0; readCtr <= bcast.size(); readCtr++) {
+      Block curBlock = bcast.get(searchPos);
+      accessTime++;
+      tuningTime++;
+
+      if (curBlock.getBlockType() == BlockType.DATA_BLOCK) {
+        if (!searchKey.equals(((DataBlock)curBlock).getDataKey()))
+          return null;
+        return new int[] { accessTime, tuningTime };
+      }
+
+      if ((clusterGroup != null) && (curBlock.getBlockType() == BlockType.GLOBAL_CLUSTER_INDEX_BLOCK))
+        dozeBlocks = ((IndexBlock)curBlock).getNextReadOffset(clusterGroup, searchKey);
+      else dozeBlocks = ((IndexBlock)curBlock).getNextReadOffset(searchKey);
+      if (dozeBlocks == -1)
+        return null;
+
+      searchPos = (searchPos + dozeBlocks + 1) % bcast.size();
+      accessTime += dozeBlocks;
+    }
+    return null;
+  }
+}
@@ -0,0 +1,410 @@
+package com.umkc.bcast.mock;
+
+import static org.junit.Assert.*;
+import static com.umkc.bcast.data.mock.IndexLookupHelper.lookupOrError;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.umkc.bcast.BroadcastClient;
+import com.umkc.bcast.QueryResult;
+import com.umkc.bcast.data.Block;
+import com.umkc.bcast.data.Broadcast;
+import com.umkc.bcast.data.DataBlock;
+import com.umkc.bcast.data.GlobalIndexArrayItem;
+import com.umkc.bcast.data.IndexBlock;
+import com.umkc.bcast.data.KeyDictionary;
+import com.umkc.bcast.data.LocalIndexArrayItem;
+import com.umkc.bcast.data.impl.GlobalFlatIndexBlock;
+import com.umkc.bcast.data.impl.LocalIndexBlock;
+import com.umkc.bcast.data.mock.MockDataBlock;
+import com.umkc.bcast.data.mock.MockDataBlockFactory;
+import com.umkc.bcast.io.BlockCodec;
+import com.umkc.bcast.io.BroadcastSnapshot;
+import com.umkc.bcast.io.MappedBroadcast;
+import com.umkc.bcast.util.FlatBroadcastBuilder;
+
+/**
+ * This test class makes incremental changes to a flat bcast, and checks that the result is exactly
+ * the bcast we'd get by building the changed data set from scratch, while only rebuilding the
+ * buckets and index rows that the changes actually reach.
+ *
+ * @author ac010168
+ *
+ */
+public class TestIncrementalUpdate {
+
+  @Rule
+  public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  /**
+   * Replace some data blocks with new values, and make sure nothing else moves.
+   */
+  @Test
+  public void testValueUpdateReplacesPayload() {
+    System.out.println ("**********  testValueUpdateReplacesPayload()  **********");
+    FlatBroadcastBuilder builder = buildFlat(MockDataBlockFactory.generateSortedBlocks("FLAT", 2000), true);
+    List<Block> before = builder.assembleBcast();
+
+    String updateKey = MockDataBlockFactory.generateKey(1234);
+    MockDataBlock newBlock = new MockDataBlock("Updated", 99999, "FLAT:" + updateKey, "FLAT", updateKey);
+    builder.updateDataBlock(newBlock);
+    List<Block> after = builder.assembleBcast();
+
+    assertEquals("The bcast should be the same length", before.size(), after.size());
+    int changedCount = 0;
+    for (int blockPos = 0; blockPos < before.size(); blockPos++) {
+      if (before.get(blockPos) == after.get(blockPos))
+        continue;
+      changedCount++;
+      assertSame("Only the updated block should change", newBlock, after.get(blockPos));
+      assertEquals("The new block should take over the old block id", before.get(blockPos).getBlockID(), newBlock.getBlockID());
+      assertEquals("The new block should take over the old offset", before.get(blockPos).getNextIndexOffset(), newBlock.getNextIndexOffset());
+    }
+    assertEquals("Exactly one block should change", 1, changedCount);
+
+    try {
+      builder.updateDataBlock(new MockDataBlock("Missing", 0, "FLAT:nokey", "FLAT", "nokey"));
+      fail("Updating a key that isn't in the bcast should fail");
+    } catch (RuntimeException e) {
+      //Expected
+    }
+  }
+
+  /**
+   * Insert and delete 0.1% of the data, with each insert close to a delete, so the bucket count doesn't
+   * change.  The inserted keys are new to the key dictionary.  The buckets re-split and the global indices
+   * touched should both be bounded by the number of changes, the other buckets should keep their local
+   * indices, and the bcast assembled before the changes should be left exactly as it was.
+   */
+  @Test
+  public void testBalancedChangesOnlyRebuildAffectedBuckets() {
+    System.out.println ("**********  testBalancedChangesOnlyRebuildAffectedBuckets()  **********");
+    TreeMap<String, DataBlock> data = generateData(20000);
+    FlatBroadcastBuilder builder    = buildFlat(new ArrayList<DataBlock>(data.values()), true);
+    List<Block> before              = builder.assembleBcast();
+    List<String> beforeMaxKeys      = getGlobalMaxKeys(before);
+    int rowsPerIndex                = ((GlobalFlatIndexBlock)before.get(0)).getExponentialIndex().size();
+
+    Random random = new Random(2021);
+    List<DataBlock> inserts = new ArrayList<DataBlock>();
+    List<String> deletes    = new ArrayList<String>();
+    while (deletes.size() < 20) {
+      String deleteKey = MockDataBlockFactory.generateKey(random.nextInt(20000 - 3));
+      String insertKey = MockDataBlockFactory.generateKey(Integer.parseInt(deleteKey.substring(1)) + random.nextInt(3)) + "x";
+      if (!data.containsKey(deleteKey) || data.containsKey(insertKey))
+        continue;
+      data.remove(deleteKey);
+      deletes.add(deleteKey);
+      DataBlock insertBlock = new MockDataBlock(insertKey, 0, "FLAT:" + insertKey, "FLAT", insertKey);
+      data.put(insertKey, insertBlock);
+      inserts.add(insertBlock);
+    }
+
+    builder.updateDataBlocks(inserts, deletes);
+    int changeCount = inserts.size() + deletes.size();
+    System.out.println ("Rebuilt " + builder.getRebuiltBucketCount() + " buckets and " + builder.getReindexedBucketCount() +
+        " global indices out of 2000 for " + changeCount + " changes in " + (builder.getIndexBuildNanos() / 1000) + "us");
+    assertTrue("Each change should re-split at most its own bucket", builder.getRebuiltBucketCount() <= changeCount);
+    assertTrue("Each change should touch at most one global index per row",
+        builder.getReindexedBucketCount() <= changeCount * rowsPerIndex);
+    assertTrue("The global indices of the earlier bcast should not be patched", beforeMaxKeys.equals(getGlobalMaxKeys(before)));
+
+    //New keys fit between the old ordinals, so the untouched buckets keep their encoded local indices
+    List<Block> after  = builder.assembleBcast();
+    int keptLocalCount = 0;
+    for (int blockPos = 0; blockPos < after.size(); blockPos++) {
+      if ((after.get(blockPos) instanceof LocalIndexBlock) && (after.get(blockPos) == before.get(blockPos)))
+        keptLocalCount++;
+    }
+    assertEquals("Only the re-split buckets should have new local indices", 2000 - builder.getRebuiltBucketCount(), keptLocalCount);
+
+    compareBcasts(buildFlat(new ArrayList<DataBlock>(data.values()), true).assembleBcast(), after);
+
+    //Every index block is checked, so only check the changed keys and a sample of the others
+    List<String> lookupKeys = new ArrayList<String>(deletes);
+    for (DataBlock insertBlock : inserts)
+      lookupKeys.add(insertBlock.getDataKey());
+    for (int keyPos = 0; keyPos < 20000; keyPos += 500)
+      lookupKeys.add(MockDataBlockFactory.generateKey(keyPos));
+    compareEncodedLookups(builder, lookupKeys);
+  }
+
+  /**
+   * Grow and shrink the data set by whole buckets.  The buckets after each change move, so the rows that
+   * span the change are patched, but the rest are left alone unless the exponential ranges change.
+   */
+  @Test
+  public void testBucketCountChangesMatchFreshBuild() {
+    System.out.println ("**********  testBucketCountChangesMatchFreshBuild()  **********");
+    TreeMap<String, DataBlock> data = generateData(1000);
+    FlatBroadcastBuilder builder    = buildFlat(new ArrayList<DataBlock>(data.values()), false);
+
+    //Grow by three buckets, with inserts at the start, middle and end of the data
+    List<DataBlock> inserts = new ArrayList<DataBlock>();
+    for (int insertPos = 0; insertPos < 30; insertPos++) {
+      String insertKey = (insertPos < 10) ? "a" + insertPos : (insertPos < 20) ? MockDataBlockFactory.generateKey(500) + insertPos : "z" + insertPos;
+      DataBlock insertBlock = new MockDataBlock(insertKey, insertPos, "FLAT:" + insertKey, "FLAT", insertKey);
+      data.put(insertKey, insertBlock);
+      inserts.add(insertBlock);
+    }
+    builder.updateDataBlocks(inserts, new ArrayList<String>());
+    compareBcasts(buildFlat(new ArrayList<DataBlock>(data.values()), false).assembleBcast(), builder.assembleBcast());
+
+    //Then shrink by five buckets
+    List<String> deletes = new ArrayList<String>();
+    for (int deletePos = 0; deletePos < 1000; deletePos += 20) {
+      String deleteKey = MockDataBlockFactory.generateKey(deletePos);
+      data.remove(deleteKey);
+      deletes.add(deleteKey);
+    }
+    builder.updateDataBlocks(new ArrayList<DataBlock>(), deletes);
+    compareBcasts(buildFlat(new ArrayList<DataBlock>(data.values()), false).assembleBcast(), builder.assembleBcast());
+
+    //Add a whole bucket in the middle.  Only that bucket's neighbourhood is re-split, and only the indices
+    //with a row spanning the new bucket (or wrapping around the end) are patched.
+    List<DataBlock> middleInserts = new ArrayList<DataBlock>();
+    for (int insertPos = 0; insertPos < 10; insertPos++) {
+      String insertKey = MockDataBlockFactory.generateKey(300) + "m" + insertPos;
+      DataBlock insertBlock = new MockDataBlock(insertKey, insertPos, "FLAT:" + insertKey, "FLAT", insertKey);
+      data.put(insertKey, insertBlock);
+      middleInserts.add(insertBlock);
+    }
+    builder.updateDataBlocks(middleInserts, new ArrayList<String>());
+    System.out.println ("Grew to 99 buckets by rebuilding " + builder.getRebuiltBucketCount() + " buckets and " +
+        builder.getReindexedBucketCount() + " global indices");
+    assertTrue("Only the bucket the keys went into should be re-split", builder.getRebuiltBucketCount() <= 2);
+    assertTrue("Some global indices should be left alone", builder.getReindexedBucketCount() < 99);
+    compareBcasts(buildFlat(new ArrayList<DataBlock>(data.values()), false).assembleBcast(), builder.assembleBcast());
+
+    //Add a bucket near the start and take one away near the end.  The count stays the same, but every
+    //bucket in between moves along by one.
+    List<DataBlock> movingInserts = new ArrayList<DataBlock>();
+    List<String> movingDeletes    = new ArrayList<String>();
+    for (int changePos = 0; changePos < 10; changePos++) {
+      String insertKey = MockDataBlockFactory.generateKey(150) + "n" + changePos;
+      DataBlock insertBlock = new MockDataBlock(insertKey, changePos, "FLAT:" + insertKey, "FLAT", insertKey);
+      data.put(insertKey, insertBlock);
+      movingInserts.add(insertBlock);
+      String deleteKey = MockDataBlockFactory.generateKey(901 + changePos);
+      data.remove(deleteKey);
+      movingDeletes.add(deleteKey);
+    }
+    builder.updateDataBlocks(movingInserts, movingDeletes);
+    assertTrue("Only the buckets with changes should be re-split", builder.getRebuiltBucketCount() <= 4);
+    assertTrue("Some global indices should be left alone", builder.getReindexedBucketCount() < 99);
+    compareBcasts(buildFlat(new ArrayList<DataBlock>(data.values()), false).assembleBcast(), builder.assembleBcast());
+
+    //Growing past 128 buckets adds an exponential range, which changes every global index
+    List<DataBlock> endInserts = new ArrayList<DataBlock>();
+    for (int insertPos = 0; insertPos < 300; insertPos++) {
+      String insertKey = "zz" + insertPos;
+      DataBlock insertBlock = new MockDataBlock(insertKey, insertPos, "FLAT:" + insertKey, "FLAT", insertKey);
+      data.put(insertKey, insertBlock);
+      endInserts.add(insertBlock);
+    }
+    builder.updateDataBlocks(endInserts, new ArrayList<String>());
+    assertEquals("Every global index should be rebuilt", 129, builder.getReindexedBucketCount());
+    compareBcasts(buildFlat(new ArrayList<DataBlock>(data.values()), false).assembleBcast(), builder.assembleBcast());
+
+    try {
+      builder.updateDataBlocks(new ArrayList<DataBlock>(), deletes.subList(0, 10));
+      fail("Deleting keys that are already gone should fail");
+    } catch (RuntimeException e) {
+      //Expected
+    }
+  }
+
+  /**
+   * Insert new keys into a bcast that uses a key dictionary, and make sure every key can still be found,
+   * that the keys already in the bcast keep their ordinals, and that the encoded indices agree with the
+   * new dictionary.  Then fill up one of the gaps in the dictionary, which has to reassign the ordinals.
+   */
+  @Test
+  public void testKeyDictionaryStaysUsable() throws IOException {
+    System.out.println ("**********  testKeyDictionaryStaysUsable()  **********");
+    TreeMap<String, DataBlock> data = generateData(500);
+    FlatBroadcastBuilder builder    = buildFlat(new ArrayList<DataBlock>(data.values()), true);
+    Map<String, Integer> oldOrdinals = new HashMap<String, Integer>();
+    for (String searchKey : data.keySet())
+      oldOrdinals.put(searchKey, builder.getKeyDictionary().getOrdinal(searchKey));
+
+    List<DataBlock> inserts = new ArrayList<DataBlock>();
+    List<String> deletes    = new ArrayList<String>();
+    for (int changePos = 0; changePos < 500; changePos += 50) {
+      String deleteKey = MockDataBlockFactory.generateKey(changePos);
+      String insertKey = deleteKey + "x";
+      data.remove(deleteKey);
+      deletes.add(deleteKey);
+      DataBlock insertBlock = new MockDataBlock(insertKey, 0, "FLAT:" + insertKey, "FLAT", insertKey);
+      data.put(insertKey, insertBlock);
+      inserts.add(insertBlock);
+    }
+    builder.updateDataBlocks(inserts, deletes);
+
+    Broadcast broadcast    = builder.assembleBroadcast();
+    BroadcastClient client = new BroadcastClient(broadcast);
+    QueryResult result     = new QueryResult();
+    for (String searchKey : data.keySet()) {
+      for (int startPos = 0; startPos < broadcast.getBlockCount(); startPos += 7)
+        assertTrue("Key '" + searchKey + "' should be found from " + startPos, client.search(startPos, searchKey, result));
+    }
+    for (String deleteKey : deletes)
+      assertFalse("Deleted key '" + deleteKey + "' should not be found", client.search(0, deleteKey, result));
+
+    KeyDictionary keyDictionary = builder.getKeyDictionary();
+    for (String searchKey : data.keySet()) {
+      if (oldOrdinals.containsKey(searchKey))
+        assertEquals("Key '" + searchKey + "' should keep its ordinal", (int)oldOrdinals.get(searchKey), keyDictionary.getOrdinal(searchKey));
+      else assertTrue("Key '" + searchKey + "' should be known", KeyDictionary.isKnownOrdinal(keyDictionary.getOrdinal(searchKey)));
+    }
+    compareEncodedLookups(builder, data.keySet());
+    compareSnapshotOrdinals(builder, data.keySet());
+
+    //Ten new keys between two neighbours is more than the gap between their ordinals can hold
+    List<DataBlock> crowdedInserts = new ArrayList<DataBlock>();
+    List<String> crowdedDeletes    = new ArrayList<String>();
+    for (int changePos = 0; changePos < 10; changePos++) {
+      String insertKey = MockDataBlockFactory.generateKey(250) + "y" + changePos;
+      DataBlock insertBlock = new MockDataBlock(insertKey, changePos, "FLAT:" + insertKey, "FLAT", insertKey);
+      data.put(insertKey, insertBlock);
+      crowdedInserts.add(insertBlock);
+      String deleteKey = MockDataBlockFactory.generateKey(401 + changePos);
+      data.remove(deleteKey);
+      crowdedDeletes.add(deleteKey);
+    }
+    builder.updateDataBlocks(crowdedInserts, crowdedDeletes);
+    assertEquals("Every global index should be rebuilt", 50, builder.getReindexedBucketCount());
+    compareBcasts(buildFlat(new ArrayList<DataBlock>(data.values()), true).assembleBcast(), builder.assembleBcast());
+    compareEncodedLookups(builder, data.keySet());
+    compareSnapshotOrdinals(builder, data.keySet());
+  }
+
+  /**
+   * Helper method to generate a sorted data set, keyed by its search keys.
+   */
+  private TreeMap<String, DataBlock> generateData(int blockCount) {
+    TreeMap<String, DataBlock> data = new TreeMap<String, DataBlock>();
+    for (DataBlock dataBlock : MockDataBlockFactory.generateSortedBlocks("FLAT", blockCount))
+      data.put(dataBlock.getDataKey(), dataBlock);
+    return data;
+  }
+
+  /**
+   * Helper method to build a flat bcast from scratch.
+   */
+  private FlatBroadcastBuilder buildFlat(List<DataBlock> dataBlocks, boolean useKeyDictionary) {
+    FlatBroadcastBuilder builder = new FlatBroadcastBuilder(2, 10, false);
+    builder.setUseKeyDictionary(useKeyDictionary);
+    List<DataBlock> clonedBlocks = new ArrayList<DataBlock>(dataBlocks.size());
+    for (DataBlock dataBlock : dataBlocks)
+      clonedBlocks.add((DataBlock)dataBlock.clone());
+    builder.assignDataBlocks(clonedBlocks);
+    builder.constructGlobalIndices();
+    return builder;
+  }
+
+  /**
+   * Helper method to list the max key of every global index row in a bcast, in order.
+   */
+  private List<String> getGlobalMaxKeys(List<Block> bcast) {
+    List<String> maxKeys = new ArrayList<String>();
+    for (Block curBlock : bcast) {
+      if (curBlock instanceof GlobalFlatIndexBlock) {
+        for (GlobalIndexArrayItem indexItem : ((GlobalFlatIndexBlock)curBlock).getExponentialIndex())
+          maxKeys.add(indexItem.getMaxKeyValue());
+      }
+    }
+    return maxKeys;
+  }
+
+  /**
+   * Helper method to check that every index block in the builder's bcast gives the same answer for a key
+   * as for its ordinal in the builder's current dictionary, for keys in the bcast and keys next to them.
+   */
+  private void compareEncodedLookups(FlatBroadcastBuilder builder, Iterable<String> searchKeys) {
+    KeyDictionary keyDictionary = builder.getKeyDictionary();
+    List<String> lookupKeys     = new ArrayList<String>();
+    for (String searchKey : searchKeys) {
+      lookupKeys.add(searchKey);
+      lookupKeys.add(searchKey + "!");
+    }
+    for (Block curBlock : builder.assembleBcast()) {
+      if (!(curBlock instanceof IndexBlock))
+        continue;
+      IndexBlock indexBlock = (IndexBlock)curBlock;
+      for (String lookupKey : lookupKeys) {
+        assertEquals("Lookup of '" + lookupKey + "' in " + indexBlock.getBlockID() + " should match its ordinal",
+            lookupOrError(indexBlock, lookupKey), lookupOrError(indexBlock, null, keyDictionary.getOrdinal(lookupKey)));
+      }
+    }
+  }
+
+  /**
+   * Helper method to write the builder's bcast to a snapshot, and check that the snapshot translates keys
+   * to the same ordinals as the builder's dictionary, including keys that aren't in the bcast.
+   */
+  private void compareSnapshotOrdinals(FlatBroadcastBuilder builder, Iterable<String> searchKeys) throws IOException {
+    File snapshotFile = tempFolder.newFile();
+    BroadcastSnapshot.write(snapshotFile, builder.assembleBcast(), new BlockCodec(builder), 10);
+    MappedBroadcast mapped = BroadcastSnapshot.open(snapshotFile);
+
+    KeyDictionary keyDictionary = builder.getKeyDictionary();
+    assertEquals("Key counts should match", keyDictionary.getKeyCount(), mapped.getKeyCount());
+    for (String searchKey : searchKeys) {
+      assertEquals("Ordinal for '" + searchKey + "' should match", keyDictionary.getOrdinal(searchKey), mapped.getOrdinal(searchKey));
+      assertEquals("Ordinal after '" + searchKey + "' should match", keyDictionary.getOrdinal(searchKey + "!"), mapped.getOrdinal(searchKey + "!"));
+    }
+    assertEquals("Ordinal before every key should match", keyDictionary.getOrdinal(""), mapped.getOrdinal(""));
+    assertEquals("Ordinal past every key should match", keyDictionary.getOrdinal("~"), mapped.getOrdinal("~"));
+  }
+
+  /**
+   * Helper method to check that two bcasts have the same shape, keys, offsets and index rows.  Block ids
+   * are allowed to differ.
+   */
+  private void compareBcasts(List<Block> expected, List<Block> actual) {
+    assertEquals("The bcasts should be the same length", expected.size(), actual.size());
+    for (int blockPos = 0; blockPos < expected.size(); blockPos++) {
+      Block expectedBlock = expected.get(blockPos);
+      Block actualBlock   = actual.get(blockPos);
+      String message      = "Block " + blockPos;
+      assertEquals(message, expectedBlock.getBlockType(), actualBlock.getBlockType());
+      assertEquals(message, expectedBlock.getNextIndexOffset(), actualBlock.getNextIndexOffset());
+
+      if (expectedBlock instanceof DataBlock) {
+        assertEquals(message, ((DataBlock)expectedBlock).getDataKey(), ((DataBlock)actualBlock).getDataKey());
+      } else if (expectedBlock instanceof LocalIndexBlock) {
+        List<LocalIndexArrayItem> expectedRows = ((LocalIndexBlock)expectedBlock).getLocalIndex();
+        List<LocalIndexArrayItem> actualRows   = ((LocalIndexBlock)actualBlock).getLocalIndex();
+        assertEquals(message, expectedRows.size(), actualRows.size());
+        for (int rowPos = 0; rowPos < expectedRows.size(); rowPos++) {
+          assertEquals(message, expectedRows.get(rowPos).getBlockKeyValue(), actualRows.get(rowPos).getBlockKeyValue());
+          assertEquals(message, expectedRows.get(rowPos).getWaitTimeAsBlocks(), actualRows.get(rowPos).getWaitTimeAsBlocks());
+        }
+      } else {
+        GlobalFlatIndexBlock expectedIndex = (GlobalFlatIndexBlock)expectedBlock;
+        GlobalFlatIndexBlock actualIndex   = (GlobalFlatIndexBlock)actualBlock;
+        assertEquals(message, expectedIndex.getFirstBucketValue(), actualIndex.getFirstBucketValue());
+        List<GlobalIndexArrayItem> expectedRows = expectedIndex.getExponentialIndex();
+        List<GlobalIndexArrayItem> actualRows   = actualIndex.getExponentialIndex();
+        assertEquals(message, expectedRows.size(), actualRows.size());
+        for (int rowPos = 0; rowPos < expectedRows.size(); rowPos++) {
+          assertEquals(message, expectedRows.get(rowPos).getMaxKeyValue(), actualRows.get(rowPos).getMaxKeyValue());
+          assertEquals(message, expectedRows.get(rowPos).getWaitTimeAsBlocks(), actualRows.get(rowPos).getWaitTimeAsBlocks());
+          assertEquals(message, expectedRows.get(rowPos).getWaitTimeAsBuckets(), actualRows.get(rowPos).getWaitTimeAsBuckets());
+        }
+      }
+    }
+  }
+}
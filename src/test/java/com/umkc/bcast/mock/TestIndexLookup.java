@@ -0,0 +1,475 @@
+package com.umkc.bcast.mock;
+
+import static org.junit.Assert.*;
+import static com.umkc.bcast.data.mock.IndexLookupHelper.lookupOrError;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.umkc.bcast.BroadcastBuilder;
+import com.umkc.bcast.data.Block;
+import com.umkc.bcast.data.BlockType;
+import com.umkc.bcast.data.ClusterDictionary;
+import com.umkc.bcast.data.GlobalIndexArrayItem;
+import com.umkc.bcast.data.IndexBlock;
+import com.umkc.bcast.data.KeyDictionary;
+import com.umkc.bcast.data.LocalIndexArrayItem;
+import com.umkc.bcast.data.impl.GlobalClusterIndexBlock;
+import com.umkc.bcast.data.impl.GlobalFlatIndexBlock;
+import com.umkc.bcast.data.impl.LocalIndexBlock;
+import com.umkc.bcast.data.mock.MockDataBlockFactory;
+import com.umkc.bcast.util.ClusteredBroadcastBuilder;
+import com.umkc.bcast.util.FlatBroadcastBuilder;
+
+/**
+ * This test class verifies that the frozen (binary searched) index lookups return the same offsets
+ * as the original linear scans, and prints some simple timings to show how the lookups scale as
+ * the index grows.
+ *
+ * @author ac010168
+ *
+ */
+public class TestIndexLookup {
+
+  /**
+   * Build a series of flat index blocks of increasing size, and compare the frozen lookups against
+   * the original linear scan for every key in (and a few keys outside of) the index.
+   */
+  @Test
+  public void testFlatIndexLookupMatchesScan() {
+    System.out.println ("**********  testFlatIndexLookupMatchesScan()  **********");
+    Random random = new Random(5572);
+
+    for (int rowCount = 2; rowCount <= 512; rowCount *= 2) {
+      for (int wrapPos = 1; wrapPos <= rowCount; wrapPos += Math.max(1, rowCount / 8)) {
+        List<GlobalIndexArrayItem> rows = generateFlatRows(rowCount, wrapPos);
+        String firstBucketValue = generateKey((4 * (rowCount - wrapPos)) + 1);
+        GlobalFlatIndexBlock indexBlock = buildFlatBlock(firstBucketValue, rows);
+
+        for (int keyPos = 0; keyPos <= (4 * rowCount) + 4; keyPos++) {
+          String searchKey = generateKey(keyPos);
+          assertEquals("Frozen lookup for '" + searchKey + "' should match the scan",
+              scanFlatIndex(firstBucketValue, rows, searchKey), lookupOrError(indexBlock, searchKey));
+        }
+      }
+
+      //An unsorted index should still give us the same answers as before
+      List<GlobalIndexArrayItem> rows = generateFlatRows(rowCount, rowCount / 2);
+      for (int swapCtr = 0; swapCtr < rowCount / 2; swapCtr++) {
+        int swap1 = random.nextInt(rowCount);
+        int swap2 = random.nextInt(rowCount);
+        GlobalIndexArrayItem swapItem = rows.get(swap1);
+        rows.set(swap1, rows.get(swap2));
+        rows.set(swap2, swapItem);
+      }
+      String firstBucketValue = generateKey(2 * rowCount);
+      GlobalFlatIndexBlock indexBlock = buildFlatBlock(firstBucketValue, rows);
+      for (int keyPos = 0; keyPos <= (4 * rowCount) + 4; keyPos++) {
+        String searchKey = generateKey(keyPos);
+        assertEquals("Unsorted lookup for '" + searchKey + "' should match the scan",
+            scanFlatIndex(firstBucketValue, rows, searchKey), lookupOrError(indexBlock, searchKey));
+      }
+    }
+  }
+
+  /**
+   * Simple timing harness to show that the lookup cost stays (near) flat as the index grows.  This
+   * doesn't assert anything about the timings, since they are machine dependent.
+   */
+  @Test
+  public void testFlatIndexLookupTiming() {
+    System.out.println ("**********  testFlatIndexLookupTiming()  **********");
+    Random random  = new Random(5572);
+    int lookups    = 200000;
+    long checksum  = 0;
+
+    for (int rowCount = 16; rowCount <= 65536; rowCount *= 4) {
+      List<GlobalIndexArrayItem> rows = generateFlatRows(rowCount, rowCount / 2);
+      String firstBucketValue = generateKey(2 * rowCount + 1);
+      GlobalFlatIndexBlock indexBlock = buildFlatBlock(firstBucketValue, rows);
+
+      String[] searchKeys = new String[1024];
+      for (int keyPos = 0; keyPos < searchKeys.length; keyPos++)
+        searchKeys[keyPos] = generateKey(random.nextInt(4 * rowCount));
+
+      //Warm up, then time
+      for (int loopCtr = 0; loopCtr < lookups; loopCtr++)
+        checksum += lookupOrError(indexBlock, searchKeys[loopCtr & 1023]);
+      long startTime = System.nanoTime();
+      for (int loopCtr = 0; loopCtr < lookups; loopCtr++)
+        checksum += lookupOrError(indexBlock, searchKeys[loopCtr & 1023]);
+      long frozenTime = System.nanoTime() - startTime;
+
+      startTime = System.nanoTime();
+      for (int loopCtr = 0; loopCtr < (lookups / 100); loopCtr++)
+        checksum += scanFlatIndex(firstBucketValue, rows, searchKeys[loopCtr & 1023]);
+      long scanTime = (System.nanoTime() - startTime) * 100;
+
+      System.out.println ("Index Rows: " + rowCount + "  Frozen ns/lookup: " + (frozenTime / lookups) +
+          "  Linear ns/lookup: " + (scanTime / lookups));
+    }
+
+    assertTrue("Checksum should have accumulated offsets", checksum != 0);
+  }
+
+  /**
+   * Build local indexes of increasing size with keys added out of order (and a few duplicates), and
+   * compare the frozen lookups against the original linear scan for both hits and misses.
+   */
+  @Test
+  public void testLocalIndexLookupMatchesScan() {
+    System.out.println ("**********  testLocalIndexLookupMatchesScan()  **********");
+    Random random = new Random(5572);
+
+    for (int rowCount = 1; rowCount <= 1024; rowCount *= 2) {
+      List<LocalIndexArrayItem> rows = new ArrayList<LocalIndexArrayItem>(rowCount);
+      for (int rowPos = 0; rowPos < rowCount; rowPos++)
+        rows.add(new LocalIndexArrayItem(rowPos, generateKey(2 * random.nextInt(rowCount) + 1)));
+
+      LocalIndexBlock indexBlock = new LocalIndexBlock();
+      indexBlock.setBlockID("LocalIndex Test");
+      for (LocalIndexArrayItem indexItem : rows)
+        indexBlock.addIndexRow(indexItem);
+      indexBlock.freezeIndex();
+
+      for (int keyPos = 0; keyPos <= (2 * rowCount) + 2; keyPos++) {
+        String searchKey = generateKey(keyPos);
+        assertEquals("Frozen lookup for '" + searchKey + "' should match the scan",
+            scanLocalIndex(rows, searchKey), indexBlock.getNextReadOffset(searchKey));
+      }
+    }
+  }
+
+  /**
+   * Simple timing harness for the local index, looking up a mix of hits and misses in buckets
+   * of increasing size.
+   */
+  @Test
+  public void testLocalIndexLookupTiming() {
+    System.out.println ("**********  testLocalIndexLookupTiming()  **********");
+    Random random  = new Random(5572);
+    int lookups    = 200000;
+    long checksum  = 0;
+
+    for (int rowCount = 8; rowCount <= 2048; rowCount *= 4) {
+      List<LocalIndexArrayItem> rows = new ArrayList<LocalIndexArrayItem>(rowCount);
+      LocalIndexBlock indexBlock = new LocalIndexBlock();
+      for (int rowPos = 0; rowPos < rowCount; rowPos++) {
+        LocalIndexArrayItem indexItem = new LocalIndexArrayItem(rowPos, generateKey(2 * rowPos + 1));
+        rows.add(indexItem);
+        indexBlock.addIndexRow(indexItem);
+      }
+      indexBlock.freezeIndex();
+
+      //Even positions are misses inside the bucket range, odd positions are hits
+      String[] searchKeys = new String[1024];
+      for (int keyPos = 0; keyPos < searchKeys.length; keyPos++)
+        searchKeys[keyPos] = generateKey(random.nextInt(2 * rowCount));
+
+      for (int loopCtr = 0; loopCtr < lookups; loopCtr++)
+        checksum += indexBlock.getNextReadOffset(searchKeys[loopCtr & 1023]);
+      long startTime = System.nanoTime();
+      for (int loopCtr = 0; loopCtr < lookups; loopCtr++)
+        checksum += indexBlock.getNextReadOffset(searchKeys[loopCtr & 1023]);
+      long frozenTime = System.nanoTime() - startTime;
+
+      startTime = System.nanoTime();
+      for (int loopCtr = 0; loopCtr < (lookups / 10); loopCtr++)
+        checksum += scanLocalIndex(rows, searchKeys[loopCtr & 1023]);
+      long scanTime = (System.nanoTime() - startTime) * 10;
+
+      System.out.println ("Local Rows: " + rowCount + "  Frozen ns/lookup: " + (frozenTime / lookups) +
+          "  Linear ns/lookup: " + (scanTime / lookups));
+    }
+
+    assertTrue("Checksum should have accumulated offsets", checksum != 0);
+  }
+
+  /**
+   * Build a flat bcast with a key dictionary, and make sure every index block gives the same answer
+   * for an ordinal as it does for the original key, including keys that are not in the bcast.
+   */
+  @Test
+  public void testFlatOrdinalLookupsMatchKeys() {
+    System.out.println ("**********  testFlatOrdinalLookupsMatchKeys()  **********");
+    
+    BroadcastBuilder builder = new FlatBroadcastBuilder(2, 10, false);
+    builder.setUseKeyDictionary(true);
+    builder.assignDataBlocks(MockDataBlockFactory.generateSortedBlocks("ALPHA", 500));
+    builder.constructGlobalIndices();
+    List<Block> bcast = builder.assembleBcast();
+    
+    KeyDictionary keyDictionary = builder.getKeyDictionary();
+    assertEquals("Every key should be in the dictionary", 500, keyDictionary.getKeyCount());
+    
+    List<String> searchKeys = generateSearchKeys(500);
+    for (Block curBlock : bcast) {
+      if (curBlock.getBlockType() == BlockType.DATA_BLOCK)
+        continue;
+      IndexBlock indexBlock = (IndexBlock)curBlock;
+      for (String searchKey : searchKeys) {
+        assertEquals("Ordinal lookup for '" + searchKey + "' in " + indexBlock.getBlockID() + " should match",
+            lookupOrError(indexBlock, null, searchKey), lookupOrError(indexBlock, null, keyDictionary.getOrdinal(searchKey)));
+      }
+    }
+  }
+  
+  /**
+   * Build a clustered bcast with a key dictionary, and make sure every index block gives the same answer
+   * for an ordinal as it does for the original key.
+   */
+  @Test
+  public void testClusteredOrdinalLookupsMatchKeys() {
+    System.out.println ("**********  testClusteredOrdinalLookupsMatchKeys()  **********");
+    
+    BroadcastBuilder builder = new ClusteredBroadcastBuilder(2, 10, false);
+    builder.setUseKeyDictionary(true);
+    List<String> clusterOrder = new ArrayList<String>();
+    clusterOrder.add("ALPHA");
+    clusterOrder.add("BETA");
+    clusterOrder.add("GAMMA");
+    for (String clusterGroup : clusterOrder)
+      builder.assignDataBlocks(MockDataBlockFactory.generateSortedBlocks(clusterGroup, 200));
+    builder.addClusterKeys(clusterOrder);
+    builder.constructGlobalIndices();
+    List<Block> bcast = builder.assembleBcast();
+    
+    KeyDictionary keyDictionary = builder.getKeyDictionary();
+    List<String> searchKeys = generateSearchKeys(200);
+    for (Block curBlock : bcast) {
+      if (curBlock.getBlockType() == BlockType.DATA_BLOCK)
+        continue;
+      IndexBlock indexBlock = (IndexBlock)curBlock;
+      String clusterGroup = (curBlock.getBlockType() == BlockType.LOCAL_INDEX_BLOCK) ? null : "BETA";
+      for (String searchKey : searchKeys) {
+        assertEquals("Ordinal lookup for '" + searchKey + "' in " + indexBlock.getBlockID() + " should match",
+            lookupOrError(indexBlock, clusterGroup, searchKey), 
+            lookupOrError(indexBlock, clusterGroup, keyDictionary.getOrdinal(searchKey)));
+        if (clusterGroup != null) {
+          int clusterId = builder.getClusterDictionary().getClusterId(clusterGroup);
+          int expected  = lookupOrError(indexBlock, clusterGroup, searchKey);
+          int actual    = Integer.MIN_VALUE;
+          try {
+            actual = indexBlock.getNextReadOffset(clusterId, keyDictionary.getOrdinal(searchKey));
+          } catch (RuntimeException e) {
+            //Expected to fail in the same cases as the String version
+          }
+          assertEquals("Cluster id and ordinal lookup for '" + searchKey + "' in " + indexBlock.getBlockID() + " should match",
+              expected, actual);
+        }
+      }
+    }
+  }
+
+  /**
+   * Build a cluster index block with a large number of clusters, and make sure the cluster id lookups
+   * give the same answers as the original name comparisons, regardless of case.
+   */
+  @Test
+  public void testClusterIdLookupsMatchNames() {
+    System.out.println ("**********  testClusterIdLookupsMatchNames()  **********");
+    int clusterCount = 2000;
+    
+    List<String> clusterOrder = new ArrayList<String>(clusterCount);
+    for (int clusterPos = 0; clusterPos < clusterCount; clusterPos++)
+      clusterOrder.add("Exchange-" + clusterPos);
+    
+    GlobalClusterIndexBlock nameBlock = buildClusterBlock(clusterOrder, 7);
+    GlobalClusterIndexBlock idBlock   = buildClusterBlock(clusterOrder, 7);
+    ClusterDictionary clusterDictionary = new ClusterDictionary(clusterOrder);
+    idBlock.assignClusterIds(clusterDictionary);
+    
+    List<String> searchClusters = new ArrayList<String>();
+    for (String clusterGroup : clusterOrder) {
+      searchClusters.add(clusterGroup);
+      searchClusters.add(clusterGroup.toUpperCase());
+    }
+    searchClusters.add("Missing-Exchange");
+    
+    for (String searchCluster : searchClusters) {
+      for (String searchKey : new String[] { "a", "k000000010", "k000000025", "z" }) {
+        assertEquals("Cluster lookup for [" + searchCluster + ", " + searchKey + "] should match",
+            lookupOrError(nameBlock, searchCluster, searchKey), lookupOrError(idBlock, searchCluster, searchKey));
+        assertEquals("Cluster id lookup for [" + searchCluster + ", " + searchKey + "] should match",
+            lookupOrError(nameBlock, searchCluster, searchKey), 
+            lookupOrError(idBlock, clusterDictionary.getClusterId(searchCluster), searchKey));
+      }
+    }
+    
+    //Simple timing comparison of the cluster hop
+    int lookups   = 100000;
+    long checksum = 0;
+    long startTime = System.nanoTime();
+    for (int loopCtr = 0; loopCtr < lookups; loopCtr++)
+      checksum += idBlock.getNextReadOffset(loopCtr % clusterCount, "k000000010");
+    long idTime = System.nanoTime() - startTime;
+    startTime = System.nanoTime();
+    for (int loopCtr = 0; loopCtr < lookups; loopCtr++)
+      checksum += nameBlock.getNextReadOffset(clusterOrder.get(loopCtr % clusterCount), "k000000010");
+    long nameTime = System.nanoTime() - startTime;
+    System.out.println ("Clusters: " + clusterCount + "  Cluster id ns/lookup: " + (idTime / lookups) + 
+        "  Cluster name ns/lookup: " + (nameTime / lookups));
+    assertTrue("Checksum should have accumulated offsets", checksum != 0);
+
+    //Translating the cluster name should not copy it
+    ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+    if (threadBean instanceof com.sun.management.ThreadMXBean) {
+      com.sun.management.ThreadMXBean allocationBean = (com.sun.management.ThreadMXBean)threadBean;
+      for (int loopCtr = 0; loopCtr < lookups; loopCtr++)
+        checksum += idBlock.getNextReadOffset(searchClusters.get(loopCtr % (searchClusters.size() - 1)), "k000000010");
+      long beforeBytes = allocationBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+      for (int loopCtr = 0; loopCtr < lookups; loopCtr++)
+        checksum += idBlock.getNextReadOffset(searchClusters.get(loopCtr % (searchClusters.size() - 1)), "k000000010");
+      long allocatedBytes = allocationBean.getThreadAllocatedBytes(Thread.currentThread().getId()) - beforeBytes;
+      System.out.println ("Bytes allocated by " + lookups + " cluster name lookups: " + allocatedBytes);
+      assertTrue("Cluster name lookups should not allocate: " + allocatedBytes, allocatedBytes < 1024);
+    }
+  }
+
+  /**
+   * A flat index that was never frozen should refuse lookups, rather than freezing itself on whichever
+   * reader gets to it first.
+   */
+  @Test
+  public void testUnfrozenFlatIndexFailsFast() {
+    System.out.println ("**********  testUnfrozenFlatIndexFailsFast()  **********");
+    GlobalFlatIndexBlock indexBlock = new GlobalFlatIndexBlock(generateKey(17));
+    indexBlock.setBlockID("GlobalIndex Test");
+    for (GlobalIndexArrayItem indexItem : generateFlatRows(8, 4))
+      indexBlock.addIndexRow(indexItem);
+
+    try {
+      indexBlock.getNextReadOffset(generateKey(17));
+      fail("Lookups on an unfrozen index should fail");
+    } catch (RuntimeException e) {
+      assertTrue(e.getMessage().contains("has not been frozen"));
+    }
+
+    //Once it's frozen the lookups work, but adding another row puts it back to unfrozen
+    indexBlock.freezeIndex();
+    indexBlock.getNextReadOffset(generateKey(17));
+    indexBlock.addIndexRow(new GlobalIndexArrayItem(16, 160, generateKey(8)));
+    try {
+      indexBlock.getNextReadOffset(generateKey(17));
+      fail("Lookups after adding a row should fail until the index is frozen again");
+    } catch (RuntimeException e) {
+      assertTrue(e.getMessage().contains("has not been frozen"));
+    }
+  }
+
+  /**
+   * Helper method to generate a set of exponential index rows, where the first wrapPos rows are after
+   * the firstBucketValue and the remaining rows have wrapped back around to the start of the data set.
+   * Keys are spaced 4 apart so we have room to search for keys that fall between rows.
+   *
+   * @param rowCount The number of index rows to create
+   * @param wrapPos  The position of the first row that has wrapped
+   *
+   * @return The list of index rows
+   */
+  private List<GlobalIndexArrayItem> generateFlatRows(int rowCount, int wrapPos) {
+    List<GlobalIndexArrayItem> rows = new ArrayList<GlobalIndexArrayItem>(rowCount);
+    int wrappedRows = rowCount - wrapPos;
+    for (int rowPos = 0; rowPos < rowCount; rowPos++) {
+      int keyPos = (rowPos < wrapPos) ? (4 * (wrappedRows + rowPos)) + 2 : (4 * (rowPos - wrapPos)) + 2;
+      rows.add(new GlobalIndexArrayItem(rowPos, (rowPos * 12) - 1, generateKey(keyPos)));
+    }
+    return rows;
+  }
+
+  /**
+   * Helper method to assemble a frozen GlobalFlatIndexBlock from a list of rows.
+   *
+   * @param firstBucketValue The first key in the bucket
+   * @param rows The index rows
+   *
+   * @return The frozen index block
+   */
+  private GlobalFlatIndexBlock buildFlatBlock(String firstBucketValue, List<GlobalIndexArrayItem> rows) {
+    GlobalFlatIndexBlock indexBlock = new GlobalFlatIndexBlock(firstBucketValue);
+    indexBlock.setBlockID("GlobalIndex Test");
+    for (GlobalIndexArrayItem indexItem : rows)
+      indexBlock.addIndexRow(indexItem);
+    indexBlock.freezeIndex();
+    return indexBlock;
+  }
+
+  /**
+   * Helper method to build a GlobalClusterIndexBlock for the bucket at the given position of the first
+   * cluster, where each cluster is 10 buckets of 10 blocks.
+   */
+  private GlobalClusterIndexBlock buildClusterBlock(List<String> clusterOrder, int bucketPos) {
+    int clusterBuckets = 10;
+    int totalBuckets   = clusterBuckets * clusterOrder.size();
+    GlobalClusterIndexBlock indexBlock = new GlobalClusterIndexBlock(clusterOrder.get(0), MockDataBlockFactory.generateKey(bucketPos * 10));
+    indexBlock.setBlockID("GlobalIndex Test");
+    for (int clusterPos = 1; clusterPos <= clusterOrder.size(); clusterPos++) {
+      int waitBuckets = (clusterPos * clusterBuckets) - bucketPos;
+      if (clusterPos == clusterOrder.size())
+        waitBuckets = totalBuckets - bucketPos;
+      indexBlock.addClusterIndexRow(new GlobalIndexArrayItem(waitBuckets, (waitBuckets * 12) - 1, clusterOrder.get(clusterPos % clusterOrder.size())));
+    }
+    indexBlock.addExponentialIndexRow(new GlobalIndexArrayItem(0, 0, MockDataBlockFactory.generateKey(bucketPos * 10 + 9)));
+    indexBlock.addExponentialIndexRow(new GlobalIndexArrayItem(1, 11, MockDataBlockFactory.generateKey(bucketPos * 10 + 19)));
+    indexBlock.addExponentialIndexRow(new GlobalIndexArrayItem(2, 23, MockDataBlockFactory.generateKey(clusterBuckets * 10 - 1)));
+    return indexBlock;
+  }
+
+  /**
+   * Helper method to generate every key used by MockDataBlockFactory for the given count, plus
+   * keys that fall before, between and after them.
+   */
+  private List<String> generateSearchKeys(int blockCount) {
+    List<String> searchKeys = new ArrayList<String>();
+    searchKeys.add("a");
+    for (int blockPos = 0; blockPos < blockCount; blockPos++) {
+      searchKeys.add(MockDataBlockFactory.generateKey(blockPos));
+      searchKeys.add(MockDataBlockFactory.generateKey(blockPos) + "x");
+    }
+    searchKeys.add("z");
+    return searchKeys;
+  }
+
+  /**
+   * Reference copy of the original linear GlobalFlatIndexBlock lookup.
+   */
+  private int scanFlatIndex(String firstBucketValue, List<GlobalIndexArrayItem> rows, String searchKey) {
+    if (searchKey.compareTo(firstBucketValue) < 0) {
+      for (GlobalIndexArrayItem indexItem : rows) {
+        if ((indexItem.getMaxKeyValue().compareTo(firstBucketValue) < 0) && (searchKey.compareTo(indexItem.getMaxKeyValue()) <= 0))
+          return indexItem.getWaitTimeAsBlocks();
+      }
+    } else {
+      for (GlobalIndexArrayItem indexItem : rows) {
+        if (searchKey.compareTo(indexItem.getMaxKeyValue()) <= 0)
+          return indexItem.getWaitTimeAsBlocks();
+        else if ((searchKey.compareTo(indexItem.getMaxKeyValue()) > 0) && (firstBucketValue.compareTo(indexItem.getMaxKeyValue()) > 0))
+          return indexItem.getWaitTimeAsBlocks();
+      }
+    }
+    return Integer.MIN_VALUE;
+  }
+
+  /**
+   * Reference copy of the original linear LocalIndexBlock lookup.
+   */
+  private int scanLocalIndex(List<LocalIndexArrayItem> rows, String searchKey) {
+    for (LocalIndexArrayItem localItem : rows) {
+      if (localItem.getBlockKeyValue().compareTo(searchKey) == 0)
+        return localItem.getWaitTimeAsBlocks();
+    }
+    return -1;
+  }
+
+  /**
+   * Helper method to generate lexically ordered keys.
+   */
+  private String generateKey(int keyPos) {
+    return String.format("key%09d", keyPos);
+  }
+}
@@ -0,0 +1,125 @@
+package com.umkc.bcast.mock;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+import com.umkc.bcast.BroadcastBuilder;
+import com.umkc.bcast.data.Block;
+import com.umkc.bcast.data.mock.MockDataBlockFactory;
+import com.umkc.bcast.io.BlockCodec;
+import com.umkc.bcast.util.ClusteredBroadcastBuilder;
+import com.umkc.bcast.util.FlatBroadcastBuilder;
+
+/**
+ * This test class builds the same bcasts with and without an index pool, and verifies that the parallel
+ * build produces exactly the same bytes as the sequential build.  The speedup is printed for reference.
+ *
+ * @author ac010168
+ *
+ */
+public class TestParallelBuild {
+
+  /**
+   * Build a large flat bcast both ways and compare every encoded block.
+   */
+  @Test
+  public void testFlatParallelBuildMatchesSequential() {
+    System.out.println ("**********  testFlatParallelBuildMatchesSequential()  **********");
+    int dataBlockCount = 200000;
+
+    BroadcastBuilder sequentialBuilder = new FlatBroadcastBuilder(2, 10, false);
+    sequentialBuilder.setUseKeyDictionary(true);
+    sequentialBuilder.assignDataBlocks(MockDataBlockFactory.generateSortedBlocks("FLAT", dataBlockCount));
+    sequentialBuilder.constructGlobalIndices();
+
+    ForkJoinPool indexPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+    try {
+      BroadcastBuilder parallelBuilder = new FlatBroadcastBuilder(2, 10, false);
+      parallelBuilder.setUseKeyDictionary(true);
+      parallelBuilder.setIndexPool(indexPool);
+      parallelBuilder.assignDataBlocks(MockDataBlockFactory.generateSortedBlocks("FLAT", dataBlockCount));
+      parallelBuilder.constructGlobalIndices();
+
+      compareBuilds(sequentialBuilder, parallelBuilder);
+    } finally {
+      indexPool.shutdown();
+    }
+  }
+
+  /**
+   * Build a clustered bcast with many clusters both ways and compare every encoded block.
+   */
+  @Test
+  public void testClusteredParallelBuildMatchesSequential() {
+    System.out.println ("**********  testClusteredParallelBuildMatchesSequential()  **********");
+    int clusterCount = 500;
+
+    List<String> clusterOrder = new ArrayList<String>();
+    for (int clusterPos = 0; clusterPos < clusterCount; clusterPos++)
+      clusterOrder.add("CLUSTER" + clusterPos);
+
+    BroadcastBuilder sequentialBuilder = buildClustered(clusterOrder, null);
+    ForkJoinPool indexPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+    try {
+      BroadcastBuilder parallelBuilder = buildClustered(clusterOrder, indexPool);
+      compareBuilds(sequentialBuilder, parallelBuilder);
+    } finally {
+      indexPool.shutdown();
+    }
+  }
+
+  /**
+   * Helper method to build a clustered bcast with uneven cluster sizes.
+   */
+  private BroadcastBuilder buildClustered(List<String> clusterOrder, ForkJoinPool indexPool) {
+    BroadcastBuilder builder = new ClusteredBroadcastBuilder(2, 5, false);
+    builder.setUseKeyDictionary(true);
+    builder.setIndexPool(indexPool);
+    for (int clusterPos = 0; clusterPos < clusterOrder.size(); clusterPos++)
+      builder.assignDataBlocks(MockDataBlockFactory.generateSortedBlocks(clusterOrder.get(clusterPos), 5 * (1 + (clusterPos % 7))));
+    builder.addClusterKeys(clusterOrder);
+    builder.constructGlobalIndices();
+    return builder;
+  }
+
+  /**
+   * Helper method to compare the encoded bytes of two builds of the same bcast, and print the speedup.
+   *
+   * @param sequentialBuilder The builder that constructed its global indices sequentially
+   * @param parallelBuilder   The builder that constructed its global indices on an index pool
+   */
+  private void compareBuilds(BroadcastBuilder sequentialBuilder, BroadcastBuilder parallelBuilder) {
+    System.out.println ("Workers: " + parallelBuilder.getIndexPool().getParallelism() +
+        "  Sequential: " + (sequentialBuilder.getIndexBuildNanos() / 1000000) + "ms" +
+        "  Parallel: " + (parallelBuilder.getIndexBuildNanos() / 1000000) + "ms" +
+        "  Speedup: " + String.format("%.2f", (double)sequentialBuilder.getIndexBuildNanos() / parallelBuilder.getIndexBuildNanos()) + "x");
+
+    List<Block> sequentialBcast = sequentialBuilder.viewBcast();
+    List<Block> parallelBcast   = parallelBuilder.viewBcast();
+    assertEquals("Both builds should have the same number of blocks", sequentialBcast.size(), parallelBcast.size());
+
+    BlockCodec sequentialCodec = new BlockCodec(sequentialBuilder);
+    BlockCodec parallelCodec   = new BlockCodec(parallelBuilder);
+    ByteBuffer sequentialBuffer = ByteBuffer.allocate(1 << 16);
+    ByteBuffer parallelBuffer   = ByteBuffer.allocate(1 << 16);
+    for (int blockPos = 0; blockPos < sequentialBcast.size(); blockPos++) {
+      Block sequentialBlock = sequentialBcast.get(blockPos);
+      Block parallelBlock   = parallelBcast.get(blockPos);
+      assertEquals("Block name at " + blockPos + " should match", sequentialBlock.getBlockID(), parallelBlock.getBlockID());
+
+      sequentialBuffer.clear();
+      parallelBuffer.clear();
+      sequentialCodec.encode(sequentialBlock, sequentialBuffer);
+      parallelCodec.encode(parallelBlock, parallelBuffer);
+      sequentialBuffer.flip();
+      parallelBuffer.flip();
+      assertEquals("Encoded block at " + blockPos + " should match", sequentialBuffer, parallelBuffer);
+    }
+  }
+}
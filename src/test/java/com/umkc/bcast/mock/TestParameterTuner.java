@@ -0,0 +1,97 @@
+package com.umkc.bcast.mock;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+import com.umkc.bcast.BroadcastBuilder;
+import com.umkc.bcast.data.Broadcast;
+import com.umkc.bcast.data.mock.MockDataBlockFactory;
+import com.umkc.bcast.sim.CandidateBuilder;
+import com.umkc.bcast.sim.ParameterTuner;
+import com.umkc.bcast.sim.TuningCandidate;
+import com.umkc.bcast.sim.TuningResult;
+import com.umkc.bcast.util.FlatBroadcastBuilder;
+
+/**
+ * This test class sweeps the exponential factor and bucket size for a flat bcast, and checks that the
+ * parallel sweep matches the sequential one and that the Pareto front really is the set of candidates
+ * nothing else beats.
+ *
+ * @author ac010168
+ *
+ */
+public class TestParameterTuner {
+
+  /**
+   * Sweep a small grid, including a bucket size that doesn't fit the data.
+   */
+  @Test
+  public void testParetoFront() {
+    System.out.println ("**********  testParetoFront()  **********");
+    CandidateBuilder candidateBuilder = new CandidateBuilder() {
+      @Override
+      public Broadcast buildCandidate(int exponentialFactor, int bucketSize) {
+        BroadcastBuilder builder = new FlatBroadcastBuilder(exponentialFactor, bucketSize, false);
+        builder.setUseKeyDictionary(true);
+        builder.assignDataBlocks(MockDataBlockFactory.generateSortedBlocks("FLAT", 1200));
+        builder.constructGlobalIndices();
+        return builder.assembleBroadcast();
+      }
+    };
+    int[] exponentialFactors = {2, 3, 4};
+    int[] bucketSizes        = {4, 7, 10, 40, 100, 200, 400};
+
+    ParameterTuner tuner = new ParameterTuner(candidateBuilder, exponentialFactors, bucketSizes);
+    long startTime = System.nanoTime();
+    TuningResult sequentialResult = tuner.tune();
+    long sequentialNanos = System.nanoTime() - startTime;
+
+    ForkJoinPool tuningPool = new ForkJoinPool(Math.max(2, Runtime.getRuntime().availableProcessors()));
+    tuner.setTuningPool(tuningPool);
+    startTime = System.nanoTime();
+    TuningResult parallelResult = tuner.tune();
+    long parallelNanos = System.nanoTime() - startTime;
+    tuningPool.shutdown();
+
+    System.out.println (parallelResult);
+    System.out.println ("Sequential: " + (sequentialNanos / 1000000) + "ms  Parallel: " + (parallelNanos / 1000000) + "ms");
+
+    List<TuningCandidate> candidates = parallelResult.getCandidates();
+    assertEquals("Every pair should be tried", exponentialFactors.length * bucketSizes.length, candidates.size());
+    for (int candidatePos = 0; candidatePos < candidates.size(); candidatePos++) {
+      TuningCandidate candidate = candidates.get(candidatePos);
+      TuningCandidate expected  = sequentialResult.getCandidates().get(candidatePos);
+      if (candidate.getBucketSize() == 7) {
+        assertFalse("A bucket size that doesn't fit should be rejected", candidate.isUsable());
+        assertNotNull("The reason should be kept", candidate.getFailureMessage());
+        continue;
+      }
+      assertTrue("Candidate should be usable: " + candidate, candidate.isUsable());
+      assertEquals("Parallel and sequential should match", expected.getExpectedTimes().getExpectedAccessTime(),
+          candidate.getExpectedTimes().getExpectedAccessTime(), 0.0);
+      assertEquals("Parallel and sequential should match", expected.getExpectedTimes().getExpectedTuningTime(),
+          candidate.getExpectedTimes().getExpectedTuningTime(), 0.0);
+    }
+
+    //Nothing on the front is dominated, and everything off it is
+    List<TuningCandidate> paretoFront = parallelResult.getParetoFront();
+    assertFalse("The front should not be empty", paretoFront.isEmpty());
+    for (TuningCandidate candidate : candidates) {
+      if (!candidate.isUsable())
+        continue;
+      boolean dominated = false;
+      for (TuningCandidate other : candidates) {
+        if (other.isUsable() && other.dominates(candidate))
+          dominated = true;
+      }
+      assertEquals("Only undominated candidates should be on the front: " + candidate, !dominated, paretoFront.contains(candidate));
+    }
+
+    assertSame("With no budget the lowest access time should win", paretoFront.get(0), parallelResult.chooseCandidate(Double.MAX_VALUE));
+    assertNull("Nothing fits a budget of 0 blocks", parallelResult.chooseCandidate(0));
+  }
+}
@@ -0,0 +1,178 @@
+package com.umkc.bcast.mock;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.umkc.bcast.data.Broadcast;
+import com.umkc.bcast.data.ClusterDictionary;
+import com.umkc.bcast.data.mock.MockDataBlockFactory;
+import com.umkc.bcast.sim.ExpectedTimeCalculator;
+import com.umkc.bcast.sim.ExpectedTimes;
+import com.umkc.bcast.sim.KeyDistribution;
+import com.umkc.bcast.util.ClusterSkewOptimizer;
+import com.umkc.bcast.util.SkewedClusteredBroadcastBuilder;
+
+/**
+ * This test class checks that the ClusterSkewOptimizer follows the square root rule, and that a bcast
+ * built from its cluster order really does have a lower expected access time than broadcasting every
+ * cluster once.
+ *
+ * @author ac010168
+ *
+ */
+public class TestSkewOptimizer {
+
+  /**
+   * Repeat counts should follow sqrt(p / l), as far as the repeats can be kept apart, and repeats should
+   * be spread through the cycle.
+   */
+  @Test
+  public void testSquareRootRule() {
+    System.out.println ("**********  testSquareRootRule()  **********");
+    ClusterSkewOptimizer optimizer = new ClusterSkewOptimizer(4);
+    optimizer.addCluster("A", 10);
+    optimizer.addCluster("B", 10);
+    optimizer.addCluster("C", 10);
+    optimizer.addAccessWeight("A", 0.64);
+    optimizer.addAccessWeight("B", 0.16);
+    optimizer.addAccessWeight("C", 0.04);
+
+    List<String> clusterOrder = optimizer.optimize();
+    System.out.println ("Order: " + clusterOrder + "  Repeats: " + optimizer.getRepeatCounts());
+    //The square root rule asks for 4, 2, 1, but four A's out of seven can't be kept apart
+    assertEquals("Repeats should follow the square root of the probabilities", Arrays.asList(3, 2, 1),
+        new ArrayList<Integer>(optimizer.getRepeatCounts().values()));
+    assertEquals("Repeats should be spread evenly", Arrays.asList("B", "A", "C", "A", "B", "A"), clusterOrder);
+    assertTrue("The optimized order should beat broadcasting once each",
+        optimizer.getExpectedWait(clusterOrder) < optimizer.getExpectedWait(Arrays.asList("A", "B", "C")));
+
+    //Equal popularity, but one cluster is four times the size, so it should be repeated half as often.
+    //A third cluster gives the small cluster's repeats something to be kept apart by.
+    optimizer = new ClusterSkewOptimizer(2);
+    optimizer.addCluster("BIG", 40);
+    optimizer.addCluster("SMALL", 10);
+    optimizer.addCluster("OTHER", 10);
+    optimizer.addAccessWeight("BIG", 1);
+    optimizer.addAccessWeight("SMALL", 1);
+    optimizer.addAccessWeight("OTHER", 1);
+    System.out.println ("Order: " + optimizer.optimize() + "  Repeats: " + optimizer.getRepeatCounts());
+    assertEquals("Larger clusters should be repeated less", 1, (int)optimizer.getRepeatCounts().get("BIG"));
+    assertEquals("Smaller clusters should be repeated more", 2, (int)optimizer.getRepeatCounts().get("SMALL"));
+  }
+
+  /**
+   * No cluster should ever be placed next to itself, including across the wrap from the end of the cycle
+   * back to the start, and the optimized order should never be worse than broadcasting each cluster once.
+   */
+  @Test
+  public void testRepeatsAreNeverBackToBack() {
+    System.out.println ("**********  testRepeatsAreNeverBackToBack()  **********");
+    //The square root rule asks for three A's and one B, which can only be ordered A, B, A, A
+    ClusterSkewOptimizer optimizer = new ClusterSkewOptimizer(3);
+    optimizer.addCluster("A", 10);
+    optimizer.addCluster("B", 10);
+    optimizer.addAccessWeight("A", 0.9);
+    optimizer.addAccessWeight("B", 0.1);
+    List<String> clusterOrder = optimizer.optimize();
+    System.out.println ("Order: " + clusterOrder + "  Repeats: " + optimizer.getRepeatCounts());
+    assertNoBackToBack(clusterOrder);
+
+    Random random = new Random(2022);
+    for (int trialCtr = 0; trialCtr < 200; trialCtr++) {
+      optimizer = new ClusterSkewOptimizer(1 + random.nextInt(5));
+      List<String> onceEach = new ArrayList<String>();
+      int clusterCount = 2 + random.nextInt(5);
+      for (int clusterPos = 0; clusterPos < clusterCount; clusterPos++) {
+        String clusterGroup = "C" + clusterPos;
+        onceEach.add(clusterGroup);
+        optimizer.addCluster(clusterGroup, 1 + random.nextInt(40));
+        optimizer.addAccessWeight(clusterGroup, random.nextDouble() * random.nextDouble());
+      }
+
+      clusterOrder = optimizer.optimize();
+      assertNoBackToBack(clusterOrder);
+      assertTrue("The optimized order " + clusterOrder + " should not be worse than broadcasting once each",
+          optimizer.getExpectedWait(clusterOrder) <= optimizer.getExpectedWait(onceEach) + 1e-9);
+    }
+  }
+
+  /**
+   * Build a skewed bcast from the optimized order, and compare its expected access time under the same
+   * access probabilities against a bcast with every cluster once.
+   */
+  @Test
+  public void testOptimizedOrderLowersAccessTime() {
+    System.out.println ("**********  testOptimizedOrderLowersAccessTime()  **********");
+    String[] clusterNames    = {"ALPHA", "BETA", "GAMMA", "DELTA"};
+    int[] clusterSizes       = {200, 300, 100, 400};
+    Map<String, Double> weights = new LinkedHashMap<String, Double>();
+    weights.put("ALPHA", 0.6);
+    weights.put("BETA",  0.25);
+    weights.put("GAMMA", 0.1);
+    weights.put("DELTA", 0.05);
+
+    SkewedClusteredBroadcastBuilder builder = buildSkewed(clusterNames, clusterSizes);
+    List<String> optimizedOrder = builder.optimizeClusterOrder(weights, 4);
+    builder.constructGlobalIndices();
+    ExpectedTimes optimizedTimes = calculate(builder.assembleBroadcast(), clusterNames, clusterSizes, weights);
+
+    builder = buildSkewed(clusterNames, clusterSizes);
+    builder.addClusterKeys(Arrays.asList(clusterNames));
+    builder.constructGlobalIndices();
+    ExpectedTimes plainTimes = calculate(builder.assembleBroadcast(), clusterNames, clusterSizes, weights);
+
+    System.out.println ("Optimized order: " + optimizedOrder);
+    System.out.println ("Optimized: " + optimizedTimes);
+    System.out.println ("Plain:     " + plainTimes);
+    assertTrue("The popular cluster should be repeated", optimizedOrder.size() > clusterNames.length);
+    assertEquals("Every key should still be found", 0.0, optimizedTimes.getFailureRate(), 0.0);
+    assertTrue("The optimized order should lower the expected access time",
+        optimizedTimes.getExpectedAccessTime() < plainTimes.getExpectedAccessTime());
+  }
+
+  /**
+   * Helper method to check that no cluster appears next to itself, counting the wrap.
+   */
+  private void assertNoBackToBack(List<String> clusterOrder) {
+    for (int orderPos = 0; orderPos < clusterOrder.size(); orderPos++) {
+      String nextGroup = clusterOrder.get((orderPos + 1) % clusterOrder.size());
+      assertFalse("Cluster " + nextGroup + " should not be back to back in " + clusterOrder,
+          (clusterOrder.size() > 1) && clusterOrder.get(orderPos).equals(nextGroup));
+    }
+  }
+
+  /**
+   * Helper method to assign the data for each cluster to a new skewed builder.
+   */
+  private SkewedClusteredBroadcastBuilder buildSkewed(String[] clusterNames, int[] clusterSizes) {
+    SkewedClusteredBroadcastBuilder builder = new SkewedClusteredBroadcastBuilder(2, 10, false);
+    for (int clusterPos = 0; clusterPos < clusterNames.length; clusterPos++)
+      builder.assignDataBlocks(MockDataBlockFactory.generateSortedBlocks(clusterNames[clusterPos], clusterSizes[clusterPos]));
+    return builder;
+  }
+
+  /**
+   * Helper method to work out the expected times with each cluster's weight shared evenly among its keys.
+   */
+  private ExpectedTimes calculate(Broadcast broadcast, String[] clusterNames, int[] clusterSizes, Map<String, Double> weights) {
+    ClusterDictionary clusterDictionary = broadcast.getClusterDictionary();
+    final double[] keyWeights = new double[clusterDictionary.getClusterCount()];
+    for (int clusterPos = 0; clusterPos < clusterNames.length; clusterPos++)
+      keyWeights[clusterDictionary.getClusterId(clusterNames[clusterPos])] = weights.get(clusterNames[clusterPos]) / clusterSizes[clusterPos];
+
+    return new ExpectedTimeCalculator(broadcast).calculate(new KeyDistribution() {
+      @Override
+      public double getWeight(int clusterId, int keyOrdinal) {
+        return keyWeights[clusterId];
+      }
+    });
+  }
+}